@@ -0,0 +1,64 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.binding;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+/**
+ * Writes instances of a class into JsonDpObject and reads them back. The 
+ * implementations are generated by JsonDpBindingProcessor for the classes
+ * annotated with JsonDpBound and do not use reflection.
+ * 
+ * @author Dr. Paolo Ciccarese
+ * @see JsonDpBinders
+ */
+public interface JsonDpBinder<T> {
+
+	/**
+	 * Returns the bound class.
+	 * @return The bound class.
+	 */
+	Class<T> getType();
+	
+	/**
+	 * Creates a JsonDpObject holding the bound fields of an instance.
+	 * @param source	The instance
+	 * @return The new JsonDpObject
+	 */
+	JsonDpObject toJsonDp(T source);
+	
+	/**
+	 * Writes the bound fields of an instance into an existing JsonDpObject,
+	 * each with the provenance of its source.
+	 * @param source	The instance
+	 * @param target	The JsonDpObject
+	 */
+	void write(T source, JsonDpObject target);
+	
+	/**
+	 * Creates an instance from a JsonDpObject. When a key has several 
+	 * values, the one chosen by the resolution policy of the object is used.
+	 * @param source	The JsonDpObject
+	 * @return The new instance
+	 * @throws IllegalArgumentException if a value cannot be converted to the field type.
+	 */
+	T read(JsonDpObject source);
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.binding;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Locates the generated binders and binds collections of instances to
+ * JsonDpArray.
+ * 
+ * <p>
+ * The generated binders can be used directly (PersonJsonDpBinder.INSTANCE).
+ * get(Class) locates them by name the first time a class is requested and 
+ * caches them: binding itself never uses reflection.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public final class JsonDpBinders {
+
+	/**
+	 * Suffix of the generated binder classes.
+	 */
+	public static final String SUFFIX = "JsonDpBinder";
+	
+	private static final ConcurrentHashMap<Class<?>, JsonDpBinder<?>> binders = new ConcurrentHashMap<Class<?>, JsonDpBinder<?>>();
+	
+	private JsonDpBinders() {}
+	
+	/**
+	 * Returns the generated binder of a class.
+	 * @param type	The JsonDpBound class
+	 * @return The binder
+	 * @throws IllegalArgumentException if no binder has been generated for the class.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> JsonDpBinder<T> get(Class<T> type) {
+		if(type==null) throw new IllegalArgumentException("The type cannot be null");
+		JsonDpBinder<?> binder = binders.get(type);
+		if(binder==null) {
+			binder = locate(type);
+			JsonDpBinder<?> existing = binders.putIfAbsent(type, binder);
+			if(existing!=null) binder = existing;
+		}
+		return (JsonDpBinder<T>) binder;
+	}
+	
+	/**
+	 * Registers a binder, replacing the generated one (if any).
+	 * @param binder	The binder
+	 */
+	public static <T> void register(JsonDpBinder<T> binder) {
+		if(binder==null) throw new IllegalArgumentException("The binder cannot be null");
+		binders.put(binder.getType(), binder);
+	}
+	
+	/**
+	 * Returns the name of the binder generated for a class.
+	 * @param type	The class
+	 * @return The binder class name.
+	 */
+	public static String binderName(Class<?> type) {
+		String name = type.getName();
+		int dot = name.lastIndexOf('.');
+		return name.substring(0, dot+1) + name.substring(dot+1).replace('$', '_') + SUFFIX;
+	}
+	
+	private static JsonDpBinder<?> locate(Class<?> type) {
+		try {
+			Class<?> binderClass = Class.forName(binderName(type), true, type.getClassLoader());
+			return (JsonDpBinder<?>) binderClass.getField("INSTANCE").get(null);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("No binder has been generated for " + type.getName() + 
+				". Is the class annotated with @JsonDpBound and the annotation processor enabled?", e);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Invalid binder for " + type.getName(), e);
+		}
+	}
+	
+	/**
+	 * Creates a JsonDpArray holding one JsonDpObject per instance.
+	 * @param binder	The binder
+	 * @param sources	The instances
+	 * @return The new JsonDpArray
+	 */
+	public static <T> JsonDpArray toJsonDpArray(JsonDpBinder<T> binder, Iterable<? extends T> sources) {
+		JsonDpArray array = new JsonDpArray();
+		for(T source: sources) {
+			if(source!=null) array.add(binder.toJsonDp(source));
+		}
+		return array;
+	}
+	
+	/**
+	 * Reads one instance per item of a JsonDpArray.
+	 * @param binder	The binder
+	 * @param source	The array of JsonDpObject
+	 * @return The instances, in order
+	 * @throws IllegalArgumentException if an item is not a JsonDpObject.
+	 */
+	public static <T> List<T> readAll(JsonDpBinder<T> binder, JsonDpArray source) {
+		List<T> instances = new ArrayList<T>(source.size());
+		for(int i=0; i<source.size(); i++) {
+			instances.add(binder.read(JsonDpBinding.asObject(source.get(i))));
+		}
+		return instances;
+	}
+}
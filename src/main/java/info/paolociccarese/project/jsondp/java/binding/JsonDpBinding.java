@@ -0,0 +1,155 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.binding;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Conversions used by the generated binders. Scalar values are stored as
+ * Strings and are read back from Strings or, when parsed from JSON, from 
+ * Numbers and Booleans.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public final class JsonDpBinding {
+
+	private JsonDpBinding() {}
+	
+	/**
+	 * Puts a value with its provenance, if any. Null values are skipped.
+	 * @param target		The JsonDpObject
+	 * @param key			The key
+	 * @param value			The value or null
+	 * @param provenance	The provenance or null
+	 */
+	public static void put(JsonDpObject target, String key, Object value, JSONObject provenance) {
+		if(value==null) return;
+		if(provenance==null || provenance.isEmpty()) target.put(key, value);
+		else target.put(key, value, provenance);
+	}
+	
+	/**
+	 * Adds an item to an array. Null items are skipped.
+	 * @param target	The JsonDpArray
+	 * @param value		The item or null
+	 */
+	public static void add(JsonDpArray target, Object value) {
+		if(value!=null) target.add(value);
+	}
+	
+	public static String text(Object value) {
+		return value==null ? null : value.toString();
+	}
+	
+	public static String name(Enum<?> value) {
+		return value==null ? null : value.name();
+	}
+	
+	public static String asString(Object value) {
+		if(value instanceof String) return (String) value;
+		if(value instanceof Number || value instanceof Boolean) return value.toString();
+		throw mismatch(value, "String");
+	}
+	
+	public static int asInt(Object value) {
+		if(value instanceof Number) return ((Number) value).intValue();
+		return Integer.parseInt(asString(value));
+	}
+	
+	public static long asLong(Object value) {
+		if(value instanceof Number) return ((Number) value).longValue();
+		return Long.parseLong(asString(value));
+	}
+	
+	public static short asShort(Object value) {
+		if(value instanceof Number) return ((Number) value).shortValue();
+		return Short.parseShort(asString(value));
+	}
+	
+	public static byte asByte(Object value) {
+		if(value instanceof Number) return ((Number) value).byteValue();
+		return Byte.parseByte(asString(value));
+	}
+	
+	public static double asDouble(Object value) {
+		if(value instanceof Number) return ((Number) value).doubleValue();
+		return Double.parseDouble(asString(value));
+	}
+	
+	public static float asFloat(Object value) {
+		if(value instanceof Number) return ((Number) value).floatValue();
+		return Float.parseFloat(asString(value));
+	}
+	
+	public static boolean asBoolean(Object value) {
+		if(value instanceof Boolean) return ((Boolean) value).booleanValue();
+		String text = asString(value);
+		if("true".equals(text)) return true;
+		if("false".equals(text)) return false;
+		throw mismatch(value, "boolean");
+	}
+	
+	public static char asChar(Object value) {
+		String text = asString(value);
+		if(text.length()!=1) throw mismatch(value, "char");
+		return text.charAt(0);
+	}
+	
+	public static JsonDpObject asObject(Object value) {
+		if(value instanceof JsonDpObject) return (JsonDpObject) value;
+		throw mismatch(value, "JsonDpObject");
+	}
+	
+	/**
+	 * Returns a value as JsonDpArray. Plain JSON arrays (such as an empty
+	 * array read back by JsonDpParser) are converted.
+	 * @param value	The value
+	 * @return The JsonDpArray
+	 */
+	public static JsonDpArray asArray(Object value) {
+		if(value instanceof JsonDpArray) return (JsonDpArray) value;
+		if(value instanceof JSONArray) {
+			JsonDpArray array = new JsonDpArray();
+			for(Object item: (JSONArray) value) add(array, item);
+			return array;
+		}
+		throw mismatch(value, "JsonDpArray");
+	}
+	
+	public static JSONObject asJSONObject(Object value) {
+		if(value instanceof JSONObject) return (JSONObject) value;
+		throw mismatch(value, "JSONObject");
+	}
+	
+	public static JSONArray asJSONArray(Object value) {
+		if(value instanceof JSONArray) return (JSONArray) value;
+		throw mismatch(value, "JSONArray");
+	}
+	
+	private static IllegalArgumentException mismatch(Object value, String type) {
+		return new IllegalArgumentException("Cannot convert " + 
+			(value==null ? "null" : value.getClass().getName() + " " + value) + " to " + type);
+	}
+}
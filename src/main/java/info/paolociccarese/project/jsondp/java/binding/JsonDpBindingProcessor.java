@@ -0,0 +1,456 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.binding;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor generating a JsonDpBinder for each class annotated
+ * with JsonDpBound. The generated binders access the fields directly (or 
+ * through their getter and setter when private) with straight-line code.
+ * 
+ * <p>
+ * The processor is registered through META-INF/services: it runs whenever
+ * this library is on the compiler (processor) path.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ * @see JsonDpField
+ * @see JsonDpProvenance
+ */
+@SupportedAnnotationTypes("info.paolociccarese.project.jsondp.java.binding.JsonDpBound")
+public class JsonDpBindingProcessor extends AbstractProcessor {
+
+	private static final String BINDING = "info.paolociccarese.project.jsondp.java.binding.";
+	private static final String CORE = "info.paolociccarese.project.jsondp.java.core.";
+	private static final String JSON = "org.json.simple.";
+	
+	private static final String JSON_DP_OBJECT = CORE + "JsonDpObject";
+	private static final String JSON_DP_ARRAY = CORE + "JsonDpArray";
+	private static final String JSON_OBJECT = JSON + "JSONObject";
+	private static final String JSON_ARRAY = JSON + "JSONArray";
+	private static final String SUPPORT = BINDING + "JsonDpBinding";
+	
+	private Elements elements;
+	private Types types;
+	
+	private enum Kind { STRING, PRIMITIVE, BOXED, ENUM, BOUND, JSON_DP_OBJECT, JSON_DP_ARRAY, JSON_OBJECT, JSON_ARRAY, LIST, SET }
+	
+	/**
+	 * The bound type of a field (or of the items of a collection field).
+	 */
+	private static class ValueType {
+		final Kind kind;
+		final String name;
+		TypeKind primitive;
+		String binder;
+		ValueType item;
+		
+		ValueType(Kind kind, String name) {
+			this.kind = kind;
+			this.name = name;
+		}
+	}
+	
+	/**
+	 * A bound field with the expressions reading and assigning it.
+	 */
+	private static class Property {
+		String key;
+		ValueType type;
+		String getter;
+		String setter;
+		boolean direct;
+		String provenance;
+		
+		String assign(String expression) {
+			return direct ? setter + " = " + expression + ";" : setter + "(" + expression + ");";
+		}
+	}
+	
+	private static class BindingException extends Exception {
+		private static final long serialVersionUID = 1L;
+		final Element element;
+		
+		BindingException(Element element, String message) {
+			super(message);
+			this.element = element;
+		}
+	}
+	
+	@Override
+	public synchronized void init(ProcessingEnvironment environment) {
+		super.init(environment);
+		elements = environment.getElementUtils();
+		types = environment.getTypeUtils();
+	}
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for(Element element: round.getElementsAnnotatedWith(JsonDpBound.class)) {
+			try {
+				if(element.getKind()!=ElementKind.CLASS) 
+					throw new BindingException(element, "@JsonDpBound can only be applied to classes");
+				generate((TypeElement) element);
+			} catch (BindingException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, 
+					"Unable to write the binder: " + e.getMessage(), element);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the simple name of the binder of a type: the names of the 
+	 * enclosing types and of the type joined by '_', plus the suffix.
+	 */
+	private String binderSimpleName(TypeElement type) {
+		String name = type.getSimpleName().toString();
+		Element enclosing = type.getEnclosingElement();
+		while(enclosing instanceof TypeElement) {
+			name = enclosing.getSimpleName() + "_" + name;
+			enclosing = enclosing.getEnclosingElement();
+		}
+		return name + JsonDpBinders.SUFFIX;
+	}
+	
+	private String binderName(TypeElement type) {
+		PackageElement pkg = elements.getPackageOf(type);
+		return pkg.isUnnamed() ? binderSimpleName(type) : pkg.getQualifiedName() + "." + binderSimpleName(type);
+	}
+	
+	private void generate(TypeElement type) throws BindingException, IOException {
+		PackageElement pkg = elements.getPackageOf(type);
+		check(type, pkg);
+		
+		// Provenance sources and fields, superclasses first
+		List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+		for(TypeElement t = type; t!=null; t = superclass(t)) hierarchy.add(0, t);
+		Map<String, String> sources = new LinkedHashMap<String, String>();
+		for(TypeElement t: hierarchy) collectSources(t, pkg, sources);
+		Map<String, String> sourceVariables = new LinkedHashMap<String, String>();
+		for(String name: sources.keySet()) sourceVariables.put(name, "provenance" + sourceVariables.size());
+		List<Property> properties = new ArrayList<Property>();
+		for(TypeElement t: hierarchy) collectProperties(type, t, pkg, sourceVariables, properties);
+		
+		String typeName = type.getQualifiedName().toString();
+		String binder = binderSimpleName(type);
+		StringBuilder out = new StringBuilder();
+		if(!pkg.isUnnamed()) out.append("package ").append(pkg.getQualifiedName()).append(";\n\n");
+		out.append("/**\n * Binder of ").append(typeName).append(" generated by JsonDpBindingProcessor. Do not edit.\n */\n");
+		out.append("public final class ").append(binder).append(" implements ").append(BINDING).append("JsonDpBinder<")
+			.append(typeName).append("> {\n\n");
+		out.append("\tpublic static final ").append(binder).append(" INSTANCE = new ").append(binder).append("();\n\n");
+		out.append("\tpublic static ").append(JSON_DP_OBJECT).append(" bind(").append(typeName).append(" source) {\n");
+		out.append("\t\treturn source==null ? null : INSTANCE.toJsonDp(source);\n\t}\n\n");
+		out.append("\tpublic Class<").append(typeName).append("> getType() {\n\t\treturn ").append(typeName).append(".class;\n\t}\n\n");
+		out.append("\tpublic ").append(JSON_DP_OBJECT).append(" toJsonDp(").append(typeName).append(" source) {\n");
+		out.append("\t\t").append(JSON_DP_OBJECT).append(" target = new ").append(JSON_DP_OBJECT).append("();\n");
+		out.append("\t\twrite(source, target);\n\t\treturn target;\n\t}\n\n");
+		
+		out.append("\tpublic void write(").append(typeName).append(" source, ").append(JSON_DP_OBJECT).append(" target) {\n");
+		out.append("\t\tif(source==null) throw new IllegalArgumentException(\"The source cannot be null\");\n");
+		out.append("\t\tif(target==null) throw new IllegalArgumentException(\"The target cannot be null\");\n");
+		for(Map.Entry<String, String> source: sources.entrySet()) {
+			out.append("\t\t").append(JSON_OBJECT).append(' ').append(sourceVariables.get(source.getKey()))
+				.append(" = ").append(source.getValue()).append(";\n");
+		}
+		for(Property property: properties) writeProperty(out, property);
+		out.append("\t}\n\n");
+		
+		out.append("\tpublic ").append(typeName).append(" read(").append(JSON_DP_OBJECT).append(" source) {\n");
+		out.append("\t\tif(source==null) throw new IllegalArgumentException(\"The source cannot be null\");\n");
+		out.append("\t\t").append(typeName).append(" target = new ").append(typeName).append("();\n");
+		if(!properties.isEmpty()) out.append("\t\tObject value;\n");
+		for(Property property: properties) readProperty(out, property);
+		out.append("\t\treturn target;\n\t}\n}\n");
+		
+		Writer writer = processingEnv.getFiler().createSourceFile(binderName(type), type).openWriter();
+		try {
+			writer.write(out.toString());
+		} finally {
+			writer.close();
+		}
+	}
+	
+	private void check(TypeElement type, PackageElement pkg) throws BindingException {
+		if(type.getModifiers().contains(Modifier.ABSTRACT)) 
+			throw new BindingException(type, "@JsonDpBound classes cannot be abstract");
+		if(!type.getTypeParameters().isEmpty()) 
+			throw new BindingException(type, "@JsonDpBound classes cannot be generic");
+		for(Element t = type; t instanceof TypeElement; t = t.getEnclosingElement()) {
+			TypeElement te = (TypeElement) t;
+			if(te.getNestingKind()!=NestingKind.TOP_LEVEL && te.getNestingKind()!=NestingKind.MEMBER)
+				throw new BindingException(type, "@JsonDpBound classes cannot be local or anonymous");
+			if(te.getModifiers().contains(Modifier.PRIVATE))
+				throw new BindingException(type, "@JsonDpBound classes (and their enclosing classes) cannot be private");
+			if(te.getNestingKind()==NestingKind.MEMBER && te.getKind()==ElementKind.CLASS && !te.getModifiers().contains(Modifier.STATIC))
+				throw new BindingException(type, "Nested @JsonDpBound classes must be static");
+		}
+		for(ExecutableElement constructor: ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if(constructor.getParameters().isEmpty() && accessible(constructor, pkg)) return;
+		}
+		throw new BindingException(type, "@JsonDpBound classes must have a non-private no-argument constructor");
+	}
+	
+	private TypeElement superclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if(superclass.getKind()!=TypeKind.DECLARED) return null;
+		TypeElement element = (TypeElement) types.asElement(superclass);
+		return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+	}
+	
+	private boolean accessible(Element member, PackageElement pkg) {
+		Set<Modifier> modifiers = member.getModifiers();
+		if(modifiers.contains(Modifier.PUBLIC)) return true;
+		if(modifiers.contains(Modifier.PRIVATE)) return false;
+		return elements.getPackageOf(member).equals(pkg);
+	}
+	
+	private void collectSources(TypeElement type, PackageElement pkg, Map<String, String> sources) throws BindingException {
+		TypeMirror jsonObject = elements.getTypeElement(JSON_OBJECT).asType();
+		for(Element member: type.getEnclosedElements()) {
+			JsonDpProvenance annotation = member.getAnnotation(JsonDpProvenance.class);
+			if(annotation==null) continue;
+			String expression;
+			if(member.getKind()==ElementKind.FIELD) {
+				if(!types.isAssignable(member.asType(), jsonObject))
+					throw new BindingException(member, "@JsonDpProvenance fields must be JSONObject");
+				expression = "source." + member.getSimpleName();
+			} else {
+				ExecutableElement method = (ExecutableElement) member;
+				if(!method.getParameters().isEmpty() || !types.isAssignable(method.getReturnType(), jsonObject))
+					throw new BindingException(member, "@JsonDpProvenance methods must have no parameters and return a JSONObject");
+				expression = "source." + member.getSimpleName() + "()";
+			}
+			if(member.getModifiers().contains(Modifier.STATIC) || !accessible(member, pkg))
+				throw new BindingException(member, "@JsonDpProvenance members must be non-static and non-private");
+			if(sources.containsKey(annotation.value()))
+				throw new BindingException(member, "Duplicate provenance source '" + annotation.value() + "'");
+			sources.put(annotation.value(), expression);
+		}
+	}
+	
+	private void collectProperties(TypeElement bound, TypeElement type, PackageElement pkg, 
+			Map<String, String> sourceVariables, List<Property> properties) throws BindingException {
+		for(VariableElement field: ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			JsonDpField annotation = field.getAnnotation(JsonDpField.class);
+			if(annotation==null) continue;
+			if(field.getModifiers().contains(Modifier.STATIC))
+				throw new BindingException(field, "@JsonDpField cannot be applied to static fields");
+			Property property = new Property();
+			String name = field.getSimpleName().toString();
+			property.key = annotation.value().isEmpty() ? name : annotation.value();
+			property.type = analyze(field.asType(), field, true);
+			if(annotation.provenance().isEmpty()) {
+				property.provenance = sourceVariables.containsKey("") ? sourceVariables.get("") : "null";
+			} else if(sourceVariables.containsKey(annotation.provenance())) {
+				property.provenance = sourceVariables.get(annotation.provenance());
+			} else throw new BindingException(field, "Unknown provenance source '" + annotation.provenance() + "'");
+			
+			boolean direct = accessible(field, pkg);
+			if(direct && !field.getModifiers().contains(Modifier.FINAL)) {
+				property.getter = "source." + name;
+				property.setter = "target." + name;
+				property.direct = true;
+			} else {
+				String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+				ExecutableElement getter = direct ? null : accessor(bound, pkg, field, "get" + capitalized, "is" + capitalized);
+				ExecutableElement setter = accessor(bound, pkg, field, "set" + capitalized);
+				if(!direct && getter==null) 
+					throw new BindingException(field, "Private @JsonDpField " + name + " requires a getter");
+				if(setter==null) 
+					throw new BindingException(field, "@JsonDpField " + name + " requires a setter (or must be non-private and non-final)");
+				property.getter = direct ? "source." + name : "source." + getter.getSimpleName() + "()";
+				property.setter = "target." + setter.getSimpleName();
+			}
+			properties.add(property);
+		}
+	}
+	
+	/**
+	 * Finds an accessible getter (no parameters, returning the field type) 
+	 * or setter (one parameter of the field type) with one of the names.
+	 */
+	private ExecutableElement accessor(TypeElement bound, PackageElement pkg, VariableElement field, String... names) {
+		for(ExecutableElement method: ElementFilter.methodsIn(elements.getAllMembers(bound))) {
+			if(method.getModifiers().contains(Modifier.STATIC) || !accessible(method, pkg)) continue;
+			boolean named = false;
+			for(String name: names) named |= method.getSimpleName().contentEquals(name);
+			if(!named) continue;
+			if(names[0].startsWith("set")) {
+				if(method.getParameters().size()==1 && types.isSameType(method.getParameters().get(0).asType(), field.asType())) return method;
+			} else if(method.getParameters().isEmpty() && types.isSameType(method.getReturnType(), field.asType())) return method;
+		}
+		return null;
+	}
+	
+	private ValueType analyze(TypeMirror type, Element field, boolean allowCollection) throws BindingException {
+		if(type.getKind().isPrimitive()) {
+			ValueType value = new ValueType(Kind.PRIMITIVE, type.toString());
+			value.primitive = type.getKind();
+			return value;
+		}
+		if(type.getKind()==TypeKind.DECLARED) {
+			TypeElement element = (TypeElement) types.asElement(type);
+			String name = element.getQualifiedName().toString();
+			if(name.equals("java.lang.String")) return new ValueType(Kind.STRING, name);
+			try {
+				TypeMirror unboxed = types.unboxedType(type);
+				ValueType value = new ValueType(Kind.BOXED, name);
+				value.primitive = unboxed.getKind();
+				return value;
+			} catch (IllegalArgumentException e) {
+				// Not a primitive wrapper
+			}
+			if(element.getKind()==ElementKind.ENUM) return new ValueType(Kind.ENUM, name);
+			if(element.getAnnotation(JsonDpBound.class)!=null) {
+				ValueType value = new ValueType(Kind.BOUND, name);
+				value.binder = binderName(element);
+				return value;
+			}
+			if(name.equals(JSON_DP_OBJECT)) return new ValueType(Kind.JSON_DP_OBJECT, name);
+			if(name.equals(JSON_DP_ARRAY)) return new ValueType(Kind.JSON_DP_ARRAY, name);
+			if(name.equals(JSON_OBJECT)) return new ValueType(Kind.JSON_OBJECT, name);
+			if(name.equals(JSON_ARRAY)) return new ValueType(Kind.JSON_ARRAY, name);
+			
+			Kind collection = null;
+			if(name.equals("java.util.List") || name.equals("java.util.Collection") 
+				|| name.equals("java.util.ArrayList") || name.equals("java.lang.Iterable")) collection = Kind.LIST;
+			if(name.equals("java.util.Set") || name.equals("java.util.LinkedHashSet")) collection = Kind.SET;
+			List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+			if(collection!=null && allowCollection && arguments.size()==1 && arguments.get(0).getKind()==TypeKind.DECLARED) {
+				ValueType value = new ValueType(collection, type.toString());
+				value.item = analyze(arguments.get(0), field, false);
+				return value;
+			}
+		}
+		throw new BindingException(field, "Unsupported @JsonDpField type " + type);
+	}
+	
+	private String toJson(ValueType type, String expression) {
+		switch(type.kind) {
+			case PRIMITIVE: return "String.valueOf(" + expression + ")";
+			case BOXED: return SUPPORT + ".text(" + expression + ")";
+			case ENUM: return SUPPORT + ".name(" + expression + ")";
+			case BOUND: return type.binder + ".bind(" + expression + ")";
+			default: return expression;
+		}
+	}
+	
+	private String fromJson(ValueType type, String expression) {
+		switch(type.kind) {
+			case STRING: return SUPPORT + ".asString(" + expression + ")";
+			case PRIMITIVE: 
+			case BOXED: return SUPPORT + "." + conversion(type.primitive) + "(" + expression + ")";
+			case ENUM: return type.name + ".valueOf(" + SUPPORT + ".asString(" + expression + "))";
+			case BOUND: return type.binder + ".INSTANCE.read(" + SUPPORT + ".asObject(" + expression + "))";
+			case JSON_DP_OBJECT: return SUPPORT + ".asObject(" + expression + ")";
+			case JSON_DP_ARRAY: return SUPPORT + ".asArray(" + expression + ")";
+			case JSON_OBJECT: return SUPPORT + ".asJSONObject(" + expression + ")";
+			case JSON_ARRAY: return SUPPORT + ".asJSONArray(" + expression + ")";
+			default: throw new IllegalStateException("Unexpected type " + type.kind);
+		}
+	}
+	
+	private String conversion(TypeKind primitive) {
+		switch(primitive) {
+			case INT: return "asInt";
+			case LONG: return "asLong";
+			case SHORT: return "asShort";
+			case BYTE: return "asByte";
+			case DOUBLE: return "asDouble";
+			case FLOAT: return "asFloat";
+			case BOOLEAN: return "asBoolean";
+			case CHAR: return "asChar";
+			default: throw new IllegalStateException("Unexpected primitive " + primitive);
+		}
+	}
+	
+	private void writeProperty(StringBuilder out, Property property) {
+		String key = elements.getConstantExpression(property.key);
+		if(property.type.kind==Kind.LIST || property.type.kind==Kind.SET) {
+			out.append("\t\t{\n");
+			out.append("\t\t\t").append(property.type.name).append(" items = ").append(property.getter).append(";\n");
+			out.append("\t\t\tif(items!=null) {\n");
+			out.append("\t\t\t\t").append(JSON_DP_ARRAY).append(" array = new ").append(JSON_DP_ARRAY).append("();\n");
+			out.append("\t\t\t\tfor(").append(property.type.item.name).append(" item: items) ").append(SUPPORT)
+				.append(".add(array, ").append(toJson(property.type.item, "item")).append(");\n");
+			out.append("\t\t\t\t").append(SUPPORT).append(".put(target, ").append(key).append(", array, ")
+				.append(property.provenance).append(");\n");
+			out.append("\t\t\t}\n\t\t}\n");
+		} else {
+			out.append("\t\t").append(SUPPORT).append(".put(target, ").append(key).append(", ")
+				.append(toJson(property.type, property.getter)).append(", ").append(property.provenance).append(");\n");
+		}
+	}
+	
+	private void readProperty(StringBuilder out, Property property) {
+		out.append("\t\tvalue = source.getResolved(").append(elements.getConstantExpression(property.key)).append(");\n");
+		if(property.type.kind==Kind.LIST || property.type.kind==Kind.SET) {
+			String collection = (property.type.kind==Kind.LIST ? "java.util.ArrayList<" : "java.util.LinkedHashSet<") 
+				+ property.type.item.name + ">";
+			out.append("\t\tif(value!=null) {\n");
+			out.append("\t\t\t").append(JSON_DP_ARRAY).append(" array = ").append(SUPPORT).append(".asArray(value);\n");
+			out.append("\t\t\t").append(collection).append(" items = new ").append(collection).append("(array.size());\n");
+			out.append("\t\t\tfor(int i=0; i<array.size(); i++) items.add(")
+				.append(fromJson(property.type.item, "array.get(i)")).append(");\n");
+			out.append("\t\t\t").append(property.assign("items")).append("\n");
+			out.append("\t\t}\n");
+		} else {
+			out.append("\t\tif(value!=null) ").append(property.assign(fromJson(property.type, "value"))).append("\n");
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class for which JsonDpBindingProcessor generates, at compile 
+ * time, a JsonDpBinder named after the class (Person becomes 
+ * PersonJsonDpBinder, Person.Address becomes Person_AddressJsonDpBinder)
+ * in the same package.
+ * 
+ * <p>
+ * The class must be concrete, not generic, static when nested and must 
+ * have a non-private no-argument constructor. Only the fields annotated 
+ * with JsonDpField are bound.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonDpBound {
+}
@@ -0,0 +1,58 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field of a JsonDpBound class to a key of the JsonDpObject.
+ * 
+ * <p>
+ * Supported types are String, the primitive types and their wrappers 
+ * (stored as Strings), enums (stored by name), other JsonDpBound classes 
+ * (stored as nested JsonDpObject), JSON and JSON-DP values (stored as 
+ * they are) and List, Set or Collection of any of these (stored as 
+ * JsonDpArray). Private fields are accessed through their getter and 
+ * setter. Null values are not written.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface JsonDpField {
+
+	/**
+	 * The key of the field (the field name when empty).
+	 */
+	String value() default "";
+	
+	/**
+	 * The name of the JsonDpProvenance source of the field values (the 
+	 * unnamed source, if any, when empty).
+	 */
+	String provenance() default "";
+}
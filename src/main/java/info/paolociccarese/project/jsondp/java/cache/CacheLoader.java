@@ -0,0 +1,40 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.cache;
+
+import java.io.IOException;
+
+/**
+ * Loads a document that is not present in the cache, for instance
+ * by reading it from a JsonDpStore or by parsing it.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public interface CacheLoader<V> {
+
+	/**
+	 * Loads the document with the given id.
+	 * @param id	The document id
+	 * @return The document or null if it does not exist.
+	 * @throws IOException if the document could not be loaded.
+	 */
+	public V load(String id) throws IOException;
+}
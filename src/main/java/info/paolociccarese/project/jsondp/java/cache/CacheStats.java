@@ -0,0 +1,82 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.cache;
+
+/**
+ * Immutable snapshot of the statistics of a JsonDpCache.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class CacheStats {
+
+	private final long hitCount;
+	private final long missCount;
+	private final long loadSuccessCount;
+	private final long loadFailureCount;
+	private final long totalLoadTime;
+	private final long evictionCount;
+	private final long evictionWeight;
+	
+	CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+			long totalLoadTime, long evictionCount, long evictionWeight) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.loadSuccessCount = loadSuccessCount;
+		this.loadFailureCount = loadFailureCount;
+		this.totalLoadTime = totalLoadTime;
+		this.evictionCount = evictionCount;
+		this.evictionWeight = evictionWeight;
+	}
+	
+	public long getHitCount() { return hitCount; }
+	
+	public long getMissCount() { return missCount; }
+	
+	public long getLoadSuccessCount() { return loadSuccessCount; }
+	
+	public long getLoadFailureCount() { return loadFailureCount; }
+	
+	/**
+	 * Returns the time spent loading documents.
+	 * @return The total load time in nanoseconds.
+	 */
+	public long getTotalLoadTime() { return totalLoadTime; }
+	
+	public long getEvictionCount() { return evictionCount; }
+	
+	public long getEvictionWeight() { return evictionWeight; }
+	
+	/**
+	 * Returns the ratio of requests that were served from the cache.
+	 * @return The hit rate, 1 if no request has been made.
+	 */
+	public double hitRate() {
+		long requests = hitCount + missCount;
+		return requests==0 ? 1.0 : (double) hitCount / requests;
+	}
+	
+	@Override
+	public String toString() {
+		return "CacheStats[hits=" + hitCount + ", misses=" + missCount + ", loads=" + loadSuccessCount + 
+			", loadFailures=" + loadFailureCount + ", evictions=" + evictionCount + 
+			", evictionWeight=" + evictionWeight + "]";
+	}
+}
@@ -0,0 +1,370 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.cache;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpAware;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of built JSON-DP documents keyed by document id.
+ * 
+ * <p>
+ * The cache is bounded by the total weight (estimated retained size) of 
+ * the documents and evicts with a segmented LRU policy: new documents enter
+ * a probation segment and are promoted to a protected segment when accessed
+ * again, so that a scan of one-off documents cannot flush the hot ones.
+ * </p>
+ * 
+ * <p>
+ * Misses are delegated to a CacheLoader. Concurrent requests for the same 
+ * missing id share a single load. A load overtaken by a put or an 
+ * invalidation of its id still returns the document but does not cache it.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpCache<V extends JsonDpAware> {
+
+	/**
+	 * Share of the maximum weight reserved to the protected segment.
+	 */
+	private static final double PROTECTED_RATIO = 0.8;
+	
+	private final long maximumWeight;
+	private final long maximumProtectedWeight;
+	private final Weigher<? super V> weigher;
+	private final CacheLoader<? extends V> loader;
+	
+	// Both segments are in LRU order (eldest first) and guarded by 'this'
+	private final LinkedHashMap<String, Entry<V>> probation = new LinkedHashMap<String, Entry<V>>();
+	private final LinkedHashMap<String, Entry<V>> protectedSegment = new LinkedHashMap<String, Entry<V>>();
+	private long probationWeight;
+	private long protectedWeight;
+	
+	private final ConcurrentHashMap<String, Load<V>> loading = new ConcurrentHashMap<String, Load<V>>();
+	
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong loadSuccessCount = new AtomicLong();
+	private final AtomicLong loadFailureCount = new AtomicLong();
+	private final AtomicLong totalLoadTime = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong evictionWeight = new AtomicLong();
+	
+	/**
+	 * Creates a cache weighing the documents by their estimated retained 
+	 * size in bytes.
+	 * @param maximumWeight	The maximum total weight
+	 * @param loader		The loader used on misses
+	 */
+	public JsonDpCache(long maximumWeight, CacheLoader<? extends V> loader) {
+		this(maximumWeight, new RetainedSizeWeigher(), loader);
+	}
+	
+	/**
+	 * Creates a cache.
+	 * @param maximumWeight	The maximum total weight
+	 * @param weigher		The weigher of the documents
+	 * @param loader		The loader used on misses
+	 */
+	public JsonDpCache(long maximumWeight, Weigher<? super V> weigher, CacheLoader<? extends V> loader) {
+		if(maximumWeight<=0) throw new IllegalArgumentException("The maximum weight must be positive");
+		if(weigher==null) throw new IllegalArgumentException("The weigher cannot be null");
+		if(loader==null) throw new IllegalArgumentException("The loader cannot be null");
+		this.maximumWeight = maximumWeight;
+		this.maximumProtectedWeight = (long) (maximumWeight * PROTECTED_RATIO);
+		this.weigher = weigher;
+		this.loader = loader;
+	}
+	
+	/**
+	 * Returns the document with the given id, loading it if necessary.
+	 * @param id	The document id
+	 * @return The document or null if the loader could not find it.
+	 * @throws IOException if the document could not be loaded.
+	 */
+	public V get(String id) throws IOException {
+		V document = lookup(id);
+		if(document!=null) {
+			hitCount.incrementAndGet();
+			return document;
+		}
+		missCount.incrementAndGet();
+		
+		Load<V> load = new Load<V>();
+		Load<V> running = loading.putIfAbsent(id, load);
+		if(running!=null) return await(running.future);
+		try {
+			// The document may have been loaded while acquiring the slot
+			document = lookup(id);
+			if(document==null) document = load(id, load);
+			load.future.complete(document);
+			return document;
+		} catch (IOException e) {
+			load.future.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			load.future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(id, load);
+		}
+	}
+	
+	private V load(String id, Load<V> load) throws IOException {
+		long start = System.nanoTime();
+		V document;
+		try {
+			document = loader.load(id);
+		} catch (IOException e) {
+			loadFailureCount.incrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			loadFailureCount.incrementAndGet();
+			throw e;
+		} finally {
+			totalLoadTime.addAndGet(System.nanoTime() - start);
+		}
+		loadSuccessCount.incrementAndGet();
+		if(document==null) return document;
+		long weight = weigh(id, document);
+		synchronized(this) {
+			// A put or an invalidation during the load makes the document stale
+			if(load.generation==0) insert(id, document, weight);
+		}
+		return document;
+	}
+	
+	private V await(CompletableFuture<V> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the document to be loaded", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns the document with the given id if it is cached.
+	 * @param id	The document id
+	 * @return The cached document or null.
+	 */
+	public V getIfPresent(String id) {
+		V document = lookup(id);
+		if(document!=null) hitCount.incrementAndGet();
+		else missCount.incrementAndGet();
+		return document;
+	}
+	
+	private synchronized V lookup(String id) {
+		Entry<V> entry = protectedSegment.remove(id);
+		if(entry!=null) {
+			protectedSegment.put(id, entry);
+			return entry.document;
+		}
+		entry = probation.remove(id);
+		if(entry==null) return null;
+		probationWeight -= entry.weight;
+		promote(id, entry);
+		return entry.document;
+	}
+	
+	/**
+	 * Adds or replaces a document. Documents heavier than the whole 
+	 * cache are not retained.
+	 * @param id		The document id
+	 * @param document	The document
+	 */
+	public void put(String id, V document) {
+		if(document==null) throw new IllegalArgumentException("The document cannot be null");
+		long weight = weigh(id, document);
+		synchronized(this) {
+			overtake(id);
+			insert(id, document, weight);
+		}
+	}
+	
+	/**
+	 * Weighs a document outside the lock, as weighing can be expensive.
+	 */
+	private long weigh(String id, V document) {
+		long weight = weigher.weigh(id, document);
+		if(weight<0) throw new IllegalArgumentException("Negative weight for document " + id);
+		return weight;
+	}
+	
+	private void insert(String id, V document, long weight) {
+		remove(id);
+		if(weight > maximumWeight) return;
+		Entry<V> entry = new Entry<V>(document, weight);
+		probation.put(id, entry);
+		probationWeight += weight;
+		evict(entry);
+	}
+	
+	/**
+	 * Removes a document from the cache.
+	 * @param id	The document id
+	 */
+	public synchronized void invalidate(String id) {
+		overtake(id);
+		remove(id);
+	}
+	
+	/**
+	 * Removes all the documents from the cache.
+	 */
+	public synchronized void invalidateAll() {
+		for(Load<V> load: loading.values()) {
+			load.generation++;
+		}
+		probation.clear();
+		protectedSegment.clear();
+		probationWeight = 0;
+		protectedWeight = 0;
+	}
+	
+	/**
+	 * Bumps the generation of the load in flight for the id, if any.
+	 */
+	private void overtake(String id) {
+		Load<V> load = loading.get(id);
+		if(load!=null) load.generation++;
+	}
+	
+	private void remove(String id) {
+		Entry<V> entry = probation.remove(id);
+		if(entry!=null) probationWeight -= entry.weight;
+		entry = protectedSegment.remove(id);
+		if(entry!=null) protectedWeight -= entry.weight;
+	}
+	
+	private void promote(String id, Entry<V> entry) {
+		protectedSegment.put(id, entry);
+		protectedWeight += entry.weight;
+		// Demote the least recently used protected documents back to probation
+		Iterator<Map.Entry<String, Entry<V>>> it = protectedSegment.entrySet().iterator();
+		while(protectedWeight > maximumProtectedWeight && it.hasNext()) {
+			Map.Entry<String, Entry<V>> eldest = it.next();
+			if(eldest.getValue()==entry) break;
+			it.remove();
+			protectedWeight -= eldest.getValue().weight;
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationWeight += eldest.getValue().weight;
+		}
+	}
+	
+	/**
+	 * Evicts the least recently used probation documents first, sparing 
+	 * the one just added, then the protected ones.
+	 */
+	private void evict(Entry<V> added) {
+		evict(probation, true, added);
+		evict(protectedSegment, false, null);
+		evict(probation, true, null);
+	}
+	
+	private void evict(LinkedHashMap<String, Entry<V>> segment, boolean isProbation, Entry<V> spared) {
+		Iterator<Entry<V>> it = segment.values().iterator();
+		while(probationWeight + protectedWeight > maximumWeight && it.hasNext()) {
+			Entry<V> eldest = it.next();
+			if(eldest==spared) break;
+			it.remove();
+			if(isProbation) probationWeight -= eldest.weight;
+			else protectedWeight -= eldest.weight;
+			evictionCount.incrementAndGet();
+			evictionWeight.addAndGet(eldest.weight);
+		}
+	}
+	
+	/**
+	 * Returns the number of cached documents.
+	 * @return The number of documents.
+	 */
+	public synchronized int size() {
+		return probation.size() + protectedSegment.size();
+	}
+	
+	/**
+	 * Returns the total weight of the cached documents.
+	 * @return The weighted size.
+	 */
+	public synchronized long weightedSize() {
+		return probationWeight + protectedWeight;
+	}
+	
+	/**
+	 * Returns a snapshot of the cache statistics.
+	 * @return The statistics.
+	 */
+	public CacheStats stats() {
+		return new CacheStats(hitCount.get(), missCount.get(), loadSuccessCount.get(), 
+			loadFailureCount.get(), totalLoadTime.get(), evictionCount.get(), evictionWeight.get());
+	}
+	
+	/**
+	 * A load in flight, shared by the concurrent requests for its id. The 
+	 * generation counts the puts and invalidations of the id since the 
+	 * load started and is guarded by the cache.
+	 */
+	private static class Load<V> {
+		final CompletableFuture<V> future = new CompletableFuture<V>();
+		long generation;
+	}
+	
+	private static class Entry<V> {
+		final V document;
+		final long weight;
+		
+		Entry(V document, long weight) {
+			this.document = document;
+			this.weight = weight;
+		}
+	}
+	
+	/**
+	 * Default weigher: the estimated retained size of JsonDpObject and 
+	 * JsonDpArray documents (plus the id), two bytes per character of the 
+	 * serialization with provenance for any other document.
+	 */
+	static class RetainedSizeWeigher implements Weigher<JsonDpAware> {
+		public long weigh(String id, JsonDpAware document) {
+			long idBytes = 40L + id.length();
+			if(document instanceof JsonDpObject) return idBytes + ((JsonDpObject) document).estimatedRetainedBytes();
+			if(document instanceof JsonDpArray) return idBytes + ((JsonDpArray) document).estimatedRetainedBytes();
+			return 2L * (id.length() + document.plainJsonWithProvenanceToString().length());
+		}
+	}
+}
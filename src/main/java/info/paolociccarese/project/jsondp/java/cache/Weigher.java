@@ -0,0 +1,37 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.cache;
+
+/**
+ * Computes the weight (estimated retained size in bytes) of a cached document.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public interface Weigher<V> {
+
+	/**
+	 * Returns the weight of the document.
+	 * @param id		The document id
+	 * @param document	The document
+	 * @return The weight of the document, never negative.
+	 */
+	public long weigh(String id, V document);
+}
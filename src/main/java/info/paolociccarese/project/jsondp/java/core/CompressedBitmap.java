@@ -0,0 +1,528 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints (document ids), organized as in 
+ * Roaring bitmaps: the values are grouped by their upper 16 bits and each
+ * group is stored as a sorted array of the lower 16 bits while it has at 
+ * most 4096 values, as a 65536-bit bitmap beyond. Sparse sets take two 
+ * bytes per value, dense sets one bit.
+ * 
+ * <p>
+ * Bitmaps are read-only for the users: and, or and andNot return new 
+ * bitmaps. They are filled by the indexes of this package, which hand out
+ * snapshots sharing the containers: every change made for an index carries
+ * its current epoch, and a container of an earlier epoch (possibly shared 
+ * with a snapshot) is copied before it is changed, once per epoch.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public final class CompressedBitmap {
+
+	private static final int ARRAY_LIMIT = 4096;
+	
+	private char[] keys;
+	private Container[] containers;
+	private int size;
+	
+	public CompressedBitmap() {
+		this(4);
+	}
+	
+	private CompressedBitmap(int capacity) {
+		keys = new char[capacity];
+		containers = new Container[capacity];
+	}
+	
+	/**
+	 * Creates a bitmap holding the given values.
+	 * @param values	The non-negative values
+	 * @return The bitmap.
+	 */
+	public static CompressedBitmap of(int... values) {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for(int value: values) bitmap.add(value);
+		return bitmap;
+	}
+	
+	private int index(char key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+	
+	private void append(char key, Container container) {
+		if(size==keys.length) {
+			keys = Arrays.copyOf(keys, size*2);
+			containers = Arrays.copyOf(containers, size*2);
+		}
+		keys[size] = key;
+		containers[size++] = container;
+	}
+	
+	void add(int value) {
+		add(value, 0);
+	}
+	
+	/**
+	 * Adds a value, copying its container first if it belongs to an 
+	 * earlier epoch.
+	 * @param value	The non-negative value
+	 * @param epoch	The epoch of the change
+	 */
+	void add(int value, long epoch) {
+		if(value<0) throw new IllegalArgumentException("Only non-negative values are allowed");
+		char high = (char) (value >>> 16);
+		int i = index(high);
+		if(i>=0) {
+			if(containers[i].contains((char) value)) return;
+			containers[i] = owned(containers[i], epoch).add((char) value);
+			containers[i].epoch = epoch;
+			return;
+		}
+		i = -i-1;
+		append(high, null);
+		System.arraycopy(keys, i, keys, i+1, size-i-1);
+		System.arraycopy(containers, i, containers, i+1, size-i-1);
+		keys[i] = high;
+		containers[i] = new ArrayContainer(new char[] { (char) value }, 1);
+		containers[i].epoch = epoch;
+	}
+	
+	void remove(int value) {
+		remove(value, 0);
+	}
+	
+	/**
+	 * Removes a value, copying its container first if it belongs to an 
+	 * earlier epoch.
+	 * @param value	The value
+	 * @param epoch	The epoch of the change
+	 */
+	void remove(int value, long epoch) {
+		if(value<0) return;
+		int i = index((char) (value >>> 16));
+		if(i<0 || !containers[i].contains((char) value)) return;
+		if(containers[i].cardinality()>1) {
+			containers[i] = owned(containers[i], epoch).remove((char) value);
+			containers[i].epoch = epoch;
+			return;
+		}
+		System.arraycopy(keys, i+1, keys, i, size-i-1);
+		System.arraycopy(containers, i+1, containers, i, size-i-1);
+		containers[--size] = null;
+	}
+	
+	private static Container owned(Container container, long epoch) {
+		if(container.epoch==epoch) return container;
+		Container copy = container.copy();
+		copy.epoch = epoch;
+		return copy;
+	}
+	
+	/**
+	 * Returns a snapshot of the bitmap sharing its containers, which must
+	 * then only be changed with a later epoch.
+	 * @return The snapshot.
+	 */
+	CompressedBitmap snapshot() {
+		CompressedBitmap snapshot = new CompressedBitmap(0);
+		snapshot.keys = Arrays.copyOf(keys, Math.max(1, size));
+		snapshot.containers = Arrays.copyOf(containers, Math.max(1, size));
+		snapshot.size = size;
+		return snapshot;
+	}
+	
+	/**
+	 * Returns true if the value is in the set.
+	 * @param value	The value
+	 * @return True if the value is present.
+	 */
+	public boolean contains(int value) {
+		if(value<0) return false;
+		int i = index((char) (value >>> 16));
+		return i>=0 && containers[i].contains((char) value);
+	}
+	
+	/**
+	 * Returns the number of values in the set.
+	 * @return The cardinality.
+	 */
+	public int getCardinality() {
+		int cardinality = 0;
+		for(int i=0; i<size; i++) cardinality += containers[i].cardinality();
+		return cardinality;
+	}
+	
+	public boolean isEmpty() {
+		return size==0;
+	}
+	
+	/**
+	 * Returns the intersection of this set and another one.
+	 * @param other	The other set
+	 * @return The new bitmap.
+	 */
+	public CompressedBitmap and(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap(Math.max(1, Math.min(size, other.size)));
+		int i = 0, j = 0;
+		while(i<size && j<other.size) {
+			if(keys[i]<other.keys[j]) i++;
+			else if(keys[i]>other.keys[j]) j++;
+			else {
+				Container container = containers[i].and(other.containers[j]);
+				if(container.cardinality()>0) result.append(keys[i], container);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the union of this set and another one.
+	 * @param other	The other set
+	 * @return The new bitmap.
+	 */
+	public CompressedBitmap or(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap(Math.max(1, size + other.size));
+		int i = 0, j = 0;
+		while(i<size || j<other.size) {
+			if(j==other.size || (i<size && keys[i]<other.keys[j])) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if(i==size || keys[i]>other.keys[j]) {
+				result.append(other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.append(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the values of this set that are not in another one.
+	 * @param other	The other set
+	 * @return The new bitmap.
+	 */
+	public CompressedBitmap andNot(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap(Math.max(1, size));
+		int j = 0;
+		for(int i=0; i<size; i++) {
+			while(j<other.size && other.keys[j]<keys[i]) j++;
+			Container container = j<other.size && other.keys[j]==keys[i] 
+				? containers[i].andNot(other.containers[j]) : containers[i].copy();
+			if(container.cardinality()>0) result.append(keys[i], container);
+		}
+		return result;
+	}
+	
+	/**
+	 * Visits the values in increasing order.
+	 * @param visitor	The visitor
+	 */
+	public void forEach(IntConsumer visitor) {
+		for(int i=0; i<size; i++) containers[i].forEach(keys[i] << 16, visitor);
+	}
+	
+	/**
+	 * Returns the values in increasing order.
+	 * @return The values.
+	 */
+	public int[] toArray() {
+		final int[] values = new int[getCardinality()];
+		forEach(new IntConsumer() {
+			int position;
+			public void accept(int value) {
+				values[position++] = value;
+			}
+		});
+		return values;
+	}
+	
+	/**
+	 * Returns the estimated memory taken by the bitmap.
+	 * @return The size in bytes.
+	 */
+	public long estimatedBytes() {
+		long bytes = 16 + 16 + 2L*keys.length + 16 + 4L*containers.length;
+		for(int i=0; i<size; i++) bytes += containers[i].bytes();
+		return bytes;
+	}
+	
+	CompressedBitmap copy() {
+		CompressedBitmap copy = new CompressedBitmap(Math.max(1, size));
+		for(int i=0; i<size; i++) copy.append(keys[i], containers[i].copy());
+		return copy;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(!(obj instanceof CompressedBitmap)) return false;
+		return Arrays.equals(toArray(), ((CompressedBitmap) obj).toArray());
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+	
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+	
+	private static abstract class Container {
+		/**
+		 * The epoch in which the container has been created or copied by
+		 * its bitmap: only then it is not shared with a snapshot.
+		 */
+		long epoch;
+		
+		abstract Container add(char value);
+		abstract Container remove(char value);
+		abstract boolean contains(char value);
+		abstract int cardinality();
+		abstract Container and(Container other);
+		abstract Container or(Container other);
+		abstract Container andNot(Container other);
+		abstract void forEach(int high, IntConsumer visitor);
+		abstract Container copy();
+		abstract long bytes();
+	}
+	
+	private static final class ArrayContainer extends Container {
+		char[] values;
+		int cardinality;
+		
+		ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+		
+		Container add(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if(i>=0) return this;
+			if(cardinality==ARRAY_LIMIT) return toBitmap().add(value);
+			i = -i-1;
+			if(cardinality==values.length) values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, cardinality*2)));
+			System.arraycopy(values, i, values, i+1, cardinality-i);
+			values[i] = value;
+			cardinality++;
+			return this;
+		}
+		
+		Container remove(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if(i<0) return this;
+			System.arraycopy(values, i+1, values, i, cardinality-i-1);
+			cardinality--;
+			return this;
+		}
+		
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value)>=0;
+		}
+		
+		int cardinality() {
+			return cardinality;
+		}
+		
+		Container and(Container other) {
+			char[] result = new char[cardinality];
+			int count = 0;
+			if(other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				int i = 0, j = 0;
+				while(i<cardinality && j<array.cardinality) {
+					if(values[i]<array.values[j]) i++;
+					else if(values[i]>array.values[j]) j++;
+					else {
+						result[count++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for(int i=0; i<cardinality; i++) {
+					if(other.contains(values[i])) result[count++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, count);
+		}
+		
+		Container or(Container other) {
+			if(other instanceof BitmapContainer) return other.or(this);
+			ArrayContainer array = (ArrayContainer) other;
+			char[] result = new char[cardinality + array.cardinality];
+			int i = 0, j = 0, count = 0;
+			while(i<cardinality || j<array.cardinality) {
+				if(j==array.cardinality || (i<cardinality && values[i]<array.values[j])) result[count++] = values[i++];
+				else if(i==cardinality || values[i]>array.values[j]) result[count++] = array.values[j++];
+				else {
+					result[count++] = values[i++];
+					j++;
+				}
+			}
+			ArrayContainer union = new ArrayContainer(result, count);
+			return count>ARRAY_LIMIT ? union.toBitmap() : union;
+		}
+		
+		Container andNot(Container other) {
+			char[] result = new char[cardinality];
+			int count = 0;
+			for(int i=0; i<cardinality; i++) {
+				if(!other.contains(values[i])) result[count++] = values[i];
+			}
+			return new ArrayContainer(result, count);
+		}
+		
+		void forEach(int high, IntConsumer visitor) {
+			for(int i=0; i<cardinality; i++) visitor.accept(high | values[i]);
+		}
+		
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+		}
+		
+		long bytes() {
+			return 16 + 16 + 2L*values.length;
+		}
+		
+		BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer();
+			for(int i=0; i<cardinality; i++) bitmap.add(values[i]);
+			return bitmap;
+		}
+	}
+	
+	private static final class BitmapContainer extends Container {
+		final long[] words;
+		int cardinality;
+		
+		BitmapContainer() {
+			this(new long[1024]);
+		}
+		
+		BitmapContainer(long[] words) {
+			this.words = words;
+			for(long word: words) cardinality += Long.bitCount(word);
+		}
+		
+		Container add(char value) {
+			long bit = 1L << value;
+			if((words[value >>> 6] & bit)==0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+		
+		Container remove(char value) {
+			long bit = 1L << value;
+			if((words[value >>> 6] & bit)!=0) {
+				words[value >>> 6] &= ~bit;
+				cardinality--;
+			}
+			return cardinality<=ARRAY_LIMIT ? toArray() : this;
+		}
+		
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value))!=0;
+		}
+		
+		int cardinality() {
+			return cardinality;
+		}
+		
+		Container and(Container other) {
+			if(other instanceof ArrayContainer) return other.and(this);
+			long[] result = new long[1024];
+			long[] otherWords = ((BitmapContainer) other).words;
+			for(int i=0; i<1024; i++) result[i] = words[i] & otherWords[i];
+			return new BitmapContainer(result).normalize();
+		}
+		
+		Container or(Container other) {
+			long[] result = words.clone();
+			if(other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for(int i=0; i<array.cardinality; i++) result[array.values[i] >>> 6] |= 1L << array.values[i];
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				for(int i=0; i<1024; i++) result[i] |= otherWords[i];
+			}
+			return new BitmapContainer(result);
+		}
+		
+		Container andNot(Container other) {
+			long[] result = words.clone();
+			if(other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer) other;
+				for(int i=0; i<array.cardinality; i++) result[array.values[i] >>> 6] &= ~(1L << array.values[i]);
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				for(int i=0; i<1024; i++) result[i] &= ~otherWords[i];
+			}
+			return new BitmapContainer(result).normalize();
+		}
+		
+		void forEach(int high, IntConsumer visitor) {
+			for(int i=0; i<1024; i++) {
+				long word = words[i];
+				while(word!=0) {
+					visitor.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word-1;
+				}
+			}
+		}
+		
+		Container copy() {
+			return new BitmapContainer(words.clone());
+		}
+		
+		long bytes() {
+			return 16 + 16 + 8L*1024;
+		}
+		
+		Container normalize() {
+			return cardinality<=ARRAY_LIMIT ? toArray() : this;
+		}
+		
+		ArrayContainer toArray() {
+			final char[] values = new char[Math.max(1, cardinality)];
+			forEach(0, new IntConsumer() {
+				int position;
+				public void accept(int value) {
+					values[position++] = (char) value;
+				}
+			});
+			return new ArrayContainer(values, cardinality);
+		}
+	}
+}
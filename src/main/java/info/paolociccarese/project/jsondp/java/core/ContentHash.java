@@ -0,0 +1,100 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 64-bit content hashing of JSON-DP values. Strings are hashed with FNV-1a,
+ * maps are hashed independently of the order of their entries, lists and 
+ * JSON-DP fragments in order. JSON-DP documents contribute their cached 
+ * content hash.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+final class ContentHash {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	static final long NULL = 0x9e3779b97f4a7c15L;
+	
+	private ContentHash() {}
+	
+	/**
+	 * Final mixing step (from SplitMix64), spreading the bits of a hash.
+	 */
+	static long mix(long h) {
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+	
+	/**
+	 * Combines an ordered sequence of hashes.
+	 */
+	static long combine(long accumulator, long hash) {
+		return mix(accumulator * 31 + hash);
+	}
+	
+	static long hashString(String s) {
+		long h = FNV_OFFSET;
+		for(int i=0; i<s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return mix(h);
+	}
+	
+	/**
+	 * Hashes any value admitted in a JSON-DP document.
+	 */
+	static long hashValue(Object value) {
+		if(value==null) return NULL;
+		if(value instanceof String) return hashString((String) value);
+		if(value instanceof JsonDpObject) return ((JsonDpObject) value).contentHash();
+		if(value instanceof JsonDpArray) return ((JsonDpArray) value).contentHash();
+		if(value instanceof Map) return hashMap((Map<?, ?>) value);
+		if(value instanceof List) {
+			long h = 7;
+			List<?> list = (List<?>) value;
+			for(int i=0; i<list.size(); i++) {
+				h = combine(h, hashValue(list.get(i)));
+			}
+			return h;
+		}
+		// Numbers and booleans, tagged with their type
+		return combine(hashString(value.getClass().getName()), hashString(value.toString()));
+	}
+	
+	/**
+	 * Hashes a map independently of the iteration order of its entries.
+	 */
+	static long hashMap(Map<?, ?> map) {
+		if(map==null) return NULL;
+		long h = 3;
+		for(Map.Entry<?, ?> entry: map.entrySet()) {
+			h += mix(hashValue(entry.getKey()) * 31 + hashValue(entry.getValue()));
+		}
+		return mix(h);
+	}
+}
@@ -20,7 +20,15 @@
 */
 package info.paolociccarese.project.jsondp.java.core;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONAware;
@@ -100,24 +108,90 @@ import org.json.simple.JSONObject;
  *    ]
  * </code>
  * </pre>
+ * 
+ * <p>
+ * Like JsonDpObject, JsonDpArray is not thread-safe even when only read,
+ * since reads fill its caches (hash, summary, retained size, provenance 
+ * wrappers) and the lookup indexes: concurrent access must be serialized
+ * by the caller.
+ * </p>
+ * 
  * @author Dr. Paolo Ciccarese
  */
-public class JsonDpArray implements JsonDpAware {
+public class JsonDpArray extends JsonDpNode implements JsonDpAware {
 
 	private static final boolean COMPACT = true;
 	
 	ArrayList<JsonArrayObject> jsonArrayObjects = new ArrayList<JsonArrayObject>();
 	
+	/**
+	 * Position of the first item of each indexed group. The groups are 
+	 * indexed lazily, as they are appended, and indexed again from scratch
+	 * when the size of an indexed group changes.
+	 */
+	private int[] groupStarts = new int[0];
+	private int indexedGroups;
+	private int indexedItems;
+	
+	private long contentHash;
+	private long contentHashVersion = -1;
+	
+	private String timestampKey;
+	private TemporalIndex temporalIndex;
+	
+	private ProvenanceSummary provenanceSummary;
+	private long provenanceSummaryVersion;
+	
+	/**
+	 * Statistics of the groups, updated as they change.
+	 */
+	private final ProvenanceStatistics statistics = new ProvenanceStatistics();
+	
 	/**
 	 * Returns the total size of the array.
 	 * @return The size of the array
 	 */
 	public int size() {
-		int size=0;
-		for(JsonArrayObject jsonArrayObject:jsonArrayObjects) {
-			size += jsonArrayObject.size();
+		updateIndex();
+		return indexedItems;
+	}
+	
+	private void updateIndex() {
+		int groups = jsonArrayObjects.size();
+		if(indexedGroups==groups) return;
+		if(groupStarts.length<groups) {
+			groupStarts = Arrays.copyOf(groupStarts, Math.max(groups, groupStarts.length*2));
+		}
+		for(int g=indexedGroups; g<groups; g++) {
+			JsonArrayObject group = jsonArrayObjects.get(g);
+			groupStarts[g] = indexedItems;
+			group.indexed = true;
+			indexedItems += group.size();
+		}
+		indexedGroups = groups;
+	}
+	
+	private void invalidateIndex() {
+		indexedGroups = 0;
+		indexedItems = 0;
+	}
+	
+	/**
+	 * Returns the position of the group holding the item with the given 
+	 * index, by binary search over the group starts.
+	 */
+	private int groupOf(int index) {
+		updateIndex();
+		if(index<0 || index>=indexedItems) throw new IndexOutOfBoundsException("The requested index " + index + 
+			" does not exist as the total size of the array is " + indexedItems);
+		// Last group starting at or before the index (empty groups share the start of the next one)
+		int low = 0, high = indexedGroups-1;
+		while(low<high) {
+			int middle = (low+high+1) >>> 1;
+			if(groupStarts[middle]<=index) low = middle;
+			else high = middle-1;
 		}
-		return size;
+		return low;
 	}
 	
 	/**
@@ -127,9 +201,11 @@ public class JsonDpArray implements JsonDpAware {
 	 */
 	public void add(Object value) {
 		if(isValueAcceptable(value)) {
+			beforeMutation(value, null);
 			JsonArrayObject jsonArrayObject = new JsonArrayObject();
 			jsonArrayObject.add(value);
 			jsonArrayObjects.add(jsonArrayObject);
+			afterMutation();
 		} else throw new IllegalArgumentException("Only Strings, JSON and JSON-DP values are allowed." +
 			" Found " + value.getClass().getName());
 	}
@@ -142,12 +218,14 @@ public class JsonDpArray implements JsonDpAware {
 	 */
 	public void add(Object value, JSONObject provenance) {
 		if(isValueAcceptable(value)) {
+			beforeMutation(value, provenance);
 			JsonArrayObject jsonArrayObject = new JsonArrayObject();
 			jsonArrayObject.add(value);
 			for(Object k: provenance.keySet()) {
 				jsonArrayObject.putProvenance(k, provenance.get(k));
 			}
 			jsonArrayObjects.add(jsonArrayObject);
+			afterMutation();
 		} else throw new IllegalArgumentException("Only Strings, JSON and JSON-DP values are allowed." +
 				" Found " + value.getClass().getName());
 	}
@@ -169,16 +247,8 @@ public class JsonDpArray implements JsonDpAware {
 	 * @throws IndexOutOfBoundsException if the requested index exceeds the array size.
 	 */
 	public Object get(int index) {
-		int cursor = 0;
-		for(JsonArrayObject jsonArrayObject:jsonArrayObjects) {
-			if(jsonArrayObject.size()>0 && index>=(cursor+jsonArrayObject.size())) {
-				cursor = cursor + jsonArrayObject.size();
-			} else {
-				return jsonArrayObject.getItems().get(index-cursor);
-			}
-		}
-		return new IndexOutOfBoundsException("The requested index " + index + 
-				" does not exist as the total size of the array is " + size());
+		int group = groupOf(index);
+		return jsonArrayObjects.get(group).getItems().get(index-groupStarts[group]);
 	}
 	
 	/**
@@ -190,9 +260,19 @@ public class JsonDpArray implements JsonDpAware {
 	public void replace(int index, Object replacement) {
 		// TODO validate index
 		if(isValueAcceptable(replacement)) {
+			beforeMutation(replacement, null);
 			JsonArrayObject jsonArrayObject = new JsonArrayObject();
 			jsonArrayObject.add(replacement);
-			jsonArrayObjects.set(index, jsonArrayObject);
+			JsonArrayObject replaced = jsonArrayObjects.set(index, jsonArrayObject);
+			jsonArrayObject.temporalPosition = replaced.temporalPosition;
+			jsonArrayObject.timestampChanged();
+			for(Object item: replaced.getItems()) {
+				unlink(item);
+			}
+			fragmentBytes -= replaced.bytes;
+			statistics.fragment(replaced.size(), replaced.getProvenance(), -1);
+			invalidateIndex();
+			afterMutation();
 		} else throw new IllegalArgumentException("Only Strings, JSON and JSON-DP values are allowed." +
 				" Found " + replacement.getClass().getName());
 	}
@@ -204,20 +284,13 @@ public class JsonDpArray implements JsonDpAware {
 	 * @throws IndexOutOfBoundsException if the requested index exceeds the array size.
 	 */
 	public JSONArray getWithProvenanceAsPlainJson(int index) {
-		int cursor = 0;
-		for(JsonArrayObject jsonArrayObject:jsonArrayObjects) {
-			if(jsonArrayObject.size()>0 && index>=(cursor+jsonArrayObject.size())) {
-				cursor = cursor + jsonArrayObject.size();
-			} else {
-				JSONArray a = new JSONArray();
-				a.add(jsonArrayObject.getItems().get(index-cursor));
-				if(jsonArrayObject.getProvenance()!=null) 
-					a.add(jsonArrayObject.getProvenanceObject());
-				return a;
-			}
-		}
-		throw new IndexOutOfBoundsException("The requested index " + index + 
-				" does not exist as the total size of the array is " + size());
+		int group = groupOf(index);
+		JsonArrayObject jsonArrayObject = jsonArrayObjects.get(group);
+		JSONArray a = new JSONArray();
+		a.add(jsonArrayObject.getItems().get(index-groupStarts[group]));
+		if(jsonArrayObject.getProvenance()!=null) 
+			a.add(jsonArrayObject.getProvenanceObject());
+		return a;
 	}
 	
 	/**
@@ -228,14 +301,158 @@ public class JsonDpArray implements JsonDpAware {
 	 * @return The provenance data. 
 	 */
 	public Object getProvenance() {
-		JSONArray array = new JSONArray();
-		for(JsonArrayObject jsonObject: jsonArrayObjects) {
-			JSONObject p = jsonObject.getProvenance();
-			if(p!=null) array.add(p);
+		JSONObject first = null;
+		JSONArray array = null;
+		for(int i=0; i<jsonArrayObjects.size(); i++) {
+			JSONObject p = jsonArrayObjects.get(i).getProvenance();
+			if(p==null) continue;
+			if(first==null) {
+				first = p;
+			} else {
+				if(array==null) {
+					array = new JSONArray();
+					array.add(first);
+				}
+				array.add(p);
+			}
+		}
+		return array!=null ? array.toString() : first;
+	}
+	
+	/**
+	 * Returns the aggregated provenance of this array and of all the nested
+	 * documents. The summary is cached until this array, or a nested 
+	 * document, changes.
+	 * @return The provenance summary.
+	 */
+	public ProvenanceSummary getProvenanceSummary() {
+		if(!isProvenanceSummaryValid()) {
+			summarizeNestedDocuments();
+			ProvenanceSummary.Builder builder = new ProvenanceSummary.Builder();
+			for(int i=0; i<jsonArrayObjects.size(); i++) {
+				JsonArrayObject group = jsonArrayObjects.get(i);
+				builder.addFragment(group.getProvenance(), group.size());
+				if(group.nested) {
+					for(Object item: group.getItems()) {
+						builder.addNested(item);
+					}
+				}
+			}
+			provenanceSummary = builder.build();
+			provenanceSummaryVersion = version();
+		}
+		return provenanceSummary;
+	}
+	
+	/**
+	 * Returns a snapshot of the provenance statistics of the groups of this
+	 * array (nested documents are not included). The statistics are 
+	 * maintained on every add, so no group is visited.
+	 * @return The provenance statistics.
+	 */
+	public ProvenanceStatistics getProvenanceStatistics() {
+		return statistics.copy();
+	}
+	
+	/**
+	 * Returns the first item of the array without allocating any container.
+	 * @return The first item or null if the array is empty.
+	 */
+	public Object getFirst() {
+		for(int i=0; i<jsonArrayObjects.size(); i++) {
+			JsonArrayObject jsonArrayObject = jsonArrayObjects.get(i);
+			if(jsonArrayObject.size()>0) return jsonArrayObject.getItems().get(0);
+		}
+		return null;
+	}
+	
+	/**
+	 * Visits all the items in order together with their provenance data 
+	 * (null when absent), without allocating any container. The provenance 
+	 * object must not be modified.
+	 * @param visitor	The visitor receiving each item and its provenance
+	 */
+	public void forEachValue(BiConsumer<Object, JSONObject> visitor) {
+		for(int i=0; i<jsonArrayObjects.size(); i++) {
+			JsonArrayObject jsonArrayObject = jsonArrayObjects.get(i);
+			JSONArray items = jsonArrayObject.getItems();
+			for(int j=0; j<items.size(); j++) {
+				visitor.accept(items.get(j), jsonArrayObject.getProvenance());
+			}
+		}
+	}
+	
+	/**
+	 * Enables the temporal indexing of the groups of items by the timestamp found
+	 * in their provenance under the given key (null disables it).
+	 * @param timestampKey	The provenance key holding the timestamp
+	 */
+	public void setTimestampKey(String timestampKey) {
+		this.timestampKey = timestampKey;
+		temporalIndex = null;
+	}
+	
+	/**
+	 * Returns the provenance key used for the temporal indexing.
+	 * @return The timestamp key or null if temporal indexing is disabled.
+	 */
+	public String getTimestampKey() {
+		return timestampKey;
+	}
+	
+	/**
+	 * Returns what this array looked like at the given instant: a new 
+	 * JsonDpArray with the groups of items whose timestamp is not after the instant, 
+	 * in their original order. Groups without timestamp are left out.
+	 * @param instant	The instant
+	 * @return The array as of the given instant.
+	 * @throws IllegalStateException if no timestamp key has been set.
+	 */
+	public JsonDpArray asOf(Instant instant) {
+		return copy(temporalIndex().asOf(TemporalIndex.toEpochMillis(instant)));
+	}
+	
+	/**
+	 * Returns a new JsonDpArray with the groups of items whose timestamp is in 
+	 * the interval [from, to), in their original order. Groups without 
+	 * timestamp are left out.
+	 * @param from	The beginning of the interval (included)
+	 * @param to	The end of the interval (excluded)
+	 * @return The groups of items in the interval.
+	 * @throws IllegalStateException if no timestamp key has been set.
+	 */
+	public JsonDpArray between(Instant from, Instant to) {
+		return copy(temporalIndex().between(TemporalIndex.toEpochMillis(from), TemporalIndex.toEpochMillis(to)));
+	}
+	
+	/**
+	 * Returns the temporal index, after adding the groups appended since
+	 * the last query. Groups whose provenance changes update it directly.
+	 */
+	private TemporalIndex temporalIndex() {
+		if(timestampKey==null) throw new IllegalStateException("No timestamp key has been set");
+		if(temporalIndex==null) temporalIndex = new TemporalIndex(timestampKey);
+		for(int i=temporalIndex.size(); i<jsonArrayObjects.size(); i++) {
+			JsonArrayObject group = jsonArrayObjects.get(i);
+			group.temporalPosition = i;
+			temporalIndex.add(group.getProvenance());
 		}
-		if(array.size()==0) return null;
-		else if(array.size()==1) return array.get(0);
-		return array.toString();
+		return temporalIndex;
+	}
+	
+	private JsonDpArray copy(int[] positions) {
+		JsonDpArray copy = new JsonDpArray();
+		copy.timestampKey = timestampKey;
+		for(int position: positions) {
+			JsonArrayObject source = jsonArrayObjects.get(position);
+			JsonArrayObject group = copy.new JsonArrayObject();
+			for(Object item: source.getItems()) {
+				group.add(item);
+			}
+			if(source.getProvenance()!=null) group.setProvenance(source.getProvenance());
+			copy.jsonArrayObjects.add(group);
+		}
+		return copy;
 	}
 	
 	public boolean containsProvenance(Object key, Object value) {
@@ -262,11 +479,7 @@ public class JsonDpArray implements JsonDpAware {
 	 * @return JSON array of values with the provenance
 	 */
 	public JSONArray getAllValuesAndProvenanceAsPlainJson() {
-		JSONArray array = new JSONArray();
-		for(JsonArrayObject jsonArrayObject:jsonArrayObjects) {
-			array.add(jsonArrayObject.getItemsWithProvenance());
-		}
-		return array;
+		return (JSONArray) JsonTreeGenerator.toPlainJson(this, true);
 	}
 	
 	/**
@@ -274,7 +487,7 @@ public class JsonDpArray implements JsonDpAware {
 	 * @return The JSON array with all the values and provenance as a String.
 	 */
 	public String plainJsonWithProvenanceToString() {
-		return getAllValuesAndProvenanceAsPlainJson().toString();
+		return toJsonString(true);
 	}
 	
 	/**
@@ -282,7 +495,175 @@ public class JsonDpArray implements JsonDpAware {
 	 * @return The JSON array with all the values as a String.
 	 */
 	public String plainJsonToString() {
-		return getAllValuesAsPlainJson().toString();
+		return toJsonString(false);
+	}
+	
+	/**
+	 * Returns the canonical String representation of the data with the 
+	 * provenance. Equal content always produces the same String.
+	 * @return The canonical JSON array with all the values and provenance.
+	 */
+	public String canonicalJsonWithProvenanceToString() {
+		return toJsonString(true, true);
+	}
+	
+	/**
+	 * Returns the canonical String representation of the data without the 
+	 * provenance. Equal content always produces the same String.
+	 * @return The canonical JSON representation of the values.
+	 */
+	public String canonicalJsonToString() {
+		return toJsonString(false, true);
+	}
+	
+	private String toJsonString(boolean withProvenance) {
+		return toJsonString(withProvenance, false);
+	}
+	
+	private String toJsonString(boolean withProvenance, boolean canonical) {
+		StringWriter out = new StringWriter();
+		try {
+			if(canonical) writeCanonicalJson(out, withProvenance);
+			else writeJson(out, withProvenance);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error writing to a String", e);
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Writes the JSON representation of the data with the default codec.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void writeJson(Writer out, boolean withProvenance) throws IOException {
+		writeJson(out, withProvenance, JsonDpCodecs.getDefault());
+	}
+	
+	/**
+	 * Writes the JSON representation of the data with the given codec.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @param codec				The codec providing the JSON writer
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void writeJson(Writer out, boolean withProvenance, JsonDpCodec codec) throws IOException {
+		JsonGenerator generator = codec.createGenerator(out);
+		new JsonDpWriter(generator, withProvenance).writeArray(this);
+		generator.flush();
+	}
+	
+	/**
+	 * Returns a 64-bit hash of the items and provenance of this array.
+	 * Groups of items are hashed (and cached) one by one and combined in 
+	 * order, nested JSON-DP values contribute their own content hash. 
+	 * Plain JSON values and provenance objects are not supposed to be 
+	 * modified once added.
+	 * @return The content hash.
+	 */
+	public long contentHash() {
+		if(contentHashVersion!=version()) {
+			hashNestedDocuments();
+			long h = 13;
+			for(int i=0; i<jsonArrayObjects.size(); i++) {
+				h = ContentHash.combine(h, jsonArrayObjects.get(i).contentHash());
+			}
+			contentHash = h;
+			contentHashVersion = version();
+		}
+		return contentHash;
+	}
+	
+	/**
+	 * Returns an estimate of the heap retained by this array: groups,
+	 * json-simple containers, strings, provenance and nested documents. 
+	 * Nested documents shared by several items (e.g. interned) are counted
+	 * once. The estimate is maintained incrementally and cached until the 
+	 * next change.
+	 * @return The estimated retained size in bytes.
+	 */
+	public long estimatedRetainedBytes() {
+		return retainedBytes();
+	}
+	
+	/**
+	 * Sets the memory budget guarding the add and replace operations on 
+	 * this array (null removes it).
+	 * @param budget	The memory budget
+	 */
+	public void setMemoryBudget(MemoryBudget budget) {
+		memoryBudget(budget);
+	}
+	
+	/**
+	 * Returns the memory budget of this array.
+	 * @return The memory budget or null.
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget();
+	}
+	
+	long shallowBytes() {
+		return MemoryEstimator.NODE + MemoryEstimator.arrayList(jsonArrayObjects.size()) 
+			+ statistics.estimatedBytes();
+	}
+	
+	/**
+	 * Two JsonDpArray instances are equal when they hold the same items,
+	 * grouped with the same provenance, in the same order. Different 
+	 * content hashes are detected without visiting the content.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(!(obj instanceof JsonDpArray)) return false;
+		return contentEquals((JsonDpArray) obj);
+	}
+	
+	boolean isProvenanceSummaryValid() {
+		return provenanceSummary!=null && provenanceSummaryVersion==version();
+	}
+	
+	boolean isContentHashValid() {
+		return contentHashVersion==version();
+	}
+	
+	boolean fragmentsEqual(JsonDpNode node, ArrayDeque<JsonDpNode[]> pending) {
+		JsonDpArray other = (JsonDpArray) node;
+		if(jsonArrayObjects.size()!=other.jsonArrayObjects.size()) return false;
+		for(int i=0; i<jsonArrayObjects.size(); i++) {
+			JsonArrayObject a = jsonArrayObjects.get(i);
+			JsonArrayObject b = other.jsonArrayObjects.get(i);
+			if(a.items.size()!=b.items.size()) return false;
+			for(int j=0; j<a.items.size(); j++) {
+				if(!valuesEqual(a.items.get(j), b.items.get(j), pending)) return false;
+			}
+			if(a.provenanceObject==null ? b.provenanceObject!=null 
+					: !a.provenanceObject.equals(b.provenanceObject)) return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public int hashCode() {
+		long h = contentHash();
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	/**
+	 * Writes the canonical JSON representation of the data with the default 
+	 * codec: keys are sorted, provenance groups are deterministically ordered
+	 * and empty provenance is omitted, so that equal content is always 
+	 * written as the same bytes.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void writeCanonicalJson(Writer out, boolean withProvenance) throws IOException {
+		JsonGenerator generator = JsonDpCodecs.getDefault().createGenerator(out);
+		new JsonDpWriter(generator, withProvenance, true).writeArray(this);
+		generator.flush();
 	}
 	
 	@Override
@@ -298,8 +679,6 @@ public class JsonDpArray implements JsonDpAware {
 	 */
 	class JsonArrayObject {
 		
-		private static final String PROVENANCE = "@provenance";
-		
 		/**
 		 * Collects all the items with no provenance or with a given provenance
 		 */
@@ -310,6 +689,32 @@ public class JsonDpArray implements JsonDpAware {
 		 */
 		JSONObject provenanceObject;
 		
+		private long hash;
+		private boolean hashValid;
+		private boolean nested;
+		private boolean indexed;
+		
+		/**
+		 * The provenance wrapped in a read-only "@provenance" object, built 
+		 * on demand and dropped when the provenance changes. Its size is 
+		 * always reserved in the estimate.
+		 */
+		private volatile ProvenanceWrapper provenanceWrapper;
+		
+		/**
+		 * The position of the group in the temporal index, once added.
+		 */
+		private int temporalPosition = -1;
+		
+		private long valueBytes;
+		private long provenanceBytes;
+		private long bytes;
+		
+		{
+			resize();
+			statistics.fragment(0, null, 1);
+		}
+		
 		/**
 		 * Returns the number of value items for this array.
 		 * @return The number of value items.
@@ -333,6 +738,26 @@ public class JsonDpArray implements JsonDpAware {
 		 */
 		protected void add(Object item) {
 			items.add(item);
+			statistics.valueAdded(items.size()-1, provenanceObject);
+			if(indexed) invalidateIndex();
+			valueBytes += MemoryEstimator.value(item);
+			link(item);
+			if(item instanceof JsonDpNode) nested = true;
+			changed();
+		}
+		
+		/**
+		 * Replaces the item at the given position of this group.
+		 * @param index	The position of the item in the group
+		 * @param item	The replacement
+		 */
+		protected void set(int index, Object item) {
+			Object old = items.set(index, item);
+			valueBytes += MemoryEstimator.value(item) - MemoryEstimator.value(old);
+			unlink(old);
+			link(item);
+			if(item instanceof JsonDpNode) nested = true;
+			changed();
 		}
 		
 		// PROVENANCE
@@ -348,7 +773,13 @@ public class JsonDpArray implements JsonDpAware {
 			if(provenanceObject==null) {
 				provenanceObject = new JSONObject();
 			}
-			provenanceObject.put(key, value);		
+			boolean wasEmpty = provenanceObject.isEmpty();
+			Object old = provenanceObject.put(key, value);
+			statistics.provenanceChanged(items.size(), wasEmpty, key, old, value);
+			provenanceWrapper = null;
+			provenanceBytes = MemoryEstimator.value(provenanceObject);
+			if(timestampKey!=null && timestampKey.equals(key)) timestampChanged();
+			changed();
 		}
 		
 		/**
@@ -374,18 +805,68 @@ public class JsonDpArray implements JsonDpAware {
 		 * @param provenance	The JSON object with the provenance data
 		 */
 		public void setProvenance(JSONObject provenance) {
+			statistics.provenanceReplaced(items.size(), provenanceObject, provenance);
 			provenanceObject = provenance;
+			provenanceWrapper = null;
+			provenanceBytes = MemoryEstimator.value(provenanceObject);
+			timestampChanged();
+			changed();
+		}
+		
+		/**
+		 * Moves the group to its new place in the temporal index, if 
+		 * it has already been added.
+		 */
+		private void timestampChanged() {
+			if(temporalIndex!=null && temporalPosition>=0 && temporalPosition<temporalIndex.size()) 
+				temporalIndex.update(temporalPosition, provenanceObject);
+		}
+		
+		private void changed() {
+			hashValid = false;
+			resize();
+			modified();
+		}
+		
+		/**
+		 * Updates the estimated size of the group and of the array.
+		 */
+		private void resize() {
+			long size = MemoryEstimator.FRAGMENT + MemoryEstimator.arrayList(items.size()) 
+				+ valueBytes + provenanceBytes + MemoryEstimator.WRAPPER;
+			fragmentBytes += size - bytes;
+			bytes = size;
+		}
+		
+		/**
+		 * Returns the hash of the items and provenance of this group. 
+		 * It is cached unless the group contains nested JSON-DP values, 
+		 * in which case it is combined again from their (cached) hashes.
+		 * @return The content hash of the group.
+		 */
+		long contentHash() {
+			if(!hashValid || nested) {
+				hash = ContentHash.combine(ContentHash.hashValue(items), 
+					ContentHash.hashMap(provenanceObject));
+				hashValid = true;
+			}
+			return hash;
 		}
 		
 		/**
 		 * Returns the provenance object with the appropriate provenance
 		 * relationship. This is used for serialization with provenance.
+		 * The wrapper is built once and shared until the provenance changes, 
+		 * therefore it is read-only.
 		 * @return The provenance JSON object with the provenance relationship
 		 */
 		protected JSONObject getProvenanceObject() {
-			JSONObject provenanceObject = new JSONObject();
-			provenanceObject.put(PROVENANCE, getProvenance());
-			return provenanceObject;
+			ProvenanceWrapper current = provenanceWrapper;
+			if(current==null) {
+				current = new ProvenanceWrapper(getProvenance());
+				provenanceWrapper = current;
+			}
+			return current;
 		}
 		
 		/**
@@ -396,14 +877,7 @@ public class JsonDpArray implements JsonDpAware {
 			JSONArray array = new JSONArray();
 			// Values
 			for(int i=0; i<items.size();i++) {
-				Object arrayItem = items.get(i);
-				if(arrayItem instanceof JsonDpObject) {
-					array.add(((JsonDpObject)arrayItem).getAllValuesAndProvenanceAsPlainJson());
-				} else if(arrayItem instanceof JsonDpArray) {
-					array.add((JSONArray) ((JsonDpArray)arrayItem).getAllValuesAndProvenanceAsPlainJson());
-				} else {
-					array.add(arrayItem);
-				}
+				array.add(JsonTreeGenerator.toPlainJson(items.get(i), true));
 			}
 			// Provenance
 			if(provenanceObject!=null) {
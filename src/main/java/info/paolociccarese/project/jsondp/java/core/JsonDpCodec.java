@@ -0,0 +1,57 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Service provider interface for the JSON backend used by JSON-DP documents.
+ * The codec provides the streaming writer used by the JSON-DP serialization
+ * and the reader used by JsonDpParser. 
+ * 
+ * <p>
+ * Codecs are looked up through java.util.ServiceLoader (see JsonDpCodecs); 
+ * when none is registered the json-simple based SimpleJsonCodec is used.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public interface JsonDpCodec {
+
+	/**
+	 * Creates a streaming writer on the given output.
+	 * @param out	The output
+	 * @return The generator.
+	 */
+	public JsonGenerator createGenerator(Writer out);
+	
+	/**
+	 * Parses a JSON text into json-simple values (JSONObject, JSONArray, 
+	 * String, Number, Boolean or null).
+	 * @param in	The JSON text
+	 * @return The parsed value.
+	 * @throws IOException if the text cannot be read.
+	 * @throws IllegalArgumentException if the text is not valid JSON.
+	 */
+	public Object parse(Reader in) throws IOException;
+}
@@ -0,0 +1,59 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the JsonDpCodec used by default. The first codec registered 
+ * through java.util.ServiceLoader is used, otherwise SimpleJsonCodec.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public final class JsonDpCodecs {
+
+	private static volatile JsonDpCodec defaultCodec = discover();
+	
+	private JsonDpCodecs() {}
+	
+	/**
+	 * Returns the default codec.
+	 * @return The codec used by the JSON-DP serialization.
+	 */
+	public static JsonDpCodec getDefault() {
+		return defaultCodec;
+	}
+	
+	/**
+	 * Replaces the default codec.
+	 * @param codec	The codec to use from now on
+	 */
+	public static void setDefault(JsonDpCodec codec) {
+		if(codec==null) throw new IllegalArgumentException("The codec cannot be null");
+		defaultCodec = codec;
+	}
+	
+	private static JsonDpCodec discover() {
+		Iterator<JsonDpCodec> it = ServiceLoader.load(JsonDpCodec.class).iterator();
+		return it.hasNext() ? it.next() : new SimpleJsonCodec();
+	}
+}
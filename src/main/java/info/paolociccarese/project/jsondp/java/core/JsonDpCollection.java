@@ -0,0 +1,329 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import org.json.simple.JSONObject;
+
+/**
+ * In-memory collection of JsonDpObject documents with bitmap indexes over
+ * the keys present, the provenance key/value pairs and the keys contributed
+ * with a provenance pair. Each document gets an int id (its position) and 
+ * the indexes map terms to CompressedBitmap of ids, so that queries such 
+ * as "has key X from source Y and not from source Z" are bitmap operations.
+ * 
+ * <p>
+ * Documents are indexed incrementally, as they are added. A document 
+ * modified after being added must be reindexed through update(id), or 
+ * all the modified documents through refresh(). The bitmaps returned by 
+ * the lookups are snapshots: later changes to the collection do not affect
+ * them. Snapshots share the containers of the indexes, and each container 
+ * is copied at most once per epoch (the changes between two lookups) when
+ * it changes. The collection is not thread-safe.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpCollection {
+
+	private static final int KEY = 0;
+	private static final int PROVENANCE = 1;
+	private static final int KEY_PROVENANCE = 2;
+	
+	private final ArrayList<JsonDpObject> documents = new ArrayList<JsonDpObject>();
+	private final ArrayList<Term[]> termsById = new ArrayList<Term[]>();
+	private long[] versions = new long[16];
+	private final HashMap<Term, CompressedBitmap> index = new HashMap<Term, CompressedBitmap>();
+	private final CompressedBitmap all = new CompressedBitmap();
+	private int count;
+	
+	/**
+	 * Incremented by every lookup, so that the containers handed out in a
+	 * snapshot are copied before they change.
+	 */
+	private long epoch;
+	
+	/**
+	 * Merged statistics of the documents with id below statisticsIds, null
+	 * when they have to be merged again from scratch.
+	 */
+	private ProvenanceStatistics statistics;
+	private int statisticsIds;
+	
+	/**
+	 * An indexed term: a key, a provenance pair or a key with a provenance pair.
+	 */
+	private static final class Term {
+		final int kind;
+		final Object key;
+		final Object provenanceKey;
+		final Object provenanceValue;
+		final int hash;
+		
+		Term(int kind, Object key, Object provenanceKey, Object provenanceValue) {
+			this.kind = kind;
+			this.key = key;
+			this.provenanceKey = provenanceKey;
+			this.provenanceValue = provenanceValue;
+			this.hash = Arrays.hashCode(new Object[] { kind, key, provenanceKey, provenanceValue });
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Term)) return false;
+			Term other = (Term) obj;
+			return kind==other.kind && equal(key, other.key) && equal(provenanceKey, other.provenanceKey) 
+				&& equal(provenanceValue, other.provenanceValue);
+		}
+		
+		private static boolean equal(Object a, Object b) {
+			return a==null ? b==null : a.equals(b);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
+	/**
+	 * Adds and indexes a document.
+	 * @param document	The document
+	 * @return The id of the document.
+	 */
+	public int add(JsonDpObject document) {
+		if(document==null) throw new IllegalArgumentException("The document cannot be null");
+		int id = documents.size();
+		documents.add(document);
+		termsById.add(null);
+		if(id==versions.length) versions = Arrays.copyOf(versions, id*2);
+		index(id);
+		all.add(id, epoch);
+		count++;
+		return id;
+	}
+	
+	/**
+	 * Returns a document.
+	 * @param id	The id of the document
+	 * @return The document or null if it has been removed.
+	 */
+	public JsonDpObject get(int id) {
+		return documents.get(id);
+	}
+	
+	/**
+	 * Removes a document. Its id is not reused.
+	 * @param id	The id of the document
+	 */
+	public void remove(int id) {
+		if(documents.get(id)==null) return;
+		unindex(id);
+		documents.set(id, null);
+		all.remove(id, epoch);
+		count--;
+		statistics = null;
+	}
+	
+	/**
+	 * Indexes again a document modified after being added.
+	 * @param id	The id of the document
+	 */
+	public void update(int id) {
+		if(documents.get(id)==null) return;
+		unindex(id);
+		index(id);
+		statistics = null;
+	}
+	
+	/**
+	 * Indexes again all the documents modified since they have been indexed.
+	 * @return The number of documents indexed again.
+	 */
+	public int refresh() {
+		int updated = 0;
+		for(int id=0; id<documents.size(); id++) {
+			JsonDpObject document = documents.get(id);
+			if(document!=null && document.version()!=versions[id]) {
+				update(id);
+				updated++;
+			}
+		}
+		return updated;
+	}
+	
+	/**
+	 * Returns the number of documents.
+	 * @return The number of documents.
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Returns the ids of all the documents.
+	 * @return The ids.
+	 */
+	public CompressedBitmap all() {
+		epoch++;
+		return all.snapshot();
+	}
+	
+	/**
+	 * Returns the ids of the documents having a key (with any provenance).
+	 * @param key	The key
+	 * @return The ids.
+	 */
+	public CompressedBitmap withKey(Object key) {
+		return lookup(new Term(KEY, key, null, null));
+	}
+	
+	/**
+	 * Returns the ids of the documents having a fragment with a provenance pair.
+	 * @param provenanceKey		The provenance key
+	 * @param provenanceValue	The provenance value
+	 * @return The ids.
+	 */
+	public CompressedBitmap withProvenance(Object provenanceKey, Object provenanceValue) {
+		return lookup(new Term(PROVENANCE, null, provenanceKey, provenanceValue));
+	}
+	
+	/**
+	 * Returns the ids of the documents having a value for a key whose 
+	 * provenance includes a pair: the documents for which 
+	 * get(key, provenanceKey, provenanceValue) is not null.
+	 * @param key				The key
+	 * @param provenanceKey		The provenance key
+	 * @param provenanceValue	The provenance value
+	 * @return The ids.
+	 */
+	public CompressedBitmap withKey(Object key, Object provenanceKey, Object provenanceValue) {
+		return lookup(new Term(KEY_PROVENANCE, key, provenanceKey, provenanceValue));
+	}
+	
+	/**
+	 * Returns the documents with the given ids.
+	 * @param ids	The ids
+	 * @return The documents, in id order.
+	 */
+	public List<JsonDpObject> documents(CompressedBitmap ids) {
+		final List<JsonDpObject> result = new ArrayList<JsonDpObject>(ids.getCardinality());
+		ids.forEach(new IntConsumer() {
+			public void accept(int id) {
+				if(id<documents.size() && documents.get(id)!=null) result.add(documents.get(id));
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Returns the merged provenance statistics of the documents. They are
+	 * extended incrementally as documents are added and merged again after
+	 * a remove, update or refresh: like the indexes, documents modified 
+	 * after being added must be updated to be accounted for again.
+	 * @return The provenance statistics.
+	 */
+	public ProvenanceStatistics getProvenanceStatistics() {
+		if(statistics==null) {
+			statistics = new ProvenanceStatistics();
+			statisticsIds = 0;
+		}
+		for(; statisticsIds<documents.size(); statisticsIds++) {
+			JsonDpObject document = documents.get(statisticsIds);
+			if(document!=null) statistics.merge(document.statistics);
+		}
+		return statistics.copy();
+	}
+	
+	/**
+	 * Returns the number of distinct indexed terms.
+	 * @return The number of terms.
+	 */
+	public int getTermCount() {
+		return index.size();
+	}
+	
+	/**
+	 * Returns the estimated memory taken by the bitmaps of the indexes.
+	 * @return The size in bytes.
+	 */
+	public long estimatedIndexBytes() {
+		long bytes = all.estimatedBytes();
+		for(CompressedBitmap bitmap: index.values()) bytes += bitmap.estimatedBytes();
+		return bytes;
+	}
+	
+	private CompressedBitmap lookup(Term term) {
+		CompressedBitmap bitmap = index.get(term);
+		if(bitmap==null) return new CompressedBitmap();
+		epoch++;
+		return bitmap.snapshot();
+	}
+	
+	private void index(int id) {
+		JsonDpObject document = documents.get(id);
+		Set<Term> terms = new LinkedHashSet<Term>();
+		for(JsonDpObject.JsonObjectCore fragment: document.jsonObjects) {
+			JSONObject provenance = fragment.provenanceObject;
+			if(provenance!=null) {
+				for(Object provenanceKey: provenance.keySet()) {
+					terms.add(new Term(PROVENANCE, null, provenanceKey, provenance.get(provenanceKey)));
+				}
+			}
+			for(Object key: fragment.pairs.keySet()) {
+				terms.add(new Term(KEY, key, null, null));
+				if(provenance==null) continue;
+				for(Object provenanceKey: provenance.keySet()) {
+					terms.add(new Term(KEY_PROVENANCE, key, provenanceKey, provenance.get(provenanceKey)));
+				}
+			}
+		}
+		for(Term term: terms) {
+			CompressedBitmap bitmap = index.get(term);
+			if(bitmap==null) {
+				bitmap = new CompressedBitmap();
+				index.put(term, bitmap);
+			}
+			bitmap.add(id, epoch);
+		}
+		termsById.set(id, terms.toArray(new Term[terms.size()]));
+		versions[id] = document.version();
+	}
+	
+	private void unindex(int id) {
+		Term[] terms = termsById.get(id);
+		if(terms==null) return;
+		for(Term term: terms) {
+			CompressedBitmap bitmap = index.get(term);
+			if(bitmap==null) continue;
+			bitmap.remove(id, epoch);
+			if(bitmap.isEmpty()) index.remove(term);
+		}
+		termsById.set(id, null);
+	}
+}
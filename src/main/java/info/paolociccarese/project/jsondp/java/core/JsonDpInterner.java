@@ -0,0 +1,171 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-consing of JSON-DP documents: equal documents (and equal nested 
+ * documents) are replaced by a single canonical instance, so that large
+ * collections of similar records share their identical parts. Lookups 
+ * are driven by the content hash, so different documents are told apart 
+ * without visiting their content.
+ * 
+ * <p>
+ * Interned documents are shared and must not be modified afterwards.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpInterner {
+
+	private final ConcurrentHashMap<JsonDpNode, JsonDpNode> canonical = 
+		new ConcurrentHashMap<JsonDpNode, JsonDpNode>();
+	
+	/**
+	 * Returns the canonical instance equal to the given object. Its nested
+	 * documents are interned first and replaced by their canonical instances.
+	 * @param object	The object to intern
+	 * @return The canonical instance (possibly the object itself).
+	 */
+	public JsonDpObject intern(JsonDpObject object) {
+		if(object==null) throw new IllegalArgumentException("The object cannot be null");
+		return (JsonDpObject) internNode(object);
+	}
+	
+	/**
+	 * Returns the canonical instance equal to the given array. Its nested
+	 * documents are interned first and replaced by their canonical instances.
+	 * @param array	The array to intern
+	 * @return The canonical instance (possibly the array itself).
+	 */
+	public JsonDpArray intern(JsonDpArray array) {
+		if(array==null) throw new IllegalArgumentException("The array cannot be null");
+		return (JsonDpArray) internNode(array);
+	}
+	
+	/**
+	 * Returns true if an equal document has already been interned.
+	 * @param document	The document to look up
+	 * @return True if an equal document is known.
+	 */
+	public boolean contains(JsonDpAware document) {
+		return document instanceof JsonDpNode && canonical.containsKey(document);
+	}
+	
+	/**
+	 * Returns the number of canonical documents, nested ones included.
+	 * @return The number of canonical documents.
+	 */
+	public int size() {
+		return canonical.size();
+	}
+	
+	/**
+	 * Forgets all the canonical documents.
+	 */
+	public void clear() {
+		canonical.clear();
+	}
+	
+	/**
+	 * Interns the nested documents bottom-up, with an explicit stack, then
+	 * the node itself. Documents with an interned equal are replaced without
+	 * visiting their content.
+	 */
+	private JsonDpNode internNode(JsonDpNode node) {
+		IdentityHashMap<JsonDpNode, JsonDpNode> interned = new IdentityHashMap<JsonDpNode, JsonDpNode>();
+		IdentityHashMap<JsonDpNode, Boolean> expanded = new IdentityHashMap<JsonDpNode, Boolean>();
+		ArrayDeque<JsonDpNode> pending = new ArrayDeque<JsonDpNode>();
+		pending.push(node);
+		while(!pending.isEmpty()) {
+			JsonDpNode current = pending.peek();
+			if(interned.containsKey(current)) {
+				pending.pop();
+			} else if(expanded.put(current, Boolean.TRUE)==null) {
+				JsonDpNode existing = canonical.get(current);
+				if(existing!=null) {
+					interned.put(current, existing);
+					pending.pop();
+				} else {
+					for(Object value: nestedValues(current)) {
+						if(!interned.containsKey(value)) pending.push((JsonDpNode) value);
+					}
+				}
+			} else {
+				pending.pop();
+				replaceNested(current, interned);
+				JsonDpNode existing = canonical.putIfAbsent(current, current);
+				interned.put(current, existing!=null ? existing : current);
+			}
+		}
+		return interned.get(node);
+	}
+	
+	private static List<Object> nestedValues(JsonDpNode node) {
+		List<Object> nested = new ArrayList<Object>();
+		if(node instanceof JsonDpObject) {
+			for(JsonDpObject.JsonObjectCore core: ((JsonDpObject) node).jsonObjects) {
+				for(Object value: core.getPairs().values()) {
+					if(value instanceof JsonDpNode) nested.add(value);
+				}
+			}
+		} else {
+			for(JsonDpArray.JsonArrayObject group: ((JsonDpArray) node).jsonArrayObjects) {
+				for(Object item: group.getItems()) {
+					if(item instanceof JsonDpNode) nested.add(item);
+				}
+			}
+		}
+		return nested;
+	}
+	
+	/**
+	 * Replaces the nested documents of a node with their canonical instances.
+	 */
+	private static void replaceNested(JsonDpNode node, IdentityHashMap<JsonDpNode, JsonDpNode> interned) {
+		if(node instanceof JsonDpObject) {
+			for(JsonDpObject.JsonObjectCore core: ((JsonDpObject) node).jsonObjects) {
+				for(Object key: new ArrayList<Object>(core.keySet())) {
+					Object value = core.getValue(key);
+					if(value instanceof JsonDpNode) {
+						JsonDpNode shared = interned.get(value);
+						if(shared!=null && shared!=value) core.replace(key, shared);
+					}
+				}
+			}
+		} else {
+			for(JsonDpArray.JsonArrayObject group: ((JsonDpArray) node).jsonArrayObjects) {
+				for(int i=0; i<group.size(); i++) {
+					Object item = group.getItems().get(i);
+					if(item instanceof JsonDpNode) {
+						JsonDpNode shared = interned.get(item);
+						if(shared!=null && shared!=item) group.set(i, shared);
+					}
+				}
+			}
+		}
+	}
+}
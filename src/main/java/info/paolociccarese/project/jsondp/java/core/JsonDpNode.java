@@ -0,0 +1,520 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Common base of JsonDpObject and JsonDpArray. It keeps track of the
+ * documents containing this one (parents) and of a version number that is
+ * incremented every time this document, or any document nested in it, 
+ * changes. Derived data (hashes, summaries...) is cached together with the 
+ * version it has been computed for.
+ * 
+ * <p>
+ * Parents are weakly referenced, so that a document shared by many others 
+ * does not keep them alive, and kept in an identity set once there are 
+ * several of them, so that sharing a document among many others (e.g. by
+ * interning) costs constant time per parent. Changes are propagated iteratively, which keeps
+ * deep nesting and shared (or even cyclic) structures safe.
+ * </p>
+ * 
+ * <p>
+ * The node also keeps the estimated size of its own fragments, updated 
+ * incrementally by the fragments themselves, and the nested documents it
+ * contains. The retained size of the whole tree is kept as a running total,
+ * propagated to the parents together with the version: it is exact as long
+ * as every nested document is reachable through a single path. Once a 
+ * nested document is shared (or a cycle is created) the node is marked 
+ * and its retained size is computed visiting each distinct document once,
+ * until a visit finds that nothing is shared anymore.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+abstract class JsonDpNode implements JsonDpAware {
+
+	private static final AtomicLong PROPAGATIONS = new AtomicLong();
+	
+	/** The only document containing this one, if any. */
+	private ParentReference parent;
+	/** The documents containing this one, when there are several. */
+	private HashSet<ParentReference> parents;
+	private long version;
+	private long propagation;
+	
+	private IdentityHashMap<JsonDpNode, Integer> children;
+	private MemoryBudget memoryBudget;
+	private long retainedBytes;
+	private long retainedBytesVersion = -1;
+	
+	/** Own size (node and fragments) included in subtreeBytes. */
+	private long ownBytes;
+	/** Size of the nested documents linked or unlinked since the last change. */
+	private long pendingBytes;
+	/** Own size plus the size of the nested documents, exact unless shared. */
+	private long subtreeBytes;
+	/** True if a nested document may be reachable through several paths. */
+	private boolean shared;
+	
+	/**
+	 * Estimated size of the fragments of this document, nested documents
+	 * excluded. Maintained by the fragments.
+	 */
+	long fragmentBytes;
+	
+	/**
+	 * Returns the current version, incremented on every change of this
+	 * document or of its nested documents.
+	 * @return The version.
+	 */
+	long version() {
+		return version;
+	}
+	
+	/**
+	 * Records a change of this document, and of its own size, and 
+	 * propagates it to all the documents containing it, directly or 
+	 * indirectly.
+	 */
+	void modified() {
+		long own = shallowBytes() + fragmentBytes;
+		long delta = own - ownBytes + pendingBytes;
+		ownBytes = own;
+		pendingBytes = 0;
+		propagate(delta);
+	}
+	
+	/**
+	 * Increments the version and adds the size delta to the retained size
+	 * of this document and of all the documents containing it.
+	 */
+	private void propagate(long delta) {
+		if(parent==null && parents==null) {
+			version++;
+			subtreeBytes += delta;
+			return;
+		}
+		long stamp = PROPAGATIONS.incrementAndGet();
+		ArrayDeque<JsonDpNode> pending = new ArrayDeque<JsonDpNode>();
+		pending.add(this);
+		while(!pending.isEmpty()) {
+			JsonDpNode node = pending.poll();
+			if(node.propagation==stamp) continue;
+			node.propagation = stamp;
+			node.version++;
+			node.subtreeBytes += delta;
+			node.forEachParent(pending);
+		}
+	}
+	
+	/**
+	 * Propagates the changes of the own size not recorded by modified() 
+	 * yet, e.g. fragments appended after being filled.
+	 */
+	private void settle() {
+		if(pendingBytes!=0 || shallowBytes() + fragmentBytes!=ownBytes) modified();
+	}
+	
+	/**
+	 * Registers this document as parent of the value, if the value is a
+	 * JSON-DP document. The size of the value is added to the retained 
+	 * size by the next modified().
+	 * @param value	The value being added to this document
+	 */
+	void link(Object value) {
+		if(value instanceof JsonDpNode) {
+			JsonDpNode child = (JsonDpNode) value;
+			if(children==null) children = new IdentityHashMap<JsonDpNode, Integer>();
+			Integer count = children.get(child);
+			children.put(child, count==null ? 1 : count+1);
+			if(count!=null) return;
+			child.settle();
+			child.addParent(this);
+			pendingBytes += child.subtreeBytes;
+			if(child.shared || child.hasSeveralParents() || isDescendantOf(child)) markShared();
+		}
+	}
+	
+	/**
+	 * Removes this document from the parents of the value, if the value 
+	 * is a JSON-DP document. The size of the value is removed from the 
+	 * retained size by the next modified().
+	 * @param value	The value being removed from this document
+	 */
+	void unlink(Object value) {
+		if(value instanceof JsonDpNode && children!=null) {
+			JsonDpNode child = (JsonDpNode) value;
+			Integer count = children.get(child);
+			if(count==null) return;
+			if(count>1) {
+				children.put(child, count-1);
+			} else {
+				children.remove(child);
+				child.removeParent(this);
+				pendingBytes -= child.subtreeBytes;
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if this document is, or is nested in, the given one.
+	 */
+	private boolean isDescendantOf(JsonDpNode node) {
+		if(node==this) return true;
+		if(node.children==null || (parent==null && parents==null)) return false;
+		long stamp = PROPAGATIONS.incrementAndGet();
+		ArrayDeque<JsonDpNode> pending = new ArrayDeque<JsonDpNode>();
+		pending.add(this);
+		while(!pending.isEmpty()) {
+			JsonDpNode current = pending.poll();
+			if(current==node) return true;
+			if(current.propagation==stamp) continue;
+			current.propagation = stamp;
+			current.forEachParent(pending);
+		}
+		return false;
+	}
+	
+	/**
+	 * Marks this document and the documents containing it as holding a 
+	 * shared nested document. Documents containing a marked one are marked
+	 * already.
+	 */
+	private void markShared() {
+		ArrayDeque<JsonDpNode> pending = new ArrayDeque<JsonDpNode>();
+		pending.add(this);
+		while(!pending.isEmpty()) {
+			JsonDpNode node = pending.poll();
+			if(node.shared) continue;
+			node.shared = true;
+			node.forEachParent(pending);
+		}
+	}
+	
+	/**
+	 * Returns the estimated size of the node itself and of its list of 
+	 * fragments, fragments excluded.
+	 */
+	abstract long shallowBytes();
+	
+	/**
+	 * Returns the content hash of this document, cached until the next 
+	 * change.
+	 */
+	abstract long contentHash();
+	
+	/**
+	 * Returns true if the cached content hash is up to date.
+	 */
+	abstract boolean isContentHashValid();
+	
+	/**
+	 * Compares the fragments of this document with the ones of another 
+	 * document, pushing the pairs of nested documents still to be compared.
+	 * @param other		The other document (of the same kind)
+	 * @param pending	The pairs of nested documents to compare
+	 * @return False if a difference is found.
+	 */
+	abstract boolean fragmentsEqual(JsonDpNode other, ArrayDeque<JsonDpNode[]> pending);
+	
+	/**
+	 * Returns the provenance summary, cached until the next change.
+	 */
+	abstract ProvenanceSummary getProvenanceSummary();
+	
+	/**
+	 * Returns true if the cached provenance summary is up to date.
+	 */
+	abstract boolean isProvenanceSummaryValid();
+	
+	private static final int CONTENT_HASH = 0;
+	private static final int PROVENANCE_SUMMARY = 1;
+	
+	/**
+	 * Hashes the nested documents whose hash is out of date, bottom-up and
+	 * with an explicit stack, so that hashing this document finds all the 
+	 * nested hashes cached instead of recursing once per nesting level.
+	 */
+	void hashNestedDocuments() {
+		refreshNestedDocuments(CONTENT_HASH);
+	}
+	
+	/**
+	 * Summarizes the nested documents whose provenance summary is out of 
+	 * date, bottom-up and with an explicit stack, so that summarizing this
+	 * document only merges cached nested summaries.
+	 */
+	void summarizeNestedDocuments() {
+		refreshNestedDocuments(PROVENANCE_SUMMARY);
+	}
+	
+	private void refreshNestedDocuments(int cache) {
+		if(children==null) return;
+		ArrayDeque<JsonDpNode> pending = new ArrayDeque<JsonDpNode>();
+		IdentityHashMap<JsonDpNode, Boolean> expanded = new IdentityHashMap<JsonDpNode, Boolean>();
+		expanded.put(this, Boolean.TRUE);
+		pushStaleChildren(this, cache, pending);
+		while(!pending.isEmpty()) {
+			JsonDpNode node = pending.peek();
+			if(expanded.put(node, Boolean.TRUE)==null) {
+				pushStaleChildren(node, cache, pending);
+			} else {
+				pending.pop();
+				// The nested documents of the node are up to date already
+				if(!isCached(node, cache)) {
+					if(cache==CONTENT_HASH) node.contentHash();
+					else node.getProvenanceSummary();
+				}
+			}
+		}
+	}
+	
+	private static boolean isCached(JsonDpNode node, int cache) {
+		return cache==CONTENT_HASH ? node.isContentHashValid() : node.isProvenanceSummaryValid();
+	}
+	
+	private static void pushStaleChildren(JsonDpNode node, int cache, ArrayDeque<JsonDpNode> pending) {
+		if(node.children==null) return;
+		for(JsonDpNode child: node.children.keySet()) {
+			if(!isCached(child, cache)) pending.push(child);
+		}
+	}
+	
+	/**
+	 * Compares this document with another one of the same kind, nested 
+	 * documents included, with an explicit stack of the nested pairs still
+	 * to be compared.
+	 * @param other	The other document
+	 * @return True if the documents are equal.
+	 */
+	boolean contentEquals(JsonDpNode other) {
+		ArrayDeque<JsonDpNode[]> pending = new ArrayDeque<JsonDpNode[]>();
+		pending.push(new JsonDpNode[] { this, other });
+		while(!pending.isEmpty()) {
+			JsonDpNode[] pair = pending.pop();
+			if(pair[0]==pair[1]) continue;
+			if((pair[0] instanceof JsonDpObject)!=(pair[1] instanceof JsonDpObject)) return false;
+			if(pair[0].contentHash()!=pair[1].contentHash()) return false;
+			if(!pair[0].fragmentsEqual(pair[1], pending)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Compares two values of a fragment: nested documents are pushed to be
+	 * compared later, other values are compared right away.
+	 */
+	static boolean valuesEqual(Object a, Object b, ArrayDeque<JsonDpNode[]> pending) {
+		if(a instanceof JsonDpNode && b instanceof JsonDpNode) {
+			pending.push(new JsonDpNode[] { (JsonDpNode) a, (JsonDpNode) b });
+			return true;
+		}
+		return a==null ? b==null : a.equals(b);
+	}
+	
+	/**
+	 * Returns the estimated retained size of this document and of all the
+	 * nested documents, each distinct instance counted once. The running 
+	 * total is returned unless a nested document is shared, in which case 
+	 * the result of measureRetainedBytes() is cached until the next change.
+	 */
+	long retainedBytes() {
+		settle();
+		if(!shared) return subtreeBytes;
+		if(retainedBytesVersion!=version) {
+			retainedBytes = measureRetainedBytes();
+			retainedBytesVersion = version;
+		}
+		return retainedBytes;
+	}
+	
+	/**
+	 * Computes the retained size visiting each distinct nested document 
+	 * once. If no nested document is reachable through several paths, the 
+	 * running totals of the visited documents are recomputed and they are 
+	 * no longer marked as shared.
+	 */
+	long measureRetainedBytes() {
+		IdentityHashMap<JsonDpNode, Boolean> visited = new IdentityHashMap<JsonDpNode, Boolean>();
+		ArrayList<JsonDpNode> order = new ArrayList<JsonDpNode>();
+		ArrayDeque<JsonDpNode> pending = new ArrayDeque<JsonDpNode>();
+		pending.push(this);
+		boolean tree = true;
+		long total = 0;
+		while(!pending.isEmpty()) {
+			JsonDpNode node = pending.pop();
+			if(visited.put(node, Boolean.TRUE)!=null) {
+				tree = false;
+				continue;
+			}
+			order.add(node);
+			total += node.shallowBytes() + node.fragmentBytes;
+			if(node!=this && node.hasSeveralParents()) tree = false;
+			if(node.children!=null) {
+				for(JsonDpNode child: node.children.keySet()) {
+					pending.push(child);
+				}
+			}
+		}
+		if(tree) {
+			long previous = subtreeBytes;
+			// Nested documents are visited after the documents containing them
+			for(int i=order.size()-1; i>=0; i--) {
+				JsonDpNode node = order.get(i);
+				node.ownBytes = node.shallowBytes() + node.fragmentBytes;
+				node.pendingBytes = 0;
+				node.subtreeBytes = node.ownBytes;
+				if(node.children!=null) {
+					for(JsonDpNode child: node.children.keySet()) {
+						node.subtreeBytes += child.subtreeBytes;
+					}
+				}
+				node.shared = false;
+			}
+			long delta = subtreeBytes - previous;
+			subtreeBytes = previous;
+			if(delta!=0) propagate(delta);
+		}
+		return total;
+	}
+	
+	MemoryBudget memoryBudget() {
+		return memoryBudget;
+	}
+	
+	void memoryBudget(MemoryBudget budget) {
+		memoryBudget = budget;
+	}
+	
+	/**
+	 * Checks the budget before adding a value (rejecting budgets). The 
+	 * added size is estimated on the high side, as if a new fragment was
+	 * created for the value.
+	 * @param value			The value to be added
+	 * @param provenance	The provenance of the value (possibly null)
+	 */
+	void beforeMutation(Object value, Map<?, ?> provenance) {
+		if(memoryBudget!=null) {
+			long added = MemoryEstimator.FRAGMENT + MemoryEstimator.hashMap(1) + MemoryEstimator.ENTRY 
+				+ MemoryEstimator.longMap(1) + MemoryEstimator.REFERENCE*2 + MemoryEstimator.WRAPPER + MemoryEstimator.value(provenance)
+				+ (value instanceof JsonDpNode ? ((JsonDpNode) value).retainedBytes() : MemoryEstimator.value(value));
+			memoryBudget.beforeMutation(this, retainedBytes(), added);
+		}
+	}
+	
+	/**
+	 * Checks the budget after a mutation (spilling budgets).
+	 */
+	void afterMutation() {
+		if(memoryBudget!=null) memoryBudget.afterMutation(this, retainedBytes());
+		else settle();
+	}
+	
+	private void addParent(JsonDpNode node) {
+		if(parents!=null) {
+			parents.add(new ParentReference(node));
+		} else if(parent==null || parent.get()==null) {
+			parent = new ParentReference(node);
+		} else if(parent.get()!=node) {
+			parents = new HashSet<ParentReference>();
+			parents.add(parent);
+			parents.add(new ParentReference(node));
+			parent = null;
+		}
+	}
+	
+	/**
+	 * Returns true if more than one live document contains this one.
+	 */
+	private boolean hasSeveralParents() {
+		if(parents==null) return false;
+		int live = 0;
+		for(Iterator<ParentReference> i=parents.iterator(); i.hasNext() && live<2; ) {
+			if(i.next().get()==null) i.remove();
+			else live++;
+		}
+		return live>1;
+	}
+	
+	/**
+	 * Adds the live documents containing this one to the queue, dropping
+	 * the collected ones.
+	 */
+	private void forEachParent(ArrayDeque<JsonDpNode> pending) {
+		if(parent!=null) {
+			JsonDpNode node = parent.get();
+			if(node==null) parent = null;
+			else pending.add(node);
+		} else if(parents!=null) {
+			for(Iterator<ParentReference> i=parents.iterator(); i.hasNext(); ) {
+				JsonDpNode node = i.next().get();
+				if(node==null) i.remove();
+				else pending.add(node);
+			}
+			if(parents.isEmpty()) parents = null;
+		}
+	}
+	
+	private void removeParent(JsonDpNode node) {
+		if(parents!=null) {
+			parents.remove(new ParentReference(node));
+			if(parents.isEmpty()) parents = null;
+		} else if(parent!=null) {
+			JsonDpNode current = parent.get();
+			if(current==null || current==node) parent = null;
+		}
+	}
+	
+	/**
+	 * Weak reference to a parent, equal to the references to the same 
+	 * (live) instance.
+	 */
+	private static final class ParentReference extends WeakReference<JsonDpNode> {
+		
+		private final int hash;
+		
+		ParentReference(JsonDpNode node) {
+			super(node);
+			hash = System.identityHashCode(node);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if(other==this) return true;
+			if(!(other instanceof ParentReference)) return false;
+			JsonDpNode node = get();
+			return node!=null && node==((ParentReference) other).get();
+		}
+	}
+}
@@ -20,8 +20,21 @@
 */
 package info.paolociccarese.project.jsondp.java.core;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONAware;
@@ -96,23 +109,81 @@ import org.json.simple.JSONObject;
  * </code>
  * </pre>
  * 
+ * <p>
+ * JsonDpObject is not thread-safe, not even for reads: getResolved() 
+ * caches the resolved values, the content hash, the provenance summary and
+ * the retained size are cached by version, and getWithProvenance() and the
+ * provenance filtered get() copy the values into new arrays and objects, 
+ * linking the nested documents to them. Threads sharing a document must 
+ * serialize all the accesses, e.g. with the lock of a JsonDpRegistry.
+ * </p>
+ * 
  * @author Dr. Paolo Ciccarese
  */
-public class JsonDpObject implements JsonDpAware {
+public class JsonDpObject extends JsonDpNode implements JsonDpAware {
 
 	ArrayList<JsonObjectCore> jsonObjects = new ArrayList<JsonObjectCore>();
 	
+	/**
+	 * Below this number of fragments put(key, value, provenance) scans them
+	 * all instead of using the provenance index.
+	 */
+	private static final int INDEX_THRESHOLD = 8;
+	
+	/**
+	 * Fragments by provenance key/value pair, in fragment order. Fragments
+	 * are indexed lazily, as they are appended; the index is dropped when 
+	 * the provenance of an indexed fragment changes.
+	 */
+	private HashMap<Map.Entry<Object, Object>, ArrayList<JsonObjectCore>> provenanceIndex;
+	private int indexedFragments;
+	
+	/**
+	 * Bloom filter over the keys of all the fragments, sized again (from the
+	 * fragments) every time it fills up.
+	 */
+	private KeyBloomFilter keyFilter = new KeyBloomFilter(8);
+	
+	private long contentHash;
+	private long contentHashVersion = -1;
+	
+	private String timestampKey;
+	private TemporalIndex temporalIndex;
+	
+	private ProvenanceSummary provenanceSummary;
+	private long provenanceSummaryVersion;
+	
+	/**
+	 * Statistics of the fragments, updated as they change.
+	 */
+	final ProvenanceStatistics statistics = new ProvenanceStatistics();
+	
+	private static final Object NO_VALUE = new Object();
+	
+	private ResolutionPolicy resolutionPolicy = ResolutionPolicies.lastWriterWins();
+	
+	/**
+	 * Counter of the writes of pairs, ordering the values of the same key
+	 * across fragments.
+	 */
+	private long writes;
+	private HashMap<Object, Object> resolved;
+	private long resolvedVersion;
+	
 	/**
 	 * Put a key/value pair without any provenance data.
 	 * @param key   The key
 	 * @param value The value
 	 */
 	public void put(Object key, Object value) {
-		// TODO manage collisions
+		// Values of a key already present are kept side by side in separate
+		// fragments, getResolved() chooses among them by write sequence
 		if(isValueAcceptable(value)) {
+			beforeMutation(value, null);
 			JsonObjectCore jsonObject = new JsonObjectCore();
 			jsonObject.put(key, value);
 			jsonObjects.add(jsonObject);
+			afterMutation();
 		} else throw new IllegalArgumentException("Only Strings, JSON and JSON-DP values are allowed." +
 				" Found " + value.getClass().getName());
 	}
@@ -126,22 +197,12 @@ public class JsonDpObject implements JsonDpAware {
 	public void put(Object key, Object value, JSONObject provenance) {
 		// TODO manage partially overlapping provenance
 		if(isValueAcceptable(value)) {
-			for(JsonObjectCore jsonObject: jsonObjects) {
-				boolean match = false;
-				if(jsonObject.getProvenance()!=null) { 
-					for(Object k: provenance.keySet()) {
-						if(jsonObject.containsProvenance(k, provenance.get(k)))  {
-							match = true;
-						} else {
-							match = false;
-							break;
-						}
-					}
-				}				
-				if(match) {
-					jsonObject.put(key, value);
-					return;
-				}				
+			beforeMutation(value, provenance);
+			JsonObjectCore match = findFragment(provenance);
+			if(match!=null) {
+				match.put(key, value);
+				afterMutation();
+				return;
 			}
 			
 			JsonObjectCore jsonObject = new JsonObjectCore();
@@ -150,10 +211,69 @@ public class JsonDpObject implements JsonDpAware {
 				jsonObject.putProvenance(k, provenance.get(k));
 			}
 			jsonObjects.add(jsonObject);
+			afterMutation();
 		} else throw new IllegalArgumentException("Only Strings, JSON and JSON-DP values are allowed." +
 				" Found " + value.getClass().getName());
 	}
 	
+	/**
+	 * Returns the first fragment whose provenance includes all the given
+	 * provenance pairs. Small objects are scanned, larger ones are looked up
+	 * through the provenance index, checking only the fragments sharing the
+	 * least common of the pairs.
+	 * @param provenance	The provenance data
+	 * @return The matching fragment or null.
+	 */
+	private JsonObjectCore findFragment(JSONObject provenance) {
+		if(provenance.isEmpty()) return null;
+		List<JsonObjectCore> candidates = jsonObjects;
+		if(jsonObjects.size()>=INDEX_THRESHOLD) {
+			updateIndex();
+			candidates = null;
+			for(Object k: provenance.keySet()) {
+				ArrayList<JsonObjectCore> fragments = provenanceIndex.get(
+					new AbstractMap.SimpleImmutableEntry<Object, Object>(k, provenance.get(k)));
+				if(fragments==null) return null;
+				if(candidates==null || fragments.size()<candidates.size()) candidates = fragments;
+			}
+		}
+		for(int i=0; i<candidates.size(); i++) {
+			JsonObjectCore jsonObject = candidates.get(i);
+			if(jsonObject.getProvenance()==null) continue;
+			boolean match = true;
+			for(Object k: provenance.keySet()) {
+				if(!jsonObject.containsProvenance(k, provenance.get(k))) {
+					match = false;
+					break;
+				}
+			}
+			if(match) return jsonObject;
+		}
+		return null;
+	}
+	
+	private void updateIndex() {
+		if(provenanceIndex==null) {
+			provenanceIndex = new HashMap<Map.Entry<Object, Object>, ArrayList<JsonObjectCore>>();
+			indexedFragments = 0;
+		}
+		for(; indexedFragments<jsonObjects.size(); indexedFragments++) {
+			JsonObjectCore jsonObject = jsonObjects.get(indexedFragments);
+			jsonObject.indexed = true;
+			JSONObject provenance = jsonObject.getProvenance();
+			if(provenance==null) continue;
+			for(Object k: provenance.keySet()) {
+				Map.Entry<Object, Object> pair = new AbstractMap.SimpleImmutableEntry<Object, Object>(k, provenance.get(k));
+				ArrayList<JsonObjectCore> fragments = provenanceIndex.get(pair);
+				if(fragments==null) {
+					fragments = new ArrayList<JsonObjectCore>(2);
+					provenanceIndex.put(pair, fragments);
+				}
+				fragments.add(jsonObject);
+			}
+		}
+	}
+	
 	/**
 	 * Returns true if the value is acceptable.
 	 * @param value		The value to be validated
@@ -173,28 +293,223 @@ public class JsonDpObject implements JsonDpAware {
 	 * @return The value(s) for the requested key or null if the key is not present.
 	 */
 	public Object get(Object key) {
-		JSONArray array = new JSONArray();
-		for(JsonObjectCore jsonObject: jsonObjects) {
-			if(jsonObject.containsKey(key)) {
-				Object d = jsonObject.getValue(key);
-				if(d!=null) array.add(d);
+		if(!keyFilter.mightContain(key)) return null;
+		// The array is only allocated when a second value is found
+		Object first = null;
+		JSONArray array = null;
+		for(int i=0; i<jsonObjects.size(); i++) {
+			Object d = jsonObjects.get(i).getValue(key);
+			if(d==null) continue;
+			if(first==null) {
+				first = d;
+			} else {
+				if(array==null) {
+					array = new JSONArray();
+					array.add(first);
+				}
+				array.add(d);
 			}
 		}
-		if(array.size()==0) return null;
-		else if(array.size()==1) return array.get(0);
-		return array;
+		return array!=null ? array : first;
+	}
+	
+	/**
+	 * Returns the first available value for a particular key, in insertion
+	 * order, without allocating any container.
+	 * @param key	The requested key
+	 * @return The first value for the requested key or null if the key is not present.
+	 */
+	public Object getFirst(Object key) {
+		if(!keyFilter.mightContain(key)) return null;
+		for(int i=0; i<jsonObjects.size(); i++) {
+			Object d = jsonObjects.get(i).getValue(key);
+			if(d!=null) return d;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the number of values (with different provenance) available 
+	 * for a particular key.
+	 * @param key	The requested key
+	 * @return The number of values, 0 if the key is not present.
+	 */
+	public int valueCount(Object key) {
+		if(!keyFilter.mightContain(key)) return 0;
+		int count = 0;
+		for(int i=0; i<jsonObjects.size(); i++) {
+			if(jsonObjects.get(i).getValue(key)!=null) count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Visits all the values available for a particular key together with 
+	 * their provenance data (null when absent), without allocating any 
+	 * container. The provenance object must not be modified.
+	 * @param key		The requested key
+	 * @param visitor	The visitor receiving each value and its provenance
+	 */
+	public void forEachValue(Object key, BiConsumer<Object, JSONObject> visitor) {
+		if(!keyFilter.mightContain(key)) return;
+		for(int i=0; i<jsonObjects.size(); i++) {
+			JsonObjectCore jsonObject = jsonObjects.get(i);
+			Object d = jsonObject.getValue(key);
+			if(d!=null) visitor.accept(d, jsonObject.getProvenance());
+		}
+	}
+	
+	/**
+	 * Sets the policy resolving the conflicting values of the same key
+	 * (last-writer-wins by default).
+	 * @param policy	The resolution policy
+	 */
+	public void setResolutionPolicy(ResolutionPolicy policy) {
+		if(policy==null) throw new IllegalArgumentException("The resolution policy cannot be null");
+		resolutionPolicy = policy;
+		resolved = null;
+	}
+	
+	/**
+	 * Returns the policy resolving the conflicting values of the same key.
+	 * @return The resolution policy.
+	 */
+	public ResolutionPolicy getResolutionPolicy() {
+		return resolutionPolicy;
+	}
+	
+	/**
+	 * Returns one value for a particular key, chosen by the resolution policy
+	 * when several sources contributed different values. Resolved values are
+	 * cached until the object (or a nested document) changes.
+	 * @param key	The requested key
+	 * @return The resolved value or null if the key is not present.
+	 */
+	public Object getResolved(Object key) {
+		if(resolved==null || resolvedVersion!=version()) {
+			resolved = new HashMap<Object, Object>();
+			resolvedVersion = version();
+		}
+		Object value = resolved.get(key);
+		if(value==null) {
+			value = resolve(key);
+			resolved.put(key, value!=null ? value : NO_VALUE);
+		}
+		return value!=NO_VALUE ? value : null;
+	}
+	
+	private Object resolve(final Object key) {
+		if(!keyFilter.mightContain(key)) return null;
+		List<JsonObjectCore> candidates = null;
+		for(int i=0; i<jsonObjects.size(); i++) {
+			JsonObjectCore jsonObject = jsonObjects.get(i);
+			if(!jsonObject.containsKey(key)) continue;
+			if(candidates==null) candidates = new ArrayList<JsonObjectCore>(2);
+			candidates.add(jsonObject);
+		}
+		if(candidates==null) return null;
+		if(candidates.size()==1) return candidates.get(0).getValue(key);
+		
+		// The policies see the values in the order they have been written
+		Collections.sort(candidates, new Comparator<JsonObjectCore>() {
+			public int compare(JsonObjectCore a, JsonObjectCore b) {
+				return Long.compare(a.written(key), b.written(key));
+			}
+		});
+		List<Object> values = new ArrayList<Object>(candidates.size());
+		List<JSONObject> provenance = new ArrayList<JSONObject>(candidates.size());
+		for(JsonObjectCore jsonObject: candidates) {
+			values.add(jsonObject.getValue(key));
+			provenance.add(jsonObject.getProvenance());
+		}
+		return resolutionPolicy.resolve(key, values, provenance);
+	}
+	
+	/**
+	 * Enables the temporal indexing of the fragments by the timestamp found
+	 * in their provenance under the given key (null disables it).
+	 * @param timestampKey	The provenance key holding the timestamp
+	 */
+	public void setTimestampKey(String timestampKey) {
+		this.timestampKey = timestampKey;
+		temporalIndex = null;
+	}
+	
+	/**
+	 * Returns the provenance key used for the temporal indexing.
+	 * @return The timestamp key or null if temporal indexing is disabled.
+	 */
+	public String getTimestampKey() {
+		return timestampKey;
+	}
+	
+	/**
+	 * Returns what this object looked like at the given instant: a new 
+	 * JsonDpObject with the fragments whose timestamp is not after the instant, 
+	 * in their original order. Fragments without timestamp are left out.
+	 * @param instant	The instant
+	 * @return The object as of the given instant.
+	 * @throws IllegalStateException if no timestamp key has been set.
+	 */
+	public JsonDpObject asOf(Instant instant) {
+		return copy(temporalIndex().asOf(TemporalIndex.toEpochMillis(instant)));
+	}
+	
+	/**
+	 * Returns a new JsonDpObject with the fragments whose timestamp is in 
+	 * the interval [from, to), in their original order. Fragments without 
+	 * timestamp are left out.
+	 * @param from	The beginning of the interval (included)
+	 * @param to	The end of the interval (excluded)
+	 * @return The fragments in the interval.
+	 * @throws IllegalStateException if no timestamp key has been set.
+	 */
+	public JsonDpObject between(Instant from, Instant to) {
+		return copy(temporalIndex().between(TemporalIndex.toEpochMillis(from), TemporalIndex.toEpochMillis(to)));
+	}
+	
+	/**
+	 * Returns the temporal index, after adding the fragments appended since
+	 * the last query. Fragments whose provenance changes update it directly.
+	 */
+	private TemporalIndex temporalIndex() {
+		if(timestampKey==null) throw new IllegalStateException("No timestamp key has been set");
+		if(temporalIndex==null) temporalIndex = new TemporalIndex(timestampKey);
+		for(int i=temporalIndex.size(); i<jsonObjects.size(); i++) {
+			JsonObjectCore jsonObject = jsonObjects.get(i);
+			jsonObject.temporalPosition = i;
+			temporalIndex.add(jsonObject.getProvenance());
+		}
+		return temporalIndex;
+	}
+	
+	private JsonDpObject copy(int[] positions) {
+		JsonDpObject copy = new JsonDpObject();
+		copy.timestampKey = timestampKey;
+		copy.resolutionPolicy = resolutionPolicy;
+		copy.writes = writes;
+		for(int position: positions) {
+			JsonObjectCore source = jsonObjects.get(position);
+			JsonObjectCore core = copy.new JsonObjectCore();
+			for(Object key: source.keySet()) {
+				core.put(key, source.getValue(key));
+				core.written.put(key, source.written(key));
+			}
+			if(source.getProvenance()!=null) core.setProvenance(source.getProvenance());
+			copy.jsonObjects.add(core);
+		}
+		return copy;
 	}
 	
 	public Object getWithProvenance(Object key) {
+		if(!keyFilter.mightContain(key)) return null;
 		JsonDpArray array = new JsonDpArray();
 		for(JsonObjectCore jsonObject: jsonObjects) {
 			if(jsonObject.containsKey(key)) {
 				Object d = jsonObject.getValue(key);
 				if(d!=null) {
 					if(jsonObject.getProvenance()!=null) {
-						System.out.println(jsonObject.getProvenance());
 						array.add(d, jsonObject.getProvenance());
-						System.out.println(array.plainJsonWithProvenanceToString());
 					} else array.add(d);
 				}
 			}
@@ -212,14 +527,71 @@ public class JsonDpObject implements JsonDpAware {
 	 * @return The provenance data. 
 	 */
 	public Object getProvenance() {
-		JSONArray array = new JSONArray();
+		JSONObject first = null;
+		JSONArray array = null;
+		for(int i=0; i<jsonObjects.size(); i++) {
+			JSONObject p = jsonObjects.get(i).getProvenance();
+			if(p==null) continue;
+			if(first==null) {
+				first = p;
+			} else {
+				if(array==null) {
+					array = new JSONArray();
+					array.add(first);
+				}
+				array.add(p);
+			}
+		}
+		return array!=null ? array.toString() : first;
+	}
+
+	/**
+	 * Returns the provenance data of every fragment of this object, in
+	 * insertion order. Fragments without provenance are skipped.
+	 * @return The list of provenance data objects (possibly empty).
+	 */
+	public List<JSONObject> getProvenanceSets() {
+		List<JSONObject> sets = new ArrayList<JSONObject>();
 		for(JsonObjectCore jsonObject: jsonObjects) {
 			JSONObject p = jsonObject.getProvenance();
-			if(p!=null) array.add(p);
+			if(p!=null) sets.add(p);
 		}
-		if(array.size()==0) return null;
-		else if(array.size()==1) return array.get(0);
-		return array.toString();
+		return sets;
+	}
+
+	/**
+	 * Returns the aggregated provenance of this object and of all the nested
+	 * documents. The summary is cached until this object, or a nested 
+	 * document, changes.
+	 * @return The provenance summary.
+	 */
+	public ProvenanceSummary getProvenanceSummary() {
+		if(!isProvenanceSummaryValid()) {
+			summarizeNestedDocuments();
+			ProvenanceSummary.Builder builder = new ProvenanceSummary.Builder();
+			for(int i=0; i<jsonObjects.size(); i++) {
+				JsonObjectCore core = jsonObjects.get(i);
+				builder.addFragment(core.getProvenance(), core.getPairs().size());
+				if(core.nested) {
+					for(Object value: core.getPairs().values()) {
+						builder.addNested(value);
+					}
+				}
+			}
+			provenanceSummary = builder.build();
+			provenanceSummaryVersion = version();
+		}
+		return provenanceSummary;
+	}
+	
+	/**
+	 * Returns a snapshot of the provenance statistics of the fragments of 
+	 * this object (nested documents are not included). The statistics are
+	 * maintained on every put, so no fragment is visited.
+	 * @return The provenance statistics.
+	 */
+	public ProvenanceStatistics getProvenanceStatistics() {
+		return statistics.copy();
 	}
 	
 	/**
@@ -231,6 +603,7 @@ public class JsonDpObject implements JsonDpAware {
 	 * @return The values given the key and provenance data.
 	 */
 	public Object get(Object key, Object provenanceKey, Object provenanceValue) {
+		if(!keyFilter.mightContain(key)) return null;
 		for(JsonObjectCore jsonObject: jsonObjects) {
 			if(jsonObject.containsKey(key)) {
 				if(jsonObject.containsProvenance(provenanceKey, provenanceValue)) {
@@ -273,6 +646,7 @@ public class JsonDpObject implements JsonDpAware {
 	
 	private JsonDpArray getValuesWithProvenance(Object key, Object provenanceKey, Object... provenanceValues) {
 		JsonDpArray object = new JsonDpArray();
+		if(!keyFilter.mightContain(key)) return object;
 		for(JsonObjectCore jsonObject: jsonObjects) {
 			if(jsonObject.containsKey(key)) {
 				for(Object provenanceValue: provenanceValues) {
@@ -287,12 +661,53 @@ public class JsonDpObject implements JsonDpAware {
 		return object;
 	}
 	
+	/**
+	 * Returns false if the object has certainly no value for the key, 
+	 * without probing the fragments.
+	 * @param key	The requested key
+	 * @return False if the key is missing, true if it might be present.
+	 */
+	public boolean mightContainKey(Object key) {
+		return keyFilter.mightContain(key);
+	}
+	
+	/**
+	 * Returns a copy of the Bloom filter over the keys of this object, to 
+	 * be shipped together with its serialized form.
+	 * @return The key filter.
+	 */
+	public KeyBloomFilter getKeyFilter() {
+		return keyFilter.copy();
+	}
+	
+	/**
+	 * Records a key added to a fragment, sizing the filter again when full.
+	 * Keys already present in other fragments are not counted again, so 
+	 * the filter is sized on the distinct keys. The fragment may not have 
+	 * been appended yet.
+	 */
+	private void keyAdded(JsonObjectCore fragment, Object key) {
+		if(keyFilter.mightContain(key)) return;
+		if(keyFilter.isFull()) {
+			HashSet<Object> keys = new HashSet<Object>();
+			for(int i=0; i<jsonObjects.size(); i++) keys.addAll(jsonObjects.get(i).pairs.keySet());
+			// Includes the new key, already put in the fragment
+			keys.addAll(fragment.pairs.keySet());
+			KeyBloomFilter filter = new KeyBloomFilter(keys.size()*2);
+			for(Object k: keys) filter.add(k);
+			keyFilter = filter;
+			return;
+		}
+		keyFilter.add(key);
+	}
+	
 	/**
 	 * Return true if the key is present
 	 * @param key	The requested key
 	 * @return True if key present
 	 */
 	public boolean containsKey(Object key) {
+		if(!keyFilter.mightContain(key)) return false;
 		for(JsonObjectCore jsonObject: jsonObjects) {
 			if(jsonObject.containsKey(key)) {
 				return true;
@@ -312,22 +727,18 @@ public class JsonDpObject implements JsonDpAware {
 	 */
 	public JSONArray getWithProvenanceAsPlainJson(Object key) {
 		JSONArray array = new JSONArray();
+		if(!keyFilter.mightContain(key)) return array;
 		for(JsonObjectCore jsonObject: jsonObjects) {
 			if(jsonObject.containsKey(key)) {
 				JSONObject obj = jsonObject.getValueAndProvenance(key);
-				if(obj!=null) 
-					array.add(jsonObject.getValueAndProvenance(key));
+				if(obj!=null) array.add(obj);
 			}
 		}
 		return array;
 	}
 	
 	public JSONArray getAllValuesAndProvenanceAsPlainJson() {
-		JSONArray array = new JSONArray();
-		for(JsonObjectCore jsonObject: jsonObjects) {
-			array.add(jsonObject.getPairsWithProvenance());
-		}
-		return array;
+		return (JSONArray) JsonTreeGenerator.toPlainJson(this, true);
 	}
 	
 	/**
@@ -335,20 +746,184 @@ public class JsonDpObject implements JsonDpAware {
 	 * @return The JSON array with all the values and provenance as a String.
 	 */
 	public String plainJsonWithProvenanceToString() {		
-		return getAllValuesAndProvenanceAsPlainJson().toString();
+		return toJsonString(true);
 	}
 	
 	/**
 	 * Returns the String representation of the data without the provenance.
 	 */
 	public String plainJsonToString() {
-		JSONObject o = new JSONObject();
-		//JSONArray array = new JSONArray();
-		for(JsonObjectCore jsonObject: jsonObjects) {
-			JSONObject jo = jsonObject.getPairs();
-			o.putAll(jo);
+		return toJsonString(false);
+	}
+	
+	/**
+	 * Returns the canonical String representation of the data with the 
+	 * provenance. Equal content always produces the same String.
+	 * @return The canonical JSON array with all the values and provenance.
+	 */
+	public String canonicalJsonWithProvenanceToString() {
+		return toJsonString(true, true);
+	}
+	
+	/**
+	 * Returns the canonical String representation of the data without the 
+	 * provenance. Equal content always produces the same String.
+	 * @return The canonical JSON representation of the values.
+	 */
+	public String canonicalJsonToString() {
+		return toJsonString(false, true);
+	}
+	
+	private String toJsonString(boolean withProvenance) {
+		return toJsonString(withProvenance, false);
+	}
+	
+	private String toJsonString(boolean withProvenance, boolean canonical) {
+		StringWriter out = new StringWriter();
+		try {
+			if(canonical) writeCanonicalJson(out, withProvenance);
+			else writeJson(out, withProvenance);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error writing to a String", e);
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Writes the JSON representation of the data with the default codec.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void writeJson(Writer out, boolean withProvenance) throws IOException {
+		writeJson(out, withProvenance, JsonDpCodecs.getDefault());
+	}
+	
+	/**
+	 * Writes the JSON representation of the data with the given codec.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @param codec				The codec providing the JSON writer
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void writeJson(Writer out, boolean withProvenance, JsonDpCodec codec) throws IOException {
+		JsonGenerator generator = codec.createGenerator(out);
+		new JsonDpWriter(generator, withProvenance).writeObject(this);
+		generator.flush();
+	}
+	
+	/**
+	 * Returns a 64-bit hash of the values and provenance of this object.
+	 * Fragments are hashed (and cached) one by one and combined in order, 
+	 * nested JSON-DP values contribute their own content hash. After a 
+	 * change only the modified fragments, and the fragments containing 
+	 * nested documents, are hashed again. Plain JSON values and provenance
+	 * objects are not supposed to be modified once added.
+	 * @return The content hash.
+	 */
+	public long contentHash() {
+		if(contentHashVersion!=version()) {
+			hashNestedDocuments();
+			long h = 11;
+			for(int i=0; i<jsonObjects.size(); i++) {
+				h = ContentHash.combine(h, jsonObjects.get(i).contentHash());
+			}
+			contentHash = h;
+			contentHashVersion = version();
+		}
+		return contentHash;
+	}
+	
+	/**
+	 * Returns an estimate of the heap retained by this object: fragments,
+	 * json-simple containers, strings, provenance and nested documents. 
+	 * Nested documents shared by several values (e.g. interned) are counted
+	 * once. The estimate is maintained incrementally and cached until the 
+	 * next change.
+	 * @return The estimated retained size in bytes.
+	 */
+	public long estimatedRetainedBytes() {
+		return retainedBytes();
+	}
+	
+	/**
+	 * Sets the memory budget guarding the put operations on this object 
+	 * (null removes it).
+	 * @param budget	The memory budget
+	 */
+	public void setMemoryBudget(MemoryBudget budget) {
+		memoryBudget(budget);
+	}
+	
+	/**
+	 * Returns the memory budget of this object.
+	 * @return The memory budget or null.
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget();
+	}
+	
+	long shallowBytes() {
+		return MemoryEstimator.NODE + MemoryEstimator.arrayList(jsonObjects.size()) + keyFilter.estimatedBytes()
+			+ statistics.estimatedBytes();
+	}
+	
+	/**
+	 * Two JsonDpObject instances are equal when they hold the same fragments
+	 * (key/value pairs with the same provenance) in the same order. Different
+	 * content hashes are detected without visiting the content.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj) return true;
+		if(!(obj instanceof JsonDpObject)) return false;
+		return contentEquals((JsonDpObject) obj);
+	}
+	
+	boolean isProvenanceSummaryValid() {
+		return provenanceSummary!=null && provenanceSummaryVersion==version();
+	}
+	
+	boolean isContentHashValid() {
+		return contentHashVersion==version();
+	}
+	
+	boolean fragmentsEqual(JsonDpNode node, ArrayDeque<JsonDpNode[]> pending) {
+		JsonDpObject other = (JsonDpObject) node;
+		if(jsonObjects.size()!=other.jsonObjects.size()) return false;
+		for(int i=0; i<jsonObjects.size(); i++) {
+			JsonObjectCore a = jsonObjects.get(i);
+			JsonObjectCore b = other.jsonObjects.get(i);
+			if(a.pairs.size()!=b.pairs.size()) return false;
+			for(Object key: a.pairs.keySet()) {
+				if(!b.pairs.containsKey(key)) return false;
+				if(!valuesEqual(a.pairs.get(key), b.pairs.get(key), pending)) return false;
+			}
+			if(a.provenanceObject==null ? b.provenanceObject!=null 
+					: !a.provenanceObject.equals(b.provenanceObject)) return false;
 		}
-		return o.toString();
+		return true;
+	}
+	
+	@Override
+	public int hashCode() {
+		long h = contentHash();
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	/**
+	 * Writes the canonical JSON representation of the data with the default 
+	 * codec: keys are sorted, provenance groups are deterministically ordered
+	 * and empty provenance is omitted, so that equal content is always 
+	 * written as the same bytes.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void writeCanonicalJson(Writer out, boolean withProvenance) throws IOException {
+		JsonGenerator generator = JsonDpCodecs.getDefault().createGenerator(out);
+		new JsonDpWriter(generator, withProvenance, true).writeObject(this);
+		generator.flush();
 	}
 	
 	@Override
@@ -376,6 +951,38 @@ public class JsonDpObject implements JsonDpAware {
 		 */
 		JSONObject provenanceObject;
 		
+		private long hash;
+		private boolean hashValid;
+		private boolean nested;
+		private boolean indexed;
+		
+		/**
+		 * The last requested key/value pair wrapped with the provenance in a
+		 * read-only object, dropped when the pair or the provenance changes. 
+		 * Only one is kept so that its size can be reserved in the estimate.
+		 * The wrapper carries its own key, so the cache is a single field.
+		 */
+		private volatile ProvenanceWrapper wrapper;
+		
+		/**
+		 * The write sequence of each pair in the document.
+		 */
+		private HashMap<Object, Long> written = new HashMap<Object, Long>();
+		
+		/**
+		 * The position of the fragment in the temporal index, once added.
+		 */
+		private int temporalPosition = -1;
+		
+		private long valueBytes;
+		private long provenanceBytes;
+		private long bytes;
+		
+		{
+			resize();
+			statistics.fragment(0, null, 1);
+		}
+		
 		/**
 		 * Returns all the pairs as a JSONObject.
 		 * @return All the pairs.
@@ -390,7 +997,46 @@ public class JsonDpObject implements JsonDpAware {
 		 * @param value The value
 		 */
 		public void put(Object key, Object value) {
-			pairs.put(key, value);
+			Object old = pairs.put(key, value);
+			written.put(key, ++writes);
+			if(wrapper!=null && wrapper.wraps(key)) wrapper = null;
+			if(old==null) {
+				keyAdded(this, key);
+				statistics.valueAdded(pairs.size()-1, provenanceObject);
+			}
+			if(old!=null) valueBytes -= MemoryEstimator.value(key) + MemoryEstimator.value(old);
+			valueBytes += MemoryEstimator.value(key) + MemoryEstimator.value(value);
+			unlink(old);
+			link(value);
+			if(value instanceof JsonDpNode) nested = true;
+			changed();
+		}
+		
+		/**
+		 * Replaces the value of an existing pair keeping its write sequence,
+		 * e.g. with an equal (interned) instance.
+		 * @param key	The key
+		 * @param value The replacement value
+		 */
+		void replace(Object key, Object value) {
+			Object old = pairs.put(key, value);
+			if(wrapper!=null && wrapper.wraps(key)) wrapper = null;
+			valueBytes += MemoryEstimator.value(value) - MemoryEstimator.value(old);
+			unlink(old);
+			link(value);
+			if(value instanceof JsonDpNode) nested = true;
+			changed();
+		}
+		
+		/**
+		 * Returns the write sequence of a pair: values written later have 
+		 * a greater sequence, whichever fragment holds them.
+		 * @param key	The key of the pair
+		 * @return The write sequence or 0 if the key is not present.
+		 */
+		long written(Object key) {
+			Long sequence = written.get(key);
+			return sequence!=null ? sequence : 0;
 		}
 		
 		/**
@@ -442,7 +1088,14 @@ public class JsonDpObject implements JsonDpAware {
 			if(provenanceObject==null) {
 				provenanceObject = new JSONObject();
 			}
-			provenanceObject.put(key, value);		
+			boolean wasEmpty = provenanceObject.isEmpty();
+			Object old = provenanceObject.put(key, value);
+			statistics.provenanceChanged(pairs.size(), wasEmpty, key, old, value);
+			wrapper = null;
+			provenanceBytes = MemoryEstimator.value(provenanceObject);
+			if(indexed) provenanceIndex = null;
+			if(timestampKey!=null && timestampKey.equals(key)) timestampChanged();
+			changed();
 		}
 		
 		/**
@@ -468,23 +1121,71 @@ public class JsonDpObject implements JsonDpAware {
 		 * @param provenance	The JSON object with the provenance data
 		 */
 		public void setProvenance(JSONObject provenance) {
+			statistics.provenanceReplaced(pairs.size(), provenanceObject, provenance);
 			provenanceObject = provenance;
+			wrapper = null;
+			provenanceBytes = MemoryEstimator.value(provenanceObject);
+			if(indexed) provenanceIndex = null;
+			timestampChanged();
+			changed();
+		}
+		
+		/**
+		 * Moves the fragment to its new place in the temporal index, if 
+		 * it has already been added.
+		 */
+		private void timestampChanged() {
+			if(temporalIndex!=null && temporalPosition>=0 && temporalPosition<temporalIndex.size()) 
+				temporalIndex.update(temporalPosition, provenanceObject);
+		}
+		
+		private void changed() {
+			hashValid = false;
+			resize();
+			modified();
+		}
+		
+		/**
+		 * Updates the estimated size of the fragment and of the object.
+		 */
+		private void resize() {
+			long size = MemoryEstimator.FRAGMENT + MemoryEstimator.hashMap(pairs.size()) 
+				+ MemoryEstimator.ENTRY*pairs.size() + MemoryEstimator.longMap(pairs.size()) + valueBytes 
+				+ provenanceBytes + MemoryEstimator.WRAPPER;
+			fragmentBytes += size - bytes;
+			bytes = size;
+		}
+		
+		/**
+		 * Returns the hash of the pairs and provenance of this fragment. 
+		 * It is cached unless the fragment contains nested JSON-DP values, 
+		 * in which case it is combined again from their (cached) hashes.
+		 * @return The content hash of the fragment.
+		 */
+		long contentHash() {
+			if(!hashValid || nested) {
+				hash = ContentHash.combine(ContentHash.hashMap(pairs), 
+					ContentHash.hashMap(provenanceObject));
+				hashValid = true;
+			}
+			return hash;
 		}
 
 		/**
-		 * Return the value of a specific key and its provenance.
+		 * Return the value of a specific key and its provenance. The result
+		 * is shared with the following requests of the same key until the 
+		 * value or the provenance changes, therefore it is read-only.
 		 * @param key	The key to look up.
 		 * @return The requested value with provenance. 
 		 */
 		public JSONObject getValueAndProvenance(Object key) {
-			JSONObject obj = null;
-			if(pairs.containsKey(key)) {
-				obj = new JSONObject();
-				obj.put(key, pairs.get(key));
-				if(provenanceObject!=null)
-					obj.put(PROVENANCE, provenanceObject);
-			}			
-			return obj;
+			if(!pairs.containsKey(key)) return null;
+			ProvenanceWrapper current = wrapper;
+			if(current==null || !current.wraps(key)) {
+				current = new ProvenanceWrapper(key, pairs.get(key), provenanceObject);
+				wrapper = current;
+			}
+			return current;
 		}
 		
 		/**
@@ -494,14 +1195,7 @@ public class JsonDpObject implements JsonDpAware {
 		protected JSONObject getPairsWithProvenance() {
 			JSONObject obj = new JSONObject();
 			for(Object key: pairs.keySet()) {
-				Object value = pairs.get(key);
-				if(value instanceof JsonDpObject) {
-					obj.put(key, ((JsonDpObject)value).getAllValuesAndProvenanceAsPlainJson());
-				} else if(value instanceof JsonDpArray) {
-					obj.put(key, (JSONArray) ((JsonDpArray)value).getAllValuesAndProvenanceAsPlainJson());
-				} else {
-					 obj.put(key, value);
-				}
+				obj.put(key, JsonTreeGenerator.toPlainJson(pairs.get(key), true));
 			}
 			if(provenanceObject!=null) obj.put(PROVENANCE, provenanceObject);
 			return obj;
@@ -0,0 +1,321 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Rebuilds JsonDpObject and JsonDpArray instances from the textual form
+ * produced by plainJsonWithProvenanceToString().
+ *
+ * <p>
+ * The fragments (and their provenance) are restored as they were serialized,
+ * without merging them again through put/add. Nested values are recognized
+ * by their shape: a non-empty array made only of objects is read as a
+ * JsonDpObject, a non-empty array made only of arrays is read as a
+ * JsonDpArray. Any other value is kept as plain JSON. Documents are 
+ * rebuilt with an explicit stack, so deep nesting does not exhaust the
+ * thread stack.
+ * </p>
+ *
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpParser {
+
+	private static final String PROVENANCE = "@provenance";
+	
+	private final JsonDpCodec codec;
+	
+	/**
+	 * Creates a parser reading JSON through the default codec.
+	 */
+	public JsonDpParser() {
+		this(JsonDpCodecs.getDefault());
+	}
+	
+	/**
+	 * Creates a parser reading JSON through the given codec.
+	 * @param codec	The codec
+	 */
+	public JsonDpParser(JsonDpCodec codec) {
+		if(codec==null) throw new IllegalArgumentException("The codec cannot be null");
+		this.codec = codec;
+	}
+
+	/**
+	 * Parses the textual representation (with provenance) of a JsonDpObject.
+	 * @param text	The output of JsonDpObject.plainJsonWithProvenanceToString()
+	 * @return The rebuilt JsonDpObject
+	 * @throws IllegalArgumentException if the text is not a valid JSON-DP object.
+	 */
+	public JsonDpObject parseObject(String text) {
+		try {
+			return parseObject(new StringReader(text));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error reading a String", e);
+		}
+	}
+	
+	/**
+	 * Reads the textual representation (with provenance) of a JsonDpObject.
+	 * @param in	The JSON-DP text
+	 * @return The rebuilt JsonDpObject
+	 * @throws IOException if the text cannot be read.
+	 * @throws IllegalArgumentException if the text is not a valid JSON-DP object.
+	 */
+	public JsonDpObject parseObject(Reader in) throws IOException {
+		Object parsed = codec.parse(in);
+		if(parsed instanceof JSONArray) {
+			return toJsonDpObject((JSONArray) parsed);
+		} else throw new IllegalArgumentException("A JSON-DP object must be encoded as a JSON array." +
+				" Found " + describe(parsed));
+	}
+
+	/**
+	 * Parses the textual representation (with provenance) of a JsonDpArray.
+	 * @param text	The output of JsonDpArray.plainJsonWithProvenanceToString()
+	 * @return The rebuilt JsonDpArray
+	 * @throws IllegalArgumentException if the text is not a valid JSON-DP array.
+	 */
+	public JsonDpArray parseArray(String text) {
+		try {
+			return parseArray(new StringReader(text));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error reading a String", e);
+		}
+	}
+	
+	/**
+	 * Reads the textual representation (with provenance) of a JsonDpArray.
+	 * @param in	The JSON-DP text
+	 * @return The rebuilt JsonDpArray
+	 * @throws IOException if the text cannot be read.
+	 * @throws IllegalArgumentException if the text is not a valid JSON-DP array.
+	 */
+	public JsonDpArray parseArray(Reader in) throws IOException {
+		Object parsed = codec.parse(in);
+		if(parsed instanceof JSONArray) {
+			return toJsonDpArray((JSONArray) parsed);
+		} else throw new IllegalArgumentException("A JSON-DP array must be encoded as a JSON array." +
+				" Found " + describe(parsed));
+	}
+
+	/**
+	 * Rebuilds a JsonDpObject from its already parsed JSON representation.
+	 * @param fragments	The array of fragments, each with optional provenance
+	 * @return The rebuilt JsonDpObject
+	 * @throws IllegalArgumentException if a fragment is not a JSON object.
+	 */
+	public JsonDpObject toJsonDpObject(JSONArray fragments) {
+		return (JsonDpObject) rebuild(new ObjectFrame(fragments));
+	}
+
+	/**
+	 * Rebuilds a JsonDpArray from its already parsed JSON representation.
+	 * @param groups	The array of groups, each with optional trailing provenance
+	 * @return The rebuilt JsonDpArray
+	 * @throws IllegalArgumentException if a group is not a JSON array.
+	 */
+	public JsonDpArray toJsonDpArray(JSONArray groups) {
+		return (JsonDpArray) rebuild(new ArrayFrame(groups));
+	}
+	
+	/**
+	 * Rebuilds the documents with an explicit stack, so that the nesting 
+	 * depth is only limited by the heap. Nested documents are completed 
+	 * before being added to their parent.
+	 */
+	private JsonDpNode rebuild(Frame root) {
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(root);
+		while(true) {
+			Frame top = stack.peek();
+			Frame nested = top.step();
+			if(nested!=null) {
+				stack.push(nested);
+				continue;
+			}
+			stack.pop();
+			if(stack.isEmpty()) return top.node();
+			stack.peek().accept(top.node());
+		}
+	}
+
+	/**
+	 * Returns the frame rebuilding a nested value or null if the value is
+	 * kept as plain JSON.
+	 */
+	private Frame nested(Object value) {
+		if(value instanceof JSONArray) {
+			JSONArray json = (JSONArray) value;
+			if(json.isEmpty()) return null;
+			if(containsOnly(json, JSONObject.class)) return new ObjectFrame(json);
+			if(containsOnly(json, JSONArray.class)) return new ArrayFrame(json);
+		}
+		return null;
+	}
+	
+	private abstract class Frame {
+		
+		/**
+		 * Rebuilds the next values until a nested document is found.
+		 * @return The frame of the nested document or null when done.
+		 */
+		abstract Frame step();
+		
+		/**
+		 * Adds the rebuilt nested document requested by the last step.
+		 */
+		abstract void accept(JsonDpNode nested);
+		
+		abstract JsonDpNode node();
+	}
+	
+	private final class ObjectFrame extends Frame {
+		
+		private final JSONArray fragments;
+		private final JsonDpObject object = new JsonDpObject();
+		private int fragment;
+		private JsonDpObject.JsonObjectCore core;
+		private Iterator<?> keys;
+		private JSONObject json;
+		private Object pendingKey;
+		
+		ObjectFrame(JSONArray fragments) {
+			this.fragments = fragments;
+		}
+		
+		Frame step() {
+			while(true) {
+				if(core==null) {
+					if(fragment==fragments.size()) return null;
+					Object next = fragments.get(fragment);
+					if(!(next instanceof JSONObject))
+						throw new IllegalArgumentException("JSON-DP object fragments must be JSON objects." +
+							" Found " + describe(next));
+					json = (JSONObject) next;
+					core = object.new JsonObjectCore();
+					keys = json.keySet().iterator();
+				}
+				if(keys.hasNext()) {
+					Object key = keys.next();
+					Object value = json.get(key);
+					if(PROVENANCE.equals(key) && value instanceof JSONObject) {
+						core.setProvenance((JSONObject) value);
+					} else {
+						Frame nested = nested(value);
+						if(nested!=null) {
+							pendingKey = key;
+							return nested;
+						}
+						core.put(key, value);
+					}
+				} else {
+					object.jsonObjects.add(core);
+					core = null;
+					fragment++;
+				}
+			}
+		}
+		
+		void accept(JsonDpNode nested) {
+			core.put(pendingKey, nested);
+		}
+		
+		JsonDpNode node() {
+			return object;
+		}
+	}
+	
+	private final class ArrayFrame extends Frame {
+		
+		private final JSONArray groups;
+		private final JsonDpArray array = new JsonDpArray();
+		private int group;
+		private JsonDpArray.JsonArrayObject arrayObject;
+		private JSONArray json;
+		private int item;
+		
+		ArrayFrame(JSONArray groups) {
+			this.groups = groups;
+		}
+		
+		Frame step() {
+			while(true) {
+				if(arrayObject==null) {
+					if(group==groups.size()) return null;
+					Object next = groups.get(group);
+					if(!(next instanceof JSONArray))
+						throw new IllegalArgumentException("JSON-DP array groups must be JSON arrays." +
+							" Found " + describe(next));
+					json = (JSONArray) next;
+					arrayObject = array.new JsonArrayObject();
+					item = 0;
+				}
+				if(item<json.size()) {
+					Object value = json.get(item);
+					if(item++==json.size()-1 && isProvenanceWrapper(value)) {
+						arrayObject.setProvenance((JSONObject) ((JSONObject) value).get(PROVENANCE));
+					} else {
+						Frame nested = nested(value);
+						if(nested!=null) return nested;
+						arrayObject.add(value);
+					}
+				} else {
+					array.jsonArrayObjects.add(arrayObject);
+					arrayObject = null;
+					group++;
+				}
+			}
+		}
+		
+		void accept(JsonDpNode nested) {
+			arrayObject.add(nested);
+		}
+		
+		JsonDpNode node() {
+			return array;
+		}
+	}
+
+	private boolean containsOnly(JSONArray json, Class<?> type) {
+		for(Object item: json) {
+			if(!type.isInstance(item)) return false;
+		}
+		return true;
+	}
+
+	private boolean isProvenanceWrapper(Object item) {
+		return item instanceof JSONObject && ((JSONObject) item).size()==1
+			&& ((JSONObject) item).get(PROVENANCE) instanceof JSONObject;
+	}
+
+	private String describe(Object value) {
+		return value==null ? "null" : value.getClass().getName();
+	}
+}
@@ -0,0 +1,250 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Schema of JSON-DP documents: the types of the values, the required keys
+ * and the provenance allowed and required for each key. A schema is 
+ * compiled into a JsonDpValidator that checks the documents in one pass
+ * over their fragments.
+ * 
+ * <pre>
+ * JsonDpValidator validator = JsonDpSchema.object()
+ *     .required("name", JsonDpSchema.string())
+ *     .optional("tags", JsonDpSchema.array(JsonDpSchema.string()))
+ *     .requireProvenance("name", "importedFrom")
+ *     .compile();
+ * </pre>
+ * 
+ * <p>
+ * As JsonDpObject stores scalar values as Strings, number() and bool() 
+ * accept both the parsed JSON values and their textual form. Schemas are
+ * mutable until compiled; changes made afterwards do not affect the 
+ * compiled validators. An object schema can refer to itself.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public abstract class JsonDpSchema {
+
+	enum Type { ANY, STRING, NUMBER, BOOLEAN, JSON }
+	
+	JsonDpSchema() {}
+	
+	public static JsonDpSchema any() {
+		return new ValueSchema(Type.ANY);
+	}
+	
+	public static JsonDpSchema string() {
+		return new ValueSchema(Type.STRING);
+	}
+	
+	public static JsonDpSchema number() {
+		return new ValueSchema(Type.NUMBER);
+	}
+	
+	public static JsonDpSchema bool() {
+		return new ValueSchema(Type.BOOLEAN);
+	}
+	
+	/**
+	 * Returns the schema of plain JSON values (JSONObject or JSONArray).
+	 * @return The schema.
+	 */
+	public static JsonDpSchema json() {
+		return new ValueSchema(Type.JSON);
+	}
+	
+	/**
+	 * Returns a new schema of JsonDpObject documents, with no keys.
+	 * @return The schema.
+	 */
+	public static ObjectSchema object() {
+		return new ObjectSchema();
+	}
+	
+	/**
+	 * Returns a new schema of JsonDpArray documents.
+	 * @param items	The schema of the items
+	 * @return The schema.
+	 */
+	public static ArraySchema array(JsonDpSchema items) {
+		if(items==null) throw new IllegalArgumentException("The items schema cannot be null");
+		return new ArraySchema(items);
+	}
+	
+	/**
+	 * Compiles the schema into a validator.
+	 * @return The validator.
+	 */
+	public JsonDpValidator compile() {
+		return new JsonDpValidator(compile(new IdentityHashMap<JsonDpSchema, JsonDpValidator.Check>()));
+	}
+	
+	abstract JsonDpValidator.Check compile(Map<JsonDpSchema, JsonDpValidator.Check> compiled);
+	
+	static class ValueSchema extends JsonDpSchema {
+		private final Type type;
+		
+		ValueSchema(Type type) {
+			this.type = type;
+		}
+		
+		JsonDpValidator.Check compile(Map<JsonDpSchema, JsonDpValidator.Check> compiled) {
+			return new JsonDpValidator.ValueCheck(type);
+		}
+	}
+	
+	/**
+	 * Schema of JsonDpObject documents.
+	 */
+	public static class ObjectSchema extends JsonDpSchema {
+		
+		private final LinkedHashMap<String, JsonDpSchema> keys = new LinkedHashMap<String, JsonDpSchema>();
+		private final Set<String> required = new LinkedHashSet<String>();
+		private final Map<String, String[]> requiredProvenance = new LinkedHashMap<String, String[]>();
+		private Set<String> allowedProvenance;
+		private boolean closed;
+		
+		ObjectSchema() {}
+		
+		/**
+		 * Declares a required key.
+		 * @param key		The key
+		 * @param schema	The schema of its values
+		 * @return This schema.
+		 */
+		public ObjectSchema required(String key, JsonDpSchema schema) {
+			optional(key, schema);
+			required.add(key);
+			return this;
+		}
+		
+		/**
+		 * Declares an optional key.
+		 * @param key		The key
+		 * @param schema	The schema of its values
+		 * @return This schema.
+		 */
+		public ObjectSchema optional(String key, JsonDpSchema schema) {
+			if(key==null) throw new IllegalArgumentException("The key cannot be null");
+			if(schema==null) throw new IllegalArgumentException("The schema cannot be null");
+			keys.put(key, schema);
+			required.remove(key);
+			return this;
+		}
+		
+		/**
+		 * Requires every value of a declared key to come with provenance data 
+		 * including the given provenance keys.
+		 * @param key				The declared key
+		 * @param provenanceKeys	The required provenance keys
+		 * @return This schema.
+		 */
+		public ObjectSchema requireProvenance(String key, String... provenanceKeys) {
+			if(!keys.containsKey(key)) throw new IllegalArgumentException("The key " + key + " has not been declared");
+			requiredProvenance.put(key, provenanceKeys.clone());
+			return this;
+		}
+		
+		/**
+		 * Restricts the keys allowed in the provenance data of the object 
+		 * (any key is allowed by default).
+		 * @param provenanceKeys	The allowed provenance keys
+		 * @return This schema.
+		 */
+		public ObjectSchema allowProvenanceKeys(String... provenanceKeys) {
+			allowedProvenance = new LinkedHashSet<String>(Arrays.asList(provenanceKeys));
+			return this;
+		}
+		
+		/**
+		 * Rejects the keys that have not been declared (accepted by default).
+		 * @return This schema.
+		 */
+		public ObjectSchema closed() {
+			closed = true;
+			return this;
+		}
+		
+		JsonDpValidator.Check compile(Map<JsonDpSchema, JsonDpValidator.Check> compiled) {
+			JsonDpValidator.ObjectCheck check = (JsonDpValidator.ObjectCheck) compiled.get(this);
+			if(check!=null) return check;
+			check = new JsonDpValidator.ObjectCheck();
+			// Registered before the keys are compiled so that cycles end here
+			compiled.put(this, check);
+			ArrayList<JsonDpValidator.Check> checks = new ArrayList<JsonDpValidator.Check>();
+			for(JsonDpSchema schema: keys.values()) checks.add(schema.compile(compiled));
+			check.initialize(keys.keySet().toArray(new String[keys.size()]), 
+				checks.toArray(new JsonDpValidator.Check[checks.size()]), required, requiredProvenance, 
+				allowedProvenance, closed);
+			return check;
+		}
+	}
+	
+	/**
+	 * Schema of JsonDpArray documents.
+	 */
+	public static class ArraySchema extends JsonDpSchema {
+		
+		private final JsonDpSchema items;
+		private String[] requiredProvenance;
+		private Set<String> allowedProvenance;
+		
+		ArraySchema(JsonDpSchema items) {
+			this.items = items;
+		}
+		
+		/**
+		 * Requires every item to come with provenance data including the 
+		 * given provenance keys.
+		 * @param provenanceKeys	The required provenance keys
+		 * @return This schema.
+		 */
+		public ArraySchema requireProvenance(String... provenanceKeys) {
+			requiredProvenance = provenanceKeys.clone();
+			return this;
+		}
+		
+		/**
+		 * Restricts the keys allowed in the provenance data of the items 
+		 * (any key is allowed by default).
+		 * @param provenanceKeys	The allowed provenance keys
+		 * @return This schema.
+		 */
+		public ArraySchema allowProvenanceKeys(String... provenanceKeys) {
+			allowedProvenance = new LinkedHashSet<String>(Arrays.asList(provenanceKeys));
+			return this;
+		}
+		
+		JsonDpValidator.Check compile(Map<JsonDpSchema, JsonDpValidator.Check> compiled) {
+			return new JsonDpValidator.ArrayCheck(items.compile(compiled), requiredProvenance, allowedProvenance);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the JSON representation of a JsonDpObject or of a JsonDpArray 
+ * incrementally, a bounded number of elements (values, fragments, groups 
+ * or keys, at any nesting level) per call, so that the caller decides how 
+ * much of the serialization is produced before consuming it. The 
+ * concatenation of the output of all the calls is identical to 
+ * plainJsonToString() or plainJsonWithProvenanceToString().
+ * 
+ * <p>
+ * The document must not be modified while it is being written.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpSegmentWriter {
+
+	private final Object document;
+	private final JsonGenerator generator;
+	private final JsonDpWriter writer;
+	private boolean started;
+	private boolean finished;
+	
+	/**
+	 * Creates a segment writer for a JsonDpObject using the default codec.
+	 * @param document			The document to write
+	 * @param withProvenance	True to include the provenance data
+	 * @param out				The output of all the segments
+	 */
+	public JsonDpSegmentWriter(JsonDpObject document, boolean withProvenance, Writer out) {
+		this((Object) document, withProvenance, out);
+	}
+	
+	/**
+	 * Creates a segment writer for a JsonDpArray using the default codec.
+	 * @param document			The document to write
+	 * @param withProvenance	True to include the provenance data
+	 * @param out				The output of all the segments
+	 */
+	public JsonDpSegmentWriter(JsonDpArray document, boolean withProvenance, Writer out) {
+		this((Object) document, withProvenance, out);
+	}
+	
+	private JsonDpSegmentWriter(Object document, boolean withProvenance, Writer out) {
+		if(document==null) throw new IllegalArgumentException("The document cannot be null");
+		if(out==null) throw new IllegalArgumentException("The output cannot be null");
+		this.document = document;
+		this.generator = JsonDpCodecs.getDefault().createGenerator(out);
+		this.writer = new JsonDpWriter(generator, withProvenance);
+	}
+	
+	/**
+	 * Writes the next segment of the document and flushes it to the output.
+	 * @param maxElements	The maximum number of elements written by this call
+	 * @return True if there is more to write.
+	 * @throws IOException if the output cannot be written.
+	 */
+	public boolean writeNext(int maxElements) throws IOException {
+		if(maxElements<=0) throw new IllegalArgumentException("At least one element must be written per segment");
+		if(finished) return false;
+		if(!started) {
+			writer.begin(document);
+			started = true;
+		}
+		finished = !writer.step(maxElements);
+		generator.flush();
+		return !finished;
+	}
+	
+	/**
+	 * Returns true once the whole document has been written.
+	 * @return True if the whole document has been written.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+}
@@ -0,0 +1,404 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Validator compiled from a JsonDpSchema: a tree of checks run directly 
+ * over the fragments of the documents, in one pass and without converting
+ * them to plain JSON. The paths of the values are only rendered when an
+ * error is found.
+ * 
+ * <p>
+ * Validators are immutable and can be shared between threads.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ * @see JsonDpSchema
+ */
+public class JsonDpValidator {
+
+	private static final String PROVENANCE = "@provenance";
+	
+	private final Check root;
+	
+	JsonDpValidator(Check root) {
+		this.root = root;
+	}
+	
+	/**
+	 * Validates a document reporting all the errors.
+	 * @param document	The JsonDpObject or JsonDpArray
+	 * @return The validation result.
+	 */
+	public ValidationResult validate(JsonDpAware document) {
+		return validate(document, false);
+	}
+	
+	/**
+	 * Validates a document.
+	 * @param document	The JsonDpObject or JsonDpArray
+	 * @param failFast	True to stop at the first error
+	 * @return The validation result.
+	 */
+	public ValidationResult validate(JsonDpAware document, boolean failFast) {
+		if(document==null) throw new IllegalArgumentException("The document cannot be null");
+		Context context = new Context(failFast);
+		context.run(root, document);
+		return new ValidationResult(context.errors);
+	}
+	
+	/**
+	 * Returns true if the document is valid, stopping at the first error.
+	 * @param document	The JsonDpObject or JsonDpArray
+	 * @return True if the document is valid.
+	 */
+	public boolean isValid(JsonDpAware document) {
+		return validate(document, true).isValid();
+	}
+	
+	/**
+	 * State of a validation: the errors, the path of the current value and
+	 * the stack of the values being visited. The stack is explicit so that
+	 * the depth of the documents is not bounded by the thread stack.
+	 */
+	static class Context {
+		final boolean failFast;
+		final ArrayList<String> errors = new ArrayList<String>(0);
+		boolean stopped;
+		
+		private Object[] keys = new Object[16];
+		private int[] indices = new int[16];
+		private int depth;
+		
+		private Frame[] frames = new Frame[16];
+		private int frameCount;
+		
+		Context(boolean failFast) {
+			this.failFast = failFast;
+		}
+		
+		/**
+		 * Validates a value and, depth first, all the values it contains.
+		 */
+		void run(Check check, Object value) {
+			visit(check, value);
+			while(frameCount>0) {
+				Frame frame = frames[frameCount-1];
+				if(stopped || !frame.next(this)) frames[--frameCount] = null;
+			}
+		}
+		
+		/**
+		 * Validates a value, scheduling the visit of its content.
+		 * @return True if a frame has been pushed for the content.
+		 */
+		boolean visit(Check check, Object value) {
+			Frame frame = check.validate(value, this);
+			if(frame==null) return false;
+			if(frameCount==frames.length) frames = Arrays.copyOf(frames, frameCount*2);
+			frames[frameCount++] = frame;
+			return true;
+		}
+		
+		void push(Object key, int index) {
+			if(depth==keys.length) {
+				keys = Arrays.copyOf(keys, depth*2);
+				indices = Arrays.copyOf(indices, depth*2);
+			}
+			keys[depth] = key;
+			indices[depth++] = index;
+		}
+		
+		void pop() {
+			keys[--depth] = null;
+		}
+		
+		void fail(String message) {
+			StringBuilder path = new StringBuilder("$");
+			for(int i=0; i<depth; i++) {
+				if(keys[i]!=null) path.append('.').append(keys[i]);
+				else path.append('[').append(indices[i]).append(']');
+			}
+			errors.add(path.append(": ").append(message).toString());
+			if(failFast) stopped = true;
+		}
+	}
+	
+	static abstract class Check {
+		/**
+		 * Validates a value without descending into its content.
+		 * @return The frame visiting the content or null if there is none.
+		 */
+		abstract Frame validate(Object value, Context context);
+	}
+	
+	/**
+	 * Visit of the content of an object or array, one value at a time.
+	 */
+	static abstract class Frame {
+		/**
+		 * Validates the next values, stopping after visiting one that has 
+		 * content of its own (pushed on the context).
+		 * @return False when the content has been visited.
+		 */
+		abstract boolean next(Context context);
+	}
+	
+	static class ValueCheck extends Check {
+		private final JsonDpSchema.Type type;
+		
+		ValueCheck(JsonDpSchema.Type type) {
+			this.type = type;
+		}
+		
+		Frame validate(Object value, Context context) {
+			switch(type) {
+				case STRING: 
+					if(!(value instanceof String)) context.fail("expected a string, found " + describe(value));
+					break;
+				case NUMBER: 
+					if(!(value instanceof Number || (value instanceof String && isNumber((String) value)))) 
+						context.fail("expected a number, found " + describe(value));
+					break;
+				case BOOLEAN: 
+					if(!(value instanceof Boolean || "true".equals(value) || "false".equals(value))) 
+						context.fail("expected a boolean, found " + describe(value));
+					break;
+				case JSON: 
+					if(!(value instanceof JSONObject || value instanceof JSONArray)) 
+						context.fail("expected plain JSON, found " + describe(value));
+					break;
+				default:
+			}
+			return null;
+		}
+		
+		private static boolean isNumber(String value) {
+			try {
+				Double.parseDouble(value);
+				return !value.isEmpty() && Character.isDigit(value.charAt(value.length()-1));
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+	}
+	
+	static class ObjectCheck extends Check {
+		private HashMap<Object, Integer> index;
+		private String[] keys;
+		private Check[] checks;
+		private boolean[] required;
+		private int requiredCount;
+		private String[][] requiredProvenance;
+		private Set<String> allowedProvenance;
+		private boolean closed;
+		
+		void initialize(String[] keys, Check[] checks, Set<String> required, Map<String, String[]> requiredProvenance, 
+				Set<String> allowedProvenance, boolean closed) {
+			this.keys = keys;
+			this.checks = checks;
+			this.index = new HashMap<Object, Integer>();
+			this.required = new boolean[keys.length];
+			this.requiredProvenance = new String[keys.length][];
+			for(int i=0; i<keys.length; i++) {
+				index.put(keys[i], i);
+				this.required[i] = required.contains(keys[i]);
+				if(this.required[i]) requiredCount++;
+				String[] provenanceKeys = requiredProvenance.get(keys[i]);
+				if(provenanceKeys!=null && provenanceKeys.length>0) this.requiredProvenance[i] = provenanceKeys.clone();
+			}
+			this.allowedProvenance = allowedProvenance==null ? null : new HashSet<String>(allowedProvenance);
+			this.closed = closed;
+		}
+		
+		Frame validate(Object value, Context context) {
+			if(!(value instanceof JsonDpObject)) {
+				context.fail("expected a JSON-DP object, found " + describe(value));
+				return null;
+			}
+			return new ObjectFrame(((JsonDpObject) value).jsonObjects);
+		}
+		
+		private class ObjectFrame extends Frame {
+			private final ArrayList<JsonDpObject.JsonObjectCore> fragments;
+			private final boolean[] seen;
+			private int fragment = -1;
+			private JSONObject provenance;
+			private Iterator<?> pairs;
+			private boolean visiting;
+			
+			ObjectFrame(ArrayList<JsonDpObject.JsonObjectCore> fragments) {
+				this.fragments = fragments;
+				this.seen = requiredCount>0 ? new boolean[keys.length] : null;
+			}
+			
+			boolean next(Context context) {
+				if(visiting) {
+					visiting = false;
+					context.pop();
+				}
+				while(true) {
+					if(pairs!=null && pairs.hasNext()) {
+						Map.Entry<?, ?> pair = (Map.Entry<?, ?>) pairs.next();
+						Integer i = index.get(pair.getKey());
+						context.push(pair.getKey(), 0);
+						if(i==null) {
+							if(closed) context.fail("undeclared key");
+						} else {
+							if(seen!=null) seen[i] = true;
+							String[] provenanceKeys = requiredProvenance[i];
+							if(provenanceKeys!=null) checkRequiredProvenance(provenance, provenanceKeys, context);
+							if(!context.stopped && context.visit(checks[i], pair.getValue())) {
+								visiting = true;
+								return true;
+							}
+						}
+						context.pop();
+						if(context.stopped) return false;
+					} else if(++fragment<fragments.size()) {
+						JsonDpObject.JsonObjectCore core = fragments.get(fragment);
+						provenance = core.provenanceObject;
+						if(!checkProvenanceKeys(provenance, allowedProvenance, context)) return false;
+						pairs = core.pairs.entrySet().iterator();
+					} else {
+						if(seen!=null) checkRequired(context);
+						return false;
+					}
+				}
+			}
+			
+			private void checkRequired(Context context) {
+				for(int i=0; i<keys.length; i++) {
+					if(required[i] && !seen[i]) {
+						context.push(keys[i], 0);
+						context.fail("missing required key");
+						context.pop();
+						if(context.stopped) return;
+					}
+				}
+			}
+		}
+	}
+	
+	static class ArrayCheck extends Check {
+		private final Check items;
+		private final String[] requiredProvenance;
+		private final Set<String> allowedProvenance;
+		
+		ArrayCheck(Check items, String[] requiredProvenance, Set<String> allowedProvenance) {
+			this.items = items;
+			this.requiredProvenance = requiredProvenance==null || requiredProvenance.length==0 ? null : requiredProvenance.clone();
+			this.allowedProvenance = allowedProvenance==null ? null : new HashSet<String>(allowedProvenance);
+		}
+		
+		Frame validate(Object value, Context context) {
+			if(!(value instanceof JsonDpArray)) {
+				context.fail("expected a JSON-DP array, found " + describe(value));
+				return null;
+			}
+			return new ArrayFrame(((JsonDpArray) value).jsonArrayObjects);
+		}
+		
+		private class ArrayFrame extends Frame {
+			private final ArrayList<JsonDpArray.JsonArrayObject> groups;
+			private int group = -1;
+			private JSONArray values;
+			private int item;
+			private int position;
+			private boolean visiting;
+			
+			ArrayFrame(ArrayList<JsonDpArray.JsonArrayObject> groups) {
+				this.groups = groups;
+			}
+			
+			boolean next(Context context) {
+				if(visiting) {
+					visiting = false;
+					context.pop();
+				}
+				while(true) {
+					if(values!=null && item<values.size()) {
+						context.push(null, position++);
+						if(context.visit(items, values.get(item++))) {
+							visiting = true;
+							return true;
+						}
+						context.pop();
+						if(context.stopped) return false;
+					} else if(++group<groups.size()) {
+						JsonDpArray.JsonArrayObject current = groups.get(group);
+						JSONObject provenance = current.provenanceObject;
+						context.push(null, position);
+						boolean valid = checkProvenanceKeys(provenance, allowedProvenance, context);
+						if(valid && requiredProvenance!=null) checkRequiredProvenance(provenance, requiredProvenance, context);
+						context.pop();
+						if(context.stopped) return false;
+						values = current.items;
+						item = 0;
+					} else {
+						return false;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks the provenance keys against the allowed ones (if restricted).
+	 * @return False if the validation must stop.
+	 */
+	private static boolean checkProvenanceKeys(JSONObject provenance, Set<String> allowed, Context context) {
+		if(allowed==null || provenance==null) return true;
+		for(Object key: provenance.keySet()) {
+			if(!allowed.contains(key)) {
+				context.push(PROVENANCE, 0);
+				context.fail("provenance key " + key + " not allowed");
+				context.pop();
+				if(context.stopped) return false;
+			}
+		}
+		return true;
+	}
+	
+	private static void checkRequiredProvenance(JSONObject provenance, String[] required, Context context) {
+		for(String key: required) {
+			if(provenance==null || !provenance.containsKey(key)) {
+				context.fail("missing provenance key " + key);
+				if(context.stopped) return;
+			}
+		}
+	}
+	
+	private static String describe(Object value) {
+		return value==null ? "null" : value.getClass().getSimpleName();
+	}
+}
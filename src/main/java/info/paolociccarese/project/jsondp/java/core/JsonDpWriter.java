@@ -0,0 +1,429 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Serializes JSON-DP documents through a JsonGenerator, walking the 
+ * fragments directly instead of building the intermediate JSONObject 
+ * and JSONArray copies used by the *AsPlainJson methods.
+ * 
+ * <p>
+ * Nesting is handled with an explicit stack of frames, one per open 
+ * container, so the depth of the documents is only limited by the heap.
+ * Each container is written once, when its frame is on top of the stack.
+ * </p>
+ * 
+ * <p>
+ * In canonical mode the output only depends on the content: the keys of
+ * every object (provenance included) are sorted, the fragments of a 
+ * JsonDpObject are ordered by provenance and content hash, adjacent groups 
+ * of a JsonDpArray with the same provenance are written as one group and 
+ * empty provenance objects are omitted. Sorting is local to each object 
+ * (only its keys or fragment indexes are sorted) and the document is still 
+ * written in a single pass.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class JsonDpWriter {
+
+	private static final String PROVENANCE = "@provenance";
+	
+	/**
+	 * Marks the position of the provenance among the keys of a fragment.
+	 * A distinct instance, so that it cannot be confused with a key.
+	 */
+	private static final Object PROVENANCE_KEY = new String(PROVENANCE);
+	
+	private final JsonGenerator generator;
+	private final boolean withProvenance;
+	private final boolean canonical;
+	private final ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+	
+	JsonDpWriter(JsonGenerator generator, boolean withProvenance) {
+		this(generator, withProvenance, false);
+	}
+	
+	JsonDpWriter(JsonGenerator generator, boolean withProvenance, boolean canonical) {
+		this.generator = generator;
+		this.withProvenance = withProvenance;
+		this.canonical = canonical;
+	}
+	
+	/**
+	 * Writes a value: a JSON-DP document, a plain JSON container or 
+	 * a scalar.
+	 * @param value	The value to write
+	 * @throws IOException if the output cannot be written.
+	 */
+	void write(Object value) throws IOException {
+		int base = stack.size();
+		value(value);
+		while(stack.size()>base) {
+			Frame top = stack.peek();
+			if(!top.next()) stack.pop();
+		}
+	}
+	
+	/**
+	 * Starts writing a value incrementally: scalars are written at once,
+	 * containers by the following calls to step().
+	 * @param value	The value to write
+	 * @throws IOException if the output cannot be written.
+	 */
+	void begin(Object value) throws IOException {
+		if(!stack.isEmpty()) throw new IllegalStateException("A value is already being written");
+		value(value);
+	}
+	
+	/**
+	 * Writes (or opens) at most the given number of elements of the value
+	 * started by begin().
+	 * @param maxElements	The maximum number of elements written
+	 * @return True if there is more to write.
+	 * @throws IOException if the output cannot be written.
+	 */
+	boolean step(int maxElements) throws IOException {
+		for(int i=0; i<maxElements && !stack.isEmpty(); i++) {
+			if(!stack.peek().next()) stack.pop();
+		}
+		return !stack.isEmpty();
+	}
+	
+	void writeObject(JsonDpObject object) throws IOException {
+		write(object);
+	}
+	
+	void writeArray(JsonDpArray array) throws IOException {
+		write(array);
+	}
+	
+	/**
+	 * Writes a scalar or opens the frame of a container.
+	 */
+	private void value(Object value) throws IOException {
+		if(value instanceof JsonDpObject) {
+			openObject((JsonDpObject) value);
+		} else if(value instanceof JsonDpArray) {
+			openArray((JsonDpArray) value);
+		} else if(value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			Object[] keys = canonical ? sortedKeys(map.keySet(), null) : map.keySet().toArray();
+			Object[] values = new Object[keys.length];
+			for(int i=0; i<keys.length; i++) {
+				values[i] = map.get(keys[i]);
+			}
+			push(new ObjectFrame(keys, values));
+		} else if(value instanceof List) {
+			push(new ListFrame(Collections.singletonList((List<?>) value), null));
+		} else {
+			generator.writeValue(value);
+		}
+	}
+	
+	private void push(Frame frame) throws IOException {
+		frame.open();
+		stack.push(frame);
+	}
+	
+	private void openObject(JsonDpObject object) throws IOException {
+		int size = object.jsonObjects.size();
+		if(withProvenance) {
+			Integer[] order = new Integer[size];
+			for(int i=0; i<size; i++) {
+				order[i] = i;
+			}
+			if(canonical) {
+				// Fragments are ordered by provenance first, then by content
+				final long[] provenanceHashes = new long[size];
+				final long[] contentHashes = new long[size];
+				// Hashes the nested documents bottom-up first, so that the
+				// fragment hashes below only combine cached hashes
+				object.hashNestedDocuments();
+				for(int i=0; i<size; i++) {
+					JsonDpObject.JsonObjectCore core = object.jsonObjects.get(i);
+					provenanceHashes[i] = isEmpty(core.getProvenance()) ? 0 : ContentHash.hashMap(core.getProvenance());
+					contentHashes[i] = core.contentHash();
+				}
+				Arrays.sort(order, (a, b) -> {
+					int c = Long.compare(provenanceHashes[a], provenanceHashes[b]);
+					return c!=0 ? c : Long.compare(contentHashes[a], contentHashes[b]);
+				});
+			}
+			push(new FragmentsFrame(object, order));
+		} else if(!canonical) {
+			// Later fragments override the values of the earlier ones
+			JSONObject merged = new JSONObject();
+			for(JsonDpObject.JsonObjectCore core: object.jsonObjects) {
+				merged.putAll(core.getPairs());
+			}
+			value(merged);
+		} else {
+			// Later fragments override the values of the earlier ones
+			TreeSet<String> names = new TreeSet<String>();
+			for(int i=0; i<size; i++) {
+				for(Object key: object.jsonObjects.get(i).keySet()) {
+					names.add(String.valueOf(key));
+				}
+			}
+			Object[] keys = names.toArray();
+			Object[] values = new Object[keys.length];
+			for(int k=0; k<keys.length; k++) {
+				for(int i=size-1; i>=0; i--) {
+					JsonDpObject.JsonObjectCore core = object.jsonObjects.get(i);
+					if(core.containsKey(keys[k])) {
+						values[k] = core.getValue(keys[k]);
+						break;
+					}
+				}
+			}
+			push(new ObjectFrame(keys, values));
+		}
+	}
+	
+	private void openArray(JsonDpArray array) throws IOException {
+		if(withProvenance) {
+			push(new GroupsFrame(array));
+		} else {
+			List<List<?>> parts = new ArrayList<List<?>>(array.jsonArrayObjects.size());
+			for(JsonDpArray.JsonArrayObject group: array.jsonArrayObjects) {
+				parts.add(group.getItems());
+			}
+			push(new ListFrame(parts, null));
+		}
+	}
+	
+	/**
+	 * Returns the keys (plus an optional extra key) sorted by their 
+	 * String representation.
+	 */
+	private static Object[] sortedKeys(Collection<?> keySet, Object extra) {
+		Object[] keys = new Object[keySet.size() + (extra!=null ? 1 : 0)];
+		int i = 0;
+		for(Object key: keySet) {
+			keys[i++] = key;
+		}
+		if(extra!=null) keys[i] = extra;
+		Arrays.sort(keys, (a, b) -> String.valueOf(a).compareTo(String.valueOf(b)));
+		return keys;
+	}
+	
+	private static boolean isEmpty(Map<?, ?> provenance) {
+		return provenance==null || provenance.isEmpty();
+	}
+	
+	private static boolean sameProvenance(JSONObject a, JSONObject b) {
+		return a==null ? b==null : a.equals(b);
+	}
+	
+	/**
+	 * An open container. Each call to next() writes (or opens) at most
+	 * one element; the last call closes the container.
+	 */
+	private abstract class Frame {
+		
+		abstract void open() throws IOException;
+		
+		/**
+		 * Writes the next element.
+		 * @return False once the container has been closed.
+		 */
+		abstract boolean next() throws IOException;
+	}
+	
+	/**
+	 * A JSON object with the given keys and values. The PROVENANCE_KEY
+	 * marker is written as the @provenance field.
+	 */
+	private final class ObjectFrame extends Frame {
+		
+		private final Object[] keys;
+		private final Object[] values;
+		private int index;
+		
+		ObjectFrame(Object[] keys, Object[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+		
+		void open() throws IOException {
+			generator.writeStartObject();
+		}
+		
+		boolean next() throws IOException {
+			if(index==keys.length) {
+				generator.writeEndObject();
+				return false;
+			}
+			generator.writeFieldName(keys[index]==PROVENANCE_KEY ? PROVENANCE : String.valueOf(keys[index]));
+			value(values[index++]);
+			return true;
+		}
+	}
+	
+	/**
+	 * A JSON array made of the concatenation of the given lists, followed
+	 * by the provenance wrapper when the provenance is not null.
+	 */
+	private final class ListFrame extends Frame {
+		
+		private final List<? extends List<?>> parts;
+		private final JSONObject provenance;
+		private int part;
+		private int index;
+		
+		ListFrame(List<? extends List<?>> parts, JSONObject provenance) {
+			this.parts = parts;
+			this.provenance = provenance;
+		}
+		
+		void open() throws IOException {
+			generator.writeStartArray();
+		}
+		
+		boolean next() throws IOException {
+			while(part<parts.size()) {
+				List<?> items = parts.get(part);
+				if(index<items.size()) {
+					value(items.get(index++));
+					return true;
+				}
+				part++;
+				index = 0;
+			}
+			if(part==parts.size() && provenance!=null) {
+				part++;
+				push(new ObjectFrame(new Object[] {PROVENANCE_KEY}, new Object[] {provenance}));
+				return true;
+			}
+			generator.writeEndArray();
+			return false;
+		}
+	}
+	
+	/**
+	 * The fragments of a JsonDpObject with their provenance, in the given order.
+	 */
+	private final class FragmentsFrame extends Frame {
+		
+		private final JsonDpObject object;
+		private final Integer[] order;
+		private int index;
+		
+		FragmentsFrame(JsonDpObject object, Integer[] order) {
+			this.object = object;
+			this.order = order;
+		}
+		
+		void open() throws IOException {
+			generator.writeStartArray();
+		}
+		
+		boolean next() throws IOException {
+			if(index==order.length) {
+				generator.writeEndArray();
+				return false;
+			}
+			JsonDpObject.JsonObjectCore core = object.jsonObjects.get(order[index++]);
+			JSONObject provenance = core.getProvenance();
+			if(canonical && isEmpty(provenance)) provenance = null;
+			Object extra = provenance!=null ? PROVENANCE_KEY : null;
+			Object[] keys;
+			if(canonical) {
+				keys = sortedKeys(core.keySet(), extra);
+			} else {
+				keys = new Object[core.keySet().size() + (extra!=null ? 1 : 0)];
+				int i = 0;
+				for(Object key: core.keySet()) {
+					keys[i++] = key;
+				}
+				// The provenance is written after the pairs
+				if(extra!=null) keys[i] = extra;
+			}
+			Object[] values = new Object[keys.length];
+			for(int i=0; i<keys.length; i++) {
+				values[i] = keys[i]==PROVENANCE_KEY ? provenance : core.getValue(keys[i]);
+			}
+			push(new ObjectFrame(keys, values));
+			return true;
+		}
+	}
+	
+	/**
+	 * The groups of a JsonDpArray, each followed by its provenance. In 
+	 * canonical mode adjacent groups with the same provenance are merged.
+	 */
+	private final class GroupsFrame extends Frame {
+		
+		private final JsonDpArray array;
+		private int index;
+		
+		GroupsFrame(JsonDpArray array) {
+			this.array = array;
+		}
+		
+		void open() throws IOException {
+			generator.writeStartArray();
+		}
+		
+		boolean next() throws IOException {
+			List<JsonDpArray.JsonArrayObject> groups = array.jsonArrayObjects;
+			if(canonical) {
+				while(index<groups.size() && groups.get(index).size()==0) index++;
+			}
+			if(index==groups.size()) {
+				generator.writeEndArray();
+				return false;
+			}
+			JsonDpArray.JsonArrayObject group = groups.get(index++);
+			JSONObject provenance = group.getProvenance();
+			if(!canonical) {
+				push(new ListFrame(Collections.<List<?>>singletonList(group.getItems()), provenance));
+				return true;
+			}
+			if(isEmpty(provenance)) provenance = null;
+			List<List<?>> parts = new ArrayList<List<?>>(1);
+			parts.add(group.getItems());
+			// Adjacent groups with the same provenance are written as one
+			while(index<groups.size()) {
+				JsonDpArray.JsonArrayObject next = groups.get(index);
+				JSONObject nextProvenance = isEmpty(next.getProvenance()) ? null : next.getProvenance();
+				if(next.size()>0 && !sameProvenance(provenance, nextProvenance)) break;
+				if(next.size()>0) parts.add(next.getItems());
+				index++;
+			}
+			push(new ListFrame(parts, provenance));
+			return true;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+
+/**
+ * Streaming JSON writer used to serialize JSON-DP documents. Implementations 
+ * are provided by a JsonDpCodec and take care of separators and escaping.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public interface JsonGenerator {
+
+	public void writeStartObject() throws IOException;
+	
+	public void writeEndObject() throws IOException;
+	
+	public void writeStartArray() throws IOException;
+	
+	public void writeEndArray() throws IOException;
+	
+	/**
+	 * Writes the name of the next field of the current object.
+	 * @param name	The field name
+	 */
+	public void writeFieldName(String name) throws IOException;
+	
+	/**
+	 * Writes a string value.
+	 * @param value	The string
+	 */
+	public void writeString(String value) throws IOException;
+	
+	/**
+	 * Writes a plain JSON value: a JSONObject, a JSONArray (or any Map 
+	 * or List), a String, a Number, a Boolean or null.
+	 * @param value	The value
+	 */
+	public void writeValue(Object value) throws IOException;
+	
+	/**
+	 * Flushes the underlying output.
+	 */
+	public void flush() throws IOException;
+}
@@ -0,0 +1,107 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Generator building json-simple JSONObject and JSONArray trees instead of
+ * text. Used, together with JsonDpWriter, to produce the *AsPlainJson 
+ * representations without recursion.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class JsonTreeGenerator implements JsonGenerator {
+
+	private final ArrayDeque<Object> containers = new ArrayDeque<Object>();
+	private String fieldName;
+	private Object root;
+	
+	/**
+	 * Returns the plain JSON representation of a JSON-DP document, or 
+	 * the value itself if it is not a JSON-DP document.
+	 * @param value				The value
+	 * @param withProvenance	True to include the provenance data
+	 * @return The plain JSON representation.
+	 */
+	static Object toPlainJson(Object value, boolean withProvenance) {
+		if(!(value instanceof JsonDpObject || value instanceof JsonDpArray)) return value;
+		JsonTreeGenerator generator = new JsonTreeGenerator();
+		try {
+			new JsonDpWriter(generator, withProvenance).write(value);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error building a JSON tree", e);
+		}
+		return generator.getRoot();
+	}
+	
+	Object getRoot() {
+		return root;
+	}
+	
+	private void add(Object value) {
+		if(containers.isEmpty()) {
+			root = value;
+		} else if(containers.peek() instanceof JSONObject) {
+			((JSONObject) containers.peek()).put(fieldName, value);
+		} else {
+			((JSONArray) containers.peek()).add(value);
+		}
+	}
+	
+	public void writeStartObject() {
+		JSONObject object = new JSONObject();
+		add(object);
+		containers.push(object);
+	}
+	
+	public void writeEndObject() {
+		containers.pop();
+	}
+	
+	public void writeStartArray() {
+		JSONArray array = new JSONArray();
+		add(array);
+		containers.push(array);
+	}
+	
+	public void writeEndArray() {
+		containers.pop();
+	}
+	
+	public void writeFieldName(String name) {
+		fieldName = name;
+	}
+	
+	public void writeString(String value) {
+		add(value);
+	}
+	
+	public void writeValue(Object value) {
+		add(value);
+	}
+	
+	public void flush() {}
+}
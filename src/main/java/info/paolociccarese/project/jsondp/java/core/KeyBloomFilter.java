@@ -0,0 +1,151 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the keys of a JsonDpObject: mightContain(key) is false
+ * only if the object has no value for the key, so most lookups of missing 
+ * keys are answered without probing the fragments. The filter uses ten 
+ * bits per key and four probes (about 1% false positives when full).
+ * 
+ * <p>
+ * Keys are hashed with the content hash, which does not depend on the JVM:
+ * the bytes returned by toByteArray() can be shipped alongside the 
+ * serialized document and queried on the other side with fromByteArray().
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public final class KeyBloomFilter {
+
+	private static final int BITS_PER_KEY = 10;
+	private static final int PROBES = 4;
+	
+	private final long[] words;
+	private final int mask;
+	private final int capacity;
+	private int count;
+	
+	/**
+	 * Creates an empty filter.
+	 * @param capacity	The number of keys the filter is sized for
+	 */
+	KeyBloomFilter(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		int bits = Math.max(64, Integer.highestOneBit(Math.max(1, this.capacity*BITS_PER_KEY - 1)) << 1);
+		this.words = new long[bits >>> 6];
+		this.mask = bits - 1;
+	}
+	
+	private KeyBloomFilter(long[] words, int capacity, int count) {
+		this.words = words;
+		this.mask = (words.length << 6) - 1;
+		this.capacity = capacity;
+		this.count = count;
+	}
+	
+	void add(Object key) {
+		long hash = ContentHash.hashValue(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for(int i=0; i<PROBES; i++) {
+			int bit = (h1 + i*h2) & mask;
+			words[bit >>> 6] |= 1L << bit;
+		}
+		count++;
+	}
+	
+	/**
+	 * Returns false if the key has certainly not been added.
+	 * @param key	The key
+	 * @return False if the key is missing, true if it might be present.
+	 */
+	public boolean mightContain(Object key) {
+		long hash = ContentHash.hashValue(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for(int i=0; i<PROBES; i++) {
+			int bit = (h1 + i*h2) & mask;
+			if((words[bit >>> 6] & (1L << bit))==0) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true when more keys than the capacity have been added.
+	 */
+	boolean isFull() {
+		return count>=capacity;
+	}
+	
+	/**
+	 * Returns the number of distinct keys added. A key colliding with the 
+	 * ones already added (a false positive) is not counted.
+	 * @return The number of keys.
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the size of the filter.
+	 * @return The number of bits.
+	 */
+	public int getBits() {
+		return words.length << 6;
+	}
+	
+	KeyBloomFilter copy() {
+		return new KeyBloomFilter(words.clone(), capacity, count);
+	}
+	
+	/**
+	 * Returns the compact binary form of the filter.
+	 * @return The bytes.
+	 */
+	public byte[] toByteArray() {
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 8*words.length);
+		buffer.putInt(capacity).putInt(count);
+		for(long word: words) buffer.putLong(word);
+		return buffer.array();
+	}
+	
+	/**
+	 * Rebuilds a filter from its binary form.
+	 * @param bytes	The output of toByteArray()
+	 * @return The filter
+	 * @throws IllegalArgumentException if the bytes are not a valid filter.
+	 */
+	public static KeyBloomFilter fromByteArray(byte[] bytes) {
+		if(bytes==null || bytes.length<16 || (bytes.length-8)%8!=0 || Integer.bitCount((bytes.length-8)/8)!=1) 
+			throw new IllegalArgumentException("Invalid key filter");
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int capacity = buffer.getInt();
+		int count = buffer.getInt();
+		long[] words = new long[(bytes.length-8)/8];
+		for(int i=0; i<words.length; i++) words[i] = buffer.getLong();
+		return new KeyBloomFilter(words, capacity, count);
+	}
+	
+	long estimatedBytes() {
+		return 16 + 16 + 8L*words.length;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+/**
+ * Limit on the estimated retained size of a JSON-DP document (see 
+ * estimatedRetainedBytes()). A rejecting budget refuses the put/add/replace
+ * that would cross the limit, a spilling budget lets it happen and then 
+ * notifies an OverflowHandler, which can move data elsewhere (e.g. to a 
+ * JsonDpStore).
+ * 
+ * <p>
+ * The budget only guards the mutations of the document it is set on, not 
+ * the direct mutations of its nested documents.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public final class MemoryBudget {
+
+	/**
+	 * Notified when a document crosses the limit of a spilling budget.
+	 */
+	public interface OverflowHandler {
+		
+		/**
+		 * Called after the mutation that made the document exceed the limit.
+		 * @param document			The document
+		 * @param estimatedBytes	The estimated retained size of the document
+		 * @param limitBytes		The limit
+		 */
+		void overflow(JsonDpAware document, long estimatedBytes, long limitBytes);
+	}
+	
+	private final long limitBytes;
+	private final OverflowHandler handler;
+	
+	private MemoryBudget(long limitBytes, OverflowHandler handler) {
+		if(limitBytes<=0) throw new IllegalArgumentException("The limit must be positive");
+		this.limitBytes = limitBytes;
+		this.handler = handler;
+	}
+	
+	/**
+	 * Creates a budget rejecting the mutations that would cross the limit
+	 * with a MemoryBudgetExceededException.
+	 * @param limitBytes	The limit in bytes
+	 * @return The budget.
+	 */
+	public static MemoryBudget rejecting(long limitBytes) {
+		return new MemoryBudget(limitBytes, null);
+	}
+	
+	/**
+	 * Creates a budget notifying the handler after each mutation leaving 
+	 * the document above the limit.
+	 * @param limitBytes	The limit in bytes
+	 * @param handler		The handler
+	 * @return The budget.
+	 */
+	public static MemoryBudget spilling(long limitBytes, OverflowHandler handler) {
+		if(handler==null) throw new IllegalArgumentException("The overflow handler cannot be null");
+		return new MemoryBudget(limitBytes, handler);
+	}
+	
+	/**
+	 * Returns the limit.
+	 * @return The limit in bytes.
+	 */
+	public long getLimitBytes() {
+		return limitBytes;
+	}
+	
+	/**
+	 * Returns true if the budget rejects the mutations crossing the limit.
+	 * @return True for rejecting budgets.
+	 */
+	public boolean isRejecting() {
+		return handler==null;
+	}
+	
+	void beforeMutation(JsonDpAware document, long estimatedBytes, long addedBytes) {
+		if(handler==null && estimatedBytes + addedBytes > limitBytes) 
+			throw new MemoryBudgetExceededException(estimatedBytes + addedBytes, limitBytes);
+	}
+	
+	void afterMutation(JsonDpAware document, long estimatedBytes) {
+		if(handler!=null && estimatedBytes > limitBytes) 
+			handler.overflow(document, estimatedBytes, limitBytes);
+	}
+}
@@ -0,0 +1,57 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+/**
+ * Thrown when a mutation would make a document exceed its rejecting 
+ * MemoryBudget. The document is left unchanged.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class MemoryBudgetExceededException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final long estimatedBytes;
+	private final long limitBytes;
+	
+	public MemoryBudgetExceededException(long estimatedBytes, long limitBytes) {
+		super("The document would retain about " + estimatedBytes + " bytes, above the limit of " + limitBytes);
+		this.estimatedBytes = estimatedBytes;
+		this.limitBytes = limitBytes;
+	}
+	
+	/**
+	 * Returns the estimated size the document would have reached.
+	 * @return The estimated size in bytes.
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+	
+	/**
+	 * Returns the limit of the budget.
+	 * @return The limit in bytes.
+	 */
+	public long getLimitBytes() {
+		return limitBytes;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates of the heap retained by JSON-DP fragments and by json-simple
+ * values, assuming a 64-bit JVM with compressed references (12 bytes 
+ * headers, 4 bytes references, 8 bytes alignment) and compact strings.
+ * Nested JSON-DP documents are not included: they are accounted by their
+ * own node.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+final class MemoryEstimator {
+
+	/** JsonDpObject or JsonDpArray, fields included. */
+	static final long NODE = 104;
+	/** JsonObjectCore or JsonArrayObject, fields included. */
+	static final long FRAGMENT = 40;
+	/** Provenance wrapper cached by a fragment, shared contents excluded. */
+	static final long WRAPPER = 48 + 32 + 2*32;
+	/** HashMap entry. */
+	static final long ENTRY = 32;
+	static final long REFERENCE = 4;
+	
+	private static final long HASH_MAP = 48;
+	private static final long ARRAY_LIST = 24;
+	private static final long STRING = 24;
+	private static final long ARRAY = 16;
+	private static final long BOXED = 24;
+	
+	private MemoryEstimator() {}
+	
+	static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+	
+	/**
+	 * Returns the size of a HashMap with the given number of entries, 
+	 * entries excluded.
+	 */
+	static long hashMap(int size) {
+		if(size==0) return HASH_MAP;
+		// Default load factor: the table is the power of two above size/0.75
+		int capacity = Integer.highestOneBit(Math.max(1, (int) (size/0.75f))) << 1;
+		return HASH_MAP + align(ARRAY + REFERENCE*capacity);
+	}
+	
+	/**
+	 * Returns the size of a HashMap of boxed longs with the given number 
+	 * of entries, keys excluded.
+	 */
+	static long longMap(int size) {
+		return hashMap(size) + (ENTRY + BOXED)*size;
+	}
+	
+	/**
+	 * Returns the size of an ArrayList with the given number of items, 
+	 * items excluded.
+	 */
+	static long arrayList(int size) {
+		if(size==0) return ARRAY_LIST;
+		// The capacity grows by half, on average a quarter is unused
+		return ARRAY_LIST + align(ARRAY + REFERENCE*Math.max(10, size + size/4));
+	}
+	
+	static long string(String s) {
+		boolean latin1 = true;
+		for(int i=0; i<s.length() && latin1; i++) {
+			if(s.charAt(i)>0xFF) latin1 = false;
+		}
+		return STRING + align(ARRAY + (long) s.length()*(latin1 ? 1 : 2));
+	}
+	
+	/**
+	 * Returns the size of a value. Plain JSON containers are visited 
+	 * iteratively; nested JSON-DP documents count as zero.
+	 */
+	static long value(Object value) {
+		long total = 0;
+		ArrayDeque<Object> pending = new ArrayDeque<Object>();
+		if(value!=null) pending.push(value);
+		while(!pending.isEmpty()) {
+			Object v = pending.pop();
+			if(v instanceof String) {
+				total += string((String) v);
+			} else if(v instanceof JsonDpNode || v instanceof Boolean) {
+				// Accounted elsewhere or shared
+			} else if(v instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) v;
+				total += hashMap(map.size()) + ENTRY*map.size();
+				for(Map.Entry<?, ?> entry: map.entrySet()) {
+					if(entry.getKey()!=null) pending.push(entry.getKey());
+					if(entry.getValue()!=null) pending.push(entry.getValue());
+				}
+			} else if(v instanceof List) {
+				List<?> list = (List<?>) v;
+				total += arrayList(list.size());
+				for(Object item: list) {
+					if(item!=null) pending.push(item);
+				}
+			} else {
+				total += BOXED;
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,413 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Streaming statistics on the provenance of JSON-DP fragments: the number
+ * of values contributed per provenance key and per provenance key/value 
+ * pair, an estimate of the distinct values of every provenance key and a
+ * histogram of the fragment sizes.
+ * 
+ * <p>
+ * JsonDpObject and JsonDpArray keep the statistics of their own fragments
+ * (nested documents are not included) up to date on every put/add, so 
+ * reading them never visits the content. Statistics are mergeable: build 
+ * them per thread, per collection or per node and combine them with 
+ * merge(); toJson()/fromJson() carry them across nodes.
+ * </p>
+ * 
+ * <p>
+ * The values of a provenance key are counted exactly up to 
+ * MAX_TRACKED_VALUES distinct values. Beyond that, new values are only 
+ * added to the key total and the number of distinct values is estimated 
+ * with a HyperLogLog sketch, which does not forget values whose count 
+ * drops to zero. Statistics are not thread-safe.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class ProvenanceStatistics {
+
+	/**
+	 * Maximum number of distinct values counted exactly per provenance key.
+	 */
+	public static final int MAX_TRACKED_VALUES = 1024;
+	
+	private final LinkedHashMap<Object, KeyStatistics> keys = new LinkedHashMap<Object, KeyStatistics>();
+	private long fragmentCount;
+	private long valueCount;
+	private long valuesWithoutProvenance;
+	
+	/**
+	 * Fragments by size: bucket 0 counts the empty fragments, bucket i the
+	 * fragments with 2^(i-1) to 2^i - 1 values.
+	 */
+	private long[] histogram = new long[4];
+	
+	/**
+	 * Returns the number of fragments.
+	 * @return The number of fragments.
+	 */
+	public long getFragmentCount() {
+		return fragmentCount;
+	}
+	
+	/**
+	 * Returns the number of values.
+	 * @return The number of values.
+	 */
+	public long getValueCount() {
+		return valueCount;
+	}
+	
+	/**
+	 * Returns the number of values without provenance.
+	 * @return The number of values without provenance.
+	 */
+	public long getValuesWithoutProvenance() {
+		return valuesWithoutProvenance;
+	}
+	
+	/**
+	 * Returns the provenance keys, in order of first appearance.
+	 * @return The provenance keys.
+	 */
+	public Set<Object> getProvenanceKeys() {
+		return Collections.unmodifiableSet(keys.keySet());
+	}
+	
+	/**
+	 * Returns the number of values whose provenance includes the given key.
+	 * @param provenanceKey	The provenance key
+	 * @return The number of values.
+	 */
+	public long getValueCount(Object provenanceKey) {
+		KeyStatistics statistics = keys.get(provenanceKey);
+		return statistics==null ? 0 : statistics.total;
+	}
+	
+	/**
+	 * Returns the number of values whose provenance includes the given 
+	 * key/value pair. Pairs whose value is not tracked count zero.
+	 * @param provenanceKey		The provenance key
+	 * @param provenanceValue	The provenance value
+	 * @return The number of values.
+	 */
+	public long getValueCount(Object provenanceKey, Object provenanceValue) {
+		KeyStatistics statistics = keys.get(provenanceKey);
+		if(statistics==null) return 0;
+		long[] count = statistics.counts.get(provenanceValue);
+		return count==null ? 0 : count[0];
+	}
+	
+	/**
+	 * Returns the number of values per value of a provenance key (e.g. per 
+	 * "importedFrom" source), for the tracked values.
+	 * @param provenanceKey	The provenance key
+	 * @return The counts per provenance value.
+	 */
+	public Map<Object, Long> getValueCounts(Object provenanceKey) {
+		KeyStatistics statistics = keys.get(provenanceKey);
+		if(statistics==null) return Collections.emptyMap();
+		Map<Object, Long> counts = new LinkedHashMap<Object, Long>();
+		for(Map.Entry<Object, long[]> entry: statistics.counts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue()[0]);
+		}
+		return counts;
+	}
+	
+	/**
+	 * Returns true if the values of the provenance key exceeded 
+	 * MAX_TRACKED_VALUES and are no longer all counted exactly.
+	 * @param provenanceKey	The provenance key
+	 * @return True if the counts are truncated.
+	 */
+	public boolean isTruncated(Object provenanceKey) {
+		KeyStatistics statistics = keys.get(provenanceKey);
+		return statistics!=null && statistics.sketch!=null;
+	}
+	
+	/**
+	 * Returns the number of distinct values of the provenance key: exact 
+	 * while the values are all tracked, estimated afterwards.
+	 * @param provenanceKey	The provenance key
+	 * @return The number of distinct values.
+	 */
+	public long estimateDistinctValues(Object provenanceKey) {
+		KeyStatistics statistics = keys.get(provenanceKey);
+		if(statistics==null) return 0;
+		if(statistics.sketch==null) return statistics.counts.size();
+		return Math.max(statistics.counts.size(), statistics.sketch.estimate());
+	}
+	
+	/**
+	 * Returns the histogram of the fragment sizes: element 0 counts the 
+	 * empty fragments, element i the fragments with 2^(i-1) to 2^i - 1 
+	 * values.
+	 * @return The histogram, up to the last non empty bucket.
+	 */
+	public long[] getFragmentSizeHistogram() {
+		int length = histogram.length;
+		while(length>0 && histogram[length-1]==0) length--;
+		return Arrays.copyOf(histogram, length);
+	}
+	
+	/**
+	 * Adds the statistics of another set of fragments to these ones.
+	 * @param other	The statistics to be merged
+	 */
+	public void merge(ProvenanceStatistics other) {
+		if(other==null) throw new IllegalArgumentException("The statistics cannot be null");
+		fragmentCount += other.fragmentCount;
+		valueCount += other.valueCount;
+		valuesWithoutProvenance += other.valuesWithoutProvenance;
+		if(other.histogram.length>histogram.length) histogram = Arrays.copyOf(histogram, other.histogram.length);
+		for(int i=0; i<other.histogram.length; i++) histogram[i] += other.histogram[i];
+		for(Map.Entry<Object, KeyStatistics> entry: other.keys.entrySet()) {
+			keyStatistics(entry.getKey()).merge(entry.getValue());
+		}
+	}
+	
+	/**
+	 * Returns an independent copy of these statistics.
+	 * @return The copy.
+	 */
+	public ProvenanceStatistics copy() {
+		ProvenanceStatistics copy = new ProvenanceStatistics();
+		copy.merge(this);
+		return copy;
+	}
+	
+	/**
+	 * Returns the JSON representation of these statistics. Provenance keys
+	 * and tracked values are written as strings.
+	 * @return The statistics as JSON.
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("fragments", fragmentCount);
+		json.put("values", valueCount);
+		json.put("valuesWithoutProvenance", valuesWithoutProvenance);
+		JSONArray buckets = new JSONArray();
+		for(long bucket: getFragmentSizeHistogram()) buckets.add(bucket);
+		json.put("fragmentSizes", buckets);
+		JSONObject provenance = new JSONObject();
+		for(Map.Entry<Object, KeyStatistics> entry: keys.entrySet()) {
+			KeyStatistics statistics = entry.getValue();
+			JSONObject key = new JSONObject();
+			key.put("values", statistics.total);
+			JSONObject counts = new JSONObject();
+			for(Map.Entry<Object, long[]> count: statistics.counts.entrySet()) {
+				counts.put(String.valueOf(count.getKey()), count.getValue()[0]);
+			}
+			key.put("counts", counts);
+			if(statistics.sketch!=null) key.put("sketch", statistics.sketch.encode());
+			provenance.put(String.valueOf(entry.getKey()), key);
+		}
+		json.put("provenance", provenance);
+		return json;
+	}
+	
+	/**
+	 * Rebuilds statistics from their JSON representation.
+	 * @param json	The output of toJson()
+	 * @return The statistics.
+	 * @throws IllegalArgumentException if the JSON is not valid statistics.
+	 */
+	public static ProvenanceStatistics fromJson(JSONObject json) {
+		if(json==null) throw new IllegalArgumentException("The statistics cannot be null");
+		try {
+			ProvenanceStatistics statistics = new ProvenanceStatistics();
+			statistics.fragmentCount = ((Number) json.get("fragments")).longValue();
+			statistics.valueCount = ((Number) json.get("values")).longValue();
+			statistics.valuesWithoutProvenance = ((Number) json.get("valuesWithoutProvenance")).longValue();
+			JSONArray buckets = (JSONArray) json.get("fragmentSizes");
+			statistics.histogram = new long[Math.max(4, buckets.size())];
+			for(int i=0; i<buckets.size(); i++) statistics.histogram[i] = ((Number) buckets.get(i)).longValue();
+			JSONObject provenance = (JSONObject) json.get("provenance");
+			for(Object k: provenance.keySet()) {
+				JSONObject key = (JSONObject) provenance.get(k);
+				KeyStatistics keyStatistics = statistics.keyStatistics(k);
+				keyStatistics.total = ((Number) key.get("values")).longValue();
+				JSONObject counts = (JSONObject) key.get("counts");
+				for(Object v: counts.keySet()) {
+					keyStatistics.counts.put(v, new long[] { ((Number) counts.get(v)).longValue() });
+				}
+				if(key.get("sketch")!=null) keyStatistics.sketch = HyperLogLog.decode((String) key.get("sketch"));
+			}
+			return statistics;
+		} catch (ClassCastException e) {
+			throw new IllegalArgumentException("Invalid provenance statistics", e);
+		} catch (NullPointerException e) {
+			throw new IllegalArgumentException("Invalid provenance statistics", e);
+		}
+	}
+	
+	// INCREMENTAL UPDATES
+	// -------------------
+	
+	/**
+	 * Adds (sign 1) or removes (sign -1) a fragment.
+	 */
+	void fragment(int size, JSONObject provenance, int sign) {
+		fragmentCount += sign;
+		bucket(size, sign);
+		values(size, provenance, sign);
+	}
+	
+	/**
+	 * Records a value added to a fragment that had the given size.
+	 */
+	void valueAdded(int size, JSONObject provenance) {
+		bucket(size, -1);
+		bucket(size+1, 1);
+		values(1, provenance, 1);
+	}
+	
+	/**
+	 * Records the change of a provenance pair of a fragment.
+	 */
+	void provenanceChanged(int size, boolean wasEmpty, Object key, Object oldValue, Object newValue) {
+		if(size==0) return;
+		if(wasEmpty) {
+			valuesWithoutProvenance -= size;
+		} else if(oldValue!=null) {
+			pair(key, oldValue, -size);
+		}
+		pair(key, newValue, size);
+	}
+	
+	/**
+	 * Records the replacement of the provenance of a fragment.
+	 */
+	void provenanceReplaced(int size, JSONObject oldProvenance, JSONObject newProvenance) {
+		if(size==0) return;
+		values(size, oldProvenance, -1);
+		values(size, newProvenance, 1);
+	}
+	
+	private void values(int size, JSONObject provenance, int sign) {
+		if(size==0) return;
+		valueCount += sign*size;
+		if(provenance==null || provenance.isEmpty()) {
+			valuesWithoutProvenance += sign*size;
+			return;
+		}
+		for(Object k: provenance.keySet()) {
+			pair(k, provenance.get(k), sign*size);
+		}
+	}
+	
+	private void pair(Object key, Object value, long delta) {
+		KeyStatistics statistics = keyStatistics(key);
+		statistics.add(value, delta);
+		if(statistics.total==0 && statistics.counts.isEmpty() && statistics.sketch==null) keys.remove(key);
+	}
+	
+	private void bucket(int size, int sign) {
+		int bucket = 32 - Integer.numberOfLeadingZeros(size);
+		if(bucket>=histogram.length) histogram = Arrays.copyOf(histogram, Math.max(bucket+1, histogram.length*2));
+		histogram[bucket] += sign;
+	}
+	
+	private KeyStatistics keyStatistics(Object key) {
+		KeyStatistics statistics = keys.get(key);
+		if(statistics==null) {
+			statistics = new KeyStatistics();
+			keys.put(key, statistics);
+		}
+		return statistics;
+	}
+	
+	long estimatedBytes() {
+		long bytes = 48L + 16L + 8L*histogram.length + MemoryEstimator.hashMap(keys.size());
+		for(KeyStatistics statistics: keys.values()) {
+			bytes += MemoryEstimator.ENTRY + MemoryEstimator.hashMap(statistics.counts.size()) 
+				+ (MemoryEstimator.ENTRY + 24L)*statistics.counts.size();
+			if(statistics.sketch!=null) bytes += HyperLogLog.BYTES;
+		}
+		return bytes;
+	}
+	
+	@Override
+	public String toString() {
+		return toJson().toJSONString();
+	}
+	
+	/**
+	 * Counts of the values of one provenance key.
+	 */
+	private static class KeyStatistics {
+		long total;
+		final LinkedHashMap<Object, long[]> counts = new LinkedHashMap<Object, long[]>();
+		HyperLogLog sketch;
+		
+		void add(Object value, long delta) {
+			total += delta;
+			count(value, delta);
+		}
+		
+		private void count(Object value, long delta) {
+			long[] count = counts.get(value);
+			if(count!=null) {
+				count[0] += delta;
+				if(count[0]==0) counts.remove(value);
+			} else if(delta>0) {
+				if(sketch==null && counts.size()<MAX_TRACKED_VALUES) {
+					counts.put(value, new long[] { delta });
+				} else {
+					sketch().add(value);
+				}
+			}
+		}
+		
+		/**
+		 * Starts estimating the distinct values, from the tracked ones.
+		 */
+		private HyperLogLog sketch() {
+			if(sketch==null) {
+				sketch = new HyperLogLog();
+				for(Object value: counts.keySet()) sketch.add(value);
+			}
+			return sketch;
+		}
+		
+		void merge(KeyStatistics other) {
+			total += other.total;
+			for(Map.Entry<Object, long[]> entry: other.counts.entrySet()) {
+				count(entry.getKey(), entry.getValue()[0]);
+				if(sketch!=null) sketch.add(entry.getKey());
+			}
+			if(other.sketch!=null) sketch().merge(other.sketch);
+		}
+	}
+}
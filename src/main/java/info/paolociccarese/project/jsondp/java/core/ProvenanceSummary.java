@@ -0,0 +1,188 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Aggregated view of the provenance of a JSON-DP document and of all the
+ * documents nested in it: the distinct provenance sets, the number of values
+ * contributed with each of them and, for every provenance key, the number 
+ * of values per source (e.g. per "importedFrom" value).
+ * 
+ * <p>
+ * Summaries are immutable. They are cached by the documents and rebuilt, 
+ * after a change, only along the path to the modified document: the 
+ * unchanged nested documents contribute their cached summaries.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class ProvenanceSummary {
+
+	private final Map<JSONObject, Integer> valueCounts;
+	private final Set<JSONObject> nestedProvenanceSets;
+	private final Map<Object, Map<Object, Integer>> sourceCounts;
+	private final int valuesWithoutProvenance;
+	
+	private ProvenanceSummary(Builder builder) {
+		valueCounts = Collections.unmodifiableMap(builder.valueCounts);
+		nestedProvenanceSets = Collections.unmodifiableSet(builder.nestedProvenanceSets);
+		Map<Object, Map<Object, Integer>> sources = new HashMap<Object, Map<Object, Integer>>();
+		for(Map.Entry<JSONObject, Integer> entry: builder.valueCounts.entrySet()) {
+			for(Object key: entry.getKey().keySet()) {
+				Map<Object, Integer> counts = sources.get(key);
+				if(counts==null) {
+					counts = new HashMap<Object, Integer>();
+					sources.put(key, counts);
+				}
+				Object source = entry.getKey().get(key);
+				Integer count = counts.get(source);
+				counts.put(source, count==null ? entry.getValue() : count+entry.getValue());
+			}
+		}
+		for(Map.Entry<Object, Map<Object, Integer>> entry: sources.entrySet()) {
+			entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+		}
+		sourceCounts = sources;
+		valuesWithoutProvenance = builder.valuesWithoutProvenance;
+	}
+	
+	/**
+	 * Returns the distinct provenance sets of the document, nested documents
+	 * included, in order of first appearance.
+	 * @return The distinct provenance sets.
+	 */
+	public Set<JSONObject> getProvenanceSets() {
+		return valueCounts.keySet();
+	}
+	
+	/**
+	 * Returns the distinct provenance sets found in the nested documents.
+	 * @return The provenance sets of the nested documents.
+	 */
+	public Set<JSONObject> getNestedProvenanceSets() {
+		return nestedProvenanceSets;
+	}
+	
+	/**
+	 * Returns the number of values contributed with each provenance set.
+	 * @return The number of values per provenance set.
+	 */
+	public Map<JSONObject, Integer> getValueCounts() {
+		return valueCounts;
+	}
+	
+	/**
+	 * Returns the number of values without provenance.
+	 * @return The number of values without provenance.
+	 */
+	public int getValuesWithoutProvenance() {
+		return valuesWithoutProvenance;
+	}
+	
+	/**
+	 * Returns the sources (values of the given provenance key) that 
+	 * contributed to the document, with the number of values of each.
+	 * @param provenanceKey	The provenance key, e.g. "importedFrom"
+	 * @return The number of values per source (empty if the key is never used).
+	 */
+	public Map<Object, Integer> getSourceCounts(Object provenanceKey) {
+		Map<Object, Integer> counts = sourceCounts.get(provenanceKey);
+		return counts!=null ? counts : Collections.<Object, Integer>emptyMap();
+	}
+	
+	/**
+	 * Returns true if the given source contributed to the document.
+	 * @param provenanceKey		The provenance key, e.g. "importedFrom"
+	 * @param provenanceValue	The source
+	 * @return True if at least one value comes from the source.
+	 */
+	public boolean contains(Object provenanceKey, Object provenanceValue) {
+		return getSourceCounts(provenanceKey).containsKey(provenanceValue);
+	}
+	
+	@Override
+	public String toString() {
+		return "ProvenanceSummary{sets=" + valueCounts + ", withoutProvenance=" + valuesWithoutProvenance + "}";
+	}
+	
+	/**
+	 * Accumulates the provenance of the fragments of a document and the 
+	 * summaries of its nested documents.
+	 */
+	static class Builder {
+		
+		private final LinkedHashMap<JSONObject, Integer> valueCounts = new LinkedHashMap<JSONObject, Integer>();
+		private final LinkedHashSet<JSONObject> nestedProvenanceSets = new LinkedHashSet<JSONObject>();
+		private int valuesWithoutProvenance;
+		
+		/**
+		 * Adds the values of a fragment.
+		 * @param provenance	The provenance of the fragment (null if absent)
+		 * @param values		The number of values of the fragment
+		 * @return The builder.
+		 */
+		Builder addFragment(JSONObject provenance, int values) {
+			if(provenance==null || provenance.isEmpty()) {
+				valuesWithoutProvenance += values;
+			} else {
+				Integer count = valueCounts.get(provenance);
+				valueCounts.put(provenance, count==null ? values : count+values);
+			}
+			return this;
+		}
+		
+		/**
+		 * Adds a value that can be a nested document. The summaries of the 
+		 * nested documents are expected to be cached already (see 
+		 * JsonDpNode.summarizeNestedDocuments()), so that no nesting level 
+		 * is summarized recursively.
+		 * @param value	The value
+		 * @return The builder.
+		 */
+		Builder addNested(Object value) {
+			ProvenanceSummary nested = null;
+			if(value instanceof JsonDpObject) nested = ((JsonDpObject) value).getProvenanceSummary();
+			else if(value instanceof JsonDpArray) nested = ((JsonDpArray) value).getProvenanceSummary();
+			if(nested!=null) {
+				for(Map.Entry<JSONObject, Integer> entry: nested.valueCounts.entrySet()) {
+					Integer count = valueCounts.get(entry.getKey());
+					valueCounts.put(entry.getKey(), count==null ? entry.getValue() : count+entry.getValue());
+					nestedProvenanceSets.add(entry.getKey());
+				}
+				valuesWithoutProvenance += nested.valuesWithoutProvenance;
+			}
+			return this;
+		}
+		
+		ProvenanceSummary build() {
+			return new ProvenanceSummary(this);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.json.simple.JSONObject;
+
+/**
+ * A read-only JSON object wrapping values with their "@provenance". The 
+ * fragments build it once and hand out the same instance until the value 
+ * or the provenance changes, so any attempt to modify it throws an 
+ * UnsupportedOperationException. The wrapped values themselves are the 
+ * ones held by the fragment.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+final class ProvenanceWrapper extends JSONObject {
+
+	private static final long serialVersionUID = 1L;
+	private static final String PROVENANCE = "@provenance";
+	
+	/** The wrapped key, null when the provenance is wrapped alone. */
+	private final Object key;
+	
+	/**
+	 * Wraps the provenance alone.
+	 */
+	ProvenanceWrapper(JSONObject provenance) {
+		this.key = null;
+		super.put(PROVENANCE, provenance);
+	}
+	
+	/**
+	 * Wraps a key/value pair and, when not null, its provenance.
+	 */
+	ProvenanceWrapper(Object key, Object value, JSONObject provenance) {
+		this.key = key;
+		super.put(key, value);
+		if(provenance!=null) super.put(PROVENANCE, provenance);
+	}
+	
+	/**
+	 * Returns true if the wrapper holds the pair of the given key.
+	 */
+	boolean wraps(Object key) {
+		return this.key!=null && this.key.equals(key);
+	}
+	
+	@Override
+	public Object put(Object key, Object value) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public void putAll(Map m) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Object putIfAbsent(Object key, Object value) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Object remove(Object key) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public boolean remove(Object key, Object value) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Object replace(Object key, Object value) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public boolean replace(Object key, Object oldValue, Object newValue) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public void replaceAll(BiFunction function) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Object compute(Object key, BiFunction function) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Object computeIfAbsent(Object key, Function function) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Object computeIfPresent(Object key, BiFunction function) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Object merge(Object key, Object value, BiFunction function) {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("Provenance wrappers are read-only");
+	}
+	
+	@Override
+	public Set keySet() {
+		return Collections.unmodifiableSet(super.keySet());
+	}
+	
+	@Override
+	public Collection values() {
+		return Collections.unmodifiableCollection(super.values());
+	}
+	
+	@Override
+	public Set entrySet() {
+		return Collections.unmodifiableSet(super.entrySet());
+	}
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Factory of the common ResolutionPolicy implementations.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public final class ResolutionPolicies {
+
+	private static final ResolutionPolicy LAST_WRITER_WINS = new ResolutionPolicy() {
+		public Object resolve(Object key, List<Object> values, List<JSONObject> provenance) {
+			return values.get(values.size()-1);
+		}
+	};
+	
+	private static final ResolutionPolicy MAJORITY_VOTE = new ResolutionPolicy() {
+		public Object resolve(Object key, List<Object> values, List<JSONObject> provenance) {
+			if(values.size()==1) return values.get(0);
+			Map<Object, Integer> votes = new HashMap<Object, Integer>();
+			Object winner = null;
+			int max = 0;
+			for(Object value: values) {
+				Integer count = votes.get(value);
+				count = count==null ? 1 : count+1;
+				votes.put(value, count);
+				// On ties the value reaching the count first wins
+				if(count>max) {
+					max = count;
+					winner = value;
+				}
+			}
+			return winner;
+		}
+	};
+	
+	private ResolutionPolicies() {}
+	
+	/**
+	 * The most recently written value wins, whichever fragment holds it.
+	 * @return The last-writer-wins policy.
+	 */
+	public static ResolutionPolicy lastWriterWins() {
+		return LAST_WRITER_WINS;
+	}
+	
+	/**
+	 * The value with the greatest timestamp wins. Timestamps are read from
+	 * the given provenance key as epoch milliseconds or ISO 8601 instants, 
+	 * date-times with offset or dates, and compared chronologically. Values 
+	 * without a readable timestamp lose against the ones with a timestamp; 
+	 * ties are won by the most recently written value.
+	 * @param timestampKey	The provenance key holding the timestamp
+	 * @return The last-writer-wins policy by timestamp.
+	 */
+	public static ResolutionPolicy lastWriterWins(final String timestampKey) {
+		if(timestampKey==null) throw new IllegalArgumentException("The timestamp key cannot be null");
+		return new ResolutionPolicy() {
+			public Object resolve(Object key, List<Object> values, List<JSONObject> provenance) {
+				int winner = values.size()-1;
+				Long latest = timestamp(provenance.get(winner), timestampKey);
+				for(int i=values.size()-2; i>=0; i--) {
+					Long timestamp = timestamp(provenance.get(i), timestampKey);
+					if(timestamp!=null && (latest==null || timestamp>latest)) {
+						winner = i;
+						latest = timestamp;
+					}
+				}
+				return values.get(winner);
+			}
+		};
+	}
+	
+	/**
+	 * The value of the most trusted source wins. Sources are read from the
+	 * given provenance key and ranked by their position in the ranking; 
+	 * unranked sources come after the ranked ones. Ties are won by the value
+	 * inserted first.
+	 * @param sourceKey	The provenance key identifying the source
+	 * @param ranking	The sources, from the most to the least trusted
+	 * @return The source priority policy.
+	 */
+	public static ResolutionPolicy sourcePriority(final String sourceKey, String... ranking) {
+		if(sourceKey==null) throw new IllegalArgumentException("The source key cannot be null");
+		final Map<String, Integer> ranks = new HashMap<String, Integer>();
+		for(int i=ranking.length-1; i>=0; i--) {
+			ranks.put(ranking[i], i);
+		}
+		return new ResolutionPolicy() {
+			public Object resolve(Object key, List<Object> values, List<JSONObject> provenance) {
+				int winner = 0;
+				int best = Integer.MAX_VALUE;
+				for(int i=0; i<values.size(); i++) {
+					Integer rank = ranks.get(provenanceValue(provenance.get(i), sourceKey));
+					int r = rank==null ? Integer.MAX_VALUE-1 : rank;
+					if(r<best) {
+						winner = i;
+						best = r;
+					}
+				}
+				return values.get(winner);
+			}
+		};
+	}
+	
+	/**
+	 * The most frequent value wins. Ties are won by the value reaching 
+	 * the winning count first.
+	 * @return The majority vote policy.
+	 */
+	public static ResolutionPolicy majorityVote() {
+		return MAJORITY_VOTE;
+	}
+	
+	private static Long timestamp(JSONObject provenance, String key) {
+		return provenance!=null ? TemporalIndex.toEpochMillis(provenance.get(key)) : null;
+	}
+	
+	private static String provenanceValue(JSONObject provenance, String key) {
+		if(provenance==null) return null;
+		Object value = provenance.get(key);
+		return value!=null ? value.toString() : null;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.List;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Chooses a single value when the same key of a JsonDpObject has been
+ * contributed, with different provenance, by several sources.
+ * 
+ * @author Dr. Paolo Ciccarese
+ * @see ResolutionPolicies
+ */
+public interface ResolutionPolicy {
+
+	/**
+	 * Resolves the conflicting values of a key.
+	 * @param key			The key
+	 * @param values		The values, ordered by their last write (never empty)
+	 * @param provenance	The provenance of each value (null items when absent)
+	 * @return The resolved value.
+	 */
+	Object resolve(Object key, List<Object> values, List<JSONObject> provenance);
+}
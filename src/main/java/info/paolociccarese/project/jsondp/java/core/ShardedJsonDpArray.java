@@ -0,0 +1,384 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+import org.json.simple.JSONObject;
+
+/**
+ * JSON-DP array split in shards (JsonDpArray of up to shardSize items), 
+ * each locked independently, for bulk processing on several cores.
+ * 
+ * <p>
+ * Every appending thread fills its own tail shard, without contention, and
+ * publishes it atomically once full (or on flush()). Only published items
+ * are visible: size(), get(int) and the bulk operations see the published 
+ * shards, in publication order, through a global index of their starting 
+ * positions. The items appended by one thread keep their relative order.
+ * </p>
+ * 
+ * <p>
+ * parallelForEach and parallelMap hand the shards to a fork-join pool 
+ * (the common pool by default); the visitors and the mappers are invoked 
+ * concurrently and must be thread-safe.
+ * </p>
+ * 
+ * <p>
+ * Only the shards are locked, not the values they hold. Appending a nested
+ * JsonDpObject or JsonDpArray registers the shard as its parent and merges
+ * its size and version into the shard, which is not synchronized: a nested
+ * document must be appended (or returned by a mapper) by a single thread, 
+ * must not be shared with the items appended by other threads, and must 
+ * not be modified while other threads use the array. Plain values and 
+ * json-simple containers have no such restriction.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class ShardedJsonDpArray implements JsonDpAware {
+
+	public static final int DEFAULT_SHARD_SIZE = 4096;
+	
+	private final int shardSize;
+	private final ForkJoinPool pool;
+	
+	private final AtomicReference<Shards> published = new AtomicReference<Shards>(Shards.EMPTY);
+	private final ConcurrentLinkedQueue<Tail> tails = new ConcurrentLinkedQueue<Tail>();
+	private final ThreadLocal<Tail> tail = new ThreadLocal<Tail>() {
+		@Override
+		protected Tail initialValue() {
+			Tail created = new Tail();
+			tails.add(created);
+			return created;
+		}
+	};
+	
+	/**
+	 * Creates an array with the default shard size, processed in the common pool.
+	 */
+	public ShardedJsonDpArray() {
+		this(DEFAULT_SHARD_SIZE, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Creates an array.
+	 * @param shardSize	The number of items of a full shard
+	 * @param pool		The pool running the bulk operations
+	 */
+	public ShardedJsonDpArray(int shardSize, ForkJoinPool pool) {
+		if(shardSize<=0) throw new IllegalArgumentException("The shard size must be positive");
+		if(pool==null) throw new IllegalArgumentException("The pool cannot be null");
+		this.shardSize = shardSize;
+		this.pool = pool;
+	}
+	
+	/**
+	 * The published shards with the position of their first item.
+	 */
+	private static final class Shards {
+		static final Shards EMPTY = new Shards(new JsonDpArray[0], new int[0], 0);
+		
+		final JsonDpArray[] shards;
+		final int[] starts;
+		final int size;
+		
+		Shards(JsonDpArray[] shards, int[] starts, int size) {
+			this.shards = shards;
+			this.starts = starts;
+			this.size = size;
+		}
+		
+		Shards append(JsonDpArray[] added) {
+			int count = shards.length;
+			JsonDpArray[] nextShards = Arrays.copyOf(shards, count + added.length);
+			int[] nextStarts = Arrays.copyOf(starts, count + added.length);
+			int nextSize = size;
+			for(int i=0; i<added.length; i++) {
+				nextShards[count+i] = added[i];
+				nextStarts[count+i] = nextSize;
+				nextSize += added[i].size();
+			}
+			return new Shards(nextShards, nextStarts, nextSize);
+		}
+		
+		int shardOf(int index) {
+			int position = Arrays.binarySearch(starts, index);
+			if(position<0) return -position-2;
+			// Skips the empty shards starting at the same position
+			while(position+1<starts.length && starts[position+1]==index) position++;
+			return position;
+		}
+	}
+	
+	/**
+	 * The shard being filled by one thread. Locked by its owner while 
+	 * appending and by flush().
+	 */
+	private static final class Tail {
+		JsonDpArray items = new JsonDpArray();
+	}
+	
+	/**
+	 * Appends a value without provenance to the tail shard of the calling 
+	 * thread. A nested JSON-DP document must not be shared with the items
+	 * of other threads.
+	 * @param value	The value
+	 * @throws IllegalArgumentException if the item value is not acceptable.
+	 */
+	public void add(Object value) {
+		Tail current = tail.get();
+		synchronized (current) {
+			current.items.add(value);
+			if(current.items.size()>=shardSize) publish(current);
+		}
+	}
+	
+	/**
+	 * Appends a value with provenance to the tail shard of the calling 
+	 * thread. A nested JSON-DP document must not be shared with the items
+	 * of other threads.
+	 * @param value			The value
+	 * @param provenance	The provenance data
+	 * @throws IllegalArgumentException if the item value is not acceptable.
+	 */
+	public void add(Object value, JSONObject provenance) {
+		Tail current = tail.get();
+		synchronized (current) {
+			current.items.add(value, provenance);
+			if(current.items.size()>=shardSize) publish(current);
+		}
+	}
+	
+	/**
+	 * Publishes the partially filled tail shards of all the threads.
+	 */
+	public void flush() {
+		for(Tail current: tails) {
+			synchronized (current) {
+				if(current.items.size()>0) publish(current);
+			}
+		}
+	}
+	
+	private void publish(Tail current) {
+		JsonDpArray full = current.items;
+		current.items = new JsonDpArray();
+		publish(new JsonDpArray[] { full });
+	}
+	
+	private void publish(JsonDpArray[] shards) {
+		// Builds the index of the shards before they become visible
+		for(JsonDpArray shard: shards) shard.size();
+		Shards current, next;
+		do {
+			current = published.get();
+			next = current.append(shards);
+		} while(!published.compareAndSet(current, next));
+	}
+	
+	/**
+	 * Returns the number of published items.
+	 * @return The size of the array
+	 */
+	public int size() {
+		return published.get().size;
+	}
+	
+	/**
+	 * Returns the number of published shards.
+	 * @return The number of shards
+	 */
+	public int getShardCount() {
+		return published.get().shards.length;
+	}
+	
+	/**
+	 * Returns a published item.
+	 * @param index	The index of the item
+	 * @return The item
+	 * @throws IndexOutOfBoundsException if the requested index exceeds the array size.
+	 */
+	public Object get(int index) {
+		Shards current = published.get();
+		if(index<0 || index>=current.size) throw new IndexOutOfBoundsException("The requested index " + index + 
+			" does not exist as the total size of the array is " + current.size);
+		int shard = current.shardOf(index);
+		JsonDpArray items = current.shards[shard];
+		synchronized (items) {
+			return items.get(index-current.starts[shard]);
+		}
+	}
+	
+	/**
+	 * Replaces a published item (without provenance).
+	 * @param index			The index of the item
+	 * @param replacement	The replacement
+	 * @throws IndexOutOfBoundsException if the requested index exceeds the array size.
+	 */
+	public void replace(int index, Object replacement) {
+		Shards current = published.get();
+		if(index<0 || index>=current.size) throw new IndexOutOfBoundsException("The requested index " + index + 
+			" does not exist as the total size of the array is " + current.size);
+		int shard = current.shardOf(index);
+		JsonDpArray items = current.shards[shard];
+		synchronized (items) {
+			items.replace(index-current.starts[shard], replacement);
+		}
+	}
+	
+	/**
+	 * Visits all the published items with their provenance (null when 
+	 * absent), one task per shard. Items of the same shard are visited in 
+	 * order, by the same thread.
+	 * @param visitor	The thread-safe visitor
+	 */
+	public void parallelForEach(final BiConsumer<Object, JSONObject> visitor) {
+		if(visitor==null) throw new IllegalArgumentException("The visitor cannot be null");
+		final JsonDpArray[] shards = published.get().shards;
+		pool.invoke(new ShardTask(0, shards.length, new IntConsumer() {
+			public void accept(int shard) {
+				synchronized (shards[shard]) {
+					shards[shard].forEachValue(visitor);
+				}
+			}
+		}));
+	}
+	
+	/**
+	 * Maps all the published items into a new array, one task per shard.
+	 * The mapped items keep the position and the provenance of the originals.
+	 * The mapper must not return the same nested JSON-DP document for items
+	 * of different shards.
+	 * @param mapper	The thread-safe mapper
+	 * @return The new array
+	 * @throws IllegalArgumentException if a mapped value is not acceptable.
+	 */
+	public ShardedJsonDpArray parallelMap(final Function<Object, Object> mapper) {
+		if(mapper==null) throw new IllegalArgumentException("The mapper cannot be null");
+		final JsonDpArray[] shards = published.get().shards;
+		final JsonDpArray[] mapped = new JsonDpArray[shards.length];
+		pool.invoke(new ShardTask(0, shards.length, new IntConsumer() {
+			public void accept(int shard) {
+				final JsonDpArray target = new JsonDpArray();
+				synchronized (shards[shard]) {
+					shards[shard].forEachValue(new BiConsumer<Object, JSONObject>() {
+						public void accept(Object value, JSONObject provenance) {
+							Object result = mapper.apply(value);
+							if(provenance!=null) target.add(result, provenance);
+							else target.add(result);
+						}
+					});
+				}
+				mapped[shard] = target;
+			}
+		}));
+		ShardedJsonDpArray result = new ShardedJsonDpArray(shardSize, pool);
+		result.publish(mapped);
+		return result;
+	}
+	
+	/**
+	 * Splits a range of shards until one shard per task.
+	 */
+	private static final class ShardTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final IntConsumer process;
+		
+		ShardTask(int from, int to, IntConsumer process) {
+			this.from = from;
+			this.to = to;
+			this.process = process;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to-from<=1) {
+				if(to>from) process.accept(from);
+				return;
+			}
+			int middle = (from+to) >>> 1;
+			invokeAll(new ShardTask(from, middle, process), new ShardTask(middle, to, process));
+		}
+	}
+	
+	/**
+	 * Writes the JSON representation of the published items. The output 
+	 * is the same of a JsonDpArray with the same items.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @throws IOException if the output cannot be written.
+	 */
+	public void writeJson(Writer out, boolean withProvenance) throws IOException {
+		JsonDpArray[] shards = published.get().shards;
+		out.write('[');
+		boolean first = true;
+		for(JsonDpArray shard: shards) {
+			StringWriter text = new StringWriter();
+			synchronized (shard) {
+				shard.writeJson(text, withProvenance);
+			}
+			// Writes the items (or groups) of the shard without the enclosing brackets
+			StringBuffer buffer = text.getBuffer();
+			if(buffer.length()<=2) continue;
+			if(!first) out.write(',');
+			out.write(buffer.substring(1, buffer.length()-1));
+			first = false;
+		}
+		out.write(']');
+		out.flush();
+	}
+	
+	public String plainJsonToString() {
+		return toJsonString(false);
+	}
+	
+	public String plainJsonWithProvenanceToString() {
+		return toJsonString(true);
+	}
+	
+	private String toJsonString(boolean withProvenance) {
+		StringWriter out = new StringWriter();
+		try {
+			writeJson(out, withProvenance);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected error writing to a String", e);
+		}
+		return out.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return plainJsonToString();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.BitSet;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Default codec, backed by json-simple. The generator writes straight to 
+ * the output instead of building intermediate strings for every nesting 
+ * level as JSONObject.toString() does.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class SimpleJsonCodec implements JsonDpCodec {
+
+	public JsonGenerator createGenerator(Writer out) {
+		return new Generator(out);
+	}
+	
+	public Object parse(Reader in) throws IOException {
+		try {
+			return new JSONParser().parse(in);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid JSON at position " + e.getPosition(), e);
+		}
+	}
+	
+	/**
+	 * Generator keeping, for each open container, whether a separator 
+	 * is needed before the next element.
+	 */
+	static class Generator implements JsonGenerator {
+		
+		private final Writer out;
+		private final BitSet started = new BitSet();
+		private int depth;
+		private boolean afterFieldName;
+		
+		Generator(Writer out) {
+			this.out = out;
+		}
+		
+		private void beforeValue() throws IOException {
+			if(afterFieldName) {
+				afterFieldName = false;
+				return;
+			}
+			if(depth>0) {
+				if(started.get(depth)) out.write(',');
+				else started.set(depth);
+			}
+		}
+		
+		private void open(char c) throws IOException {
+			beforeValue();
+			out.write(c);
+			depth++;
+			started.clear(depth);
+		}
+		
+		private void close(char c) throws IOException {
+			if(depth==0) throw new IllegalStateException("No open container");
+			depth--;
+			out.write(c);
+		}
+		
+		public void writeStartObject() throws IOException { open('{'); }
+		
+		public void writeEndObject() throws IOException { close('}'); }
+		
+		public void writeStartArray() throws IOException { open('['); }
+		
+		public void writeEndArray() throws IOException { close(']'); }
+		
+		public void writeFieldName(String name) throws IOException {
+			beforeValue();
+			out.write('"');
+			out.write(JSONValue.escape(name));
+			out.write("\":");
+			afterFieldName = true;
+		}
+		
+		public void writeString(String value) throws IOException {
+			beforeValue();
+			out.write('"');
+			out.write(JSONValue.escape(value));
+			out.write('"');
+		}
+		
+		public void writeValue(Object value) throws IOException {
+			if(value instanceof String) {
+				writeString((String) value);
+				return;
+			}
+			beforeValue();
+			JSONValue.writeJSONString(value, out);
+		}
+		
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
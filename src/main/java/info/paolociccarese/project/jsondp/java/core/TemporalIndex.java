@@ -0,0 +1,226 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Index of the fragments of a JSON-DP document sorted by the timestamp 
+ * found in their provenance under a configured key. Range queries are 
+ * answered by binary search. Fragments without a (parsable) timestamp are 
+ * not indexed.
+ * 
+ * <p>
+ * The index is maintained incrementally: appended fragments are added as 
+ * they are found and a fragment whose provenance changes is moved to its
+ * new place, so that changes to the values, including the nested 
+ * documents, never require a rebuild.
+ * </p>
+ * 
+ * <p>
+ * Timestamps can be ISO-8601 instants ("2014-03-01T10:00:00Z"), offset date
+ * times, dates ("2014-03-01", at midnight UTC) or numbers of milliseconds 
+ * since the epoch.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class TemporalIndex {
+
+	private final String timestampKey;
+	
+	/**
+	 * The indexed timestamps and fragment positions, sorted by timestamp 
+	 * and then by position.
+	 */
+	private long[] timestamps = new long[8];
+	private int[] fragments = new int[8];
+	private int count;
+	
+	/**
+	 * The timestamp of each fragment, if any, to find its entry when its 
+	 * provenance changes.
+	 */
+	private long[] fragmentTimestamps = new long[8];
+	private boolean[] timestamped = new boolean[8];
+	private int size;
+	
+	/**
+	 * Creates an empty index.
+	 * @param timestampKey	The provenance key holding the timestamp
+	 */
+	TemporalIndex(String timestampKey) {
+		if(timestampKey==null) throw new IllegalArgumentException("The timestamp key cannot be null");
+		this.timestampKey = timestampKey;
+	}
+	
+	/**
+	 * Returns the number of fragments added to the index, with or without
+	 * timestamp.
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * Adds the next fragment of the document.
+	 * @param provenance	The provenance of the fragment (null when absent)
+	 */
+	void add(JSONObject provenance) {
+		if(size==timestamped.length) {
+			fragmentTimestamps = Arrays.copyOf(fragmentTimestamps, size*2);
+			timestamped = Arrays.copyOf(timestamped, size*2);
+		}
+		size++;
+		index(size-1, provenance);
+	}
+	
+	/**
+	 * Indexes again a fragment after its provenance has changed.
+	 * @param fragment		The position of the fragment
+	 * @param provenance	The new provenance of the fragment (null when absent)
+	 */
+	void update(int fragment, JSONObject provenance) {
+		if(fragment<0 || fragment>=size) throw new IndexOutOfBoundsException("The fragment " + fragment + 
+			" has not been indexed as the index holds " + size + " fragments");
+		if(timestamped[fragment]) {
+			int position = position(fragmentTimestamps[fragment], fragment);
+			System.arraycopy(timestamps, position+1, timestamps, position, count-position-1);
+			System.arraycopy(fragments, position+1, fragments, position, count-position-1);
+			count--;
+		}
+		index(fragment, provenance);
+	}
+	
+	private void index(int fragment, JSONObject provenance) {
+		Long timestamp = provenance!=null ? toEpochMillis(provenance.get(timestampKey)) : null;
+		timestamped[fragment] = timestamp!=null;
+		if(timestamp==null) return;
+		fragmentTimestamps[fragment] = timestamp;
+		if(count==timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, count*2);
+			fragments = Arrays.copyOf(fragments, count*2);
+		}
+		// Appended fragments usually come in chronological order and land at the end
+		int position = position(timestamp, fragment);
+		System.arraycopy(timestamps, position, timestamps, position+1, count-position);
+		System.arraycopy(fragments, position, fragments, position+1, count-position);
+		timestamps[position] = timestamp;
+		fragments[position] = fragment;
+		count++;
+	}
+	
+	/**
+	 * Returns the first position in the sorted entries not lower than the
+	 * given timestamp and fragment.
+	 */
+	private int position(long timestamp, int fragment) {
+		int low = 0;
+		int high = count;
+		while(low<high) {
+			int mid = (low+high) >>> 1;
+			if(timestamps[mid]<timestamp || (timestamps[mid]==timestamp && fragments[mid]<fragment)) low = mid+1;
+			else high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Returns the positions, in document order, of the fragments with a 
+	 * timestamp in [from, to).
+	 */
+	int[] between(long from, long to) {
+		if(to<=from) return new int[0];
+		int start = lowerBound(from);
+		int end = lowerBound(to);
+		int[] result = Arrays.copyOfRange(fragments, start, end);
+		Arrays.sort(result);
+		return result;
+	}
+	
+	/**
+	 * Returns the positions, in document order, of the fragments with a 
+	 * timestamp not after the given one.
+	 */
+	int[] asOf(long instant) {
+		int end = instant==Long.MAX_VALUE ? count : lowerBound(instant+1);
+		int[] result = Arrays.copyOfRange(fragments, 0, end);
+		Arrays.sort(result);
+		return result;
+	}
+	
+	/**
+	 * Returns the first position in the sorted timestamps not lower than 
+	 * the given value.
+	 */
+	private int lowerBound(long value) {
+		int low = 0;
+		int high = count;
+		while(low<high) {
+			int mid = (low+high) >>> 1;
+			if(timestamps[mid]<value) low = mid+1;
+			else high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Converts an instant to milliseconds since the epoch, saturating
+	 * instants too far in the past or in the future.
+	 */
+	static long toEpochMillis(Instant instant) {
+		if(instant==null) throw new IllegalArgumentException("The instant cannot be null");
+		try {
+			return instant.toEpochMilli();
+		} catch (ArithmeticException e) {
+			return instant.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+		}
+	}
+	
+	static Long toEpochMillis(Object value) {
+		if(value instanceof Number) return ((Number) value).longValue();
+		if(!(value instanceof String)) return null;
+		String text = (String) value;
+		try {
+			return Instant.parse(text).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			// Not an instant, it might still be an offset date time
+		}
+		try {
+			return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			// Not an offset date time, it might still be a date
+		}
+		try {
+			return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			// Not a timestamp: the fragment is left out of the index
+		}
+		return null;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of the validation of a JSON-DP document: the list of the errors,
+ * each prefixed by the path of the offending value (e.g. $.address.city
+ * or $.tags[2]).
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class ValidationResult {
+
+	private final List<String> errors;
+	
+	ValidationResult(List<String> errors) {
+		this.errors = Collections.unmodifiableList(errors);
+	}
+	
+	/**
+	 * Returns true if no error has been found.
+	 * @return True if the document is valid.
+	 */
+	public boolean isValid() {
+		return errors.isEmpty();
+	}
+	
+	/**
+	 * Returns the errors found (only the first when validating with failFast).
+	 * @return The errors.
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+	
+	@Override
+	public String toString() {
+		return isValid() ? "valid" : errors.toString();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe pool of direct ByteBuffers of a fixed capacity. Direct 
+ * buffers are expensive to allocate and are written to channels without
+ * the extra copy needed by heap buffers, so they are recycled.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class ByteBufferPool {
+
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	public static final int DEFAULT_MAX_POOLED = 256;
+	
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	
+	/**
+	 * Creates a pool of 16KB buffers retaining up to 256 buffers.
+	 */
+	public ByteBufferPool() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+	}
+	
+	/**
+	 * Creates a pool.
+	 * @param bufferSize	The capacity of every buffer
+	 * @param maxPooled		The maximum number of idle buffers retained
+	 */
+	public ByteBufferPool(int bufferSize, int maxPooled) {
+		if(bufferSize<16) throw new IllegalArgumentException("The buffer size must be at least 16 bytes");
+		if(maxPooled<0) throw new IllegalArgumentException("The pool size cannot be negative");
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+	
+	/**
+	 * Returns a cleared buffer, recycled if possible.
+	 * @return A direct buffer ready to be filled.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if(buffer==null) return ByteBuffer.allocateDirect(bufferSize);
+		pooled.decrementAndGet();
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer to the pool. Buffers of a different capacity or 
+	 * exceeding the pool size are left to the garbage collector.
+	 * @param buffer	The buffer no longer in use
+	 */
+	public void release(ByteBuffer buffer) {
+		if(buffer==null || !buffer.isDirect() || buffer.capacity()!=bufferSize) return;
+		buffer.clear();
+		if(pooled.incrementAndGet() <= maxPooled) {
+			buffers.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Returns the capacity of the buffers of this pool.
+	 * @return The buffer size in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Returns the number of idle buffers currently retained.
+	 * @return The number of pooled buffers.
+	 */
+	public int getPooledCount() {
+		return pooled.get();
+	}
+}
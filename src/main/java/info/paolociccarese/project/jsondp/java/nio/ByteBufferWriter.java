@@ -0,0 +1,180 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.nio;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+
+/**
+ * Writer encoding characters as UTF-8 directly into a chain of pooled 
+ * ByteBuffers, without intermediate Strings or byte arrays. Filled buffers
+ * are flipped and queued, and can be consumed while writing continues; a 
+ * surrogate pair split across two writes is carried over to the next write.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class ByteBufferWriter extends Writer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String REPLACEMENT = "?";
+	
+	private final ByteBufferPool pool;
+	private final CharsetEncoder encoder = UTF8.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final ArrayDeque<ByteBuffer> filled = new ArrayDeque<ByteBuffer>();
+	private final char[] single = new char[1];
+	private final CharBuffer singleBuffer = CharBuffer.wrap(single);
+	private char pendingHighSurrogate;
+	private ByteBuffer current;
+	private long size;
+	private boolean closed;
+	
+	ByteBufferWriter(ByteBufferPool pool) {
+		this.pool = pool;
+	}
+	
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		encode(CharBuffer.wrap(cbuf, off, len));
+	}
+	
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		encode(CharBuffer.wrap(str, off, off + len));
+	}
+	
+	@Override
+	public void write(int c) throws IOException {
+		single[0] = (char) c;
+		singleBuffer.clear();
+		encode(singleBuffer);
+	}
+	
+	@Override
+	public Writer append(CharSequence csq) throws IOException {
+		CharSequence s = csq==null ? "null" : csq;
+		encode(CharBuffer.wrap(s));
+		return this;
+	}
+	
+	private void encode(CharBuffer in) throws IOException {
+		if(closed) throw new IOException("Writer closed");
+		if(pendingHighSurrogate!=0 && in.hasRemaining()) {
+			char c = in.get();
+			if(Character.isLowSurrogate(c)) {
+				encode(CharBuffer.wrap(new char[] { pendingHighSurrogate, c }), false);
+			} else {
+				encode(CharBuffer.wrap(REPLACEMENT), false);
+				in.position(in.position()-1);
+			}
+			pendingHighSurrogate = 0;
+		}
+		encode(in, false);
+		// Only a trailing high surrogate is left unconsumed by the encoder
+		if(in.hasRemaining()) pendingHighSurrogate = in.get();
+	}
+	
+	private void encode(CharBuffer in, boolean endOfInput) throws CharacterCodingException {
+		while(true) {
+			if(current==null) current = pool.acquire();
+			CoderResult result = encoder.encode(in, current, endOfInput);
+			if(result.isOverflow()) {
+				next();
+			} else if(result.isUnderflow()) {
+				return;
+			} else {
+				result.throwException();
+			}
+		}
+	}
+	
+	private void next() {
+		current.flip();
+		size += current.remaining();
+		filled.add(current);
+		current = null;
+	}
+	
+	@Override
+	public void flush() {
+	}
+	
+	/**
+	 * Completes the encoding, after which buffers() returns the chain.
+	 * A dangling high surrogate is replaced with '?'.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) return;
+		if(pendingHighSurrogate!=0) {
+			encode(CharBuffer.wrap(REPLACEMENT), false);
+			pendingHighSurrogate = 0;
+		}
+		encode(CharBuffer.allocate(0), true);
+		if(current==null) current = pool.acquire();
+		while(encoder.flush(current).isOverflow()) {
+			next();
+			current = pool.acquire();
+		}
+		if(current.position()>0) next();
+		else {
+			pool.release(current);
+			current = null;
+		}
+		closed = true;
+	}
+	
+	/**
+	 * Releases the buffer being filled without completing the encoding.
+	 */
+	void discard() {
+		if(current!=null) {
+			pool.release(current);
+			current = null;
+		}
+		closed = true;
+	}
+	
+	/**
+	 * Returns the filled buffers, flipped for reading. The consumer removes
+	 * them from the head; the buffer being filled is only added by close().
+	 */
+	ArrayDeque<ByteBuffer> buffers() {
+		return filled;
+	}
+	
+	/**
+	 * Returns the number of bytes in the filled buffers, including the 
+	 * ones already consumed.
+	 */
+	long size() {
+		return size;
+	}
+}
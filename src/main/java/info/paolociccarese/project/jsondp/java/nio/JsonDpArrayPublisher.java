@@ -0,0 +1,218 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.nio;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpSegmentWriter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the UTF-8 encoding of a JsonDpArray as a stream of ByteBuffers.
+ * 
+ * <p>
+ * The array is encoded lazily, through the default codec, a bounded number
+ * of elements (at any nesting level) at a time, and only when the 
+ * subscriber has requested more buffers: time-to-first-byte and the memory
+ * held by the publisher depend neither on the size of the array nor on the
+ * size of its items. Every subscriber receives the whole encoding.
+ * </p>
+ * 
+ * <p>
+ * The buffers come from the given pool and are owned by the subscriber, 
+ * which can hand them back through getPool().release() once consumed.
+ * The array must not be modified while a subscription is active.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpArrayPublisher implements Flow.Publisher<ByteBuffer> {
+
+	public static final int DEFAULT_SEGMENT_ELEMENTS = 256;
+	
+	private static final Executor SAME_THREAD = new Executor() {
+		public void execute(Runnable command) { command.run(); }
+	};
+	
+	private final JsonDpArray array;
+	private final boolean withProvenance;
+	private final ByteBufferPool pool;
+	private final int segmentElements;
+	private final Executor executor;
+	
+	/**
+	 * Creates a publisher emitting on the thread requesting the data.
+	 * @param array				The array to publish
+	 * @param withProvenance	True to include the provenance data
+	 * @param pool				The pool providing the buffers
+	 */
+	public JsonDpArrayPublisher(JsonDpArray array, boolean withProvenance, ByteBufferPool pool) {
+		this(array, withProvenance, pool, DEFAULT_SEGMENT_ELEMENTS, SAME_THREAD);
+	}
+	
+	/**
+	 * Creates a publisher.
+	 * @param array				The array to publish
+	 * @param withProvenance	True to include the provenance data
+	 * @param pool				The pool providing the buffers
+	 * @param segmentElements	The number of elements (values, fragments, groups
+	 * 							or keys, at any nesting level) encoded at a time
+	 * @param executor			The executor on which the subscriber is signalled
+	 */
+	public JsonDpArrayPublisher(JsonDpArray array, boolean withProvenance, ByteBufferPool pool, 
+			int segmentElements, Executor executor) {
+		if(array==null) throw new IllegalArgumentException("The array cannot be null");
+		if(pool==null) throw new IllegalArgumentException("The pool cannot be null");
+		if(segmentElements<=0) throw new IllegalArgumentException("The segment size must be positive");
+		if(executor==null) throw new IllegalArgumentException("The executor cannot be null");
+		this.array = array;
+		this.withProvenance = withProvenance;
+		this.pool = pool;
+		this.segmentElements = segmentElements;
+		this.executor = executor;
+	}
+	
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		if(subscriber==null) throw new NullPointerException("The subscriber cannot be null");
+		ArraySubscription subscription = new ArraySubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+	
+	/**
+	 * Returns the pool the emitted buffers come from.
+	 * @return The buffer pool.
+	 */
+	public ByteBufferPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Subscription serializing the signals through a work-in-progress 
+	 * counter: request() calls made from within onNext() only add demand,
+	 * the loop already running delivers it.
+	 */
+	private class ArraySubscription implements Flow.Subscription, Runnable {
+		
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		private final ByteBufferWriter writer = new ByteBufferWriter(pool);
+		private final JsonDpSegmentWriter segments = new JsonDpSegmentWriter(array, withProvenance, writer);
+		private final ArrayDeque<ByteBuffer> ready = writer.buffers();
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		private volatile Throwable invalidRequest;
+		private boolean encoded;
+		private boolean terminated;
+		
+		ArraySubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+		
+		public void request(long n) {
+			if(n<=0) {
+				invalidRequest = new IllegalArgumentException("The number of requested buffers must be positive: " + n);
+			} else {
+				long current, next;
+				do {
+					current = requested.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while(!requested.compareAndSet(current, next));
+			}
+			schedule();
+		}
+		
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+		
+		private void schedule() {
+			if(wip.getAndIncrement()==0) executor.execute(this);
+		}
+		
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while(missed!=0);
+		}
+		
+		private void drain() {
+			if(terminated) return;
+			if(cancelled) {
+				terminate();
+				return;
+			}
+			if(invalidRequest!=null) {
+				terminate();
+				subscriber.onError(invalidRequest);
+				return;
+			}
+			try {
+				while(requested.get()>0 && !cancelled) {
+					if(ready.isEmpty()) {
+						if(encoded) break;
+						encodeNextSegment();
+						continue;
+					}
+					requested.decrementAndGet();
+					subscriber.onNext(ready.poll());
+				}
+				if(cancelled) {
+					terminate();
+				} else if(encoded && ready.isEmpty()) {
+					terminate();
+					subscriber.onComplete();
+				}
+			} catch (Throwable e) {
+				terminate();
+				subscriber.onError(e);
+			}
+		}
+		
+		/**
+		 * Encodes segments until at least one buffer is filled or the array
+		 * is complete.
+		 */
+		private void encodeNextSegment() throws java.io.IOException {
+			while(ready.isEmpty() && !encoded) {
+				if(!segments.writeNext(segmentElements)) {
+					writer.close();
+					encoded = true;
+				}
+			}
+		}
+		
+		private void terminate() {
+			terminated = true;
+			if(!encoded) writer.discard();
+			while(!ready.isEmpty()) {
+				pool.release(ready.poll());
+			}
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.nio;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+import info.paolociccarese.project.jsondp.java.core.JsonDpSegmentWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * The UTF-8 encoding of a JSON-DP document, produced in pooled direct 
+ * buffers while it is written to a channel.
+ * 
+ * <p>
+ * The document is encoded lazily, a segment at a time, and only when the 
+ * buffers already encoded have been written: the memory held does not 
+ * depend on the size of the document. The document must not be modified
+ * until the whole output has been written.
+ * </p>
+ * 
+ * <p>
+ * writeTo() can be used with non-blocking channels: it writes as much as
+ * the channel accepts and returns false when the channel is full, so that 
+ * the caller can resume the write once the channel is writable again. 
+ * Buffers are returned to the pool as soon as they have been written.
+ * </p>
+ * 
+ * <pre>
+ * <code>
+ *    JsonDpChannelOutput output = JsonDpChannelOutput.encode(document, true, pool);
+ *    ...
+ *    // on every OP_WRITE
+ *    if(output.writeTo(channel)) { output.close(); key.interestOps(SelectionKey.OP_READ); }
+ * </code>
+ * </pre>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpChannelOutput implements Closeable {
+
+	private static final int GATHER = 16;
+	
+	/** Elements of the document encoded at a time. */
+	private static final int SEGMENT_ELEMENTS = 64;
+	
+	private final ByteBufferPool pool;
+	private final ByteBufferWriter writer;
+	private final JsonDpSegmentWriter segments;
+	private final ArrayDeque<ByteBuffer> buffers;
+	private boolean encoded;
+	private long written;
+	
+	private JsonDpChannelOutput(ByteBufferPool pool, ByteBufferWriter writer, JsonDpSegmentWriter segments) {
+		this.pool = pool;
+		this.writer = writer;
+		this.segments = segments;
+		this.buffers = writer.buffers();
+	}
+	
+	/**
+	 * Prepares the encoding of a JsonDpObject.
+	 * @param document			The document
+	 * @param withProvenance	True to include the provenance data
+	 * @param pool				The pool providing the buffers
+	 * @return The output, encoded while it is written.
+	 */
+	public static JsonDpChannelOutput encode(JsonDpObject document, boolean withProvenance, ByteBufferPool pool) {
+		if(pool==null) throw new IllegalArgumentException("The pool cannot be null");
+		ByteBufferWriter writer = new ByteBufferWriter(pool);
+		return new JsonDpChannelOutput(pool, writer, new JsonDpSegmentWriter(document, withProvenance, writer));
+	}
+	
+	/**
+	 * Prepares the encoding of a JsonDpArray.
+	 * @param document			The document
+	 * @param withProvenance	True to include the provenance data
+	 * @param pool				The pool providing the buffers
+	 * @return The output, encoded while it is written.
+	 */
+	public static JsonDpChannelOutput encode(JsonDpArray document, boolean withProvenance, ByteBufferPool pool) {
+		if(pool==null) throw new IllegalArgumentException("The pool cannot be null");
+		ByteBufferWriter writer = new ByteBufferWriter(pool);
+		return new JsonDpChannelOutput(pool, writer, new JsonDpSegmentWriter(document, withProvenance, writer));
+	}
+	
+	/**
+	 * Writes as much of the remaining output as the channel accepts, 
+	 * encoding the next segments of the document as needed.
+	 * @param channel	The channel, blocking or not
+	 * @return True if the whole output has been written.
+	 * @throws IOException if the channel cannot be written.
+	 */
+	public boolean writeTo(WritableByteChannel channel) throws IOException {
+		while(true) {
+			if(buffers.isEmpty()) {
+				if(encoded) return true;
+				encodeNextSegment();
+				continue;
+			}
+			long count;
+			if(channel instanceof GatheringByteChannel && buffers.size()>1) {
+				ByteBuffer[] batch = new ByteBuffer[Math.min(GATHER, buffers.size())];
+				Iterator<ByteBuffer> it = buffers.iterator();
+				for(int i=0; i<batch.length; i++) batch[i] = it.next();
+				count = ((GatheringByteChannel) channel).write(batch);
+			} else {
+				count = channel.write(buffers.peekFirst());
+			}
+			written += count;
+			releaseWritten();
+			if(count==0) return encoded && buffers.isEmpty();
+		}
+	}
+	
+	/**
+	 * Encodes segments until at least one buffer is filled or the document
+	 * is complete.
+	 */
+	private void encodeNextSegment() throws IOException {
+		while(buffers.isEmpty() && !encoded) {
+			if(!segments.writeNext(SEGMENT_ELEMENTS)) {
+				writer.close();
+				encoded = true;
+			}
+		}
+	}
+	
+	/**
+	 * Writes the whole output. Blocking channels are written directly; 
+	 * non-blocking selectable channels are waited for with a Selector 
+	 * whenever they are full.
+	 * @param channel	The channel
+	 * @throws IOException if the channel cannot be written, or if a channel 
+	 *         that cannot be selected accepts no bytes.
+	 */
+	public void writeFully(WritableByteChannel channel) throws IOException {
+		try {
+			if(writeTo(channel)) return;
+			if(!(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking())
+				throw new IOException("The channel accepted no bytes and cannot be waited for");
+			Selector selector = Selector.open();
+			try {
+				SelectionKey key = ((SelectableChannel) channel).register(selector, SelectionKey.OP_WRITE);
+				while(!writeTo(channel)) {
+					selector.select();
+					selector.selectedKeys().clear();
+				}
+				key.cancel();
+			} finally {
+				selector.close();
+			}
+		} finally {
+			close();
+		}
+	}
+	
+	private void releaseWritten() {
+		while(!buffers.isEmpty() && !buffers.peekFirst().hasRemaining()) {
+			pool.release(buffers.pollFirst());
+		}
+	}
+	
+	/**
+	 * Returns the size of the output encoded so far, which is the total 
+	 * size once the output is complete.
+	 * @return The size in bytes.
+	 */
+	public long size() {
+		return writer.size();
+	}
+	
+	/**
+	 * Returns the number of bytes encoded and not yet written.
+	 * @return The remaining bytes.
+	 */
+	public long remaining() {
+		return writer.size() - written;
+	}
+	
+	/**
+	 * Returns true if the whole output has been written.
+	 * @return True when complete.
+	 */
+	public boolean isComplete() {
+		return encoded && buffers.isEmpty();
+	}
+	
+	/**
+	 * Returns the buffers not yet written to the pool and stops encoding.
+	 */
+	public void close() {
+		while(!buffers.isEmpty()) {
+			pool.release(buffers.pollFirst());
+		}
+		writer.discard();
+		encoded = true;
+	}
+}
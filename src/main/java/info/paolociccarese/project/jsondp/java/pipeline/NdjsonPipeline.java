@@ -0,0 +1,337 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.pipeline;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+import info.paolociccarese.project.jsondp.java.core.JsonDpParser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk ingest and export of JSON-DP records stored as newline-delimited 
+ * JSON (one plainJsonWithProvenanceToString() record per line).
+ * 
+ * <p>
+ * A reader thread reads the input line by line and hands every record to 
+ * the worker executor, which parses it into a JsonDpObject, applies the user
+ * transform and serializes the result. The pending results are kept, in 
+ * input order, in a bounded queue: when the writer falls behind, the reader
+ * blocks (backpressure). The writer emits the results in the input order, 
+ * batching several records per write.
+ * </p>
+ * 
+ * <p>
+ * By default the workers run on virtual threads when the JVM provides them 
+ * (Java 21+), otherwise on a fixed pool with one thread per processor.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class NdjsonPipeline implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(NdjsonPipeline.class.getName());
+	
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	public static final int DEFAULT_BATCH_SIZE = 128;
+	
+	private static final Future<String> END = CompletableFuture.completedFuture(null);
+	
+	/**
+	 * Time allowed to the reader to stop when a run is aborted. It cannot 
+	 * be interrupted while blocked reading the input.
+	 */
+	private static final long READER_STOP_MILLIS = 10000;
+	
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final int queueCapacity;
+	private final int batchSize;
+	private boolean skipInvalidRecords;
+	
+	private final AtomicLong recordsRead = new AtomicLong();
+	private final AtomicLong recordsWritten = new AtomicLong();
+	private final AtomicLong recordsDropped = new AtomicLong();
+	private final AtomicLong recordsFailed = new AtomicLong();
+	private volatile long startTime;
+	private volatile long endTime;
+	
+	/**
+	 * Creates a pipeline with its own worker executor and default sizes.
+	 */
+	public NdjsonPipeline() {
+		this(newWorkerExecutor(), true, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Creates a pipeline running the workers on the given executor, which
+	 * is not shut down when the pipeline is closed.
+	 * @param executor		The worker executor
+	 * @param queueCapacity	The maximum number of records in flight
+	 * @param batchSize		The number of records written at a time
+	 */
+	public NdjsonPipeline(ExecutorService executor, int queueCapacity, int batchSize) {
+		this(executor, false, queueCapacity, batchSize);
+	}
+	
+	private NdjsonPipeline(ExecutorService executor, boolean ownsExecutor, int queueCapacity, int batchSize) {
+		if(executor==null) throw new IllegalArgumentException("The executor cannot be null");
+		if(queueCapacity<=0) throw new IllegalArgumentException("The queue capacity must be positive");
+		if(batchSize<=0) throw new IllegalArgumentException("The batch size must be positive");
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.queueCapacity = queueCapacity;
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Returns a virtual-thread-per-task executor when available, otherwise
+	 * a fixed pool sized on the available processors.
+	 * @return A new executor.
+	 */
+	public static ExecutorService newWorkerExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			// Virtual threads not available (or preview not enabled)
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		}
+	}
+	
+	/**
+	 * When true, records that cannot be parsed or transformed are counted
+	 * and skipped; otherwise (the default) the run is aborted.
+	 * @param skipInvalidRecords	True to skip the invalid records
+	 */
+	public void setSkipInvalidRecords(boolean skipInvalidRecords) {
+		this.skipInvalidRecords = skipInvalidRecords;
+	}
+	
+	/**
+	 * Reads the records from the input, transforms them and writes them to 
+	 * the output in the same order.
+	 * @param in		The NDJSON input
+	 * @param out		The NDJSON output
+	 * @param transform	The transform, null for none
+	 * @return The statistics of the run.
+	 * @throws IOException if the input or the output fail, or a record is invalid.
+	 */
+	public PipelineStats run(Reader in, Writer out, final RecordTransform transform) throws IOException {
+		final BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		final JsonDpParser parser = new JsonDpParser();
+		return execute(new Source() {
+			public Callable<String> next() throws IOException {
+				String line;
+				do {
+					line = reader.readLine();
+					if(line==null) return null;
+				} while(line.trim().isEmpty());
+				final String record = line;
+				return new Callable<String>() {
+					public String call() throws Exception {
+						JsonDpObject object = parser.parseObject(record);
+						if(transform!=null) object = transform.transform(object);
+						return object==null ? null : object.plainJsonWithProvenanceToString();
+					}
+				};
+			}
+		}, out);
+	}
+	
+	/**
+	 * Serializes the records in parallel and writes them, in order, to the output.
+	 * @param records	The records to export
+	 * @param out		The NDJSON output
+	 * @return The statistics of the run.
+	 * @throws IOException if the output fails.
+	 */
+	public PipelineStats export(final Iterator<? extends JsonDpObject> records, Writer out) throws IOException {
+		return execute(new Source() {
+			public Callable<String> next() {
+				if(!records.hasNext()) return null;
+				final JsonDpObject record = records.next();
+				return new Callable<String>() {
+					public String call() {
+						return record==null ? null : record.plainJsonWithProvenanceToString();
+					}
+				};
+			}
+		}, out);
+	}
+	
+	/**
+	 * Returns a snapshot of the counters, also while a run is in progress.
+	 * The counters accumulate over the runs of this pipeline.
+	 * @return The statistics.
+	 */
+	public PipelineStats getStats() {
+		long end = endTime==0 ? System.nanoTime() : endTime;
+		return new PipelineStats(recordsRead.get(), recordsWritten.get(), recordsDropped.get(), 
+			recordsFailed.get(), startTime==0 ? 0 : end - startTime);
+	}
+	
+	private PipelineStats execute(final Source source, Writer out) throws IOException {
+		final BlockingQueue<Future<String>> pending = new ArrayBlockingQueue<Future<String>>(queueCapacity);
+		final AtomicReference<Throwable> readFailure = new AtomicReference<Throwable>();
+		final AtomicBoolean aborted = new AtomicBoolean();
+		if(startTime==0) startTime = System.nanoTime();
+		endTime = 0;
+		
+		Thread readerThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Callable<String> task;
+					while(!aborted.get() && (task = source.next())!=null) {
+						recordsRead.incrementAndGet();
+						pending.put(executor.submit(task));
+					}
+				} catch (Throwable e) {
+					readFailure.set(e);
+				} finally {
+					try {
+						// Nobody takes the end marker of an aborted run
+						if(!aborted.get()) pending.put(END);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "ndjson-pipeline-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+		
+		StringBuilder batch = new StringBuilder();
+		int batched = 0;
+		boolean ended = false;
+		try {
+			while(true) {
+				Future<String> result = pending.take();
+				if(result==END) {
+					ended = true;
+					break;
+				}
+				String line = await(result);
+				if(line==null) continue;
+				batch.append(line).append('\n');
+				if(++batched==batchSize) {
+					out.write(batch.toString());
+					recordsWritten.addAndGet(batched);
+					batch.setLength(0);
+					batched = 0;
+				}
+			}
+			if(batched>0) {
+				out.write(batch.toString());
+				recordsWritten.addAndGet(batched);
+			}
+			out.flush();
+			if(readFailure.get()!=null) {
+				Throwable e = readFailure.get();
+				throw e instanceof IOException ? (IOException) e : new IOException("Unable to read the records", e);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while running the pipeline", e);
+		} finally {
+			// Whatever the failure, the reader must not stay blocked on the queue
+			if(!ended) abort(aborted, readerThread, pending);
+			endTime = System.nanoTime();
+		}
+		return getStats();
+	}
+	
+	/**
+	 * Waits for a worker result, applying the invalid record policy.
+	 * @return The line to write or null if the record has been dropped or skipped.
+	 */
+	private String await(Future<String> result) throws IOException, InterruptedException {
+		try {
+			String line = result.get();
+			if(line==null) recordsDropped.incrementAndGet();
+			return line;
+		} catch (ExecutionException e) {
+			recordsFailed.incrementAndGet();
+			if(skipInvalidRecords) {
+				logger.warn("Skipping invalid record: " + e.getCause().getMessage());
+				return null;
+			}
+			throw new IOException("Invalid record", e.getCause());
+		}
+	}
+	
+	/**
+	 * Stops the reader and discards the work in flight.
+	 */
+	private void abort(AtomicBoolean aborted, Thread readerThread, BlockingQueue<Future<String>> pending) {
+		aborted.set(true);
+		readerThread.interrupt();
+		boolean interrupted = Thread.interrupted();
+		try {
+			readerThread.join(READER_STOP_MILLIS);
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		if(readerThread.isAlive()) logger.warn("The reader has not stopped, it is still blocked on the input");
+		// A reader still blocked on the input adds at most one more task
+		Future<String> result;
+		while((result = pending.poll())!=null) {
+			result.cancel(true);
+		}
+	}
+	
+	/**
+	 * Shuts down the worker executor if it has been created by the pipeline.
+	 */
+	public void close() {
+		if(ownsExecutor) executor.shutdown();
+	}
+	
+	/**
+	 * Supplies the tasks of a run, in output order.
+	 */
+	private interface Source {
+		/**
+		 * @return The next task or null at the end of the input.
+		 */
+		Callable<String> next() throws IOException;
+	}
+}
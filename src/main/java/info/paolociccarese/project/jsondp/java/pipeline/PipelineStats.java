@@ -0,0 +1,76 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.pipeline;
+
+/**
+ * Snapshot of the counters of an NdjsonPipeline run.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class PipelineStats {
+
+	private final long recordsRead;
+	private final long recordsWritten;
+	private final long recordsDropped;
+	private final long recordsFailed;
+	private final long elapsedNanos;
+	
+	PipelineStats(long recordsRead, long recordsWritten, long recordsDropped, long recordsFailed, long elapsedNanos) {
+		this.recordsRead = recordsRead;
+		this.recordsWritten = recordsWritten;
+		this.recordsDropped = recordsDropped;
+		this.recordsFailed = recordsFailed;
+		this.elapsedNanos = elapsedNanos;
+	}
+	
+	public long getRecordsRead() { return recordsRead; }
+	
+	public long getRecordsWritten() { return recordsWritten; }
+	
+	/**
+	 * Returns the number of records the transform discarded by returning null.
+	 * @return The dropped records.
+	 */
+	public long getRecordsDropped() { return recordsDropped; }
+	
+	/**
+	 * Returns the number of records skipped because they could not be 
+	 * parsed or transformed.
+	 * @return The failed records.
+	 */
+	public long getRecordsFailed() { return recordsFailed; }
+	
+	public long getElapsedNanos() { return elapsedNanos; }
+	
+	/**
+	 * Returns the throughput of the run.
+	 * @return The records read per second.
+	 */
+	public double getRecordsPerSecond() {
+		return elapsedNanos==0 ? 0 : recordsRead * 1e9 / elapsedNanos;
+	}
+	
+	@Override
+	public String toString() {
+		return "PipelineStats[read=" + recordsRead + ", written=" + recordsWritten + ", dropped=" + recordsDropped + 
+			", failed=" + recordsFailed + ", recordsPerSecond=" + (long) getRecordsPerSecond() + "]";
+	}
+}
@@ -0,0 +1,40 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.pipeline;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+/**
+ * User transformation applied by the NdjsonPipeline workers to every record.
+ * Implementations must be thread safe, as records are transformed concurrently.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public interface RecordTransform {
+
+	/**
+	 * Transforms a record.
+	 * @param record	The record read from the input
+	 * @return The record to write (possibly the same instance) or null to drop it.
+	 * @throws Exception if the record cannot be transformed.
+	 */
+	public JsonDpObject transform(JsonDpObject record) throws Exception;
+}
@@ -0,0 +1,395 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.server;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpAware;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+import info.paolociccarese.project.jsondp.java.core.JsonDpSegmentWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server answering queries on the documents of a 
+ * JsonDpRegistry, built on the JDK HttpServer:
+ * 
+ * <pre>
+ * <code>
+ *   GET /documents/{id}                 the document (plain JSON)
+ *   GET /documents/{id}?provenance=true the document with provenance
+ *   GET /documents/{id}/{key}           get(key)
+ *   GET /documents/{id}/{key}?provenance=true  getWithProvenance(key)
+ *   GET /documents/{id}/{key}?provenanceKey=k&amp;provenanceValue=v1&amp;provenanceValue=v2
+ *                                       get(key, k, v1, v2), or
+ *                                       getWithProvenance with provenance=true
+ *   GET /metrics                        the request latency metrics
+ * </code>
+ * </pre>
+ * 
+ * <p>
+ * Responses are serialized while holding the lock of the document 
+ * into a pooled buffer, which is then sent once the lock has been 
+ * released: slow clients never block the other requests and the writers 
+ * of a document. Documents and arrays are serialized a segment at a time
+ * and a response larger than MAX_BUFFERED_RESPONSE is streamed chunked 
+ * instead, flushing the buffer to the client after every segment: the 
+ * buffers stay small enough to be pooled, at the price of holding the 
+ * lock while a slow client receives a large response. Requests
+ * run on virtual threads when the JVM provides them (Java 21 or later) and
+ * on a cached pool of daemon threads otherwise.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpQueryServer implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(JsonDpQueryServer.class.getName());
+	
+	private static final String DOCUMENTS = "/documents/";
+	private static final String METRICS = "/metrics";
+	private static final String JSON = "application/json; charset=UTF-8";
+	
+	/** Buffers kept in the pool, larger ones are left to the garbage collector. */
+	private static final int MAX_POOLED_BUFFERS = 16;
+	private static final int MAX_POOLED_BUFFER_SIZE = 1 << 20;
+	
+	/** Responses buffered before switching to chunked streaming. */
+	public static final int MAX_BUFFERED_RESPONSE = 256 * 1024;
+	
+	/** Elements serialized per segment of a streamed response. */
+	private static final int SEGMENT_ELEMENTS = 256;
+	
+	private final JsonDpRegistry registry;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final RequestMetrics metrics = new RequestMetrics();
+	private final ConcurrentLinkedQueue<ResponseBuffer> buffers = new ConcurrentLinkedQueue<ResponseBuffer>();
+	private final AtomicInteger pooledBuffers = new AtomicInteger();
+	
+	/**
+	 * Creates a server; call start() to accept requests.
+	 * @param address	The address to bind (port 0 for any free port)
+	 * @param registry	The documents to serve
+	 * @throws IOException if the address cannot be bound.
+	 */
+	public JsonDpQueryServer(InetSocketAddress address, JsonDpRegistry registry) throws IOException {
+		if(address==null) throw new IllegalArgumentException("The address cannot be null");
+		if(registry==null) throw new IllegalArgumentException("The registry cannot be null");
+		this.registry = registry;
+		ExecutorService virtual = newVirtualThreadExecutor();
+		this.virtualThreads = virtual!=null;
+		this.executor = virtual!=null ? virtual : Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "json-dp-query-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext(DOCUMENTS, new Handler() {
+			int serve(HttpExchange exchange) throws IOException {
+				return serveDocument(exchange);
+			}
+		});
+		server.createContext(METRICS, new Handler() {
+			int serve(HttpExchange exchange) throws IOException {
+				return send(exchange, 200, metrics.toJson());
+			}
+		});
+	}
+	
+	/**
+	 * Returns the executor of Executors.newVirtualThreadPerTaskExecutor(),
+	 * looked up reflectively, or null when virtual threads are not available.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		server.start();
+		logger.info("JSON-DP query server listening on " + getAddress() + 
+			(virtualThreads ? " (virtual threads)" : ""));
+	}
+	
+	/**
+	 * Returns the address the server is bound to.
+	 * @return The address.
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+	
+	/**
+	 * Returns the registry of the served documents.
+	 * @return The registry.
+	 */
+	public JsonDpRegistry getRegistry() {
+		return registry;
+	}
+	
+	/**
+	 * Returns the request latency metrics.
+	 * @return The metrics.
+	 */
+	public RequestMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Returns true if the requests run on virtual threads.
+	 * @return True if virtual threads are used.
+	 */
+	public boolean isUsingVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	/**
+	 * Stops the server, without waiting for the running requests.
+	 */
+	public void close() {
+		server.stop(0);
+		executor.shutdown();
+	}
+	
+	private int serveDocument(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath().substring(DOCUMENTS.length());
+		int slash = path.indexOf('/');
+		String id = slash<0 ? path : path.substring(0, slash);
+		String key = slash<0 ? null : path.substring(slash+1);
+		JsonDpRegistry.Registration registration = registry.getRegistration(id);
+		if(registration==null) return error(exchange, 404, "Unknown document " + id);
+		JsonDpObject document = registration.document;
+		
+		String provenance = null, provenanceKey = null;
+		List<String> provenanceValues = new ArrayList<String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if(query!=null) {
+			for(String parameter: query.split("&")) {
+				int equals = parameter.indexOf('=');
+				if(equals<0) continue;
+				String name = decode(parameter.substring(0, equals));
+				String value = decode(parameter.substring(equals+1));
+				if("provenance".equals(name)) provenance = value;
+				else if("provenanceKey".equals(name)) provenanceKey = value;
+				else if("provenanceValue".equals(name)) provenanceValues.add(value);
+			}
+		}
+		boolean withProvenance = "true".equals(provenance);
+		if(provenanceKey!=null && provenanceValues.isEmpty()) 
+			return error(exchange, 400, "provenanceKey requires at least one provenanceValue");
+		
+		// Returned values may share nested documents: they are serialized 
+		// under the lock too, and sent only after releasing it unless the
+		// response outgrows the buffer
+		ResponseBuffer buffer = borrowBuffer();
+		try {
+			Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+			OutputStream out = null;
+			Object value = document;
+			registration.lock.lock();
+			try {
+				if(key!=null && !key.isEmpty()) {
+					if(provenanceKey!=null) {
+						Object[] values = provenanceValues.toArray();
+						value = withProvenance ? document.getWithProvenance(key, provenanceKey, values) 
+							: document.get(key, provenanceKey, values);
+					} else {
+						value = withProvenance ? document.getWithProvenance(key) : document.get(key);
+					}
+				}
+				JsonDpSegmentWriter segments = segmentWriter(value, withProvenance, writer);
+				if(segments!=null) {
+					while(segments.writeNext(SEGMENT_ELEMENTS)) {
+						if(buffer.size()<MAX_BUFFERED_RESPONSE) continue;
+						if(out==null) {
+							exchange.getResponseHeaders().set("Content-Type", JSON);
+							exchange.sendResponseHeaders(200, 0);
+							out = exchange.getResponseBody();
+						}
+						buffer.writeTo(out);
+						buffer.reset();
+					}
+				} else if(value!=null) {
+					write(writer, value, withProvenance);
+					writer.flush();
+				}
+			} finally {
+				registration.lock.unlock();
+			}
+			if(value==null) return error(exchange, 404, "Unknown key " + key + " in document " + id);
+			if(out==null) {
+				exchange.getResponseHeaders().set("Content-Type", JSON);
+				exchange.sendResponseHeaders(200, buffer.size());
+				out = exchange.getResponseBody();
+			}
+			try {
+				buffer.writeTo(out);
+			} finally {
+				out.close();
+			}
+			return 200;
+		} finally {
+			returnBuffer(buffer);
+		}
+	}
+	
+	/**
+	 * Returns a segment writer for the documents and arrays, null for the
+	 * other values.
+	 */
+	private static JsonDpSegmentWriter segmentWriter(Object value, boolean withProvenance, Writer out) {
+		if(value instanceof JsonDpObject) return new JsonDpSegmentWriter((JsonDpObject) value, withProvenance, out);
+		if(value instanceof JsonDpArray) return new JsonDpSegmentWriter((JsonDpArray) value, withProvenance, out);
+		return null;
+	}
+	
+	private ResponseBuffer borrowBuffer() {
+		ResponseBuffer buffer = buffers.poll();
+		if(buffer==null) return new ResponseBuffer();
+		pooledBuffers.decrementAndGet();
+		return buffer;
+	}
+	
+	private void returnBuffer(ResponseBuffer buffer) {
+		if(buffer.capacity()>MAX_POOLED_BUFFER_SIZE) return;
+		buffer.reset();
+		if(pooledBuffers.incrementAndGet()<=MAX_POOLED_BUFFERS) buffers.offer(buffer);
+		else pooledBuffers.decrementAndGet();
+	}
+	
+	private static String decode(String text) throws UnsupportedEncodingException {
+		return URLDecoder.decode(text, "UTF-8");
+	}
+	
+	private int error(HttpExchange exchange, int status, String message) throws IOException {
+		JSONObject error = new JSONObject();
+		error.put("error", message);
+		return send(exchange, status, error);
+	}
+	
+	/**
+	 * Streams a value, not shared with any document, as the (chunked) 
+	 * response body.
+	 */
+	private int send(HttpExchange exchange, int status, Object value) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", JSON);
+		exchange.sendResponseHeaders(status, 0);
+		Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+		try {
+			write(out, value, false);
+		} finally {
+			out.close();
+		}
+		return status;
+	}
+	
+	private void write(Writer out, Object value, boolean withProvenance) throws IOException {
+		if(value instanceof JsonDpObject) ((JsonDpObject) value).writeJson(out, withProvenance);
+		else if(value instanceof JsonDpArray) ((JsonDpArray) value).writeJson(out, withProvenance);
+		else if(value instanceof JsonDpAware) out.write(withProvenance ? ((JsonDpAware) value).plainJsonWithProvenanceToString() 
+			: ((JsonDpAware) value).plainJsonToString());
+		else if(value instanceof JSONAware) out.write(((JSONAware) value).toJSONString());
+		else out.write(JSONValue.toJSONString(value));
+	}
+	
+	/**
+	 * Handles a request and records its latency and status.
+	 */
+	private abstract class Handler implements HttpHandler {
+		
+		abstract int serve(HttpExchange exchange) throws IOException;
+		
+		public void handle(HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+			int status = 500;
+			try {
+				if(!"GET".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "GET");
+					status = error(exchange, 405, "Only GET requests are supported");
+				} else {
+					status = serve(exchange);
+				}
+			} catch (RuntimeException e) {
+				logger.error("Unable to serve " + exchange.getRequestURI(), e);
+				if(exchange.getResponseCode()<0) exchange.sendResponseHeaders(500, -1);
+			} finally {
+				exchange.close();
+				metrics.record(status, System.nanoTime() - start);
+			}
+		}
+	}
+	
+	/**
+	 * A response body buffer, reset and reused across requests.
+	 */
+	private static final class ResponseBuffer extends ByteArrayOutputStream {
+		
+		ResponseBuffer() {
+			super(8192);
+		}
+		
+		int capacity() {
+			return buf.length;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.server;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory registry of the JsonDpObject documents served by a 
+ * JsonDpQueryServer, keyed by document id.
+ * 
+ * <p>
+ * The registry is thread-safe. JSON-DP documents are not, not even for 
+ * reads: queries copy values into new arrays and objects, which links them
+ * to the shared nested documents, and fill the caches of the document. 
+ * Each registered document has therefore an exclusive lock, held by the 
+ * server while querying the document, and a registered document must only 
+ * be read or modified while holding the lock returned by getLock(id) (or 
+ * replaced by registering a new one with the same id).
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpRegistry {
+
+	private final ConcurrentHashMap<String, Registration> documents = new ConcurrentHashMap<String, Registration>();
+	
+	/**
+	 * Registers a document, replacing any document with the same id.
+	 * @param id		The document id
+	 * @param document	The document
+	 * @return The replaced document or null.
+	 */
+	public JsonDpObject put(String id, JsonDpObject document) {
+		if(id==null) throw new IllegalArgumentException("The id cannot be null");
+		if(document==null) throw new IllegalArgumentException("The document cannot be null");
+		return documentOf(documents.put(id, new Registration(document)));
+	}
+	
+	/**
+	 * Returns a registered document.
+	 * @param id	The document id
+	 * @return The document or null.
+	 */
+	public JsonDpObject get(String id) {
+		return documentOf(documents.get(id));
+	}
+	
+	/**
+	 * Returns the lock of a registered document. The lock must be held 
+	 * while reading or modifying the document.
+	 * @param id	The document id
+	 * @return The lock or null if no document is registered with the id.
+	 */
+	public Lock getLock(String id) {
+		Registration registration = documents.get(id);
+		return registration!=null ? registration.lock : null;
+	}
+	
+	/**
+	 * Removes a document.
+	 * @param id	The document id
+	 * @return The removed document or null.
+	 */
+	public JsonDpObject remove(String id) {
+		return documentOf(documents.remove(id));
+	}
+	
+	/**
+	 * Returns a document together with its lock.
+	 */
+	Registration getRegistration(String id) {
+		return documents.get(id);
+	}
+	
+	private static JsonDpObject documentOf(Registration registration) {
+		return registration!=null ? registration.document : null;
+	}
+	
+	/**
+	 * Returns the ids of the registered documents.
+	 * @return The ids.
+	 */
+	public Set<String> ids() {
+		return Collections.unmodifiableSet(documents.keySet());
+	}
+	
+	/**
+	 * Returns the number of registered documents.
+	 * @return The number of documents.
+	 */
+	public int size() {
+		return documents.size();
+	}
+	
+	/**
+	 * A registered document and its lock.
+	 */
+	static final class Registration {
+		
+		final JsonDpObject document;
+		final ReentrantLock lock = new ReentrantLock();
+		
+		Registration(JsonDpObject document) {
+			this.document = document;
+		}
+	}
+}
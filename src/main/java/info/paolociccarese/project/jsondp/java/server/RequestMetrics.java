@@ -0,0 +1,152 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Latency metrics of the requests served by a JsonDpQueryServer. Latencies
+ * are recorded in a histogram of power-of-two microsecond buckets, so that
+ * recording is lock-free and percentiles are approximated within a factor 
+ * of two.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class RequestMetrics {
+
+	private static final int BUCKETS = 40;
+	
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder clientErrors = new LongAdder();
+	private final LongAdder serverErrors = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private volatile long maxNanos;
+	
+	/**
+	 * Records a served request.
+	 * @param status	The HTTP status of the response
+	 * @param nanos		The latency in nanoseconds
+	 */
+	void record(int status, long nanos) {
+		requests.increment();
+		if(status>=500) serverErrors.increment();
+		else if(status>=400) clientErrors.increment();
+		totalNanos.add(nanos);
+		long micros = nanos / 1000;
+		buckets.incrementAndGet(Math.min(BUCKETS-1, 64 - Long.numberOfLeadingZeros(micros)));
+		if(nanos>maxNanos) {
+			synchronized(this) {
+				if(nanos>maxNanos) maxNanos = nanos;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of requests served.
+	 * @return The number of requests.
+	 */
+	public long getRequestCount() {
+		return requests.sum();
+	}
+	
+	/**
+	 * Returns the number of requests answered with a 4xx status.
+	 * @return The number of client errors.
+	 */
+	public long getClientErrorCount() {
+		return clientErrors.sum();
+	}
+	
+	/**
+	 * Returns the number of requests answered with a 5xx status.
+	 * @return The number of server errors.
+	 */
+	public long getServerErrorCount() {
+		return serverErrors.sum();
+	}
+	
+	/**
+	 * Returns the mean latency.
+	 * @return The mean latency in nanoseconds.
+	 */
+	public long getMeanNanos() {
+		long count = requests.sum();
+		return count==0 ? 0 : totalNanos.sum() / count;
+	}
+	
+	/**
+	 * Returns the maximum latency.
+	 * @return The maximum latency in nanoseconds.
+	 */
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+	
+	/**
+	 * Returns an upper bound of the given latency percentile: the upper 
+	 * limit of the histogram bucket where the percentile falls.
+	 * @param percentile	The percentile (0 to 100)
+	 * @return The latency in nanoseconds.
+	 */
+	public long getPercentileNanos(double percentile) {
+		if(percentile<0 || percentile>100) throw new IllegalArgumentException("The percentile must be between 0 and 100");
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if(total==0) return 0;
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += counts[i];
+			if(seen>=Math.max(1, rank)) return Math.min(maxNanos, (1L << i) * 1000);
+		}
+		return maxNanos;
+	}
+	
+	/**
+	 * Returns the metrics as JSON, with latencies in microseconds.
+	 * @return The metrics.
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("requests", getRequestCount());
+		json.put("clientErrors", getClientErrorCount());
+		json.put("serverErrors", getServerErrorCount());
+		json.put("meanMicros", getMeanNanos() / 1000);
+		json.put("p50Micros", getPercentileNanos(50) / 1000);
+		json.put("p99Micros", getPercentileNanos(99) / 1000);
+		json.put("maxMicros", getMaxNanos() / 1000);
+		return json;
+	}
+	
+	@Override
+	public String toString() {
+		return toJson().toJSONString();
+	}
+}
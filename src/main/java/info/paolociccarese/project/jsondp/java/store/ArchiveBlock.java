@@ -0,0 +1,164 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One independently compressed block of a JSON-DP archive. A block is 
+ * laid out as:
+ * 
+ * <pre>
+ * <code>
+ *    int    compressed length
+ *    int    uncompressed length
+ *    int    number of records
+ *    int    CRC32 of the uncompressed data
+ *    byte[] deflated data: for each record, 
+ *           int length and byte[] record (UTF-8, JSON-DP with provenance)
+ * </code>
+ * </pre>
+ * 
+ * The archive itself is a header (magic, version), the blocks, the block 
+ * index (for each block: offset, first record, number of records) and a
+ * trailer (index offset, number of records, magic).
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class ArchiveBlock {
+
+	static final int MAGIC = 0x4a445041; // "JDPA"
+	static final int VERSION = 1;
+	
+	static final int FILE_HEADER = 8;
+	static final int HEADER = 16;
+	static final int INDEX_ENTRY = 20;
+	static final int TRAILER = 20;
+	
+	/**
+	 * Compresses the records of a block.
+	 * @param records	The records, each prefixed by its length
+	 * @param length	The number of bytes of the records
+	 * @param count		The number of records
+	 * @param level		The Deflater compression level
+	 * @return The encoded block, flipped for writing.
+	 */
+	static ByteBuffer encode(byte[] records, int length, int count, int level) {
+		CRC32 crc = new CRC32();
+		crc.update(records, 0, length);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length/4));
+		byte[] chunk = new byte[8192];
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(records, 0, length);
+			deflater.finish();
+			while(!deflater.finished()) {
+				int n = deflater.deflate(chunk);
+				compressed.write(chunk, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+		ByteBuffer block = ByteBuffer.allocate(HEADER + compressed.size());
+		block.putInt(compressed.size());
+		block.putInt(length);
+		block.putInt(count);
+		block.putInt((int) crc.getValue());
+		block.put(compressed.toByteArray());
+		block.flip();
+		return block;
+	}
+	
+	/**
+	 * Inflates a block.
+	 * @param header		The block header
+	 * @param compressed	The deflated data
+	 * @return The decoded records.
+	 * @throws IOException if the block is corrupted.
+	 */
+	static Decoded decode(ByteBuffer header, byte[] compressed) throws IOException {
+		header.getInt();
+		int length = header.getInt();
+		int count = header.getInt();
+		int checksum = header.getInt();
+		if(length<0 || count<0) throw new IOException("Corrupted block header");
+		byte[] data = new byte[length];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int inflated = 0;
+			while(inflated<length) {
+				int n = inflater.inflate(data, inflated, length - inflated);
+				if(n==0 && (inflater.finished() || inflater.needsInput())) break;
+				inflated += n;
+			}
+			if(inflated!=length) throw new IOException("Truncated block: " + inflated + " of " + length + " bytes");
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted block", e);
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		if((int) crc.getValue()!=checksum) throw new IOException("Block checksum mismatch");
+		
+		int[] starts = new int[count+1];
+		ByteBuffer records = ByteBuffer.wrap(data);
+		for(int i=0; i<count; i++) {
+			int recordLength = records.getInt();
+			starts[i] = records.position();
+			if(recordLength<0 || recordLength>records.remaining()) throw new IOException("Corrupted record " + i);
+			records.position(starts[i] + recordLength);
+		}
+		starts[count] = records.position() + 4;
+		return new Decoded(data, starts);
+	}
+	
+	/**
+	 * The inflated records of a block.
+	 */
+	static class Decoded {
+		final byte[] data;
+		/**
+		 * Start of each record; the end of record i is starts[i+1] - 4.
+		 */
+		final int[] starts;
+		
+		Decoded(byte[] data, int[] starts) {
+			this.data = data;
+			this.starts = starts;
+		}
+		
+		int size() {
+			return starts.length - 1;
+		}
+		
+		String record(int i) {
+			return new String(data, starts[i], starts[i+1] - 4 - starts[i], Segment.UTF8);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+import info.paolociccarese.project.jsondp.java.core.JsonDpParser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reads the archives written by JsonDpArchiveWriter. Only the block index 
+ * is loaded when the archive is opened: get(record) inflates just the 
+ * block holding the record (the last inflated block is kept), while 
+ * forEach inflates and parses the blocks ahead in parallel and delivers 
+ * the records in order.
+ * 
+ * <p>
+ * Readers are thread-safe.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ * @see JsonDpArchiveWriter
+ */
+public class JsonDpArchiveReader implements Closeable {
+
+	private final File file;
+	private final FileChannel channel;
+	private final long[] offsets;
+	private final long[] firstRecords;
+	private final long records;
+	private final long indexOffset;
+	
+	private volatile CachedBlock last;
+	private final AtomicLong inflatedBlocks = new AtomicLong();
+	
+	/**
+	 * Opens an archive.
+	 * @param file	The archive file
+	 * @throws IOException if the file cannot be read or is not a complete archive.
+	 */
+	public JsonDpArchiveReader(File file) throws IOException {
+		if(file==null) throw new IllegalArgumentException("The file cannot be null");
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if(size < ArchiveBlock.FILE_HEADER + 4 + ArchiveBlock.TRAILER) throw new IOException("Not a JSON-DP archive: " + file);
+			ByteBuffer header = read(0, ArchiveBlock.FILE_HEADER);
+			if(header.getInt()!=ArchiveBlock.MAGIC) throw new IOException("Not a JSON-DP archive: " + file);
+			int version = header.getInt();
+			if(version!=ArchiveBlock.VERSION) throw new IOException("Unsupported archive version " + version);
+			
+			ByteBuffer trailer = read(size - ArchiveBlock.TRAILER, ArchiveBlock.TRAILER);
+			indexOffset = trailer.getLong();
+			records = trailer.getLong();
+			if(trailer.getInt()!=ArchiveBlock.MAGIC || indexOffset<ArchiveBlock.FILE_HEADER || indexOffset>size - ArchiveBlock.TRAILER - 4) 
+				throw new IOException("Incomplete archive (not closed?): " + file);
+			
+			int blocks = read(indexOffset, 4).getInt();
+			if(blocks<0 || indexOffset + 4 + (long) blocks*ArchiveBlock.INDEX_ENTRY != size - ArchiveBlock.TRAILER)
+				throw new IOException("Corrupted block index: " + file);
+			ByteBuffer index = read(indexOffset + 4, blocks*ArchiveBlock.INDEX_ENTRY);
+			offsets = new long[blocks];
+			firstRecords = new long[blocks];
+			for(int i=0; i<blocks; i++) {
+				offsets[i] = index.getLong();
+				firstRecords[i] = index.getLong();
+				index.getInt();
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the number of records.
+	 * @return The number of records.
+	 */
+	public long size() {
+		return records;
+	}
+	
+	/**
+	 * Returns the number of blocks.
+	 * @return The number of blocks.
+	 */
+	public int getBlockCount() {
+		return offsets.length;
+	}
+	
+	/**
+	 * Returns the number of blocks inflated so far.
+	 * @return The number of inflated blocks.
+	 */
+	public long getInflatedBlocks() {
+		return inflatedBlocks.get();
+	}
+	
+	/**
+	 * Returns a record, inflating only the block that holds it.
+	 * @param record	The number of the record
+	 * @return The document.
+	 * @throws IOException if the block cannot be read.
+	 * @throws IndexOutOfBoundsException if there is no such record.
+	 */
+	public JsonDpObject get(long record) throws IOException {
+		if(record<0 || record>=records) throw new IndexOutOfBoundsException("Record: " + record + ", Size: " + records);
+		int block = blockOf(record);
+		CachedBlock cached = last;
+		if(cached==null || cached.block!=block) {
+			cached = new CachedBlock(block, inflate(block));
+			last = cached;
+		}
+		return new JsonDpParser().parseObject(cached.decoded.record((int) (record - firstRecords[block])));
+	}
+	
+	/**
+	 * Returns the block holding a record.
+	 */
+	private int blockOf(long record) {
+		int low = 0, high = firstRecords.length-1;
+		while(low<high) {
+			int mid = (low + high + 1) >>> 1;
+			if(firstRecords[mid]<=record) low = mid;
+			else high = mid - 1;
+		}
+		return low;
+	}
+	
+	/**
+	 * Visits all the records in order, inflating blocks on a single thread.
+	 * @param consumer	The consumer of the documents
+	 * @throws IOException if a block cannot be read.
+	 */
+	public void forEach(Consumer<? super JsonDpObject> consumer) throws IOException {
+		forEach(1, consumer);
+	}
+	
+	/**
+	 * Visits all the records in order. Blocks are inflated and parsed ahead
+	 * by the given number of threads, while the consumer is called on the 
+	 * calling thread.
+	 * @param threads	The number of decompressing threads
+	 * @param consumer	The consumer of the documents
+	 * @throws IOException if a block cannot be read.
+	 */
+	public void forEach(int threads, Consumer<? super JsonDpObject> consumer) throws IOException {
+		if(threads<=0) throw new IllegalArgumentException("The number of threads must be positive");
+		if(consumer==null) throw new IllegalArgumentException("The consumer cannot be null");
+		if(threads==1) {
+			for(int block=0; block<offsets.length; block++) {
+				for(JsonDpObject document: parse(inflate(block))) consumer.accept(document);
+			}
+			return;
+		}
+		ExecutorService decompressors = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "json-dp-archive-decompressor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			ArrayDeque<Future<JsonDpObject[]>> ahead = new ArrayDeque<Future<JsonDpObject[]>>();
+			int next = 0;
+			while(next<offsets.length || !ahead.isEmpty()) {
+				while(next<offsets.length && ahead.size()<2*threads) {
+					final int block = next++;
+					ahead.add(decompressors.submit(new Callable<JsonDpObject[]>() {
+						public JsonDpObject[] call() throws IOException {
+							return parse(inflate(block));
+						}
+					}));
+				}
+				for(JsonDpObject document: await(ahead.poll())) consumer.accept(document);
+			}
+		} finally {
+			decompressors.shutdownNow();
+		}
+	}
+	
+	private JsonDpObject[] await(Future<JsonDpObject[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating a block", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	private JsonDpObject[] parse(ArchiveBlock.Decoded decoded) {
+		JsonDpParser parser = new JsonDpParser();
+		JsonDpObject[] documents = new JsonDpObject[decoded.size()];
+		for(int i=0; i<documents.length; i++) {
+			documents[i] = parser.parseObject(decoded.record(i));
+		}
+		return documents;
+	}
+	
+	private ArchiveBlock.Decoded inflate(int block) throws IOException {
+		long end = block+1<offsets.length ? offsets[block+1] : indexOffset;
+		ByteBuffer header = read(offsets[block], ArchiveBlock.HEADER);
+		int compressedLength = header.getInt(0);
+		if(compressedLength<0 || offsets[block] + ArchiveBlock.HEADER + compressedLength != end) 
+			throw new IOException("Corrupted block " + block + " in " + file);
+		byte[] compressed = read(offsets[block] + ArchiveBlock.HEADER, compressedLength).array();
+		ArchiveBlock.Decoded decoded = ArchiveBlock.decode(header, compressed);
+		if(decoded.size()!=(block+1<offsets.length ? firstRecords[block+1] : records) - firstRecords[block])
+			throw new IOException("Corrupted block " + block + " in " + file);
+		inflatedBlocks.incrementAndGet();
+		return decoded;
+	}
+	
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if(read<0) throw new IOException("Unexpected end of archive " + file);
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	private static class CachedBlock {
+		final int block;
+		final ArchiveBlock.Decoded decoded;
+		
+		CachedBlock(int block, ArchiveBlock.Decoded decoded) {
+			this.block = block;
+			this.decoded = decoded;
+		}
+	}
+}
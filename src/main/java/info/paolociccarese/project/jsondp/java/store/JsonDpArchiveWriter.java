@@ -0,0 +1,245 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+/**
+ * Writes JsonDpObject records to a block-compressed archive. Records are
+ * grouped into blocks of about blockSize uncompressed bytes and every block
+ * is deflated independently, so that JsonDpArchiveReader can inflate only 
+ * the block holding the record it needs. A block index is written at the
+ * end of the archive when it is closed.
+ * 
+ * <p>
+ * Blocks are compressed in parallel by a pool of threads and written in 
+ * order as they complete. At most two blocks per thread are pending, which
+ * bounds the memory used by the writer. Writers are not thread-safe.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ * @see JsonDpArchiveReader
+ */
+public class JsonDpArchiveWriter implements Closeable {
+
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+	
+	private final File file;
+	private final FileChannel channel;
+	private final int blockSize;
+	private final int threads;
+	private final int level;
+	private final ExecutorService compressors;
+	
+	private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+	private final ArrayList<long[]> index = new ArrayList<long[]>();
+	private long position;
+	
+	private ByteArrayOutputStream block;
+	private int blockRecords;
+	private long blockFirstRecord;
+	private long records;
+	private boolean closed;
+	
+	/**
+	 * Creates (or truncates) an archive with the default block size, 
+	 * compressing on as many threads as the available processors.
+	 * @param file	The archive file
+	 * @throws IOException if the file cannot be created.
+	 */
+	public JsonDpArchiveWriter(File file) throws IOException {
+		this(file, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors(), Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	/**
+	 * Creates (or truncates) an archive.
+	 * @param file		The archive file
+	 * @param blockSize	The uncompressed size after which a block is sealed
+	 * @param threads	The number of compressing threads
+	 * @param level		The Deflater compression level
+	 * @throws IOException if the file cannot be created.
+	 */
+	public JsonDpArchiveWriter(File file, int blockSize, int threads, int level) throws IOException {
+		if(file==null) throw new IllegalArgumentException("The file cannot be null");
+		if(blockSize<=0) throw new IllegalArgumentException("The block size must be positive");
+		if(threads<=0) throw new IllegalArgumentException("The number of threads must be positive");
+		if(level<Deflater.DEFAULT_COMPRESSION || level>Deflater.BEST_COMPRESSION) 
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		this.file = file;
+		this.blockSize = blockSize;
+		this.threads = threads;
+		this.level = level;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, 
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.compressors = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "json-dp-archive-compressor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		ByteBuffer header = ByteBuffer.allocate(ArchiveBlock.FILE_HEADER);
+		header.putInt(ArchiveBlock.MAGIC);
+		header.putInt(ArchiveBlock.VERSION);
+		header.flip();
+		write(header);
+	}
+	
+	/**
+	 * Appends a record.
+	 * @param document	The document
+	 * @return The number of the record in the archive.
+	 * @throws IOException if a completed block cannot be written.
+	 */
+	public long append(JsonDpObject document) throws IOException {
+		if(document==null) throw new IllegalArgumentException("The document cannot be null");
+		if(closed) throw new IOException("The archive " + file + " is closed");
+		byte[] record = document.plainJsonWithProvenanceToString().getBytes(Segment.UTF8);
+		if(block==null) {
+			block = new ByteArrayOutputStream(blockSize + blockSize/8);
+			blockFirstRecord = records;
+		}
+		block.write(record.length >>> 24);
+		block.write(record.length >>> 16);
+		block.write(record.length >>> 8);
+		block.write(record.length);
+		block.write(record, 0, record.length);
+		blockRecords++;
+		if(block.size()>=blockSize) seal();
+		return records++;
+	}
+	
+	/**
+	 * Returns the number of records appended.
+	 * @return The number of records.
+	 */
+	public long size() {
+		return records;
+	}
+	
+	/**
+	 * Returns the number of blocks written so far.
+	 * @return The number of blocks.
+	 */
+	public int getBlockCount() {
+		return index.size();
+	}
+	
+	/**
+	 * Submits the current block for compression and writes the completed
+	 * blocks, waiting for the oldest ones when too many are pending.
+	 */
+	private void seal() throws IOException {
+		final ByteArrayOutputStream records = block;
+		final int count = blockRecords;
+		pending.add(new Pending(blockFirstRecord, count, compressors.submit(new Callable<ByteBuffer>() {
+			public ByteBuffer call() {
+				byte[] data = records.toByteArray();
+				return ArchiveBlock.encode(data, data.length, count, level);
+			}
+		})));
+		block = null;
+		blockRecords = 0;
+		drain(2*threads);
+	}
+	
+	private void drain(int maxPending) throws IOException {
+		while(!pending.isEmpty() && (pending.size()>maxPending || pending.peek().block.isDone())) {
+			Pending next = pending.poll();
+			ByteBuffer encoded;
+			try {
+				encoded = next.block.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while compressing a block", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to compress a block", e.getCause());
+			}
+			index.add(new long[] { position, next.firstRecord, next.records });
+			write(encoded);
+		}
+	}
+	
+	private void write(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+	
+	/**
+	 * Writes the pending blocks, the block index and the trailer, and closes
+	 * the archive.
+	 */
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		try {
+			if(block!=null) seal();
+			drain(0);
+			long indexOffset = position;
+			ByteBuffer buffer = ByteBuffer.allocate(4 + ArchiveBlock.INDEX_ENTRY*index.size() + ArchiveBlock.TRAILER);
+			buffer.putInt(index.size());
+			for(long[] entry: index) {
+				buffer.putLong(entry[0]);
+				buffer.putLong(entry[1]);
+				buffer.putInt((int) entry[2]);
+			}
+			buffer.putLong(indexOffset);
+			buffer.putLong(records);
+			buffer.putInt(ArchiveBlock.MAGIC);
+			buffer.flip();
+			write(buffer);
+			channel.force(false);
+		} finally {
+			compressors.shutdownNow();
+			channel.close();
+		}
+	}
+	
+	private static class Pending {
+		final long firstRecord;
+		final int records;
+		final Future<ByteBuffer> block;
+		
+		Pending(long firstRecord, int records, Future<ByteBuffer> block) {
+			this.firstRecord = firstRecord;
+			this.records = records;
+			this.block = block;
+		}
+	}
+}
@@ -0,0 +1,669 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+import info.paolociccarese.project.jsondp.java.core.JsonDpParser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded, file-backed store for JsonDpObject documents.
+ * 
+ * <p>
+ * Documents are appended to a log of segment files through NIO FileChannels.
+ * An in-memory id index points to the latest record of every document and a 
+ * provenance index maps each provenance key/value pair to the ids of the 
+ * documents carrying it, so that neither lookup needs to scan the log.
+ * Both indexes are rebuilt when the store is opened.
+ * </p>
+ * 
+ * <p>
+ * Writes are queued and committed by a single writer thread in batches:
+ * all the records of a batch are appended and then synced to disk with one
+ * fsync (group commit). Superseded records are reclaimed by compaction, which
+ * rewrites the live records of the sealed segments into a new segment. 
+ * Compaction can be run on demand or periodically in the background.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpStore implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(JsonDpStore.class.getName());
+	
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	
+	private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+	private static final String COMPACTING_SUFFIX = ".compacting";
+	
+	private final File directory;
+	private final long maxSegmentBytes;
+	private final int maxBatchSize;
+	
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+	private final Map<String, RecordPointer> ids = new HashMap<String, RecordPointer>();
+	private final ProvenanceIndex provenanceIndex = new ProvenanceIndex();
+	private final Map<Long, Long> garbageBytes = new HashMap<Long, Long>();
+	private volatile Segment active;
+	
+	private final Object compactionMonitor = new Object();
+	private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<PendingWrite>();
+	private final Thread writer;
+	private ScheduledExecutorService compactor;
+	private volatile boolean closed;
+	
+	/**
+	 * Opens (or creates) a store in the given directory with default settings.
+	 * @param directory	The directory holding the segment files
+	 * @throws IOException if the segments cannot be read or created.
+	 */
+	public JsonDpStore(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Opens (or creates) a store in the given directory.
+	 * @param directory			The directory holding the segment files
+	 * @param maxSegmentBytes	Size after which the active segment is sealed
+	 * @param maxBatchSize		Maximum number of writes committed by one fsync
+	 * @throws IOException if the segments cannot be read or created.
+	 */
+	public JsonDpStore(File directory, long maxSegmentBytes, int maxBatchSize) throws IOException {
+		if(maxSegmentBytes<=0) throw new IllegalArgumentException("The segment size must be positive");
+		if(maxBatchSize<=0) throw new IllegalArgumentException("The batch size must be positive");
+		this.directory = directory;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxBatchSize = maxBatchSize;
+		if(!directory.isDirectory() && !directory.mkdirs()) 
+			throw new IOException("Unable to create the store directory " + directory);
+		recover();
+		writer = new Thread(new Runnable() {
+			public void run() { writeLoop(); }
+		}, "json-dp-store-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	// WRITES
+	// ------
+	
+	/**
+	 * Stores a document, replacing any previous document with the same id.
+	 * Returns once the document has been synced to disk.
+	 * @param id		The document id
+	 * @param document	The document
+	 * @throws IOException if the document could not be written.
+	 */
+	public void put(String id, JsonDpObject document) throws IOException {
+		await(putAsync(id, document));
+	}
+	
+	/**
+	 * Queues a document for storage. The returned future completes when 
+	 * the batch containing the document has been synced to disk.
+	 * @param id		The document id
+	 * @param document	The document
+	 * @return The future tracking the write.
+	 */
+	public Future<Void> putAsync(String id, JsonDpObject document) {
+		if(id==null) throw new IllegalArgumentException("The document id cannot be null");
+		if(document==null) throw new IllegalArgumentException("The document cannot be null");
+		return enqueue(new PendingWrite(Segment.PUT, id, document.plainJsonWithProvenanceToString(), 
+			document.getProvenanceSets()));
+	}
+	
+	/**
+	 * Removes a document. Returns once the removal has been synced to disk.
+	 * @param id	The document id
+	 * @throws IOException if the removal could not be written.
+	 */
+	public void delete(String id) throws IOException {
+		if(id==null) throw new IllegalArgumentException("The document id cannot be null");
+		await(enqueue(new PendingWrite(Segment.DELETE, id, null, null)));
+	}
+	
+	/**
+	 * Checks and queues under the same monitor used by close(), so that 
+	 * a write cannot be queued after the writer thread has drained the queue.
+	 */
+	private Future<Void> enqueue(PendingWrite write) {
+		synchronized(this) {
+			if(closed) throw new IllegalStateException("The store is closed");
+			queue.add(write);
+		}
+		return write.future;
+	}
+	
+	private void await(Future<Void> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the write to be committed", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	private void writeLoop() {
+		List<PendingWrite> batch = new ArrayList<PendingWrite>();
+		while(!closed || !queue.isEmpty()) {
+			try {
+				PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first==null) continue;
+				batch.add(first);
+				queue.drainTo(batch, maxBatchSize-1);
+				commit(batch);
+			} catch (InterruptedException e) {
+				// Closing: the remaining writes are drained by the loop condition
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Appends a batch, syncs every touched segment once and only then 
+	 * publishes the new records to the indexes.
+	 */
+	private void commit(List<PendingWrite> batch) {
+		try {
+			Set<Segment> touched = new HashSet<Segment>();
+			for(PendingWrite write: batch) {
+				if(active.size >= maxSegmentBytes) roll();
+				write.pointer = append(active, write.type, write.id, write.payload);
+				touched.add(active);
+			}
+			for(Segment segment: touched) {
+				segment.force();
+			}
+			lock.writeLock().lock();
+			try {
+				for(PendingWrite write: batch) {
+					if(write.type==Segment.PUT) {
+						index(write.id, write.pointer, write.provenanceSets);
+					} else {
+						unindex(write.id);
+						addGarbage(write.pointer);
+					}
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+			for(PendingWrite write: batch) {
+				write.future.complete(null);
+			}
+		} catch (IOException e) {
+			fail(batch, e);
+		} catch (RuntimeException e) {
+			// The writer thread must survive: the next batches can still succeed
+			fail(batch, e);
+		}
+	}
+	
+	private void fail(List<PendingWrite> batch, Exception e) {
+		logger.error("Unable to commit a batch of " + batch.size() + " writes", e);
+		for(PendingWrite write: batch) {
+			write.future.completeExceptionally(e);
+		}
+	}
+	
+	private RecordPointer append(Segment segment, byte type, String id, String payload) throws IOException {
+		java.nio.ByteBuffer record = Segment.encode(type, id, payload);
+		int length = record.remaining();
+		long offset = segment.append(record);
+		return new RecordPointer(segment.number, offset, length);
+	}
+	
+	private void roll() throws IOException {
+		active.force();
+		Segment next = openSegment(active.number + 1);
+		lock.writeLock().lock();
+		try {
+			segments.put(next.number, next);
+			active = next;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// READS
+	// -----
+	
+	/**
+	 * Returns the document with the given id.
+	 * @param id	The document id
+	 * @return The document or null if no document is stored with that id.
+	 * @throws IOException if the document could not be read.
+	 */
+	public JsonDpObject get(String id) throws IOException {
+		String payload;
+		lock.readLock().lock();
+		try {
+			payload = readPayload(ids.get(id));
+		} finally {
+			lock.readLock().unlock();
+		}
+		return payload==null ? null : new JsonDpParser().parseObject(payload);
+	}
+	
+	/**
+	 * Returns true if a document with the given id is stored.
+	 * @param id	The document id
+	 * @return True if the document is present.
+	 */
+	public boolean contains(String id) {
+		lock.readLock().lock();
+		try {
+			return ids.containsKey(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the ids of the documents having, in at least one of their 
+	 * fragments, the given provenance key/value pair. 
+	 * @param provenanceKey		The provenance key
+	 * @param provenanceValue	The provenance value
+	 * @return The matching ids (possibly empty).
+	 */
+	public Set<String> findByProvenance(Object provenanceKey, Object provenanceValue) {
+		lock.readLock().lock();
+		try {
+			return provenanceIndex.lookup(provenanceKey, provenanceValue);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the documents having, in at least one of their fragments, 
+	 * the given provenance key/value pair.
+	 * @param provenanceKey		The provenance key
+	 * @param provenanceValue	The provenance value
+	 * @return The matching documents by id (possibly empty).
+	 * @throws IOException if a document could not be read.
+	 */
+	public Map<String, JsonDpObject> getByProvenance(Object provenanceKey, Object provenanceValue) throws IOException {
+		Map<String, String> payloads = new LinkedHashMap<String, String>();
+		lock.readLock().lock();
+		try {
+			for(String id: provenanceIndex.lookup(provenanceKey, provenanceValue)) {
+				String payload = readPayload(ids.get(id));
+				if(payload!=null) payloads.put(id, payload);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		JsonDpParser parser = new JsonDpParser();
+		Map<String, JsonDpObject> documents = new LinkedHashMap<String, JsonDpObject>();
+		for(Map.Entry<String, String> entry: payloads.entrySet()) {
+			documents.put(entry.getKey(), parser.parseObject(entry.getValue()));
+		}
+		return documents;
+	}
+	
+	/**
+	 * Returns the ids of all the stored documents.
+	 * @return The set of ids.
+	 */
+	public Set<String> ids() {
+		lock.readLock().lock();
+		try {
+			return new HashSet<String>(ids.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the number of stored documents.
+	 * @return The number of documents.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return ids.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Must be called holding the read lock, so that compaction cannot 
+	 * close the segment while it is being read.
+	 */
+	private String readPayload(RecordPointer pointer) throws IOException {
+		if(pointer==null) return null;
+		Segment segment = segments.get(pointer.segment);
+		Segment.Record record = segment==null ? null : segment.read(pointer.offset);
+		if(record==null) throw new IOException("Corrupted record at " + pointer.offset + 
+			" in segment " + pointer.segment);
+		return record.payload;
+	}
+	
+	// INDEXES
+	// -------
+	
+	private void index(String id, RecordPointer pointer, Iterable<JSONObject> provenanceSets) {
+		RecordPointer previous = ids.put(id, pointer);
+		if(previous!=null) addGarbage(previous);
+		provenanceIndex.add(id, provenanceSets);
+	}
+	
+	private void unindex(String id) {
+		RecordPointer previous = ids.remove(id);
+		if(previous!=null) addGarbage(previous);
+		provenanceIndex.remove(id);
+	}
+	
+	private void addGarbage(RecordPointer pointer) {
+		Long bytes = garbageBytes.get(pointer.segment);
+		garbageBytes.put(pointer.segment, (bytes==null ? 0 : bytes) + pointer.length);
+	}
+	
+	// COMPACTION
+	// ----------
+	
+	/**
+	 * Returns the fraction of the sealed segments occupied by superseded 
+	 * or deleted records.
+	 * @return The garbage ratio between 0 and 1.
+	 */
+	public double getGarbageRatio() {
+		lock.readLock().lock();
+		try {
+			long total = 0, garbage = 0;
+			for(Segment segment: segments.values()) {
+				if(segment==active) continue;
+				total += segment.size;
+				Long bytes = garbageBytes.get(segment.number);
+				if(bytes!=null) garbage += bytes;
+			}
+			return total==0 ? 0 : (double) garbage / total;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Runs a compaction if the garbage ratio exceeds the given threshold.
+	 * @param threshold	The garbage ratio triggering the compaction
+	 * @return True if a compaction has been performed.
+	 * @throws IOException if the compaction failed.
+	 */
+	public boolean compactIfNeeded(double threshold) throws IOException {
+		if(getGarbageRatio() <= threshold) return false;
+		compact();
+		return true;
+	}
+	
+	/**
+	 * Rewrites the live records of all the sealed segments into a single 
+	 * new segment and deletes the old ones. Writes are not blocked: records 
+	 * superseded while the compaction runs are left to the next compaction.
+	 * Tombstones of documents that are still deleted are preserved, so that 
+	 * an interrupted compaction cannot resurrect them, as long as an older 
+	 * record of the same id is being compacted. Once no older segment holds 
+	 * the id anymore the tombstone is dropped.
+	 * @throws IOException if the compaction failed.
+	 */
+	public void compact() throws IOException {
+		synchronized(compactionMonitor) {
+			List<Segment> sealed = new ArrayList<Segment>();
+			lock.readLock().lock();
+			try {
+				for(Segment segment: segments.values()) {
+					if(segment!=active) sealed.add(segment);
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+			if(sealed.isEmpty()) return;
+			
+			long number = sealed.get(sealed.size()-1).number;
+			File target = segmentFile(number);
+			File temporary = new File(directory, target.getName() + COMPACTING_SUFFIX);
+			Files.deleteIfExists(temporary.toPath());
+			
+			Map<RecordPointer, RecordPointer> moved = new HashMap<RecordPointer, RecordPointer>();
+			Map<RecordPointer, String> movedIds = new HashMap<RecordPointer, String>();
+			Set<String> tombstones = new HashSet<String>();
+			Set<String> written = new HashSet<String>();
+			Segment compacted = new Segment(number, temporary);
+			try {
+				for(Segment segment: sealed) {
+					long offset = 0;
+					while(offset < segment.size) {
+						Segment.Record record = segment.read(offset);
+						if(record==null) break;
+						offset += record.pointer.length;
+						if(record.type==Segment.PUT) written.add(record.id);
+						boolean live;
+						lock.readLock().lock();
+						try {
+							live = record.type==Segment.PUT ? record.pointer.equals(ids.get(record.id)) 
+								: !ids.containsKey(record.id) && written.contains(record.id) 
+									&& tombstones.add(record.id);
+						} finally {
+							lock.readLock().unlock();
+						}
+						if(live) {
+							RecordPointer pointer = append(compacted, record.type, record.id, record.payload);
+							moved.put(record.pointer, pointer);
+							movedIds.put(record.pointer, record.id);
+						}
+					}
+				}
+				compacted.force();
+			} finally {
+				compacted.close();
+			}
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+				StandardCopyOption.ATOMIC_MOVE);
+			
+			Segment replacement = new Segment(number, target);
+			long stale = 0;
+			lock.writeLock().lock();
+			try {
+				for(Map.Entry<RecordPointer, RecordPointer> entry: moved.entrySet()) {
+					String id = movedIds.get(entry.getKey());
+					if(entry.getKey().equals(ids.get(id))) {
+						ids.put(id, entry.getValue());
+					} else {
+						stale += entry.getValue().length;
+					}
+				}
+				for(Segment segment: sealed) {
+					segments.remove(segment.number);
+					garbageBytes.remove(segment.number);
+				}
+				segments.put(number, replacement);
+				if(stale>0) garbageBytes.put(number, stale);
+			} finally {
+				lock.writeLock().unlock();
+			}
+			for(Segment segment: sealed) {
+				segment.close();
+				if(segment.number!=number) Files.deleteIfExists(segment.file.toPath());
+			}
+			logger.info("Compacted " + sealed.size() + " segments into " + target.getName() + 
+				" (" + moved.size() + " live records)");
+		}
+	}
+	
+	/**
+	 * Starts a background task that periodically compacts the store
+	 * when the garbage ratio exceeds the given threshold.
+	 * @param period	The period between two checks
+	 * @param unit		The time unit of the period
+	 * @param threshold	The garbage ratio triggering the compaction
+	 */
+	public synchronized void startBackgroundCompaction(long period, TimeUnit unit, final double threshold) {
+		if(compactor!=null) throw new IllegalStateException("Background compaction already started");
+		compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "json-dp-store-compactor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		compactor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					compactIfNeeded(threshold);
+				} catch (Exception e) {
+					logger.error("Background compaction failed", e);
+				}
+			}
+		}, period, period, unit);
+	}
+	
+	// LIFECYCLE
+	// ---------
+	
+	private void recover() throws IOException {
+		File[] files = directory.listFiles();
+		TreeMap<Long, File> found = new TreeMap<Long, File>();
+		if(files!=null) {
+			for(File file: files) {
+				if(file.getName().endsWith(COMPACTING_SUFFIX)) {
+					Files.delete(file.toPath());
+					continue;
+				}
+				Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+				if(matcher.matches()) found.put(Long.parseLong(matcher.group(1)), file);
+			}
+		}
+		JsonDpParser parser = new JsonDpParser();
+		for(Map.Entry<Long, File> entry: found.entrySet()) {
+			Segment segment = new Segment(entry.getKey(), entry.getValue());
+			segments.put(segment.number, segment);
+			long offset = 0;
+			while(offset < segment.size) {
+				Segment.Record record = segment.read(offset);
+				if(record==null) {
+					logger.warn("Discarding " + (segment.size - offset) + " bytes of incomplete data from " + 
+						segment.file.getName());
+					segment.truncate(offset);
+					break;
+				}
+				if(record.type==Segment.PUT) {
+					index(record.id, record.pointer, parser.parseObject(record.payload).getProvenanceSets());
+				} else {
+					unindex(record.id);
+					addGarbage(record.pointer);
+				}
+				offset += record.pointer.length;
+			}
+		}
+		if(segments.isEmpty() || segments.lastEntry().getValue().size >= maxSegmentBytes) {
+			Segment segment = openSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+			segments.put(segment.number, segment);
+		}
+		active = segments.lastEntry().getValue();
+	}
+	
+	private Segment openSegment(long number) throws IOException {
+		return new Segment(number, segmentFile(number));
+	}
+	
+	private File segmentFile(long number) {
+		return new File(directory, String.format("segment-%010d.log", number));
+	}
+	
+	/**
+	 * Commits the pending writes and releases the files. 
+	 */
+	public void close() throws IOException {
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+			if(compactor!=null) compactor.shutdownNow();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized(compactionMonitor) {
+			lock.writeLock().lock();
+			try {
+				for(Segment segment: segments.values()) {
+					segment.close();
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * A write waiting to be committed by the writer thread.
+	 */
+	private static class PendingWrite {
+		final byte type;
+		final String id;
+		final String payload;
+		final List<JSONObject> provenanceSets;
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		RecordPointer pointer;
+		
+		PendingWrite(byte type, String id, String payload, List<JSONObject> provenanceSets) {
+			this.type = type;
+			this.id = id;
+			this.payload = payload;
+			this.provenanceSets = provenanceSets;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Secondary index from provenance key/value pairs to the ids of the 
+ * documents that carry them in any of their top-level fragments.
+ * Not thread safe: the store guards it with its own lock.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class ProvenanceIndex {
+
+	private final Map<Object, Map<Object, Set<String>>> index = new HashMap<Object, Map<Object, Set<String>>>();
+	
+	/**
+	 * Reverse map used to unindex a document when it is replaced or deleted.
+	 */
+	private final Map<String, Set<Map.Entry<Object, Object>>> entriesById = new HashMap<String, Set<Map.Entry<Object, Object>>>();
+	
+	void add(String id, Iterable<JSONObject> provenanceSets) {
+		remove(id);
+		Set<Map.Entry<Object, Object>> entries = new HashSet<Map.Entry<Object, Object>>();
+		for(JSONObject provenance: provenanceSets) {
+			for(Object key: provenance.keySet()) {
+				Object value = provenance.get(key);
+				if(value==null) continue;
+				entries.add(new java.util.AbstractMap.SimpleImmutableEntry<Object, Object>(key, value));
+			}
+		}
+		if(entries.isEmpty()) return;
+		for(Map.Entry<Object, Object> entry: entries) {
+			Map<Object, Set<String>> values = index.get(entry.getKey());
+			if(values==null) {
+				values = new HashMap<Object, Set<String>>();
+				index.put(entry.getKey(), values);
+			}
+			Set<String> ids = values.get(entry.getValue());
+			if(ids==null) {
+				ids = new HashSet<String>();
+				values.put(entry.getValue(), ids);
+			}
+			ids.add(id);
+		}
+		entriesById.put(id, entries);
+	}
+	
+	void remove(String id) {
+		Set<Map.Entry<Object, Object>> entries = entriesById.remove(id);
+		if(entries==null) return;
+		for(Map.Entry<Object, Object> entry: entries) {
+			Map<Object, Set<String>> values = index.get(entry.getKey());
+			if(values==null) continue;
+			Set<String> ids = values.get(entry.getValue());
+			if(ids==null) continue;
+			ids.remove(id);
+			if(ids.isEmpty()) values.remove(entry.getValue());
+			if(values.isEmpty()) index.remove(entry.getKey());
+		}
+	}
+	
+	/**
+	 * Returns a copy of the ids matching the provenance pair.
+	 */
+	Set<String> lookup(Object key, Object value) {
+		Map<Object, Set<String>> values = index.get(key);
+		if(values==null) return Collections.emptySet();
+		Set<String> ids = values.get(value);
+		if(ids==null) return Collections.emptySet();
+		return new HashSet<String>(ids);
+	}
+}
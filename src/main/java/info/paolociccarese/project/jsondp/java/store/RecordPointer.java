@@ -0,0 +1,52 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+/**
+ * Location of a record inside the segment log: the segment number,
+ * the offset of the record header and the total length of the record.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class RecordPointer {
+
+	final long segment;
+	final long offset;
+	final int length;
+	
+	RecordPointer(long segment, long offset, int length) {
+		this.segment = segment;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof RecordPointer)) return false;
+		RecordPointer p = (RecordPointer) o;
+		return segment==p.segment && offset==p.offset && length==p.length;
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (segment * 31 + offset) * 31 + length;
+	}
+}
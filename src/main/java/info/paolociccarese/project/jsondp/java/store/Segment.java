@@ -0,0 +1,182 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the append-only segment log. Each record is laid out as:
+ * 
+ * <pre>
+ * <code>
+ *    int    body length
+ *    int    CRC32 of the body
+ *    byte   record type (PUT or DELETE)
+ *    int    id length
+ *    byte[] id (UTF-8)
+ *    byte[] payload (UTF-8, JSON-DP with provenance)
+ * </code>
+ * </pre>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+class Segment {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	static final byte PUT = 1;
+	static final byte DELETE = 2;
+	
+	static final int HEADER = 8;
+	
+	final long number;
+	final File file;
+	final FileChannel channel;
+	
+	/**
+	 * Current end of the valid data (next append position).
+	 */
+	long size;
+	
+	Segment(long number, File file) throws IOException {
+		this.number = number;
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, 
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.size = channel.size();
+	}
+	
+	/**
+	 * Encodes a record into a buffer ready to be written.
+	 * @param type		PUT or DELETE
+	 * @param id		The document id
+	 * @param payload	The serialized document (empty for DELETE)
+	 * @return The encoded record, flipped for reading.
+	 */
+	static ByteBuffer encode(byte type, String id, String payload) {
+		byte[] idBytes = id.getBytes(UTF8);
+		byte[] payloadBytes = payload==null ? new byte[0] : payload.getBytes(UTF8);
+		int bodyLength = 1 + 4 + idBytes.length + payloadBytes.length;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER + bodyLength);
+		buffer.putInt(bodyLength);
+		buffer.putInt(0);
+		buffer.put(type);
+		buffer.putInt(idBytes.length);
+		buffer.put(idBytes);
+		buffer.put(payloadBytes);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), HEADER, bodyLength);
+		buffer.putInt(4, (int) crc.getValue());
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Appends an encoded record at the end of the segment.
+	 * @param record	The encoded record
+	 * @return The offset where the record starts
+	 */
+	long append(ByteBuffer record) throws IOException {
+		long offset = size;
+		long position = offset;
+		while(record.hasRemaining()) {
+			position += channel.write(record, position);
+		}
+		size = position;
+		return offset;
+	}
+	
+	/**
+	 * Reads the record starting at the given offset.
+	 * @param offset	The offset of the record header
+	 * @return The decoded record or null if the data is truncated or corrupted.
+	 */
+	Record read(long offset) throws IOException {
+		if(offset + HEADER > size) return null;
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		readFully(header, offset);
+		header.flip();
+		int bodyLength = header.getInt();
+		int checksum = header.getInt();
+		if(bodyLength < 5 || offset + HEADER + bodyLength > size) return null;
+		
+		ByteBuffer body = ByteBuffer.allocate(bodyLength);
+		readFully(body, offset + HEADER);
+		CRC32 crc = new CRC32();
+		crc.update(body.array(), 0, bodyLength);
+		if((int) crc.getValue() != checksum) return null;
+		
+		body.flip();
+		byte type = body.get();
+		int idLength = body.getInt();
+		if(idLength < 0 || idLength > body.remaining()) return null;
+		String id = new String(body.array(), 5, idLength, UTF8);
+		int payloadStart = 5 + idLength;
+		String payload = new String(body.array(), payloadStart, bodyLength - payloadStart, UTF8);
+		return new Record(type, id, payload, new RecordPointer(number, offset, HEADER + bodyLength));
+	}
+	
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0) throw new IOException("Unexpected end of segment " + file);
+		}
+	}
+	
+	/**
+	 * Drops everything after the given offset (used to discard a torn tail).
+	 */
+	void truncate(long offset) throws IOException {
+		channel.truncate(offset);
+		size = offset;
+	}
+	
+	void force() throws IOException {
+		channel.force(false);
+	}
+	
+	void close() throws IOException {
+		channel.close();
+	}
+	
+	/**
+	 * A decoded log record.
+	 */
+	static class Record {
+		final byte type;
+		final String id;
+		final String payload;
+		final RecordPointer pointer;
+		
+		Record(byte type, String id, String payload, RecordPointer pointer) {
+			this.type = type;
+			this.id = id;
+			this.payload = payload;
+			this.pointer = pointer;
+		}
+	}
+}
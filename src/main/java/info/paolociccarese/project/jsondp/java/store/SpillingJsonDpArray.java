@@ -0,0 +1,545 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpAware;
+import info.paolociccarese.project.jsondp.java.core.JsonDpParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JSON-DP array able to grow beyond the heap. Items are kept in segments 
+ * of fixed size (each a JsonDpArray): the most recently used segments stay
+ * in memory, the others are spilled to a temporary file, deflated, and 
+ * paged back in (evicting the least recently used) when accessed through 
+ * get(int), replace(int, Object) or iteration. The segment receiving the 
+ * new items always stays in memory.
+ * 
+ * <p>
+ * At most maxResidentSegments segments are in memory at any time, so the 
+ * memory used is bounded by the segment size and not by the array size.
+ * Segments are written back only if they have been modified after the last
+ * spill. The space freed by the previous copy of a rewritten segment is 
+ * reused by the next spills (first fit), and given back when it reaches the
+ * end of the file. The spill file is deleted by close(). 
+ * </p>
+ * 
+ * <p>
+ * Spilled items are read back through JsonDpParser: nested values follow 
+ * its shape rules. This class is not thread-safe.
+ * </p>
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class SpillingJsonDpArray implements JsonDpAware, Iterable<Object>, Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(SpillingJsonDpArray.class.getName());
+	
+	public static final int DEFAULT_SEGMENT_SIZE = 4096;
+	public static final int DEFAULT_RESIDENT_SEGMENTS = 8;
+	
+	private final int segmentSize;
+	private final int maxResidentSegments;
+	private final File file;
+	private final FileChannel channel;
+	private final JsonDpParser parser = new JsonDpParser();
+	
+	/** Position and length in the spill file of each segment (-1 if never spilled). */
+	private final ArrayList<long[]> spilled = new ArrayList<long[]>();
+	private final LinkedHashMap<Integer, Resident> resident;
+	/** Length of the free extents of the spill file by position, adjacent extents merged. */
+	private final TreeMap<Long, Long> free = new TreeMap<Long, Long>();
+	private long fileEnd;
+	private long garbageBytes;
+	private int size;
+	private long spillCount;
+	private long pageInCount;
+	private boolean closed;
+	
+	/**
+	 * Creates an array with default settings, spilling to the default 
+	 * temporary directory.
+	 * @throws IOException if the spill file cannot be created.
+	 */
+	public SpillingJsonDpArray() throws IOException {
+		this(null, DEFAULT_SEGMENT_SIZE, DEFAULT_RESIDENT_SEGMENTS);
+	}
+	
+	/**
+	 * Creates an array.
+	 * @param directory				The directory of the spill file (null for the default temporary directory)
+	 * @param segmentSize			The number of items per segment
+	 * @param maxResidentSegments	The maximum number of segments in memory (at least 2)
+	 * @throws IOException if the spill file cannot be created.
+	 */
+	public SpillingJsonDpArray(File directory, int segmentSize, int maxResidentSegments) throws IOException {
+		if(segmentSize<=0) throw new IllegalArgumentException("The segment size must be positive");
+		if(maxResidentSegments<2) throw new IllegalArgumentException("At least two segments must be kept in memory");
+		this.segmentSize = segmentSize;
+		this.maxResidentSegments = maxResidentSegments;
+		this.file = File.createTempFile("jsondp-spill-", ".seg", directory);
+		this.file.deleteOnExit();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.resident = new LinkedHashMap<Integer, Resident>(16, 0.75f, true);
+	}
+	
+	/**
+	 * A segment in memory and whether it differs from its spilled copy.
+	 */
+	private static class Resident {
+		final JsonDpArray items;
+		boolean dirty;
+		
+		Resident(JsonDpArray items, boolean dirty) {
+			this.items = items;
+			this.dirty = dirty;
+		}
+	}
+	
+	/**
+	 * Returns the total size of the array.
+	 * @return The size of the array
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Adds a value without associated data provenance to the array.
+	 * @param value	The value to be added to the array
+	 * @throws IllegalArgumentException if the item value is not acceptable.
+	 * @throws UncheckedIOException if a segment cannot be spilled.
+	 */
+	public void add(Object value) {
+		tail().add(value);
+		size++;
+	}
+	
+	/**
+	 * Adds a value with associated data provenance to the array.
+	 * @param value			The value to be added to the array
+	 * @param provenance	The provenance data
+	 * @throws IllegalArgumentException if the item value is not acceptable.
+	 * @throws UncheckedIOException if a segment cannot be spilled.
+	 */
+	public void add(Object value, JSONObject provenance) {
+		tail().add(value, provenance);
+		size++;
+	}
+	
+	/**
+	 * Returns the requested item from the array.
+	 * @param index The index of the desired item.
+	 * @return The item corresponding to the requested index.
+	 * @throws IndexOutOfBoundsException if the requested index exceeds the array size.
+	 * @throws UncheckedIOException if the segment cannot be paged in.
+	 */
+	public Object get(int index) {
+		checkIndex(index);
+		return segment(index / segmentSize, false).get(index % segmentSize);
+	}
+	
+	/**
+	 * Replaces the array item with the specified index with the specified 
+	 * replacement (without provenance).
+	 * @param index			The index of the item to replace
+	 * @param replacement	The replacement item
+	 * @throws IndexOutOfBoundsException if the requested index exceeds the array size.
+	 * @throws UncheckedIOException if the segment cannot be paged in.
+	 */
+	public void replace(int index, Object replacement) {
+		checkIndex(index);
+		segment(index / segmentSize, true).replace(index % segmentSize, replacement);
+	}
+	
+	/**
+	 * Visits all the items in order together with their provenance data 
+	 * (null when absent), paging the segments in one at a time.
+	 * @param visitor	The visitor receiving each item and its provenance
+	 * @throws UncheckedIOException if a segment cannot be paged in.
+	 */
+	public void forEachValue(BiConsumer<Object, JSONObject> visitor) {
+		for(int s=0; s<segmentCount(); s++) {
+			segment(s, false).forEachValue(visitor);
+		}
+	}
+	
+	/**
+	 * Returns an iterator over the items, paging the segments in one at a time.
+	 * @return The iterator.
+	 */
+	public Iterator<Object> iterator() {
+		return new Iterator<Object>() {
+			private int index;
+			
+			public boolean hasNext() {
+				return index<size;
+			}
+			
+			public Object next() {
+				if(index>=size) throw new NoSuchElementException();
+				return get(index++);
+			}
+		};
+	}
+	
+	/**
+	 * Returns the number of segments currently in memory.
+	 * @return The number of resident segments.
+	 */
+	public int getResidentSegments() {
+		return resident.size();
+	}
+	
+	/**
+	 * Returns how many times a segment has been written to the spill file.
+	 * @return The number of spills.
+	 */
+	public long getSpillCount() {
+		return spillCount;
+	}
+	
+	/**
+	 * Returns how many times a segment has been read back from the spill file.
+	 * @return The number of page-ins.
+	 */
+	public long getPageInCount() {
+		return pageInCount;
+	}
+	
+	/**
+	 * Returns the size of the spill file.
+	 * @return The size of the spill file in bytes.
+	 */
+	public long getSpillFileBytes() {
+		return fileEnd;
+	}
+	
+	/**
+	 * Returns the bytes of the spill file freed by superseded copies of 
+	 * rewritten segments and not reused yet.
+	 * @return The garbage bytes in the spill file.
+	 */
+	public long getGarbageBytes() {
+		return garbageBytes;
+	}
+	
+	/**
+	 * Writes the JSON representation of the data, paging the segments in 
+	 * one at a time. The output is the same of a JsonDpArray with the same
+	 * items.
+	 * @param out				The output
+	 * @param withProvenance	True to include the provenance data
+	 * @throws IOException if the output cannot be written or a segment cannot be read.
+	 */
+	public void writeJson(Writer out, boolean withProvenance) throws IOException {
+		out.write('[');
+		boolean first = true;
+		for(int s=0; s<segmentCount(); s++) {
+			SegmentWriter segment = new SegmentWriter(out, !first);
+			segment(s, false).writeJson(segment, withProvenance);
+			first &= !segment.written;
+		}
+		out.write(']');
+		out.flush();
+	}
+	
+	public String plainJsonToString() {
+		return toJsonString(false);
+	}
+	
+	public String plainJsonWithProvenanceToString() {
+		return toJsonString(true);
+	}
+	
+	private String toJsonString(boolean withProvenance) {
+		StringWriter out = new StringWriter();
+		try {
+			writeJson(out, withProvenance);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return plainJsonToString();
+	}
+	
+	/**
+	 * Releases the segments and deletes the spill file.
+	 */
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		resident.clear();
+		spilled.clear();
+		try {
+			channel.close();
+		} finally {
+			if(!file.delete() && file.exists()) logger.warn("Unable to delete the spill file " + file);
+		}
+	}
+	
+	private void checkIndex(int index) {
+		if(index<0 || index>=size) throw new IndexOutOfBoundsException("The requested index " + index + 
+			" does not exist as the total size of the array is " + size);
+	}
+	
+	private int segmentCount() {
+		return spilled.size();
+	}
+	
+	/**
+	 * Returns the segment receiving new items, creating a new one when 
+	 * the last is full.
+	 */
+	private JsonDpArray tail() {
+		if(closed) throw new IllegalStateException("The array has been closed");
+		if(size==segmentCount()*segmentSize) {
+			spilled.add(new long[] {-1, 0});
+			Resident created = new Resident(new JsonDpArray(), true);
+			resident.put(segmentCount()-1, created);
+			evict();
+			return created.items;
+		}
+		return segment(segmentCount()-1, true);
+	}
+	
+	/**
+	 * Returns a segment, paging it in if necessary.
+	 */
+	private JsonDpArray segment(int index, boolean modify) {
+		if(closed) throw new IllegalStateException("The array has been closed");
+		Resident segment = resident.get(index);
+		if(segment==null) {
+			try {
+				segment = new Resident(read(spilled.get(index)), false);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to page in segment " + index, e);
+			}
+			pageInCount++;
+			resident.put(index, segment);
+			evict();
+		}
+		if(modify) segment.dirty = true;
+		return segment.items;
+	}
+	
+	/**
+	 * Spills the least recently used segments above the limit. The last 
+	 * segment is never evicted.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Integer, Resident>> it = resident.entrySet().iterator();
+		while(resident.size()>maxResidentSegments && it.hasNext()) {
+			Map.Entry<Integer, Resident> entry = it.next();
+			if(entry.getKey()==segmentCount()-1) continue;
+			if(entry.getValue().dirty) {
+				try {
+					write(entry.getKey(), entry.getValue().items);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Unable to spill segment " + entry.getKey(), e);
+				}
+			}
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Writer passing the items (or groups) of a segment on to the output 
+	 * without the enclosing brackets, preceded by a comma if they follow 
+	 * other items. The last character is held back until another one comes,
+	 * so that the closing bracket is never written.
+	 */
+	private static class SegmentWriter extends Writer {
+		private final Writer out;
+		private final boolean separated;
+		private boolean opened;
+		private int held = -1;
+		boolean written;
+		
+		SegmentWriter(Writer out, boolean separated) {
+			this.out = out;
+			this.separated = separated;
+		}
+		
+		public void write(char[] chars, int offset, int length) throws IOException {
+			if(length==0) return;
+			if(!opened) {
+				// Skips the opening bracket
+				opened = true;
+				offset++;
+				length--;
+				if(length==0) return;
+			}
+			release();
+			out.write(chars, offset, length-1);
+			held = chars[offset+length-1];
+		}
+		
+		public void write(String text, int offset, int length) throws IOException {
+			if(length==0) return;
+			if(!opened) {
+				opened = true;
+				offset++;
+				length--;
+				if(length==0) return;
+			}
+			release();
+			out.write(text, offset, length-1);
+			held = text.charAt(offset+length-1);
+		}
+		
+		private void release() throws IOException {
+			if(!written) {
+				if(separated) out.write(',');
+				written = true;
+			}
+			if(held>=0) out.write(held);
+		}
+		
+		public void flush() throws IOException {
+			out.flush();
+		}
+		
+		public void close() {
+			// The output belongs to the caller
+		}
+	}
+	
+	private void write(int index, JsonDpArray items) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			Writer out = new OutputStreamWriter(new DeflaterOutputStream(bytes, deflater), StandardCharsets.UTF_8);
+			items.writeJson(out, true);
+			out.close();
+		} finally {
+			deflater.end();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		long start = allocate(bytes.size());
+		try {
+			long position = start;
+			while(buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			release(start, bytes.size());
+			throw e;
+		}
+		long[] pointer = spilled.get(index);
+		// The previous copy is only released once the new one is written
+		if(pointer[0]>=0) release(pointer[0], pointer[1]);
+		pointer[0] = start;
+		pointer[1] = bytes.size();
+		spillCount++;
+	}
+	
+	/**
+	 * Returns the position of a free extent of the given length: the first
+	 * free one large enough or the end of the file.
+	 */
+	private long allocate(long length) {
+		for(Map.Entry<Long, Long> extent: free.entrySet()) {
+			long position = extent.getKey();
+			long available = extent.getValue();
+			if(available<length) continue;
+			free.remove(position);
+			if(available>length) free.put(position+length, available-length);
+			garbageBytes -= length;
+			return position;
+		}
+		long position = fileEnd;
+		fileEnd += length;
+		return position;
+	}
+	
+	/**
+	 * Frees an extent, merging it with the adjacent free ones and giving it
+	 * back to the file system if it ends the file.
+	 */
+	private void release(long position, long length) throws IOException {
+		if(length==0) return;
+		garbageBytes += length;
+		Map.Entry<Long, Long> before = free.floorEntry(position);
+		if(before!=null && before.getKey()+before.getValue()==position) {
+			free.remove(before.getKey());
+			position = before.getKey();
+			length += before.getValue();
+		}
+		Long after = free.remove(position+length);
+		if(after!=null) length += after;
+		if(position+length==fileEnd) {
+			garbageBytes -= length;
+			fileEnd = position;
+			channel.truncate(fileEnd);
+		} else {
+			free.put(position, length);
+		}
+	}
+	
+	private JsonDpArray read(long[] pointer) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) pointer[1]);
+		long position = pointer[0];
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if(read<0) throw new IOException("Truncated spill file " + file);
+			position += read;
+		}
+		InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(buffer.array()));
+		try {
+			return parser.parseArray(new InputStreamReader(in, StandardCharsets.UTF_8));
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+import info.paolociccarese.project.jsondp.java.core.JsonDpParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLClassLoader;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compiles sample classes with the processor and binds them.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpBindingProcessorTest {
+
+	private static final String PERSON = 
+		"package sample;\n" +
+		"import info.paolociccarese.project.jsondp.java.binding.*;\n" +
+		"import org.json.simple.JSONObject;\n" +
+		"import java.util.*;\n" +
+		"@JsonDpBound public class Person {\n" +
+		"  public enum Status { ACTIVE, RETIRED }\n" +
+		"  @JsonDpBound public static class Address {\n" +
+		"    @JsonDpField String city;\n" +
+		"    @JsonDpField Boolean verified;\n" +
+		"    public String toString() { return city + \"/\" + verified; }\n" +
+		"  }\n" +
+		"  @JsonDpProvenance JSONObject record;\n" +
+		"  @JsonDpProvenance(\"friends\") JSONObject friends() {\n" +
+		"    JSONObject p = new JSONObject(); p.put(\"importedFrom\", \"Friends\"); return p;\n" +
+		"  }\n" +
+		"  @JsonDpField(\"firstName\") String name;\n" +
+		"  @JsonDpField private int age;\n" +
+		"  @JsonDpField(provenance=\"friends\") String nickname;\n" +
+		"  @JsonDpField Status status;\n" +
+		"  @JsonDpField Address address;\n" +
+		"  @JsonDpField List<String> tags;\n" +
+		"  @JsonDpField Set<Long> codes;\n" +
+		"  @JsonDpField String missing;\n" +
+		"  public int getAge() { return age; }\n" +
+		"  public void setAge(int age) { this.age = age; }\n" +
+		"  public static Person sample() {\n" +
+		"    Person p = new Person();\n" +
+		"    p.record = new JSONObject(); p.record.put(\"importedFrom\", \"Public Record\");\n" +
+		"    p.name = \"Paolo\"; p.age = 42; p.nickname = \"Paolino\"; p.status = Status.ACTIVE;\n" +
+		"    p.address = new Address(); p.address.city = \"Brookline\"; p.address.verified = true;\n" +
+		"    p.tags = new ArrayList<String>(Arrays.asList(\"a\", \"b\")); p.codes = new LinkedHashSet<Long>(Arrays.asList(7L, 3L));\n" +
+		"    return p;\n" +
+		"  }\n" +
+		"  public String toString() {\n" +
+		"    return name + \"|\" + age + \"|\" + nickname + \"|\" + status + \"|\" + address + \"|\" + tags + \"|\" + codes + \"|\" + missing;\n" +
+		"  }\n" +
+		"}\n";
+	
+	@BeforeClass public static void initialize() {
+		System.out.println("========================================");
+		System.out.println(" Testing of JsonDpBindingProcessor class ");
+		System.out.println("========================================");
+	}
+	
+	private static class Source extends SimpleJavaFileObject {
+		private final String code;
+		
+		Source(String name, String code) {
+			super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+		
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+	
+	private boolean compile(File output, DiagnosticCollector<JavaFileObject> diagnostics, Source... sources) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assertNotNull("A JDK is required", compiler);
+		List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", output.getPath());
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, Arrays.asList(sources));
+		task.setProcessors(Collections.singletonList(new JsonDpBindingProcessor()));
+		return task.call();
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void testGeneratedBinder() throws Exception {
+		System.out.println("---------------------------");
+		System.out.println(" testGeneratedBinder()");
+		System.out.println("---------------------------");
+		
+		File output = Files.createTempDirectory("json-dp-binding").toFile();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		assertTrue(diagnostics.getDiagnostics().toString(), compile(output, diagnostics, new Source("sample.Person", PERSON)));
+		System.out.println(" * Checking generated binders");
+		assertTrue(new File(output, "sample/PersonJsonDpBinder.class").exists());
+		assertTrue(new File(output, "sample/Person_AddressJsonDpBinder.class").exists());
+		
+		URLClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, getClass().getClassLoader());
+		Class<?> type = loader.loadClass("sample.Person");
+		Object sample = type.getMethod("sample").invoke(null);
+		JsonDpBinder binder = JsonDpBinders.get(type);
+		assertEquals(type, binder.getType());
+		
+		JsonDpObject jpo = binder.toJsonDp(sample);
+		System.out.println(" " + jpo.plainJsonWithProvenanceToString());
+		System.out.println(" * Checking written values and provenance");
+		assertEquals("Paolo", jpo.get("firstName", "importedFrom", "Public Record"));
+		assertEquals("42", jpo.get("age"));
+		assertEquals("Paolino", jpo.get("nickname", "importedFrom", "Friends"));
+		assertEquals("ACTIVE", jpo.get("status"));
+		assertTrue(jpo.get("address") instanceof JsonDpObject);
+		assertTrue(jpo.get("tags") instanceof JsonDpArray);
+		assertFalse(jpo.containsKey("missing"));
+		
+		System.out.println(" * Checking read back");
+		assertEquals(sample.toString(), binder.read(jpo).toString());
+		System.out.println(" * Checking read back after parsing");
+		JsonDpObject parsed = new JsonDpParser().parseObject(jpo.plainJsonWithProvenanceToString());
+		assertEquals(sample.toString(), binder.read(parsed).toString());
+		
+		System.out.println(" * Checking arrays of instances");
+		JsonDpArray array = JsonDpBinders.toJsonDpArray(binder, Arrays.asList(sample, sample));
+		assertEquals(2, array.size());
+		List<Object> instances = JsonDpBinders.readAll(binder, array);
+		assertEquals(sample.toString(), instances.get(1).toString());
+		loader.close();
+		delete(output);
+	}
+	
+	@Test
+	public void testUnsupportedType() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testUnsupportedType()");
+		System.out.println("---------------------------");
+		
+		File output = Files.createTempDirectory("json-dp-binding").toFile();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		boolean compiled = compile(output, diagnostics, new Source("sample.Event", 
+			"package sample;\n" +
+			"@info.paolociccarese.project.jsondp.java.binding.JsonDpBound public class Event {\n" +
+			"  @info.paolociccarese.project.jsondp.java.binding.JsonDpField java.util.Date when;\n" +
+			"}\n"));
+		System.out.println(" * Checking compilation error " + diagnostics.getDiagnostics());
+		assertFalse(compiled);
+		assertTrue(diagnostics.getDiagnostics().toString().contains("Unsupported @JsonDpField type java.util.Date"));
+		delete(output);
+	}
+	
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if(children!=null) for(File child: children) delete(child);
+		file.delete();
+	}
+}
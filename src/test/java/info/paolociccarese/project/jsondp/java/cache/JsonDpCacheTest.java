@@ -0,0 +1,200 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpCacheTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("================================");
+		System.out.println(" Testing of JsonDpCache class ");
+		System.out.println("================================");
+	}
+	
+	/**
+	 * Builds a document for every id and counts the loads.
+	 */
+	private static class CountingLoader implements CacheLoader<JsonDpObject> {
+		final AtomicInteger loads = new AtomicInteger();
+		public JsonDpObject load(String id) throws IOException {
+			loads.incrementAndGet();
+			if(id.startsWith("missing")) return null;
+			JsonDpObject jpo = new JsonDpObject();
+			jpo.put("id", id);
+			return jpo;
+		}
+	}
+	
+	private static final Weigher<JsonDpObject> UNIT = new Weigher<JsonDpObject>() {
+		public long weigh(String id, JsonDpObject document) { return 1; }
+	};
+	
+	@Test
+	public void testHitsAndMisses() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testHitsAndMisses()");
+		System.out.println("---------------------------");
+		
+		CountingLoader loader = new CountingLoader();
+		JsonDpCache<JsonDpObject> cache = new JsonDpCache<JsonDpObject>(10, UNIT, loader);
+		JsonDpObject first = cache.get("a");
+		assertSame(first, cache.get("a"));
+		assertNull(cache.get("missing"));
+		assertEquals(2, loader.loads.get());
+		
+		CacheStats stats = cache.stats();
+		System.out.println(" " + stats);
+		assertEquals(1, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertEquals(1, cache.size());
+		
+		cache.invalidate("a");
+		assertNull(cache.getIfPresent("a"));
+	}
+	
+	@Test
+	public void testScanResistance() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testScanResistance()");
+		System.out.println("---------------------------");
+		
+		JsonDpCache<JsonDpObject> cache = new JsonDpCache<JsonDpObject>(10, UNIT, new CountingLoader());
+		for(int i=0; i<5; i++) {
+			cache.get("hot" + i);
+			cache.get("hot" + i);
+		}
+		for(int i=0; i<100; i++) {
+			cache.get("cold" + i);
+		}
+		System.out.println(" " + cache.stats());
+		assertEquals(10, cache.size());
+		for(int i=0; i<5; i++) {
+			assertNotNull(cache.getIfPresent("hot" + i));
+		}
+		assertTrue(cache.stats().getEvictionCount() >= 90);
+	}
+	
+	@Test
+	public void testWeightBound() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testWeightBound()");
+		System.out.println("---------------------------");
+		
+		JsonDpCache<JsonDpObject> cache = new JsonDpCache<JsonDpObject>(1000, new CountingLoader());
+		for(int i=0; i<100; i++) {
+			cache.get("document" + i);
+		}
+		System.out.println(" Weighted size " + cache.weightedSize() + " for " + cache.size() + " documents");
+		assertTrue(cache.weightedSize() <= 1000);
+		assertTrue(cache.size() > 0);
+	}
+	
+	@Test
+	public void testConcurrentLoadsAreShared() throws Exception {
+		System.out.println("---------------------------------");
+		System.out.println(" testConcurrentLoadsAreShared()");
+		System.out.println("---------------------------------");
+		
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final JsonDpCache<JsonDpObject> cache = new JsonDpCache<JsonDpObject>(10, UNIT, new CacheLoader<JsonDpObject>() {
+			public JsonDpObject load(String id) throws IOException {
+				loads.incrementAndGet();
+				started.countDown();
+				try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+				return new JsonDpObject();
+			}
+		});
+		Thread[] threads = new Thread[8];
+		for(int i=0; i<threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try { cache.get("shared"); } catch (IOException e) { throw new RuntimeException(e); }
+				}
+			});
+			threads[i].start();
+		}
+		started.await();
+		Thread.sleep(50);
+		release.countDown();
+		for(Thread thread: threads) thread.join();
+		assertEquals(1, loads.get());
+	}
+	
+	@Test
+	public void testInvalidationDuringLoad() throws Exception {
+		System.out.println("---------------------------------");
+		System.out.println(" testInvalidationDuringLoad()");
+		System.out.println("---------------------------------");
+		
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final JsonDpCache<JsonDpObject> cache = new JsonDpCache<JsonDpObject>(10, UNIT, new CacheLoader<JsonDpObject>() {
+			public JsonDpObject load(String id) throws IOException {
+				started.countDown();
+				try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+				JsonDpObject jpo = new JsonDpObject();
+				jpo.put("version", "stale");
+				return jpo;
+			}
+		});
+		Thread[] threads = new Thread[2];
+		final String[] ids = { "invalidated", "replaced" };
+		for(int i=0; i<threads.length; i++) {
+			final String id = ids[i];
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try { cache.get(id); } catch (IOException e) { throw new RuntimeException(e); }
+				}
+			});
+			threads[i].start();
+		}
+		started.await();
+		cache.invalidate("invalidated");
+		JsonDpObject fresh = new JsonDpObject();
+		fresh.put("version", "fresh");
+		cache.put("replaced", fresh);
+		release.countDown();
+		for(Thread thread: threads) thread.join();
+		
+		System.out.println(" * Checking the stale loads have not been cached");
+		assertNull(cache.getIfPresent("invalidated"));
+		assertSame(fresh, cache.getIfPresent("replaced"));
+		assertEquals(1, cache.size());
+	}
+}
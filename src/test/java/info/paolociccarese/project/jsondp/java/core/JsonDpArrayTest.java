@@ -21,6 +21,12 @@
 package info.paolociccarese.project.jsondp.java.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.function.BiConsumer;
 
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
@@ -204,4 +210,89 @@ public class JsonDpArrayTest {
 		info(" * Checking containsProvenance(\"importedFrom\", \"Public Record\") (=true)");
 		assertEquals(true, array.containsProvenance("importedFrom", "Public Record"));
 	}
+	
+	@Test
+	public void testAllocationFreeAccessors() {
+		info("--------------------------------");
+		info(" testAllocationFreeAccessors()");
+		info("--------------------------------");
+		
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		
+		JsonDpArray array = new JsonDpArray();
+		info(" * Checking getFirst on empty array (=null)");
+		assertNull(array.getFirst());
+		
+		array.add("Paolo");
+		array.add("Nunzio", provenance);
+		info(" * Checking getFirst (=Paolo)");
+		assertEquals("Paolo", array.getFirst());
+		
+		final StringBuilder visited = new StringBuilder();
+		array.forEachValue(new BiConsumer<Object, JSONObject>() {
+			public void accept(Object value, JSONObject provenance) {
+				visited.append(value).append('/').append(provenance==null ? "-" : provenance.get("importedFrom")).append(';');
+			}
+		});
+		info(" * Checking forEachValue > " + visited);
+		assertEquals("Paolo/-;Nunzio/Public Record;", visited.toString());
+	}
+	
+	@Test
+	public void testCanonicalSerialization() {
+		info("---------------------------------");
+		info(" testCanonicalSerialization()");
+		info("---------------------------------");
+		
+		JSONObject provenance1 = new JSONObject();
+		provenance1.put("importedFrom", "Friends");
+		provenance1.put("date", "2014");
+		
+		JSONObject address = new JSONObject();
+		address.put("zip", "02446");
+		address.put("city", "Brookline");
+		
+		JsonDpArray jpa = new JsonDpArray();
+		jpa.add("Paolo", provenance1);
+		jpa.add("Paolo N", provenance1);
+		jpa.add(address, new JSONObject());
+		
+		String canonical = jpa.canonicalJsonWithProvenanceToString();
+		info(" " + canonical);
+		assertEquals("[[\"Paolo\",\"Paolo N\",{\"@provenance\":{\"date\":\"2014\",\"importedFrom\":\"Friends\"}}]," +
+			"[{\"city\":\"Brookline\",\"zip\":\"02446\"}]]", canonical);
+		assertEquals("[\"Paolo\",\"Paolo N\",{\"city\":\"Brookline\",\"zip\":\"02446\"}]", jpa.canonicalJsonToString());
+	}
+	
+	@Test
+	public void testProvenanceWrapperReuse() {
+		info("--------------------------------");
+		info(" testProvenanceWrapperReuse()");
+		info("--------------------------------");
+		
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		JsonDpArray array = new JsonDpArray();
+		array.add("Paolo", provenance);
+		
+		info(" * Checking the wrapper is reused");
+		Object wrapper = array.getWithProvenanceAsPlainJson(0).get(1);
+		assertEquals("{\"@provenance\":{\"importedFrom\":\"Public Record\"}}", wrapper.toString());
+		assertSame(wrapper, array.getWithProvenanceAsPlainJson(0).get(1));
+		try {
+			((JSONObject) wrapper).clear();
+			fail("The shared wrapper should be read-only");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+		
+		info(" * Checking the wrapper is dropped on change");
+		JSONObject changed = new JSONObject();
+		changed.put("importedFrom", "Friends");
+		array.jsonArrayObjects.get(0).setProvenance(changed);
+		Object rebuilt = array.getWithProvenanceAsPlainJson(0).get(1);
+		assertNotSame(wrapper, rebuilt);
+		assertEquals("{\"@provenance\":{\"importedFrom\":\"Friends\"}}", rebuilt.toString());
+	}
 }
@@ -0,0 +1,123 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpCodecTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("================================");
+		System.out.println(" Testing of JsonDpCodec classes ");
+		System.out.println("================================");
+	}
+	
+	private JsonDpObject buildObject() {
+		JSONObject provenance1 = new JSONObject();
+		provenance1.put("importedFrom", "Public Record");
+		JSONObject provenance2 = new JSONObject();
+		provenance2.put("importedFrom", "Harvard Catalyst");
+		
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("firstName", "Paolo", provenance1);
+		jpo.put("quote", "\"Hello\"\n", provenance2);
+		JsonDpObject address = new JsonDpObject();
+		address.put("city", "Brookline", provenance1);
+		address.put("street", "Harvard St.", provenance2);
+		jpo.put("address", address, provenance1);
+		JsonDpArray names = new JsonDpArray();
+		names.add("Paolo", provenance1);
+		names.add("Nunzio");
+		jpo.put("names", names);
+		return jpo;
+	}
+	
+	@Test
+	public void testStreamingMatchesJsonSimple() throws IOException {
+		System.out.println("-----------------------------------");
+		System.out.println(" testStreamingMatchesJsonSimple()");
+		System.out.println("-----------------------------------");
+		
+		JsonDpObject jpo = buildObject();
+		SimpleJsonCodec codec = new SimpleJsonCodec();
+		
+		String streamed = jpo.plainJsonWithProvenanceToString();
+		System.out.println(" " + streamed);
+		assertEquals(jpo.getAllValuesAndProvenanceAsPlainJson(), codec.parse(new StringReader(streamed)));
+		
+		String plain = jpo.plainJsonToString();
+		System.out.println(" " + plain);
+		assertEquals(codec.parse(new StringReader(plain)).toString(), plain);
+	}
+	
+	@Test
+	public void testCustomCodec() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testCustomCodec()");
+		System.out.println("---------------------------");
+		
+		final int[] counters = new int[2];
+		JsonDpCodec counting = new JsonDpCodec() {
+			SimpleJsonCodec delegate = new SimpleJsonCodec();
+			public JsonGenerator createGenerator(Writer out) {
+				counters[0]++;
+				return delegate.createGenerator(out);
+			}
+			public Object parse(Reader in) throws IOException {
+				counters[1]++;
+				return delegate.parse(in);
+			}
+		};
+		
+		JsonDpObject jpo = buildObject();
+		StringWriter out = new StringWriter();
+		jpo.writeJson(out, true, counting);
+		assertEquals(jpo.plainJsonWithProvenanceToString(), out.toString());
+		
+		JsonDpObject parsed = new JsonDpParser(counting).parseObject(out.toString());
+		assertEquals(1, counters[0]);
+		assertEquals(1, counters[1]);
+		assertTrue(parsed.get("address") instanceof JsonDpObject);
+		
+		JsonDpCodec previous = JsonDpCodecs.getDefault();
+		try {
+			JsonDpCodecs.setDefault(counting);
+			jpo.plainJsonToString();
+			assertEquals(2, counters[0]);
+		} finally {
+			JsonDpCodecs.setDefault(previous);
+		}
+	}
+}
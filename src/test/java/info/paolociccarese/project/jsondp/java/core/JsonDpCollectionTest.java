@@ -0,0 +1,179 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static info.paolociccarese.project.jsondp.java.core.ProvenanceFixtures.provenance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpCollectionTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=================================");
+		System.out.println(" Testing of JsonDpCollection class ");
+		System.out.println("=================================");
+	}
+	
+	private static int[] toArray(BitSet set) {
+		return set.stream().toArray();
+	}
+	
+	private static CompressedBitmap toBitmap(BitSet set) {
+		return CompressedBitmap.of(toArray(set));
+	}
+	
+	@Test
+	public void testBitmapOperations() {
+		System.out.println("---------------------------");
+		System.out.println(" testBitmapOperations()");
+		System.out.println("---------------------------");
+		
+		Random random = new Random(45);
+		// Sparse and dense regions, to mix array and bitmap containers
+		for(int round=0; round<20; round++) {
+			BitSet a = new BitSet(), b = new BitSet();
+			for(int i=0; i<20000; i++) {
+				a.set(random.nextInt(200000));
+				b.set(random.nextInt(200000));
+				a.set(65536 + random.nextInt(8000));
+				b.set(65536 + random.nextInt(8000));
+			}
+			CompressedBitmap ca = toBitmap(a), cb = toBitmap(b);
+			assertEquals(a.cardinality(), ca.getCardinality());
+			
+			BitSet and = (BitSet) a.clone(); and.and(b);
+			BitSet or = (BitSet) a.clone(); or.or(b);
+			BitSet andNot = (BitSet) a.clone(); andNot.andNot(b);
+			assertTrue(Arrays.equals(toArray(and), ca.and(cb).toArray()));
+			assertTrue(Arrays.equals(toArray(or), ca.or(cb).toArray()));
+			assertTrue(Arrays.equals(toArray(andNot), ca.andNot(cb).toArray()));
+			
+			int probe = random.nextInt(200000);
+			assertEquals(a.get(probe), ca.contains(probe));
+			for(int i=a.nextSetBit(0); i>=0 && i<100000; i=a.nextSetBit(i+1)) ca.remove(i);
+			a.clear(0, 100000);
+			assertTrue(Arrays.equals(toArray(a), ca.toArray()));
+		}
+		System.out.println(" * Checking compression of a sparse set");
+		CompressedBitmap sparse = CompressedBitmap.of(1, 1000, 1000000, 50000000);
+		assertTrue(sparse.estimatedBytes() < 1000);
+	}
+	
+	@Test
+	public void testIndexedQueries() {
+		System.out.println("---------------------------");
+		System.out.println(" testIndexedQueries()");
+		System.out.println("---------------------------");
+		
+		JsonDpCollection collection = new JsonDpCollection();
+		int documents = 100000;
+		for(int i=0; i<documents; i++) {
+			JsonDpObject document = new JsonDpObject();
+			document.put("name", "person" + i, provenance("source" + (i%3)));
+			if(i%2==0) document.put("email", "p" + i + "@example.org", provenance("source" + (i%5)));
+			if(i%7==0) document.put("phone", "555-" + i);
+			collection.add(document);
+		}
+		System.out.println(" * Checking size and terms > " + collection.getTermCount());
+		assertEquals(documents, collection.size());
+		
+		System.out.println(" * Checking key queries");
+		assertEquals(documents/2, collection.withKey("email").getCardinality());
+		assertEquals((documents+6)/7, collection.withKey("phone").getCardinality());
+		
+		System.out.println(" * Checking 'has email from source1 and not from source0'");
+		CompressedBitmap ids = collection.withKey("email", "importedFrom", "source1")
+			.andNot(collection.withProvenance("importedFrom", "source0"));
+		int expected = 0;
+		for(int i=0; i<documents; i++) {
+			if(i%2==0 && i%5==1 && i%3!=0 && i%5!=0) expected++;
+		}
+		assertEquals(expected, ids.getCardinality());
+		for(JsonDpObject document: collection.documents(ids)) {
+			assertTrue(document.get("email", "importedFrom", "source1")!=null);
+			assertTrue(!document.getProvenanceSets().contains(provenance("source0")));
+		}
+		
+		System.out.println(" * Checking update and snapshots");
+		CompressedBitmap phones = collection.withKey("phone");
+		collection.get(1).put("phone", "555-1");
+		assertEquals(1, collection.refresh());
+		assertTrue(collection.withKey("phone").contains(1));
+		assertFalse(phones.contains(1));
+		
+		collection.remove(0);
+		assertEquals(documents-1, collection.size());
+		assertFalse(collection.withKey("name").contains(0));
+		assertFalse(collection.all().contains(0));
+		List<JsonDpObject> found = collection.documents(collection.withKey("name", "importedFrom", "source0"));
+		assertEquals((documents+2)/3 - 1, found.size());
+		System.out.println(" * Index size > " + collection.estimatedIndexBytes() + " bytes");
+	}
+	
+	@Test
+	public void testSnapshotsAcrossEpochs() {
+		System.out.println("---------------------------");
+		System.out.println(" testSnapshotsAcrossEpochs()");
+		System.out.println("---------------------------");
+		
+		Random random = new Random(45);
+		JsonDpCollection collection = new JsonDpCollection();
+		BitSet tagged = new BitSet();
+		List<CompressedBitmap> snapshots = new ArrayList<CompressedBitmap>();
+		List<int[]> expected = new ArrayList<int[]>();
+		for(int round=0; round<20; round++) {
+			// Sparse and dense containers over two 65536-id ranges
+			for(int i=0; i<5000; i++) {
+				JsonDpObject document = new JsonDpObject();
+				document.put("name", "person" + i);
+				if(random.nextBoolean()) document.put("tag", "t");
+				int id = collection.add(document);
+				if(document.get("tag")!=null) tagged.set(id);
+			}
+			// Removes documents from the containers already handed out
+			for(int i=0; i<100; i++) {
+				int id = random.nextInt(tagged.length());
+				collection.remove(id);
+				tagged.clear(id);
+			}
+			snapshots.add(collection.withKey("tag"));
+			expected.add(toArray(tagged));
+		}
+		System.out.println(" * Checking every snapshot kept its content");
+		for(int i=0; i<snapshots.size(); i++) {
+			assertTrue(Arrays.equals(expected.get(i), snapshots.get(i).toArray()));
+		}
+		assertTrue(Arrays.equals(toArray(tagged), collection.withKey("tag").toArray()));
+	}
+}
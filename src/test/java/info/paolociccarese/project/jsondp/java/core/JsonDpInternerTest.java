@@ -0,0 +1,251 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpInternerTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("==================================");
+		System.out.println(" Testing of JsonDpInterner class ");
+		System.out.println("==================================");
+	}
+	
+	private JsonDpObject buildPerson(String city) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		
+		JsonDpObject address = new JsonDpObject();
+		address.put("city", city, provenance);
+		
+		JsonDpArray aliases = new JsonDpArray();
+		aliases.add("Paolo N", provenance);
+		aliases.add("PNC");
+		
+		JsonDpObject person = new JsonDpObject();
+		person.put("firstName", "Paolo", provenance);
+		person.put("address", address);
+		person.put("aliases", aliases);
+		return person;
+	}
+	
+	@Test
+	public void testContentEquality() {
+		System.out.println("-------------------------");
+		System.out.println(" testContentEquality()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject person1 = buildPerson("Brookline");
+		JsonDpObject person2 = buildPerson("Brookline");
+		JsonDpObject person3 = buildPerson("Boston");
+		
+		System.out.println(" * Checking equal documents");
+		assertEquals(person1, person2);
+		assertEquals(person1.hashCode(), person2.hashCode());
+		assertEquals(person1.contentHash(), person2.contentHash());
+		
+		System.out.println(" * Checking different documents");
+		assertFalse(person1.equals(person3));
+		assertFalse(person1.contentHash()==person3.contentHash());
+		
+		System.out.println(" * Checking provenance is part of the content");
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Friends");
+		JsonDpArray array1 = new JsonDpArray();
+		array1.add("PNC", provenance);
+		JsonDpArray array2 = new JsonDpArray();
+		array2.add("PNC");
+		assertFalse(array1.equals(array2));
+		
+		System.out.println(" * Checking set membership");
+		Set<JsonDpObject> set = new HashSet<JsonDpObject>();
+		set.add(person1);
+		assertTrue(set.contains(person2));
+		assertFalse(set.contains(person3));
+	}
+	
+	@Test
+	public void testIncrementalHashing() {
+		System.out.println("-------------------------");
+		System.out.println(" testIncrementalHashing()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject person1 = buildPerson("Brookline");
+		JsonDpObject person2 = buildPerson("Boston");
+		long before = person2.contentHash();
+		
+		System.out.println(" * Changing a nested document");
+		JsonDpObject address = (JsonDpObject) person2.get("address");
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		// Replaces the city in the fragment with the same provenance
+		address.put("city", "Brookline", provenance);
+		assertFalse(before==person2.contentHash());
+		assertEquals(person1.contentHash(), person2.contentHash());
+		assertEquals(person1, person2);
+		
+		System.out.println(" * Changing a nested array");
+		((JsonDpArray) person2.get("aliases")).add("Cicca");
+		assertFalse(person1.equals(person2));
+		((JsonDpArray) person1.get("aliases")).add("Cicca");
+		assertEquals(person1, person2);
+		
+		System.out.println(" * Checking parsed documents");
+		JsonDpObject parsed = new JsonDpParser().parseObject(person1.plainJsonWithProvenanceToString());
+		assertEquals(person1, parsed);
+	}
+	
+	@Test
+	public void testInterning() {
+		System.out.println("-------------------------");
+		System.out.println(" testInterning()");
+		System.out.println("-------------------------");
+		
+		JsonDpInterner interner = new JsonDpInterner();
+		JsonDpObject person1 = interner.intern(buildPerson("Brookline"));
+		JsonDpObject person2 = interner.intern(buildPerson("Brookline"));
+		JsonDpObject person3 = interner.intern(buildPerson("Boston"));
+		
+		System.out.println(" * Checking canonical documents");
+		assertSame(person1, person2);
+		assertTrue(person1!=person3);
+		
+		System.out.println(" * Checking shared nested documents");
+		assertSame(person1.get("aliases"), person3.get("aliases"));
+		assertTrue(person1.get("address")!=person3.get("address"));
+		assertTrue(interner.contains(buildPerson("Boston")));
+		// Two people, two addresses, one aliases array
+		assertEquals(5, interner.size());
+	}
+	
+	@Test
+	public void testInterningKeepsWriteOrder() {
+		System.out.println("-------------------------------------");
+		System.out.println(" testInterningKeepsWriteOrder()");
+		System.out.println("-------------------------------------");
+		
+		JSONObject publicRecord = new JSONObject();
+		publicRecord.put("importedFrom", "Public Record");
+		JSONObject friends = new JSONObject();
+		friends.put("importedFrom", "Friends");
+		JsonDpObject brookline = new JsonDpObject();
+		brookline.put("city", "Brookline");
+		JsonDpObject boston = new JsonDpObject();
+		boston.put("city", "Boston");
+		JsonDpObject person = new JsonDpObject();
+		person.put("address", brookline, publicRecord);
+		person.put("address", boston, friends);
+		Object resolved = person.getResolved("address");
+		assertSame(boston, resolved);
+		
+		System.out.println(" * Checking getResolved after interning an older value");
+		JsonDpInterner interner = new JsonDpInterner();
+		JsonDpObject other = new JsonDpObject();
+		other.put("city", "Brookline");
+		interner.intern(other);
+		person = interner.intern(person);
+		assertSame(other, person.getFirst("address"));
+		assertEquals(resolved, person.getResolved("address"));
+	}
+	
+	@Test
+	public void testSharedByManyRecords() {
+		System.out.println("---------------------------------");
+		System.out.println(" testSharedByManyRecords()");
+		System.out.println("---------------------------------");
+		
+		int records = 50000;
+		JsonDpInterner interner = new JsonDpInterner();
+		JsonDpObject first = null;
+		long start = System.nanoTime();
+		for(int i=0; i<records; i++) {
+			JsonDpObject address = new JsonDpObject();
+			address.put("city", "Brookline");
+			JsonDpObject record = new JsonDpObject();
+			record.put("id", "Record " + i);
+			record.put("address", address);
+			record = interner.intern(record);
+			if(first==null) first = record;
+			assertSame(first.get("address"), record.get("address"));
+		}
+		long millis = (System.nanoTime() - start)/1000000;
+		System.out.println(" " + records + " records sharing one address interned in " + millis + "ms");
+		assertTrue(millis < 10000);
+		assertEquals(records + 1, interner.size());
+	}
+	
+	private JsonDpObject chain(int depth) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		JsonDpObject node = new JsonDpObject();
+		node.put("leaf", "Paolo", provenance);
+		for(int i=0; i<depth; i++) {
+			JsonDpObject parent = new JsonDpObject();
+			parent.put("child", node, provenance);
+			node = parent;
+		}
+		return node;
+	}
+	
+	@Test
+	public void testDeepNesting() {
+		System.out.println("-------------------------");
+		System.out.println(" testDeepNesting()");
+		System.out.println("-------------------------");
+		
+		int depth = 100000;
+		JsonDpObject a = chain(depth);
+		JsonDpObject b = chain(depth);
+		
+		System.out.println(" * Checking hash, equals and hashCode at depth " + depth);
+		assertEquals(a.contentHash(), b.contentHash());
+		assertEquals(a.hashCode(), b.hashCode());
+		assertTrue(a.equals(b));
+		
+		System.out.println(" * Checking interning");
+		JsonDpInterner interner = new JsonDpInterner();
+		assertSame(a, interner.intern(a));
+		assertSame(a, interner.intern(b));
+		assertEquals(depth + 1, interner.size());
+		
+		System.out.println(" * Checking a difference at the bottom");
+		JsonDpObject c = chain(depth);
+		JsonDpObject leaf = c;
+		while(leaf.getFirst("child")!=null) leaf = (JsonDpObject) leaf.getFirst("child");
+		leaf.put("leaf", "Nunzio");
+		assertFalse(a.equals(c));
+		assertFalse(a.contentHash()==c.contentHash());
+	}
+}
@@ -22,6 +22,13 @@ package info.paolociccarese.project.jsondp.java.core;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.function.BiConsumer;
 
 import org.json.simple.JSONObject;
 import org.junit.BeforeClass;
@@ -286,4 +293,124 @@ public class JsonDpObjectTest {
 		System.out.println(" " + jpo.get("firstName", "importedFrom", "Friends").toString());
 		System.out.println(" " + jpo.getWithProvenance("firstName", "importedFrom", "Friends").toString());
 	}
+	
+	@Test
+	public void testAllocationFreeAccessors() {
+		System.out.println("---------------------------------");
+		System.out.println(" testAllocationFreeAccessors()");
+		System.out.println("---------------------------------");
+		
+		JSONObject provenance1 = new JSONObject();
+		provenance1.put("importedFrom", "Friends");
+		JSONObject provenance2 = new JSONObject();
+		provenance2.put("importedFrom", "Parents");
+		
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("firstName", "Paolo");
+		jpo.put("nickname", "Cicca", provenance1);
+		jpo.put("nickname", "Tato", provenance2);
+		
+		printLabel("nickname", "jpo.getFirst(\"nickname\")", jpo.getFirst("nickname").toString());
+		assertEquals("Cicca", jpo.getFirst("nickname"));
+		assertEquals("Paolo", jpo.getFirst("firstName"));
+		assertNull(jpo.getFirst("lastName"));
+		
+		assertEquals(2, jpo.valueCount("nickname"));
+		assertEquals(1, jpo.valueCount("firstName"));
+		assertEquals(0, jpo.valueCount("lastName"));
+		
+		final StringBuilder visited = new StringBuilder();
+		jpo.forEachValue("nickname", new BiConsumer<Object, JSONObject>() {
+			public void accept(Object value, JSONObject provenance) {
+				visited.append(value).append('/').append(provenance.get("importedFrom")).append(';');
+			}
+		});
+		printLabel("nickname", "jpo.forEachValue(\"nickname\")", visited.toString());
+		assertEquals("Cicca/Friends;Tato/Parents;", visited.toString());
+		
+		jpo.forEachValue("firstName", new BiConsumer<Object, JSONObject>() {
+			public void accept(Object value, JSONObject provenance) {
+				assertNull(provenance);
+			}
+		});
+	}
+	
+	@Test
+	public void testCanonicalSerialization() {
+		System.out.println("---------------------------------");
+		System.out.println(" testCanonicalSerialization()");
+		System.out.println("---------------------------------");
+		
+		JSONObject provenance1 = new JSONObject();
+		provenance1.put("importedFrom", "Friends");
+		provenance1.put("date", "2014");
+		JSONObject provenance2 = new JSONObject();
+		provenance2.put("date", "2014");
+		provenance2.put("importedFrom", "Friends");
+		JSONObject provenance3 = new JSONObject();
+		provenance3.put("importedFrom", "Parents");
+		
+		JsonDpObject jpo1 = new JsonDpObject();
+		jpo1.put("zip", "02446", provenance1);
+		jpo1.put("city", "Brookline", provenance1);
+		jpo1.put("nickname", "Tato", provenance3);
+		jpo1.put("firstName", "Paolo");
+		
+		JsonDpObject jpo2 = new JsonDpObject();
+		jpo2.put("firstName", "Paolo");
+		jpo2.put("nickname", "Tato", provenance3);
+		jpo2.put("city", "Brookline", provenance2);
+		jpo2.put("zip", "02446", provenance2);
+		
+		String canonical = jpo1.canonicalJsonWithProvenanceToString();
+		printLabel("canonical", "jpo1.canonicalJsonWithProvenanceToString()", canonical);
+		assertEquals(canonical, jpo2.canonicalJsonWithProvenanceToString());
+		assertEquals(canonical, new JsonDpParser().parseObject(canonical).canonicalJsonWithProvenanceToString());
+		assertTrue(canonical.contains("{\"@provenance\":{\"date\":\"2014\",\"importedFrom\":\"Friends\"},\"city\":\"Brookline\",\"zip\":\"02446\"}"));
+		
+		printLabel("canonical", "jpo1.canonicalJsonToString()", jpo1.canonicalJsonToString());
+		assertEquals("{\"city\":\"Brookline\",\"firstName\":\"Paolo\",\"nickname\":\"Tato\",\"zip\":\"02446\"}", 
+			jpo1.canonicalJsonToString());
+		assertEquals(jpo1.canonicalJsonToString(), jpo2.canonicalJsonToString());
+	}
+	
+	@Test
+	public void testProvenanceWrapperReuse() {
+		System.out.println("---------------------------------");
+		System.out.println(" testProvenanceWrapperReuse()");
+		System.out.println("---------------------------------");
+		
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Friends");
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("firstName", "Paolo", provenance);
+		jpo.put("nickname", "Tato", provenance);
+		
+		JsonDpObject.JsonObjectCore core = jpo.jsonObjects.get(0);
+		System.out.println(" * Checking the wrappers are reused");
+		JSONObject wrapper = core.getValueAndProvenance("firstName");
+		assertEquals("Paolo", wrapper.get("firstName"));
+		assertEquals(provenance, wrapper.get("@provenance"));
+		assertSame(wrapper, core.getValueAndProvenance("firstName"));
+		assertSame(wrapper, jpo.getWithProvenanceAsPlainJson("firstName").get(0));
+		
+		System.out.println(" * Checking the wrappers are read-only");
+		try {
+			wrapper.put("firstName", "Changed");
+			fail("The shared wrapper should be read-only");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+		assertEquals("Paolo", core.getValueAndProvenance("firstName").get("firstName"));
+		
+		System.out.println(" * Checking the wrappers are dropped on change");
+		jpo.put("firstName", "Paolo N", provenance);
+		JSONObject changed = core.getValueAndProvenance("firstName");
+		assertNotSame(wrapper, changed);
+		assertEquals("Paolo N", changed.get("firstName"));
+		JSONObject nickname = core.getValueAndProvenance("nickname");
+		core.putProvenance("date", "2014");
+		assertNotSame(nickname, core.getValueAndProvenance("nickname"));
+		assertEquals("2014", ((JSONObject) core.getValueAndProvenance("nickname").get("@provenance")).get("date"));
+	}
 }
@@ -0,0 +1,108 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpParserTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("================================");
+		System.out.println(" Testing of JsonDpParser class ");
+		System.out.println("================================");
+	}
+	
+	@Test
+	public void testObjectRoundTrip() {
+		System.out.println("-------------------------");
+		System.out.println(" testObjectRoundTrip()");
+		System.out.println("-------------------------");
+		
+		JSONObject provenance1 = new JSONObject();
+		provenance1.put("importedFrom", "Public Record");
+		JSONObject provenance2 = new JSONObject();
+		provenance2.put("importedFrom", "Friends");
+		
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("firstName", "Paolo", provenance1);
+		jpo.put("lastName", "Ciccarese", provenance1);
+		jpo.put("firstName", "Paolo Nunzio", provenance2);
+		jpo.put("nickname", "Cicca");
+		
+		JsonDpObject address = new JsonDpObject();
+		address.put("city", "Brookline", provenance1);
+		jpo.put("address", address, provenance2);
+		
+		JsonDpArray aliases = new JsonDpArray();
+		aliases.add("Paolo N", provenance1);
+		aliases.add("PNC");
+		jpo.put("aliases", aliases);
+		
+		String text = jpo.plainJsonWithProvenanceToString();
+		System.out.println(" " + text);
+		
+		JsonDpObject parsed = new JsonDpParser().parseObject(text);
+		System.out.println(" * Checking the serialization of the parsed object");
+		assertEquals(text, parsed.plainJsonWithProvenanceToString());
+		assertEquals("[\"Paolo\",\"Paolo Nunzio\"]", parsed.get("firstName").toString());
+		assertEquals("Ciccarese", parsed.get("lastName", "importedFrom", "Public Record"));
+		assertTrue(parsed.get("address") instanceof JsonDpObject);
+		assertTrue(parsed.get("aliases") instanceof JsonDpArray);
+		assertEquals(2, ((JsonDpArray) parsed.get("aliases")).size());
+	}
+	
+	@Test
+	public void testArrayRoundTrip() {
+		System.out.println("-------------------------");
+		System.out.println(" testArrayRoundTrip()");
+		System.out.println("-------------------------");
+		
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		
+		JsonDpArray array = new JsonDpArray();
+		array.add("Paolo");
+		array.add("Nunzio", provenance);
+		array.add("Ciccarese");
+		
+		String text = array.plainJsonWithProvenanceToString();
+		System.out.println(" " + text);
+		
+		JsonDpArray parsed = new JsonDpParser().parseArray(text);
+		assertEquals(3, parsed.size());
+		assertEquals("Nunzio", parsed.get(1));
+		assertTrue(parsed.containsProvenance("importedFrom", "Public Record"));
+		assertEquals(text, parsed.plainJsonWithProvenanceToString());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidObject() {
+		new JsonDpParser().parseObject("{\"firstName\":\"Paolo\"}");
+	}
+}
@@ -0,0 +1,324 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Stress tests on randomized documents at realistic scale. Besides the 
+ * round trip and the semantic invariants, they time the lookups on a 
+ * large document against a document a hundred times smaller, so that a
+ * lookup becoming linear, and the building of a document quadratic, fails
+ * the build.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpStressTest {
+
+	private static final long SEED = 20141021L;
+	
+	@BeforeClass public static void initialize() {
+		System.out.println("===============================");
+		System.out.println(" Stress testing of JSON-DP ");
+		System.out.println("===============================");
+	}
+	
+	private static JSONObject provenance(int source, int date) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "source" + source);
+		provenance.put("date", "2014-" + date);
+		return provenance;
+	}
+	
+	/**
+	 * An operation timed by the stress tests.
+	 */
+	private interface Operation {
+		void run(int i);
+	}
+	
+	/**
+	 * Returns the average time of an operation in nanoseconds, the best of
+	 * three rounds so that JIT compilation and garbage collection weigh less.
+	 */
+	private static double nanosPerOperation(int operations, Operation operation) {
+		long best = Long.MAX_VALUE;
+		for(int round=0; round<3; round++) {
+			long start = System.nanoTime();
+			for(int i=0; i<operations; i++) operation.run(i);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return (double) best/operations;
+	}
+	
+	/**
+	 * Fails if an operation on a document a hundred times larger is more 
+	 * than ten times slower, as a linear operation would be.
+	 */
+	private static void assertSubLinear(String operation, double smallNanos, double largeNanos) {
+		System.out.println(String.format(" %s: %.0fns (small), %.0fns (large)", operation, smallNanos, largeNanos));
+		assertTrue(operation + " is not sub-linear", largeNanos < 10*smallNanos);
+	}
+	
+	private static JsonDpObject buildGroups(Random random, int sources, int dates, int keys, Map<String, String> expected) {
+		JsonDpObject object = new JsonDpObject();
+		for(int round=0; round<3; round++) {
+			for(int s=0; s<sources; s++) {
+				for(int d=0; d<dates; d++) {
+					String key = "key" + random.nextInt(keys);
+					String value = "value" + random.nextInt(1000);
+					object.put(key, value, provenance(s, d));
+					expected.put(s + "/" + d + "/" + key, value);
+				}
+			}
+		}
+		return object;
+	}
+	
+	private static double nanosPerPut(final JsonDpObject object, final Random random, final int sources, 
+			final int dates, final int keys, final Map<String, String> expected) {
+		return nanosPerOperation(10000, new Operation() {
+			public void run(int p) {
+				int s = random.nextInt(sources), d = random.nextInt(dates);
+				String key = "key" + random.nextInt(keys);
+				object.put(key, "updated" + p, provenance(s, d));
+				expected.put(s + "/" + d + "/" + key, "updated" + p);
+			}
+		});
+	}
+	
+	private static JsonDpArray parseGroups(int groups, int perGroup) {
+		StringBuilder text = new StringBuilder(16*groups*perGroup).append('[');
+		for(int g=0; g<groups; g++) {
+			if(g>0) text.append(',');
+			text.append('[');
+			for(int i=0; i<perGroup; i++) {
+				text.append("\"i").append(g*perGroup+i).append("\",");
+			}
+			text.append("{\"@provenance\":{\"importedFrom\":\"source").append(g%7).append("\"}}]");
+		}
+		text.append(']');
+		return new JsonDpParser().parseArray(text.toString());
+	}
+	
+	private static double nanosPerGet(final JsonDpArray array) {
+		return nanosPerOperation(array.size(), new Operation() {
+			public void run(int i) {
+				assertEquals("i" + i, array.get(i));
+			}
+		});
+	}
+	
+	/**
+	 * Builds a random nested value made of Strings, JsonDpObject and 
+	 * JsonDpArray (never empty, so that the parser restores the same shapes).
+	 */
+	private static Object randomValue(Random random, int depth) {
+		int kind = depth==0 ? 0 : random.nextInt(3);
+		if(kind==0) return "v" + random.nextInt(1000000);
+		if(kind==1) {
+			JsonDpObject object = new JsonDpObject();
+			int keys = 1 + random.nextInt(4);
+			for(int k=0; k<keys; k++) {
+				if(random.nextBoolean()) object.put("k" + k, randomValue(random, depth-1));
+				else object.put("k" + k, randomValue(random, depth-1), provenance(random.nextInt(5), random.nextInt(3)));
+			}
+			return object;
+		}
+		JsonDpArray array = new JsonDpArray();
+		int items = 1 + random.nextInt(4);
+		for(int i=0; i<items; i++) {
+			if(random.nextBoolean()) array.add(randomValue(random, depth-1));
+			else array.add(randomValue(random, depth-1), provenance(random.nextInt(5), random.nextInt(3)));
+		}
+		return array;
+	}
+	
+	@Test
+	public void testThousandsOfProvenanceGroups() {
+		System.out.println("-----------------------------------");
+		System.out.println(" testThousandsOfProvenanceGroups()");
+		System.out.println("-----------------------------------");
+		
+		int sources = 5000, dates = 2, keys = 10;
+		Random random = new Random(SEED);
+		Map<String, String> expected = new HashMap<String, String>();
+		JsonDpObject object = buildGroups(random, sources, dates, keys, expected);
+		System.out.println(" * Checking fragments (=" + sources*dates + ")");
+		assertEquals(sources*dates, object.jsonObjects.size());
+		
+		System.out.println(" * Checking put does not scan the fragments");
+		JsonDpObject small = buildGroups(random, sources/100, dates, keys, new HashMap<String, String>());
+		double smallNanos = nanosPerPut(small, random, sources/100, dates, keys, new HashMap<String, String>());
+		double largeNanos = nanosPerPut(object, random, sources, dates, keys, expected);
+		assertSubLinear("put", smallNanos, largeNanos);
+		assertEquals(sources*dates, object.jsonObjects.size());
+		
+		System.out.println(" * Checking values by provenance");
+		for(Map.Entry<String, String> entry: expected.entrySet()) {
+			String[] parts = entry.getKey().split("/");
+			JsonDpObject.JsonObjectCore fragment = null;
+			for(JsonDpObject.JsonObjectCore candidate: object.jsonObjects) {
+				if(candidate.containsProvenance("importedFrom", "source" + parts[0]) 
+						&& candidate.containsProvenance("date", "2014-" + parts[1])) {
+					fragment = candidate;
+					break;
+				}
+			}
+			assertEquals(entry.getValue(), fragment.getValue(parts[2]));
+		}
+		
+		System.out.println(" * Checking round trip");
+		JsonDpObject parsed = new JsonDpParser().parseObject(object.plainJsonWithProvenanceToString());
+		assertEquals(object, parsed);
+		assertEquals(object.canonicalJsonWithProvenanceToString(), parsed.canonicalJsonWithProvenanceToString());
+		assertEquals(sources, object.getProvenanceSummary().getSourceCounts("importedFrom").size());
+	}
+	
+	@Test
+	public void testMillionItemArray() {
+		System.out.println("---------------------------");
+		System.out.println(" testMillionItemArray()");
+		System.out.println("---------------------------");
+		
+		int groups = 1000, perGroup = 1000;
+		JsonDpArray array = parseGroups(groups, perGroup);
+		
+		System.out.println(" * Checking size (=" + groups*perGroup + ")");
+		assertEquals(groups*perGroup, array.size());
+		
+		System.out.println(" * Checking get(int) on all the items");
+		double largeNanos = nanosPerGet(array);
+		double smallNanos = nanosPerGet(parseGroups(groups/100, perGroup));
+		assertSubLinear("get", smallNanos, largeNanos);
+		
+		System.out.println(" * Checking forEachValue and provenance");
+		final int[] count = new int[1];
+		array.forEachValue(new java.util.function.BiConsumer<Object, JSONObject>() {
+			public void accept(Object value, JSONObject provenance) {
+				int i = Integer.parseInt(((String) value).substring(1));
+				assertEquals("source" + (i/1000)%7, provenance.get("importedFrom"));
+				count[0]++;
+			}
+		});
+		assertEquals(groups*perGroup, count[0]);
+	}
+	
+	@Test
+	public void testAppendAndRandomAccess() {
+		System.out.println("---------------------------");
+		System.out.println(" testAppendAndRandomAccess()");
+		System.out.println("---------------------------");
+		
+		// Each add creates a group: size() and get(int) must not rescan them
+		int items = 200000;
+		Random random = new Random(SEED);
+		JsonDpArray array = new JsonDpArray();
+		int chunk = items/10;
+		long first = 0, last = 0;
+		for(int i=0; i<items; i++) {
+			long start = System.nanoTime();
+			if(i%3==0) array.add("i" + i, provenance(i%11, 0));
+			else array.add("i" + i);
+			assertEquals(i+1, array.size());
+			int probe = random.nextInt(i+1);
+			assertEquals("i" + probe, array.get(probe));
+			if(i<chunk) first += System.nanoTime() - start;
+			else if(i>=items-chunk) last += System.nanoTime() - start;
+		}
+		// The last additions see about twenty times the groups of the first ones
+		System.out.println(" First " + chunk + " additions in " + first/1000000 + "ms, last in " + last/1000000 + "ms");
+		assertTrue("add, size and get are not sub-linear", last < 10*first);
+		
+		System.out.println(" * Checking get after replace");
+		array.replace(5, "replaced");
+		assertEquals("replaced", array.get(5));
+		assertEquals("i" + (items-1), array.get(items-1));
+		
+		System.out.println(" * Checking index out of bounds");
+		try {
+			array.get(items);
+			assertTrue("IndexOutOfBoundsException expected", false);
+		} catch (IndexOutOfBoundsException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testRandomNestedDocuments() {
+		System.out.println("---------------------------");
+		System.out.println(" testRandomNestedDocuments()");
+		System.out.println("---------------------------");
+		
+		Random random = new Random(SEED);
+		JsonDpParser parser = new JsonDpParser();
+		for(int d=0; d<200; d++) {
+			JsonDpObject document = new JsonDpObject();
+			int keys = 1 + random.nextInt(20);
+			for(int k=0; k<keys; k++) {
+				document.put("key" + k, randomValue(random, 1 + random.nextInt(5)), provenance(random.nextInt(50), random.nextInt(3)));
+			}
+			JsonDpObject parsed = parser.parseObject(document.plainJsonWithProvenanceToString());
+			assertEquals(document, parsed);
+			assertEquals(document.contentHash(), parsed.contentHash());
+			assertEquals(document.plainJsonToString().length(), parsed.plainJsonToString().length());
+		}
+		
+		int depth = 100000;
+		System.out.println(" * Checking deep nesting round trip (" + depth + " levels)");
+		// Built bottom-up: every change is propagated to all the ancestors
+		JsonDpObject current = new JsonDpObject();
+		current.put("name", "leaf");
+		JsonDpObject deep = current;
+		for(int i=depth-1; i>=0; i--) {
+			JsonDpObject parent = new JsonDpObject();
+			parent.put("name", "level" + i, provenance(i%5, 0));
+			parent.put("child", deep);
+			deep = parent;
+		}
+		JsonDpObject parsed = parser.parseObject(deep.plainJsonWithProvenanceToString());
+		assertEquals(deep.contentHash(), parsed.contentHash());
+		assertEquals(deep, parsed);
+		assertEquals(deep.canonicalJsonWithProvenanceToString(), parsed.canonicalJsonWithProvenanceToString());
+		
+		System.out.println(" * Checking the provenance summary of the deep document");
+		ProvenanceSummary summary = parsed.getProvenanceSummary();
+		int withProvenance = 0;
+		for(Integer count: summary.getSourceCounts("importedFrom").values()) withProvenance += count;
+		assertEquals(depth, withProvenance);
+		assertEquals(depth+1, summary.getValuesWithoutProvenance());
+		
+		System.out.println(" * Checking version propagation through the nesting");
+		long version = deep.version();
+		current.put("extra", "value");
+		assertTrue(deep.version()>version);
+		assertTrue(!deep.equals(parsed));
+	}
+}
@@ -0,0 +1,162 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static info.paolociccarese.project.jsondp.java.core.ProvenanceFixtures.provenance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpValidatorTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=================================");
+		System.out.println(" Testing of JsonDpValidator class ");
+		System.out.println("=================================");
+	}
+	
+	private JsonDpValidator personValidator() {
+		return JsonDpSchema.object()
+			.required("name", JsonDpSchema.string())
+			.optional("age", JsonDpSchema.number())
+			.optional("address", JsonDpSchema.object().required("city", JsonDpSchema.string()).closed())
+			.optional("tags", JsonDpSchema.array(JsonDpSchema.string()).allowProvenanceKeys("importedFrom"))
+			.requireProvenance("name", "importedFrom")
+			.allowProvenanceKeys("importedFrom", "date")
+			.compile();
+	}
+	
+	@Test
+	public void testValidDocument() {
+		System.out.println("---------------------------");
+		System.out.println(" testValidDocument()");
+		System.out.println("---------------------------");
+		
+		JsonDpObject address = new JsonDpObject();
+		address.put("city", "Brookline");
+		JsonDpArray tags = new JsonDpArray();
+		tags.add("friend", provenance("Friends"));
+		tags.add("colleague");
+		
+		JsonDpObject person = new JsonDpObject();
+		person.put("name", "Paolo", provenance("Public Record"));
+		person.put("name", "Paolo N", provenance("Friends"));
+		person.put("age", "42");
+		person.put("address", address);
+		person.put("tags", tags);
+		person.put("nickname", "Paolino");
+		
+		ValidationResult result = personValidator().validate(person);
+		System.out.println(" * Checking valid document > " + result);
+		assertTrue(result.isValid());
+	}
+	
+	@Test
+	public void testInvalidDocument() {
+		System.out.println("---------------------------");
+		System.out.println(" testInvalidDocument()");
+		System.out.println("---------------------------");
+		
+		JsonDpObject address = new JsonDpObject();
+		address.put("zip", "02446");
+		JSONObject badProvenance = new JSONObject();
+		badProvenance.put("author", "Someone");
+		JsonDpArray tags = new JsonDpArray();
+		tags.add("friend");
+		tags.add(address, badProvenance);
+		
+		JsonDpObject person = new JsonDpObject();
+		person.put("name", "Paolo");
+		person.put("age", "forty");
+		person.put("address", address);
+		person.put("tags", tags);
+		
+		ValidationResult result = personValidator().validate(person);
+		System.out.println(" * Checking all errors > " + result);
+		assertFalse(result.isValid());
+		assertTrue(result.getErrors().contains("$.name: missing provenance key importedFrom"));
+		assertTrue(result.getErrors().contains("$.age: expected a number, found String"));
+		assertTrue(result.getErrors().contains("$.address.zip: undeclared key"));
+		assertTrue(result.getErrors().contains("$.address.city: missing required key"));
+		assertTrue(result.getErrors().contains("$.tags[1].@provenance: provenance key author not allowed"));
+		assertTrue(result.getErrors().contains("$.tags[1]: expected a string, found JsonDpObject"));
+		assertEquals(6, result.getErrors().size());
+		
+		System.out.println(" * Checking failFast");
+		assertEquals(1, personValidator().validate(person, true).getErrors().size());
+		assertFalse(personValidator().isValid(person));
+	}
+	
+	@Test
+	public void testRecursiveSchema() {
+		System.out.println("---------------------------");
+		System.out.println(" testRecursiveSchema()");
+		System.out.println("---------------------------");
+		
+		JsonDpSchema.ObjectSchema node = JsonDpSchema.object().required("name", JsonDpSchema.string());
+		node.optional("child", node);
+		JsonDpValidator validator = node.compile();
+		
+		JsonDpObject leaf = new JsonDpObject();
+		leaf.put("name", "leaf");
+		JsonDpObject root = new JsonDpObject();
+		root.put("name", "root");
+		root.put("child", leaf);
+		System.out.println(" * Checking valid tree");
+		assertTrue(validator.isValid(root));
+		
+		JsonDpObject broken = new JsonDpObject();
+		broken.put("child", new JsonDpObject());
+		System.out.println(" * Checking invalid tree > " + validator.validate(broken));
+		assertEquals(2, validator.validate(broken).getErrors().size());
+	}
+	
+	@Test
+	public void testDeepDocument() {
+		System.out.println("---------------------------");
+		System.out.println(" testDeepDocument()");
+		System.out.println("---------------------------");
+		
+		JsonDpSchema.ObjectSchema node = JsonDpSchema.object().required("name", JsonDpSchema.string());
+		node.optional("child", node);
+		JsonDpValidator validator = node.compile();
+		
+		// Built bottom-up, the innermost node misses its name
+		JsonDpObject current = new JsonDpObject();
+		for(int i=0; i<100000; i++) {
+			JsonDpObject parent = new JsonDpObject();
+			parent.put("name", "node" + i);
+			parent.put("child", current);
+			current = parent;
+		}
+		ValidationResult result = validator.validate(current);
+		System.out.println(" * Checking 100000 levels > " + result.getErrors().size() + " error");
+		assertEquals(1, result.getErrors().size());
+		assertTrue(result.getErrors().get(0).endsWith(".child.name: missing required key"));
+	}
+}
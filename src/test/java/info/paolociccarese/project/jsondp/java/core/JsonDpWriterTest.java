@@ -0,0 +1,123 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpWriterTest {
+
+	private static final int DEPTH = 100000;
+	
+	@BeforeClass public static void initialize() {
+		System.out.println("================================");
+		System.out.println(" Testing of JsonDpWriter class ");
+		System.out.println("================================");
+	}
+	
+	/**
+	 * Builds a lineage chain: each object derives from the previous one.
+	 */
+	private JsonDpObject buildChain(int depth) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Lineage");
+		JsonDpObject object = new JsonDpObject();
+		object.put("id", "0", provenance);
+		for(int i=1; i<depth; i++) {
+			JsonDpObject parent = new JsonDpObject();
+			parent.put("id", String.valueOf(i), provenance);
+			if(i%2==0) {
+				parent.put("derivedFrom", object, provenance);
+			} else {
+				JsonDpArray sources = new JsonDpArray();
+				sources.add(object, provenance);
+				parent.put("derivedFrom", sources);
+			}
+			object = parent;
+		}
+		return object;
+	}
+	
+	/**
+	 * Returns the fragments of the object the given one derives from.
+	 */
+	private JSONArray derivedFrom(JSONArray fragments) {
+		for(Object fragment: fragments) {
+			Object derived = ((JSONObject) fragment).get("derivedFrom");
+			if(derived==null) continue;
+			JSONArray array = (JSONArray) derived;
+			// JsonDpArray: the object is the first item of the first group 
+			if(array.get(0) instanceof JSONArray) return (JSONArray) ((JSONArray) array.get(0)).get(0);
+			return array;
+		}
+		return null;
+	}
+	
+	@Test
+	public void testDeepNesting() throws Exception {
+		System.out.println("-------------------------");
+		System.out.println(" testDeepNesting()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject chain = buildChain(DEPTH);
+		
+		System.out.println(" * Writing " + DEPTH + " levels with provenance");
+		StringWriter out = new StringWriter();
+		chain.writeJson(out, true);
+		String text = out.toString();
+		assertTrue(text.startsWith("[{"));
+		assertTrue(text.endsWith("}]"));
+		assertTrue(text.contains("\"id\":\"0\""));
+		
+		System.out.println(" * Writing " + DEPTH + " levels without provenance");
+		String plain = chain.plainJsonToString();
+		assertEquals(-1, plain.indexOf("@provenance"));
+		assertTrue(plain.contains("\"id\":\"0\""));
+		
+		System.out.println(" * Writing " + DEPTH + " levels in canonical form");
+		assertTrue(chain.canonicalJsonToString().startsWith("{\"derivedFrom\":[{\"derivedFrom\":"));
+		
+		System.out.println(" * Writing " + DEPTH + " levels in canonical form with provenance");
+		String canonical = chain.canonicalJsonWithProvenanceToString();
+		assertTrue(canonical.startsWith("[{"));
+		assertTrue(canonical.contains("\"id\":\"0\""));
+		assertEquals(canonical, buildChain(DEPTH).canonicalJsonWithProvenanceToString());
+		
+		System.out.println(" * Building the plain JSON tree");
+		JSONArray tree = chain.getAllValuesAndProvenanceAsPlainJson();
+		JSONArray level = tree;
+		int depth = 1;
+		while((level = derivedFrom(level))!=null) {
+			depth++;
+		}
+		assertEquals(DEPTH, depth);
+	}
+}
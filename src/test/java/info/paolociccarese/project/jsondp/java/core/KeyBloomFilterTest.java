@@ -0,0 +1,118 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static info.paolociccarese.project.jsondp.java.core.ProvenanceFixtures.provenance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class KeyBloomFilterTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=================================");
+		System.out.println(" Testing of KeyBloomFilter class ");
+		System.out.println("=================================");
+	}
+	
+	@Test
+	public void testNoFalseNegatives() {
+		System.out.println("---------------------------");
+		System.out.println(" testNoFalseNegatives()");
+		System.out.println("---------------------------");
+		
+		JsonDpObject object = new JsonDpObject();
+		int keys = 10000;
+		for(int i=0; i<keys; i++) {
+			if(i%2==0) object.put("key" + i, "value" + i);
+			else object.put("key" + i, "value" + i, provenance("source" + i%10));
+		}
+		System.out.println(" * Checking present keys");
+		for(int i=0; i<keys; i++) {
+			assertTrue(object.mightContainKey("key" + i));
+			assertTrue(object.containsKey("key" + i));
+		}
+		
+		System.out.println(" * Checking parsed object (keys added before the fragments are appended)");
+		JsonDpObject parsed = new JsonDpParser().parseObject(object.plainJsonWithProvenanceToString());
+		for(int i=0; i<keys; i++) assertEquals("value" + i, parsed.getFirst("key" + i));
+		
+		System.out.println(" * Checking misses and false positive rate");
+		int falsePositives = 0, misses = 100000;
+		for(int i=0; i<misses; i++) {
+			if(object.mightContainKey("missing" + i)) falsePositives++;
+			assertNull(object.get("missing" + i));
+			assertFalse(object.containsKey("missing" + i));
+		}
+		System.out.println(" > false positives " + falsePositives + "/" + misses);
+		assertTrue(falsePositives < misses*3/100);
+	}
+	
+	@Test
+	public void testRepeatedKeysAcrossFragments() {
+		System.out.println("-------------------------------------");
+		System.out.println(" testRepeatedKeysAcrossFragments()");
+		System.out.println("-------------------------------------");
+		
+		JsonDpObject object = new JsonDpObject();
+		for(int i=0; i<10000; i++) {
+			for(int k=0; k<10; k++) object.put("key" + k, "value" + i, provenance("source" + i));
+		}
+		KeyBloomFilter filter = object.getKeyFilter();
+		System.out.println(" * Checking the filter is sized on the distinct keys > " + 
+			filter.getCount() + " keys, " + filter.getBits() + " bits");
+		assertEquals(10, filter.getCount());
+		assertTrue(filter.getBits() <= 256);
+		for(int k=0; k<10; k++) assertTrue(filter.mightContain("key" + k));
+	}
+	
+	@Test
+	public void testBinaryForm() {
+		System.out.println("---------------------------");
+		System.out.println(" testBinaryForm()");
+		System.out.println("---------------------------");
+		
+		JsonDpObject object = new JsonDpObject();
+		object.put("name", "Paolo", provenance("Public Record"));
+		object.put("city", "Brookline");
+		
+		byte[] bytes = object.getKeyFilter().toByteArray();
+		System.out.println(" * Checking size > " + bytes.length + " bytes");
+		assertTrue(bytes.length <= 8 + 8*2);
+		KeyBloomFilter shipped = KeyBloomFilter.fromByteArray(bytes);
+		assertTrue(shipped.mightContain("name"));
+		assertTrue(shipped.mightContain("city"));
+		assertEquals(2, shipped.getCount());
+		
+		System.out.println(" * Checking the copy is a snapshot");
+		KeyBloomFilter snapshot = object.getKeyFilter();
+		object.put("zip", "02446");
+		assertTrue(object.mightContainKey("zip"));
+		assertEquals(2, snapshot.getCount());
+	}
+}
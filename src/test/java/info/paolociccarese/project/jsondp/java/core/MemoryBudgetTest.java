@@ -0,0 +1,183 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static info.paolociccarese.project.jsondp.java.core.ProvenanceFixtures.provenance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class MemoryBudgetTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("================================");
+		System.out.println(" Testing of MemoryBudget class ");
+		System.out.println("================================");
+	}
+	
+	@Test
+	public void testEstimatedRetainedBytes() {
+		System.out.println("---------------------------------");
+		System.out.println(" testEstimatedRetainedBytes()");
+		System.out.println("---------------------------------");
+		
+		JsonDpObject jpo = new JsonDpObject();
+		long empty = jpo.estimatedRetainedBytes();
+		jpo.put("firstName", "Paolo", provenance("Registry"));
+		long one = jpo.estimatedRetainedBytes();
+		jpo.put("lastName", "Ciccarese", provenance("Registry"));
+		long two = jpo.estimatedRetainedBytes();
+		System.out.println(" Sizes " + empty + ", " + one + ", " + two);
+		assertTrue(empty > 0);
+		assertTrue(one > empty);
+		assertTrue(two > one);
+		
+		System.out.println(" * Checking the estimate matches a rebuilt object");
+		JsonDpObject parsed = new JsonDpParser().parseObject(jpo.plainJsonWithProvenanceToString());
+		assertEquals(two, parsed.estimatedRetainedBytes());
+		
+		System.out.println(" * Checking replaced values are released");
+		JsonDpArray jpa = new JsonDpArray();
+		jpa.add("Paolo");
+		long small = jpa.estimatedRetainedBytes();
+		jpa.replace(0, "Paolo Nunzio Ciccarese, with a much longer name");
+		assertTrue(jpa.estimatedRetainedBytes() > small);
+		jpa.replace(0, "Paolo");
+		assertEquals(small, jpa.estimatedRetainedBytes());
+		
+		System.out.println(" * Checking shared documents are counted once");
+		JsonDpObject address = new JsonDpObject();
+		address.put("city", "Brookline", provenance("Post Office"));
+		JsonDpArray people = new JsonDpArray();
+		people.add(address);
+		long single = people.estimatedRetainedBytes();
+		people.add(address);
+		long shared = people.estimatedRetainedBytes();
+		assertTrue(shared - single < address.estimatedRetainedBytes());
+		
+		System.out.println(" * Checking nested changes are propagated");
+		address.put("street", "Harvard St.", provenance("Post Office"));
+		assertTrue(people.estimatedRetainedBytes() > shared);
+	}
+	
+	@Test
+	public void testIncrementalRetainedBytes() {
+		System.out.println("-----------------------------------");
+		System.out.println(" testIncrementalRetainedBytes()");
+		System.out.println("-----------------------------------");
+		
+		System.out.println(" * Checking the running total matches a full visit");
+		JsonDpObject person = new JsonDpObject();
+		person.put("firstName", "Paolo", provenance("Registry"));
+		JsonDpObject address = new JsonDpObject();
+		address.put("city", "Brookline", provenance("Post Office"));
+		person.put("address", address, provenance("Registry"));
+		JsonDpArray phones = new JsonDpArray();
+		phones.add("555-1234", provenance("Registry"));
+		person.put("phones", phones);
+		address.put("street", "Harvard St.", provenance("Post Office"));
+		phones.add("555-4321");
+		phones.replace(0, "555-0000");
+		assertEquals(person.measureRetainedBytes(), person.estimatedRetainedBytes());
+		
+		System.out.println(" * Checking replaced nested documents are released");
+		JsonDpObject other = new JsonDpObject();
+		other.put("city", "Boston", provenance("Post Office"));
+		person.put("address", other, provenance("Registry"));
+		assertEquals(person.measureRetainedBytes(), person.estimatedRetainedBytes());
+		address.put("zip", "02446");
+		assertEquals(person.measureRetainedBytes(), person.estimatedRetainedBytes());
+		
+		System.out.println(" * Checking shared documents fall back to a full visit");
+		phones.add(other);
+		assertEquals(person.measureRetainedBytes(), person.estimatedRetainedBytes());
+		other.put("zip", "02115");
+		assertEquals(person.measureRetainedBytes(), person.estimatedRetainedBytes());
+		phones.replace(phones.size()-1, "555-9999");
+		other.put("state", "MA");
+		assertEquals(person.measureRetainedBytes(), person.estimatedRetainedBytes());
+		
+		System.out.println(" * Checking budgeted additions stay linear");
+		JsonDpArray jpa = new JsonDpArray();
+		jpa.setMemoryBudget(MemoryBudget.rejecting(Long.MAX_VALUE));
+		long start = System.nanoTime();
+		for(int i=0; i<100000; i++) {
+			JsonDpObject item = new JsonDpObject();
+			item.put("id", "Item " + i);
+			jpa.add(item, provenance("Registry"));
+		}
+		long millis = (System.nanoTime() - start)/1000000;
+		System.out.println(" 100000 budgeted additions in " + millis + "ms");
+		assertTrue(millis < 10000);
+		assertEquals(jpa.measureRetainedBytes(), jpa.estimatedRetainedBytes());
+	}
+	
+	@Test
+	public void testRejectingBudget() {
+		System.out.println("-------------------------");
+		System.out.println(" testRejectingBudget()");
+		System.out.println("-------------------------");
+		
+		JsonDpArray jpa = new JsonDpArray();
+		jpa.setMemoryBudget(MemoryBudget.rejecting(2000));
+		int added = 0;
+		try {
+			for(int i=0; i<1000; i++) {
+				jpa.add("Item " + i, provenance("Registry"));
+				added++;
+			}
+			fail("The budget has not been enforced");
+		} catch (MemoryBudgetExceededException e) {
+			System.out.println(" " + e.getMessage());
+		}
+		assertEquals(added, jpa.size());
+		assertTrue(jpa.estimatedRetainedBytes() <= 2000);
+	}
+	
+	@Test
+	public void testSpillingBudget() {
+		System.out.println("-------------------------");
+		System.out.println(" testSpillingBudget()");
+		System.out.println("-------------------------");
+		
+		final AtomicLong spilled = new AtomicLong();
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.setMemoryBudget(MemoryBudget.spilling(1000, new MemoryBudget.OverflowHandler() {
+			public void overflow(JsonDpAware document, long estimatedBytes, long limitBytes) {
+				spilled.incrementAndGet();
+			}
+		}));
+		for(int i=0; i<100; i++) {
+			jpo.put("key" + i, "Value " + i);
+		}
+		assertEquals(100, jpo.jsonObjects.size());
+		assertTrue(spilled.get() > 0);
+		assertTrue(spilled.get() < 100);
+	}
+}
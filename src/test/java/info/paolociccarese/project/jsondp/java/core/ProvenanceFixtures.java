@@ -0,0 +1,44 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Provenance data shared by the tests of this package.
+ * 
+ * @author Dr. Paolo Ciccarese
+ */
+final class ProvenanceFixtures {
+
+	private ProvenanceFixtures() {}
+	
+	/**
+	 * Returns provenance data recording the source of the values.
+	 * @param source	The source the values have been imported from
+	 * @return The provenance data.
+	 */
+	static JSONObject provenance(String source) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", source);
+		return provenance;
+	}
+}
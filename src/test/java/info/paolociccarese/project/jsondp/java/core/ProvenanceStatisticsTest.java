@@ -0,0 +1,212 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static info.paolociccarese.project.jsondp.java.core.ProvenanceFixtures.provenance;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class ProvenanceStatisticsTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=======================================");
+		System.out.println(" Testing of ProvenanceStatistics class ");
+		System.out.println("=======================================");
+	}
+	
+	private static JsonDpObject person(int i) {
+		JsonDpObject object = new JsonDpObject();
+		object.put("name", "Paolo" + i, provenance("Public Record"));
+		object.put("surname", "Ciccarese", provenance("Public Record"));
+		object.put("nickname", "Pa" + i, provenance("Friends"));
+		object.put("city", "Brookline");
+		return object;
+	}
+	
+	@Test
+	public void testIncrementalStatistics() {
+		System.out.println("--------------------------------");
+		System.out.println(" testIncrementalStatistics()");
+		System.out.println("--------------------------------");
+		
+		JsonDpObject object = person(1);
+		ProvenanceStatistics statistics = object.getProvenanceStatistics();
+		System.out.println(" " + statistics);
+		
+		System.out.println(" * Checking counts");
+		assertEquals(3, statistics.getFragmentCount());
+		assertEquals(4, statistics.getValueCount());
+		assertEquals(1, statistics.getValuesWithoutProvenance());
+		assertEquals(3, statistics.getValueCount("importedFrom"));
+		assertEquals(2, statistics.getValueCount("importedFrom", "Public Record"));
+		assertEquals(1, statistics.getValueCount("importedFrom", "Friends"));
+		assertEquals(2, statistics.estimateDistinctValues("importedFrom"));
+		assertFalse(statistics.isTruncated("importedFrom"));
+		
+		System.out.println(" * Checking fragment size histogram (1, 1, 2)");
+		assertArrayEquals(new long[] { 0, 2, 1 }, statistics.getFragmentSizeHistogram());
+		
+		System.out.println(" * Checking agreement with the provenance summary");
+		Map<Object, Integer> sources = object.getProvenanceSummary().getSourceCounts("importedFrom");
+		for(Map.Entry<Object, Integer> source: sources.entrySet()) {
+			assertEquals(source.getValue().longValue(), statistics.getValueCount("importedFrom", source.getKey()));
+		}
+		
+		System.out.println(" * Checking parsed object (provenance set after the values)");
+		JsonDpObject parsed = new JsonDpParser().parseObject(object.plainJsonWithProvenanceToString());
+		assertEquals(statistics.toString(), parsed.getProvenanceStatistics().toString());
+		
+		System.out.println(" * Checking snapshot isolation");
+		object.put("email", "paolo@example.com", provenance("Friends"));
+		assertEquals(1, statistics.getValueCount("importedFrom", "Friends"));
+		assertEquals(2, object.getProvenanceStatistics().getValueCount("importedFrom", "Friends"));
+	}
+	
+	@Test
+	public void testArrayStatistics() {
+		System.out.println("--------------------------------");
+		System.out.println(" testArrayStatistics()");
+		System.out.println("--------------------------------");
+		
+		JsonDpArray array = new JsonDpArray();
+		array.add("Paolo");
+		array.add("Nunzio", provenance("Public Record"));
+		array.add("Ciccarese", provenance("Public Record"));
+		assertEquals(3, array.getProvenanceStatistics().getValueCount());
+		assertEquals(2, array.getProvenanceStatistics().getValueCount("importedFrom", "Public Record"));
+		
+		System.out.println(" * Checking replace");
+		array.replace(1, "Nunzio");
+		ProvenanceStatistics statistics = array.getProvenanceStatistics();
+		System.out.println(" " + statistics);
+		assertEquals(3, statistics.getFragmentCount());
+		assertEquals(3, statistics.getValueCount());
+		assertEquals(2, statistics.getValuesWithoutProvenance());
+		assertEquals(1, statistics.getValueCount("importedFrom", "Public Record"));
+		
+		JsonDpArray parsed = new JsonDpParser().parseArray(array.plainJsonWithProvenanceToString());
+		assertEquals(statistics.toString(), parsed.getProvenanceStatistics().toString());
+	}
+	
+	@Test
+	public void testMergeAcrossThreads() throws InterruptedException {
+		System.out.println("--------------------------------");
+		System.out.println(" testMergeAcrossThreads()");
+		System.out.println("--------------------------------");
+		
+		final int threads = 4, documents = 250;
+		final ProvenanceStatistics[] partial = new ProvenanceStatistics[threads];
+		Thread[] workers = new Thread[threads];
+		for(int t=0; t<threads; t++) {
+			final int thread = t;
+			workers[t] = new Thread(new Runnable() {
+				public void run() {
+					ProvenanceStatistics statistics = new ProvenanceStatistics();
+					for(int i=thread; i<threads*documents; i+=threads) {
+						statistics.merge(person(i).getProvenanceStatistics());
+					}
+					partial[thread] = statistics;
+				}
+			});
+			workers[t].start();
+		}
+		ProvenanceStatistics merged = new ProvenanceStatistics();
+		for(int t=0; t<threads; t++) {
+			workers[t].join();
+			merged.merge(partial[t]);
+		}
+		System.out.println(" " + merged);
+		
+		System.out.println(" * Checking merged counts");
+		assertEquals(3L*threads*documents, merged.getFragmentCount());
+		assertEquals(4L*threads*documents, merged.getValueCount());
+		assertEquals(2L*threads*documents, merged.getValueCount("importedFrom", "Public Record"));
+		assertArrayEquals(new long[] { 0, 2L*threads*documents, threads*documents }, merged.getFragmentSizeHistogram());
+		
+		System.out.println(" * Checking the JSON form across nodes");
+		ProvenanceStatistics shipped = ProvenanceStatistics.fromJson(
+			(JSONObject) JSONValue.parse(merged.toJson().toJSONString()));
+		assertEquals(merged.toString(), shipped.toString());
+	}
+	
+	@Test
+	public void testCardinalitySketch() {
+		System.out.println("--------------------------------");
+		System.out.println(" testCardinalitySketch()");
+		System.out.println("--------------------------------");
+		
+		JsonDpArray array = new JsonDpArray();
+		int importers = 20000;
+		for(int i=0; i<importers; i++) {
+			JSONObject provenance = provenance("Public Record");
+			provenance.put("importedBy", "importer" + i);
+			array.add("value" + i, provenance);
+		}
+		ProvenanceStatistics statistics = array.getProvenanceStatistics();
+		long estimate = statistics.estimateDistinctValues("importedBy");
+		System.out.println(" * Checking truncation and estimate > " + estimate);
+		assertTrue(statistics.isTruncated("importedBy"));
+		assertEquals(ProvenanceStatistics.MAX_TRACKED_VALUES, statistics.getValueCounts("importedBy").size());
+		assertEquals(importers, statistics.getValueCount("importedBy"));
+		assertTrue(Math.abs(estimate - importers) < importers * 0.05);
+		assertEquals(1, statistics.estimateDistinctValues("importedFrom"));
+		
+		System.out.println(" * Checking sketch merge (same values counted once)");
+		ProvenanceStatistics twice = statistics.copy();
+		twice.merge(statistics);
+		assertEquals(2L*importers, twice.getValueCount("importedBy"));
+		assertEquals(estimate, twice.estimateDistinctValues("importedBy"));
+	}
+	
+	@Test
+	public void testCollectionStatistics() {
+		System.out.println("--------------------------------");
+		System.out.println(" testCollectionStatistics()");
+		System.out.println("--------------------------------");
+		
+		JsonDpCollection collection = new JsonDpCollection();
+		for(int i=0; i<10; i++) collection.add(person(i));
+		assertEquals(20, collection.getProvenanceStatistics().getValueCount("importedFrom", "Public Record"));
+		
+		System.out.println(" * Checking incremental add, remove and update");
+		int id = collection.add(person(10));
+		assertEquals(22, collection.getProvenanceStatistics().getValueCount("importedFrom", "Public Record"));
+		collection.remove(0);
+		assertEquals(20, collection.getProvenanceStatistics().getValueCount("importedFrom", "Public Record"));
+		collection.get(id).put("title", "Dr.", provenance("Public Record"));
+		collection.update(id);
+		ProvenanceStatistics statistics = collection.getProvenanceStatistics();
+		assertEquals(21, statistics.getValueCount("importedFrom", "Public Record"));
+		assertEquals(30, statistics.getFragmentCount());
+	}
+}
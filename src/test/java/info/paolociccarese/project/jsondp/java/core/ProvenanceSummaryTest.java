@@ -0,0 +1,113 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static info.paolociccarese.project.jsondp.java.core.ProvenanceFixtures.provenance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class ProvenanceSummaryTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=====================================");
+		System.out.println(" Testing of ProvenanceSummary class ");
+		System.out.println("=====================================");
+	}
+	
+	@Test
+	public void testNestedSummary() {
+		System.out.println("-------------------------");
+		System.out.println(" testNestedSummary()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject address = new JsonDpObject();
+		address.put("city", "Brookline", provenance("Post Office"));
+		address.put("zip", "02446", provenance("Post Office"));
+		
+		JsonDpArray aliases = new JsonDpArray();
+		aliases.add("PNC", provenance("Friends"));
+		aliases.add("Cicca");
+		
+		JsonDpObject person = new JsonDpObject();
+		person.put("firstName", "Paolo", provenance("Registry"));
+		person.put("address", address, provenance("Registry"));
+		person.put("aliases", aliases);
+		
+		ProvenanceSummary summary = person.getProvenanceSummary();
+		System.out.println(" " + summary);
+		assertEquals(3, summary.getProvenanceSets().size());
+		assertEquals(2, summary.getNestedProvenanceSets().size());
+		assertEquals(Integer.valueOf(2), summary.getSourceCounts("importedFrom").get("Registry"));
+		assertEquals(Integer.valueOf(2), summary.getSourceCounts("importedFrom").get("Post Office"));
+		assertEquals(2, summary.getValuesWithoutProvenance());
+		assertTrue(summary.contains("importedFrom", "Friends"));
+		assertFalse(summary.contains("importedFrom", "Parents"));
+		
+		System.out.println(" * Checking the summary is cached");
+		assertSame(summary, person.getProvenanceSummary());
+		
+		System.out.println(" * Checking nested changes are propagated");
+		ProvenanceSummary addressSummary = address.getProvenanceSummary();
+		aliases.add("Tato", provenance("Parents"));
+		assertTrue(person.getProvenanceSummary().contains("importedFrom", "Parents"));
+		assertSame(addressSummary, address.getProvenanceSummary());
+	}
+	
+	@Test
+	public void testDeepNesting() {
+		System.out.println("-------------------------");
+		System.out.println(" testDeepNesting()");
+		System.out.println("-------------------------");
+		
+		int depth = 100000;
+		JsonDpArray bottom = new JsonDpArray();
+		bottom.add("Paolo", provenance("Registry"));
+		Object node = bottom;
+		for(int i=0; i<depth; i++) {
+			if(i%2==0) {
+				JsonDpObject parent = new JsonDpObject();
+				parent.put("child", node, provenance("Registry"));
+				node = parent;
+			} else {
+				JsonDpArray parent = new JsonDpArray();
+				parent.add(node, provenance("Registry"));
+				node = parent;
+			}
+		}
+		JsonDpArray top = (JsonDpArray) node;
+		
+		System.out.println(" * Summarizing " + depth + " nesting levels");
+		ProvenanceSummary summary = top.getProvenanceSummary();
+		assertEquals(Integer.valueOf(depth+1), summary.getSourceCounts("importedFrom").get("Registry"));
+		
+		System.out.println(" * Checking a change at the bottom is propagated");
+		bottom.add("Tato", provenance("Parents"));
+		assertTrue(top.getProvenanceSummary().contains("importedFrom", "Parents"));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Instant;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class ResolutionPoliciesTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("======================================");
+		System.out.println(" Testing of ResolutionPolicies class ");
+		System.out.println("======================================");
+	}
+	
+	private JSONObject provenance(String source, String date) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", source);
+		provenance.put("date", date);
+		return provenance;
+	}
+	
+	private JsonDpObject buildPerson() {
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("nickname", "Cicca", provenance("Friends", "2014-03-01"));
+		jpo.put("nickname", "Tato", provenance("Parents", "2014-05-01"));
+		jpo.put("nickname", "Cicca", provenance("Colleagues", "2014-01-01"));
+		jpo.put("firstName", "Paolo");
+		return jpo;
+	}
+	
+	@Test
+	public void testLastWriterWins() {
+		System.out.println("-------------------------");
+		System.out.println(" testLastWriterWins()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject jpo = buildPerson();
+		System.out.println(" * Checking the default policy");
+		assertEquals("Cicca", jpo.getResolved("nickname"));
+		assertEquals("Paolo", jpo.getResolved("firstName"));
+		assertNull(jpo.getResolved("lastName"));
+		
+		System.out.println(" * Checking the timestamp policy");
+		jpo.setResolutionPolicy(ResolutionPolicies.lastWriterWins("date"));
+		assertEquals("Tato", jpo.getResolved("nickname"));
+	}
+	
+	@Test
+	public void testLastWriterWinsAcrossFragments() {
+		System.out.println("-----------------------------------------");
+		System.out.println(" testLastWriterWinsAcrossFragments()");
+		System.out.println("-----------------------------------------");
+		
+		JsonDpObject jpo = buildPerson();
+		System.out.println(" * Overwriting the value of the oldest fragment");
+		jpo.put("nickname", "Paolino", provenance("Friends", "2014-03-01"));
+		assertEquals("Paolino", jpo.getResolved("nickname"));
+		
+		System.out.println(" * Checking the write order survives the copies");
+		jpo.setTimestampKey("date");
+		assertEquals("Paolino", jpo.between(Instant.parse("2014-01-01T00:00:00Z"), 
+			Instant.parse("2015-01-01T00:00:00Z")).getResolved("nickname"));
+	}
+	
+	@Test
+	public void testTimestampsComparedChronologically() {
+		System.out.println("-----------------------------------------");
+		System.out.println(" testTimestampsComparedChronologically()");
+		System.out.println("-----------------------------------------");
+		
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("nickname", "Tato", provenance("Parents", "2014-05-01T10:00:00+02:00"));
+		jpo.put("nickname", "Cicca", provenance("Friends", "2014-05-01T09:00:00Z"));
+		jpo.put("nickname", "Paolino", provenance("Colleagues", "not a date"));
+		jpo.setResolutionPolicy(ResolutionPolicies.lastWriterWins("date"));
+		// As Strings "2014-05-01T10:00" would win, but it is 08:00 UTC
+		assertEquals("Cicca", jpo.getResolved("nickname"));
+	}
+	
+	@Test
+	public void testSourcePriority() {
+		System.out.println("-------------------------");
+		System.out.println(" testSourcePriority()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject jpo = buildPerson();
+		jpo.setResolutionPolicy(ResolutionPolicies.sourcePriority("importedFrom", "Parents", "Friends"));
+		assertEquals("Tato", jpo.getResolved("nickname"));
+		jpo.setResolutionPolicy(ResolutionPolicies.sourcePriority("importedFrom", "Colleagues"));
+		assertEquals("Cicca", jpo.getResolved("nickname"));
+	}
+	
+	@Test
+	public void testMajorityVote() {
+		System.out.println("-------------------------");
+		System.out.println(" testMajorityVote()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject jpo = buildPerson();
+		jpo.setResolutionPolicy(ResolutionPolicies.majorityVote());
+		assertEquals("Cicca", jpo.getResolved("nickname"));
+		
+		System.out.println(" * Checking the cache is invalidated by put");
+		jpo.put("nickname", "Tato", provenance("Cousins", "2014-06-01"));
+		jpo.put("nickname", "Tato", provenance("Neighbors", "2014-07-01"));
+		assertEquals("Tato", jpo.getResolved("nickname"));
+	}
+}
@@ -0,0 +1,135 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static info.paolociccarese.project.jsondp.java.core.ProvenanceFixtures.provenance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class ShardedJsonDpArrayTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=======================================");
+		System.out.println(" Testing of ShardedJsonDpArray class ");
+		System.out.println("=======================================");
+	}
+	
+	@Test
+	public void testConcurrentAppends() throws InterruptedException {
+		System.out.println("---------------------------");
+		System.out.println(" testConcurrentAppends()");
+		System.out.println("---------------------------");
+		
+		final ShardedJsonDpArray array = new ShardedJsonDpArray(100, new ForkJoinPool(4));
+		final int threads = 4, items = 5050;
+		Thread[] appenders = new Thread[threads];
+		for(int t=0; t<threads; t++) {
+			final int thread = t;
+			appenders[t] = new Thread() {
+				public void run() {
+					for(int i=0; i<items; i++) {
+						if(i%2==0) array.add(thread + ":" + i, provenance("thread" + thread));
+						else array.add(thread + ":" + i);
+					}
+				}
+			};
+			appenders[t].start();
+		}
+		for(Thread appender: appenders) appender.join();
+		System.out.println(" * Checking only full shards are published (=" + threads*5000 + ")");
+		assertEquals(threads*5000, array.size());
+		array.flush();
+		System.out.println(" * Checking size after flush (=" + threads*items + ")");
+		assertEquals(threads*items, array.size());
+		assertEquals(threads*51, array.getShardCount());
+		
+		System.out.println(" * Checking per-thread order through get(int)");
+		int[] next = new int[threads];
+		for(int i=0; i<array.size(); i++) {
+			String[] item = ((String) array.get(i)).split(":");
+			int thread = Integer.parseInt(item[0]);
+			assertEquals(next[thread]++, Integer.parseInt(item[1]));
+		}
+		
+		System.out.println(" * Checking parallelForEach");
+		final AtomicInteger withProvenance = new AtomicInteger();
+		final AtomicInteger visited = new AtomicInteger();
+		array.parallelForEach(new BiConsumer<Object, JSONObject>() {
+			public void accept(Object value, JSONObject provenance) {
+				visited.incrementAndGet();
+				if(provenance!=null) {
+					withProvenance.incrementAndGet();
+					assertEquals("thread" + ((String) value).split(":")[0], provenance.get("importedFrom"));
+				}
+			}
+		});
+		assertEquals(threads*items, visited.get());
+		assertEquals(threads*items/2, withProvenance.get());
+	}
+	
+	@Test
+	public void testParallelMap() {
+		System.out.println("---------------------------");
+		System.out.println(" testParallelMap()");
+		System.out.println("---------------------------");
+		
+		ShardedJsonDpArray array = new ShardedJsonDpArray(3, ForkJoinPool.commonPool());
+		JsonDpArray reference = new JsonDpArray();
+		for(int i=0; i<10; i++) {
+			array.add("item" + i, provenance("source" + i%2));
+			reference.add("ITEM" + i, provenance("source" + i%2));
+		}
+		array.flush();
+		ShardedJsonDpArray mapped = array.parallelMap(new Function<Object, Object>() {
+			public Object apply(Object value) {
+				return ((String) value).toUpperCase();
+			}
+		});
+		System.out.println(" " + mapped.plainJsonWithProvenanceToString());
+		System.out.println(" * Checking mapped values and provenance");
+		assertEquals(10, mapped.size());
+		assertEquals("ITEM7", mapped.get(7));
+		assertEquals(reference.plainJsonWithProvenanceToString(), mapped.plainJsonWithProvenanceToString());
+		
+		System.out.println(" * Checking replace");
+		mapped.replace(4, "four");
+		assertEquals("four", mapped.get(4));
+		assertEquals("item4", array.get(4));
+		try {
+			mapped.get(10);
+			assertTrue("IndexOutOfBoundsException expected", false);
+		} catch (IndexOutOfBoundsException e) {
+			// Expected
+		}
+	}
+}
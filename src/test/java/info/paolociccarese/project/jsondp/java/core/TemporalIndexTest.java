@@ -0,0 +1,142 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Instant;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class TemporalIndexTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=================================");
+		System.out.println(" Testing of TemporalIndex class ");
+		System.out.println("=================================");
+	}
+	
+	private JSONObject provenance(String source, Object retrievedAt) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", source);
+		provenance.put("retrievedAt", retrievedAt);
+		return provenance;
+	}
+	
+	@Test
+	public void testObjectAsOf() {
+		System.out.println("-------------------------");
+		System.out.println(" testObjectAsOf()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("address", "Boston", provenance("Registry", "2012-01-01T00:00:00Z"));
+		jpo.put("address", "Brookline", provenance("Post Office", "2014-06-15"));
+		jpo.put("nickname", "Cicca", provenance("Friends", 1262304000000L)); // 2010-01-01
+		jpo.put("firstName", "Paolo");
+		jpo.setTimestampKey("retrievedAt");
+		
+		System.out.println(" * Checking as of 2013");
+		JsonDpObject past = jpo.asOf(Instant.parse("2013-01-01T00:00:00Z"));
+		System.out.println(" " + past.plainJsonWithProvenanceToString());
+		assertEquals("Boston", past.get("address"));
+		assertEquals("Cicca", past.get("nickname"));
+		assertNull(past.get("firstName"));
+		
+		System.out.println(" * Checking as of today");
+		JsonDpObject present = jpo.asOf(Instant.now());
+		assertEquals(2, present.valueCount("address"));
+		
+		System.out.println(" * Checking between 2011 and 2015");
+		JsonDpObject interval = jpo.between(Instant.parse("2011-01-01T00:00:00Z"), Instant.parse("2015-01-01T00:00:00Z"));
+		assertEquals("[\"Boston\",\"Brookline\"]", interval.get("address").toString());
+		assertNull(interval.get("nickname"));
+		
+		System.out.println(" * Checking the index follows the changes");
+		jpo.put("nickname", "Tato", provenance("Parents", "2012-05-01"));
+		assertEquals("[\"Cicca\",\"Tato\"]", jpo.asOf(Instant.parse("2013-01-01T00:00:00Z")).get("nickname").toString());
+	}
+	
+	@Test
+	public void testArrayAsOf() {
+		System.out.println("-------------------------");
+		System.out.println(" testArrayAsOf()");
+		System.out.println("-------------------------");
+		
+		JsonDpArray jpa = new JsonDpArray();
+		jpa.add("Paolo N", provenance("Registry", "2014-01-01"));
+		jpa.add("PNC", provenance("Friends", "2012-01-01"));
+		jpa.add("Cicca");
+		jpa.setTimestampKey("retrievedAt");
+		
+		JsonDpArray past = jpa.asOf(Instant.parse("2013-01-01T00:00:00Z"));
+		System.out.println(" " + past.plainJsonWithProvenanceToString());
+		assertEquals(1, past.size());
+		assertEquals("PNC", past.get(0));
+		assertEquals("[\"Paolo N\",\"PNC\"]", jpa.asOf(Instant.MAX).plainJsonToString());
+	}
+	
+	@Test
+	public void testProvenanceChanges() {
+		System.out.println("-------------------------");
+		System.out.println(" testProvenanceChanges()");
+		System.out.println("-------------------------");
+		
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("address", "Boston", provenance("Registry", "2012-01-01"));
+		jpo.put("address", "Brookline", provenance("Post Office", "2014-06-15"));
+		jpo.put("nickname", "Cicca", provenance("Friends", "2010-01-01"));
+		jpo.setTimestampKey("retrievedAt");
+		assertEquals("Boston", jpo.asOf(Instant.parse("2013-01-01T00:00:00Z")).get("address"));
+		
+		System.out.println(" * Moving a fragment later in time");
+		jpo.jsonObjects.get(0).putProvenance("retrievedAt", "2016-01-01");
+		JsonDpObject past = jpo.asOf(Instant.parse("2015-01-01T00:00:00Z"));
+		assertEquals("Brookline", past.get("address"));
+		assertEquals("Cicca", past.get("nickname"));
+		
+		System.out.println(" * Replacing the provenance of a fragment");
+		jpo.jsonObjects.get(2).setProvenance(provenance("Friends", "not a date"));
+		past = jpo.asOf(Instant.parse("2015-01-01T00:00:00Z"));
+		assertNull(past.get("nickname"));
+		
+		System.out.println(" * Replacing a group of an array");
+		JsonDpArray jpa = new JsonDpArray();
+		jpa.add("Paolo N", provenance("Registry", "2014-01-01"));
+		jpa.add("PNC", provenance("Friends", "2012-01-01"));
+		jpa.setTimestampKey("retrievedAt");
+		assertEquals("[\"PNC\"]", jpa.asOf(Instant.parse("2013-01-01T00:00:00Z")).plainJsonToString());
+		jpa.replace(1, "Cicca");
+		assertEquals("[]", jpa.asOf(Instant.parse("2013-01-01T00:00:00Z")).plainJsonToString());
+		assertEquals("[\"Paolo N\"]", jpa.asOf(Instant.MAX).plainJsonToString());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testMissingTimestampKey() {
+		new JsonDpObject().asOf(Instant.now());
+	}
+}
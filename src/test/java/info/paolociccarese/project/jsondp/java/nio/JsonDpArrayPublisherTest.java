@@ -0,0 +1,185 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpArrayPublisherTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("========================================");
+		System.out.println(" Testing of JsonDpArrayPublisher class ");
+		System.out.println("========================================");
+	}
+	
+	/**
+	 * Subscriber requesting one buffer at a time from within onNext.
+	 */
+	private static class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		final CountDownLatch done = new CountDownLatch(1);
+		final ByteBufferPool pool;
+		final int cancelAfter;
+		Flow.Subscription subscription;
+		int buffers;
+		boolean completed;
+		Throwable error;
+		
+		CollectingSubscriber(ByteBufferPool pool, int cancelAfter) {
+			this.pool = pool;
+			this.cancelAfter = cancelAfter;
+		}
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+		public void onNext(ByteBuffer item) {
+			while(item.hasRemaining()) received.write(item.get());
+			pool.release(item);
+			if(++buffers==cancelAfter) {
+				subscription.cancel();
+				done.countDown();
+			} else {
+				subscription.request(1);
+			}
+		}
+		public void onError(Throwable throwable) { error = throwable; done.countDown(); }
+		public void onComplete() { completed = true; done.countDown(); }
+	}
+	
+	private JsonDpArray buildArray(int size) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		JsonDpArray array = new JsonDpArray();
+		for(int i=0; i<size; i++) {
+			if(i%3==0) array.add("Item " + i, provenance);
+			else array.add("Item " + i);
+		}
+		return array;
+	}
+	
+	@Test
+	public void testPublishWholeArray() throws Exception {
+		System.out.println("---------------------------");
+		System.out.println(" testPublishWholeArray()");
+		System.out.println("---------------------------");
+		
+		JsonDpArray array = buildArray(10000);
+		ByteBufferPool pool = new ByteBufferPool(1024, 16);
+		JsonDpArrayPublisher publisher = new JsonDpArrayPublisher(array, true, pool);
+		CollectingSubscriber subscriber = new CollectingSubscriber(pool, -1);
+		publisher.subscribe(subscriber);
+		assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		
+		System.out.println(" Received " + subscriber.received.size() + " bytes in " + subscriber.buffers + " buffers");
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+		assertEquals(array.plainJsonWithProvenanceToString(), new String(subscriber.received.toByteArray(), "UTF-8"));
+	}
+	
+	@Test
+	public void testPublishLargeNestedItem() throws Exception {
+		System.out.println("---------------------------------");
+		System.out.println(" testPublishLargeNestedItem()");
+		System.out.println("---------------------------------");
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			JsonDpArray array = new JsonDpArray();
+			array.add(buildArray(10000));
+			array.add("Last");
+			ByteBufferPool pool = new ByteBufferPool(256, 16);
+			CollectingSubscriber subscriber = new CollectingSubscriber(pool, 3);
+			new JsonDpArrayPublisher(array, true, pool, 16, executor).subscribe(subscriber);
+			assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+			
+			System.out.println(" * Checking the first buffers come before the whole item is encoded");
+			assertEquals(3, subscriber.buffers);
+			assertTrue(new String(subscriber.received.toByteArray(), "UTF-8").startsWith("[[[[\"Item 0\""));
+			
+			System.out.println(" * Checking the whole encoding");
+			subscriber = new CollectingSubscriber(pool, -1);
+			new JsonDpArrayPublisher(array, true, pool, 16, executor).subscribe(subscriber);
+			assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+			assertTrue(subscriber.completed);
+			assertEquals(array.plainJsonWithProvenanceToString(), new String(subscriber.received.toByteArray(), "UTF-8"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testPublishOnExecutorWithCancel() throws Exception {
+		System.out.println("------------------------------------");
+		System.out.println(" testPublishOnExecutorWithCancel()");
+		System.out.println("------------------------------------");
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			JsonDpArray array = buildArray(100000);
+			ByteBufferPool pool = new ByteBufferPool(256, 16);
+			JsonDpArrayPublisher publisher = new JsonDpArrayPublisher(array, false, pool, 16, executor);
+			CollectingSubscriber subscriber = new CollectingSubscriber(pool, 3);
+			publisher.subscribe(subscriber);
+			assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+			assertFalse(subscriber.completed);
+			assertEquals(3, subscriber.buffers);
+			assertTrue(new String(subscriber.received.toByteArray(), "UTF-8").startsWith("[\"Item 0\",\"Item 1\""));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testInvalidRequest() throws Exception {
+		System.out.println("---------------------------");
+		System.out.println(" testInvalidRequest()");
+		System.out.println("---------------------------");
+		
+		final Throwable[] error = new Throwable[1];
+		new JsonDpArrayPublisher(buildArray(10), true, new ByteBufferPool()).subscribe(new Flow.Subscriber<ByteBuffer>() {
+			public void onSubscribe(Flow.Subscription subscription) { subscription.request(0); }
+			public void onNext(ByteBuffer item) {}
+			public void onError(Throwable throwable) { error[0] = throwable; }
+			public void onComplete() {}
+		});
+		assertTrue(error[0] instanceof IllegalArgumentException);
+	}
+}
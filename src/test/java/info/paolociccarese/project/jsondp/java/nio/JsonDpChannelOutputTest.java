@@ -0,0 +1,190 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpChannelOutputTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("=======================================");
+		System.out.println(" Testing of JsonDpChannelOutput class ");
+		System.out.println("=======================================");
+	}
+	
+	/**
+	 * Non-blocking like channel: accepts a few bytes, then reports 
+	 * itself full on every other call.
+	 */
+	private static class ThrottledChannel implements WritableByteChannel {
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		boolean full;
+		public int write(ByteBuffer src) {
+			full = !full;
+			if(full) return 0;
+			int count = Math.min(7, src.remaining());
+			for(int i=0; i<count; i++) received.write(src.get());
+			return count;
+		}
+		public boolean isOpen() { return true; }
+		public void close() {}
+	}
+	
+	private JsonDpObject buildObject() {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("firstName", "Paolo", provenance);
+		jpo.put("city", "Citt\u00e0 \uD83D\uDE00", provenance);
+		JsonDpArray names = new JsonDpArray();
+		for(int i=0; i<100; i++) names.add("Name " + i, provenance);
+		jpo.put("names", names);
+		return jpo;
+	}
+	
+	@Test
+	public void testResumableWrite() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testResumableWrite()");
+		System.out.println("---------------------------");
+		
+		ByteBufferPool pool = new ByteBufferPool(64, 8);
+		JsonDpObject jpo = buildObject();
+		JsonDpChannelOutput output = JsonDpChannelOutput.encode(jpo, true, pool);
+		ThrottledChannel channel = new ThrottledChannel();
+		
+		int attempts = 0;
+		while(!output.writeTo(channel)) {
+			attempts++;
+			assertFalse(output.isComplete());
+		}
+		output.close();
+		System.out.println(" Written " + output.size() + " bytes in " + attempts + " resumed writes");
+		assertTrue(attempts > 1);
+		assertEquals(0, output.remaining());
+		assertEquals(jpo.plainJsonWithProvenanceToString(), new String(channel.received.toByteArray(), "UTF-8"));
+		assertTrue(pool.getPooledCount() > 0);
+	}
+	
+	@Test
+	public void testBlockingWrite() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testBlockingWrite()");
+		System.out.println("---------------------------");
+		
+		JsonDpArray array = new JsonDpArray();
+		for(int i=0; i<1000; i++) array.add("Item \u00e8 " + i);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonDpChannelOutput output = JsonDpChannelOutput.encode(array, false, new ByteBufferPool());
+		output.writeFully(Channels.newChannel(out));
+		assertEquals(array.plainJsonToString(), new String(out.toByteArray(), "UTF-8"));
+	}
+	
+	@Test
+	public void testLazyEncoding() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testLazyEncoding()");
+		System.out.println("---------------------------");
+		
+		JsonDpArray array = new JsonDpArray();
+		for(int i=0; i<100000; i++) array.add("Item " + i);
+		String expected = array.plainJsonToString();
+		JsonDpChannelOutput output = JsonDpChannelOutput.encode(array, false, new ByteBufferPool(256, 8));
+		ThrottledChannel channel = new ThrottledChannel();
+		assertFalse(output.writeTo(channel));
+		System.out.println(" * Encoded " + output.size() + " of " + expected.length() + " bytes before the channel was full");
+		assertTrue(output.size() < expected.length()/100);
+		while(!output.writeTo(channel));
+		output.close();
+		assertEquals(expected.length(), output.size());
+		assertEquals(expected, new String(channel.received.toByteArray(), "UTF-8"));
+	}
+	
+	@Test
+	public void testNonBlockingWriteFully() throws Exception {
+		System.out.println("---------------------------");
+		System.out.println(" testNonBlockingWriteFully()");
+		System.out.println("---------------------------");
+		
+		final Pipe pipe = Pipe.open();
+		pipe.sink().configureBlocking(false);
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				ByteBuffer buffer = ByteBuffer.allocate(1024);
+				try {
+					while(pipe.source().read(buffer)>=0) {
+						buffer.flip();
+						while(buffer.hasRemaining()) received.write(buffer.get());
+						buffer.clear();
+					}
+				} catch (Exception e) {
+					// The test fails on the content check
+				}
+			}
+		});
+		reader.start();
+		
+		// Larger than the pipe buffer: the writer has to wait for the reader
+		JsonDpArray array = new JsonDpArray();
+		for(int i=0; i<100000; i++) array.add("Item " + i);
+		JsonDpChannelOutput.encode(array, false, new ByteBufferPool(4096, 8)).writeFully(pipe.sink());
+		pipe.sink().close();
+		reader.join();
+		assertEquals(array.plainJsonToString(), new String(received.toByteArray(), "UTF-8"));
+	}
+	
+	@Test
+	public void testSurrogatePairSplitAcrossWrites() throws IOException {
+		System.out.println("----------------------------------------");
+		System.out.println(" testSurrogatePairSplitAcrossWrites()");
+		System.out.println("----------------------------------------");
+		
+		ByteBufferWriter writer = new ByteBufferWriter(new ByteBufferPool(16, 4));
+		writer.write("abc\uD83D");
+		writer.write("\uDE00def");
+		writer.close();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(ByteBuffer buffer: writer.buffers()) {
+			while(buffer.hasRemaining()) out.write(buffer.get());
+		}
+		assertEquals("abc\uD83D\uDE00def", new String(out.toByteArray(), "UTF-8"));
+		assertEquals(out.size(), writer.size());
+	}
+}
@@ -0,0 +1,164 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.json.simple.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class NdjsonPipelineTest {
+
+	@BeforeClass public static void initialize() {
+		System.out.println("==================================");
+		System.out.println(" Testing of NdjsonPipeline class ");
+		System.out.println("==================================");
+	}
+	
+	private JsonDpObject record(int i) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", i%2==0 ? "Even" : "Odd");
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("id", "r" + i, provenance);
+		return jpo;
+	}
+	
+	private String input(int count) {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<count; i++) {
+			sb.append(record(i).plainJsonWithProvenanceToString()).append('\n');
+			if(i%100==0) sb.append('\n');
+		}
+		return sb.toString();
+	}
+	
+	@Test
+	public void testTransformKeepsOrder() throws IOException {
+		System.out.println("------------------------------");
+		System.out.println(" testTransformKeepsOrder()");
+		System.out.println("------------------------------");
+		
+		NdjsonPipeline pipeline = new NdjsonPipeline();
+		StringWriter out = new StringWriter();
+		PipelineStats stats = pipeline.run(new StringReader(input(5000)), out, new RecordTransform() {
+			public JsonDpObject transform(JsonDpObject record) {
+				if(record.get("id", "importedFrom", "Odd")!=null) return null;
+				record.put("checked", "yes");
+				return record;
+			}
+		});
+		pipeline.close();
+		System.out.println(" " + stats);
+		
+		assertEquals(5000, stats.getRecordsRead());
+		assertEquals(2500, stats.getRecordsWritten());
+		assertEquals(2500, stats.getRecordsDropped());
+		String[] lines = out.toString().split("\n");
+		assertEquals(2500, lines.length);
+		for(int i=0; i<lines.length; i++) {
+			assertTrue(lines[i].contains("\"r" + (i*2) + "\""));
+			assertTrue(lines[i].contains("\"checked\":\"yes\""));
+		}
+	}
+	
+	@Test
+	public void testExport() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testExport()");
+		System.out.println("---------------------------");
+		
+		List<JsonDpObject> records = new ArrayList<JsonDpObject>();
+		for(int i=0; i<1000; i++) records.add(record(i));
+		NdjsonPipeline pipeline = new NdjsonPipeline();
+		StringWriter out = new StringWriter();
+		PipelineStats stats = pipeline.export(records.iterator(), out);
+		pipeline.close();
+		assertEquals(1000, stats.getRecordsWritten());
+		assertEquals(input(1000).replace("\n\n", "\n"), out.toString());
+	}
+	
+	@Test
+	public void testInvalidRecords() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testInvalidRecords()");
+		System.out.println("---------------------------");
+		
+		String input = input(10) + "{not json\n" + input(10);
+		NdjsonPipeline pipeline = new NdjsonPipeline();
+		try {
+			pipeline.run(new StringReader(input), new StringWriter(), null);
+			fail("The invalid record should abort the run");
+		} catch (IOException e) {
+			System.out.println(" Aborted: " + e.getMessage());
+		}
+		pipeline.close();
+		
+		pipeline = new NdjsonPipeline();
+		pipeline.setSkipInvalidRecords(true);
+		StringWriter out = new StringWriter();
+		PipelineStats stats = pipeline.run(new StringReader(input), out, null);
+		pipeline.close();
+		assertEquals(1, stats.getRecordsFailed());
+		assertEquals(20, stats.getRecordsWritten());
+	}
+	
+	@Test
+	public void testWriterFailureStopsReader() throws IOException {
+		System.out.println("----------------------------------");
+		System.out.println(" testWriterFailureStopsReader()");
+		System.out.println("----------------------------------");
+		
+		ExecutorService executor = NdjsonPipeline.newWorkerExecutor();
+		NdjsonPipeline pipeline = new NdjsonPipeline(executor, 4, 1);
+		Writer out = new StringWriter() {
+			public void write(String str) {
+				throw new IllegalStateException("Output closed");
+			}
+		};
+		try {
+			pipeline.run(new StringReader(input(5000)), out, null);
+			fail("The failing writer should abort the run");
+		} catch (IllegalStateException e) {
+			System.out.println(" Aborted: " + e.getMessage());
+		}
+		for(Thread thread: Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName().equals("ndjson-pipeline-reader"));
+		}
+		assertTrue(pipeline.getStats().getRecordsRead() < 5000);
+		executor.shutdown();
+	}
+}
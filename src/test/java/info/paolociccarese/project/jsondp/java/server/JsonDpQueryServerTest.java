@@ -0,0 +1,235 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpQueryServerTest {
+
+	private JsonDpQueryServer server;
+	
+	@BeforeClass public static void initialize() {
+		System.out.println("=====================================");
+		System.out.println(" Testing of JsonDpQueryServer class ");
+		System.out.println("=====================================");
+	}
+	
+	@Before public void startServer() throws IOException {
+		JsonDpObject person = new JsonDpObject();
+		JSONObject publicRecord = new JSONObject();
+		publicRecord.put("importedFrom", "Public Record");
+		JSONObject friends = new JSONObject();
+		friends.put("importedFrom", "Friends");
+		person.put("firstName", "Paolo", publicRecord);
+		person.put("firstName", "Paolo Nunzio", friends);
+		person.put("lastName", "Ciccarese");
+		JsonDpRegistry registry = new JsonDpRegistry();
+		registry.put("paolo", person);
+		server = new JsonDpQueryServer(new InetSocketAddress("127.0.0.1", 0), registry);
+		server.start();
+	}
+	
+	@After public void stopServer() {
+		server.close();
+	}
+	
+	private String[] request(String path) throws IOException {
+		URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			int status = connection.getResponseCode();
+			InputStream in = status<400 ? connection.getInputStream() : connection.getErrorStream();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			if(in!=null) {
+				byte[] buffer = new byte[4096];
+				for(int n; (n = in.read(buffer))>0; ) body.write(buffer, 0, n);
+				in.close();
+			}
+			return new String[] { String.valueOf(status), new String(body.toByteArray(), StandardCharsets.UTF_8) };
+		} finally {
+			connection.disconnect();
+		}
+	}
+	
+	@Test
+	public void testQueries() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testQueries()");
+		System.out.println("---------------------------");
+		
+		JsonDpObject person = server.getRegistry().get("paolo");
+		
+		System.out.println(" * Checking document");
+		String[] response = request("/documents/paolo");
+		assertEquals("200", response[0]);
+		assertEquals(person.plainJsonToString(), response[1]);
+		response = request("/documents/paolo?provenance=true");
+		assertEquals(person.plainJsonWithProvenanceToString(), response[1]);
+		
+		System.out.println(" * Checking get and getWithProvenance");
+		response = request("/documents/paolo/firstName");
+		System.out.println(" > " + response[1]);
+		assertEquals("[\"Paolo\",\"Paolo Nunzio\"]", response[1]);
+		response = request("/documents/paolo/lastName");
+		assertEquals("\"Ciccarese\"", response[1]);
+		response = request("/documents/paolo/firstName?provenance=true");
+		System.out.println(" > " + response[1]);
+		assertEquals(((JsonDpArray) person.getWithProvenance("firstName")).plainJsonWithProvenanceToString(), response[1]);
+		
+		System.out.println(" * Checking provenance filtered queries");
+		response = request("/documents/paolo/firstName?provenanceKey=importedFrom&provenanceValue=Friends");
+		System.out.println(" > " + response[1]);
+		assertEquals("[\"Paolo Nunzio\"]", ((JSONObject) JSONValue.parse(response[1])).get("firstName").toString());
+		response = request("/documents/paolo/firstName?provenanceKey=importedFrom&provenanceValue=Public%20Record&provenance=true");
+		System.out.println(" > " + response[1]);
+		assertTrue(response[1].contains("Public Record"));
+		assertTrue(!response[1].contains("Friends"));
+		
+		System.out.println(" * Checking errors");
+		assertEquals("404", request("/documents/unknown")[0]);
+		assertEquals("404", request("/documents/paolo/middleName")[0]);
+		assertEquals("400", request("/documents/paolo/firstName?provenanceKey=importedFrom")[0]);
+	}
+	
+	@Test
+	public void testLargeResponsesAreStreamed() throws IOException {
+		System.out.println("-----------------------------------");
+		System.out.println(" testLargeResponsesAreStreamed()");
+		System.out.println("-----------------------------------");
+		
+		JsonDpObject person = server.getRegistry().get("paolo");
+		JSONObject archive = new JSONObject();
+		archive.put("importedFrom", "Archive");
+		JsonDpArray notes = new JsonDpArray();
+		for(int i=0; i<20000; i++) notes.add("Note number " + i, archive);
+		server.getRegistry().getLock("paolo").lock();
+		try {
+			person.put("notes", notes);
+		} finally {
+			server.getRegistry().getLock("paolo").unlock();
+		}
+		
+		System.out.println(" * Checking a response larger than the buffer");
+		String[] response = request("/documents/paolo?provenance=true");
+		assertEquals("200", response[0]);
+		assertTrue(response[1].length()>JsonDpQueryServer.MAX_BUFFERED_RESPONSE);
+		assertEquals(person.plainJsonWithProvenanceToString(), response[1]);
+		response = request("/documents/paolo/notes");
+		assertEquals(notes.plainJsonToString(), response[1]);
+	}
+	
+	@Test
+	public void testConcurrentRequestsAndMetrics() throws Exception {
+		System.out.println("-----------------------------------");
+		System.out.println(" testConcurrentRequestsAndMetrics()");
+		System.out.println("-----------------------------------");
+		System.out.println(" * Virtual threads: " + server.isUsingVirtualThreads());
+		
+		final int threads = 8, requests = 25;
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] clients = new Thread[threads];
+		for(int t=0; t<threads; t++) {
+			clients[t] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for(int i=0; i<requests; i++) {
+							if(!"200".equals(request("/documents/paolo/lastName")[0])) failures.incrementAndGet();
+						}
+					} catch (IOException e) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+			clients[t].start();
+		}
+		for(Thread client: clients) client.join();
+		assertEquals(0, failures.get());
+		request("/documents/unknown");
+		
+		RequestMetrics metrics = server.getMetrics();
+		System.out.println(" * Checking metrics > " + metrics);
+		assertEquals(threads*requests + 1, metrics.getRequestCount());
+		assertEquals(1, metrics.getClientErrorCount());
+		assertEquals(0, metrics.getServerErrorCount());
+		assertTrue(metrics.getPercentileNanos(50)<=metrics.getPercentileNanos(99));
+		assertTrue(metrics.getPercentileNanos(99)<=metrics.getMaxNanos());
+		
+		String[] response = request("/metrics");
+		assertEquals("200", response[0]);
+		assertEquals(Long.valueOf(threads*requests + 1), ((JSONObject) JSONValue.parse(response[1])).get("requests"));
+	}
+	
+	@Test
+	public void testWritesHoldTheDocumentLock() throws Exception {
+		System.out.println("-----------------------------------");
+		System.out.println(" testWritesHoldTheDocumentLock()");
+		System.out.println("-----------------------------------");
+		
+		final String[][] response = new String[1][];
+		Lock lock = server.getRegistry().getLock("paolo");
+		lock.lock();
+		Thread client;
+		try {
+			client = new Thread(new Runnable() {
+				public void run() {
+					try {
+						response[0] = request("/documents/paolo/middleName");
+					} catch (IOException e) {
+						response[0] = new String[] { "IOException", e.getMessage() };
+					}
+				}
+			});
+			client.start();
+			client.join(200);
+			System.out.println(" * Checking the request waits for the writer");
+			assertTrue(client.isAlive());
+			server.getRegistry().get("paolo").put("middleName", "Nunzio");
+		} finally {
+			lock.unlock();
+		}
+		client.join();
+		assertEquals("200", response[0][0]);
+		assertEquals("\"Nunzio\"", response[0][1]);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpArchiveTest {
+
+	private File directory;
+	
+	@BeforeClass public static void initialize() {
+		System.out.println("==================================");
+		System.out.println(" Testing of JsonDpArchive classes");
+		System.out.println("==================================");
+	}
+	
+	@Before public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("json-dp-archive").toFile();
+	}
+	
+	@After public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if(files!=null) for(File file: files) file.delete();
+		directory.delete();
+	}
+	
+	private static JsonDpObject record(int i) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "source" + i%7);
+		JsonDpObject document = new JsonDpObject();
+		document.put("id", "record" + i);
+		document.put("name", "Paolo " + i, provenance);
+		return document;
+	}
+	
+	private File write(int records, int blockSize, int threads) throws IOException {
+		File file = new File(directory, "records.jdpa");
+		JsonDpArchiveWriter writer = new JsonDpArchiveWriter(file, blockSize, threads, Deflater.BEST_SPEED);
+		try {
+			for(int i=0; i<records; i++) assertEquals(i, writer.append(record(i)));
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+	
+	@Test
+	public void testRandomAccess() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testRandomAccess()");
+		System.out.println("---------------------------");
+		
+		File file = write(5000, 4096, 4);
+		JsonDpArchiveReader reader = new JsonDpArchiveReader(file);
+		try {
+			System.out.println(" * Checking size and blocks > " + reader.getBlockCount() + " blocks, " + file.length() + " bytes");
+			assertEquals(5000, reader.size());
+			assertTrue(reader.getBlockCount()>10);
+			
+			System.out.println(" * Checking that one lookup inflates one block");
+			assertEquals(record(3210).plainJsonWithProvenanceToString(), reader.get(3210).plainJsonWithProvenanceToString());
+			assertEquals(1, reader.getInflatedBlocks());
+			assertEquals(record(3211).plainJsonWithProvenanceToString(), reader.get(3211).plainJsonWithProvenanceToString());
+			assertEquals(1, reader.getInflatedBlocks());
+			
+			System.out.println(" * Checking first and last records");
+			assertEquals(record(0).plainJsonWithProvenanceToString(), reader.get(0).plainJsonWithProvenanceToString());
+			assertEquals(record(4999).plainJsonWithProvenanceToString(), reader.get(4999).plainJsonWithProvenanceToString());
+			
+			try {
+				reader.get(5000);
+				fail("Expected IndexOutOfBoundsException");
+			} catch (IndexOutOfBoundsException e) {
+				System.out.println(" * Checking out of bounds > " + e.getMessage());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void testParallelScan() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testParallelScan()");
+		System.out.println("---------------------------");
+		
+		File file = write(3000, 2048, 3);
+		JsonDpArchiveReader reader = new JsonDpArchiveReader(file);
+		try {
+			for(int threads: new int[] { 1, 4 }) {
+				System.out.println(" * Checking ordered scan on " + threads + " threads");
+				final List<JsonDpObject> scanned = new ArrayList<JsonDpObject>();
+				reader.forEach(threads, new Consumer<JsonDpObject>() {
+					public void accept(JsonDpObject document) {
+						scanned.add(document);
+					}
+				});
+				assertEquals(3000, scanned.size());
+				for(int i=0; i<scanned.size(); i++) {
+					assertEquals(record(i).plainJsonWithProvenanceToString(), scanned.get(i).plainJsonWithProvenanceToString());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void testEmptyAndCorruptedArchives() throws IOException {
+		System.out.println("---------------------------------");
+		System.out.println(" testEmptyAndCorruptedArchives()");
+		System.out.println("---------------------------------");
+		
+		File file = write(0, 1024, 1);
+		JsonDpArchiveReader reader = new JsonDpArchiveReader(file);
+		assertEquals(0, reader.size());
+		assertEquals(0, reader.getBlockCount());
+		reader.close();
+		
+		System.out.println(" * Checking corrupted block");
+		file = write(100, 1024, 2);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(40);
+			raf.write(raf.read() ^ 0xff);
+		} finally {
+			raf.close();
+		}
+		reader = new JsonDpArchiveReader(file);
+		try {
+			reader.get(0);
+			fail("Expected IOException");
+		} catch (IOException e) {
+			System.out.println(" > " + e.getMessage());
+		} finally {
+			reader.close();
+		}
+		
+		System.out.println(" * Checking truncated archive");
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+		try {
+			new JsonDpArchiveReader(file).close();
+			fail("Expected IOException");
+		} catch (IOException e) {
+			System.out.println(" > " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import info.paolociccarese.project.jsondp.java.core.JsonDpObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class JsonDpStoreTest {
+
+	private File directory;
+	
+	@BeforeClass public static void initialize() {
+		System.out.println("================================");
+		System.out.println(" Testing of JsonDpStore class ");
+		System.out.println("================================");
+	}
+	
+	@Before public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("json-dp-store").toFile();
+	}
+	
+	@After public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if(files!=null) for(File file: files) file.delete();
+		directory.delete();
+	}
+	
+	private JsonDpObject person(String name, String source) {
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", source);
+		JsonDpObject jpo = new JsonDpObject();
+		jpo.put("name", name, provenance);
+		return jpo;
+	}
+	
+	@Test
+	public void testPutGetAndReopen() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testPutGetAndReopen()");
+		System.out.println("---------------------------");
+		
+		JsonDpStore store = new JsonDpStore(directory);
+		store.put("p1", person("Paolo", "Public Record"));
+		store.put("p2", person("Nunzio", "Friends"));
+		store.put("p1", person("Paolo N", "Friends"));
+		store.delete("p2");
+		
+		assertEquals("Paolo N", store.get("p1").get("name"));
+		assertNull(store.get("p2"));
+		assertEquals(1, store.size());
+		store.close();
+		
+		System.out.println(" * Reopening the store");
+		store = new JsonDpStore(directory);
+		assertEquals("Paolo N", store.get("p1").get("name"));
+		assertFalse(store.contains("p2"));
+		assertTrue(store.findByProvenance("importedFrom", "Friends").contains("p1"));
+		assertTrue(store.findByProvenance("importedFrom", "Public Record").isEmpty());
+		store.close();
+	}
+	
+	@Test
+	public void testProvenanceIndex() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testProvenanceIndex()");
+		System.out.println("---------------------------");
+		
+		JsonDpStore store = new JsonDpStore(directory);
+		List<Future<Void>> writes = new ArrayList<Future<Void>>();
+		for(int i=0; i<100; i++) {
+			writes.add(store.putAsync("p" + i, person("Person " + i, i%2==0 ? "Even" : "Odd")));
+		}
+		for(Future<Void> write: writes) {
+			try { write.get(); } catch (Exception e) { throw new IOException(e); }
+		}
+		assertEquals(50, store.findByProvenance("importedFrom", "Even").size());
+		assertEquals(50, store.getByProvenance("importedFrom", "Odd").size());
+		assertEquals("Person 3", store.getByProvenance("importedFrom", "Odd").get("p3").get("name"));
+		store.close();
+	}
+	
+	@Test
+	public void testCompaction() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testCompaction()");
+		System.out.println("---------------------------");
+		
+		JsonDpStore store = new JsonDpStore(directory, 512, 16);
+		for(int round=0; round<10; round++) {
+			for(int i=0; i<10; i++) {
+				store.put("p" + i, person("Person " + i + "." + round, "Public Record"));
+			}
+		}
+		store.delete("p0");
+		assertTrue(store.getGarbageRatio() > 0.5);
+		int before = directory.listFiles().length;
+		assertTrue(store.compactIfNeeded(0.5));
+		System.out.println(" * Segments before/after compaction: " + before + "/" + directory.listFiles().length);
+		assertTrue(directory.listFiles().length < before);
+		assertEquals("Person 5.9", store.get("p5").get("name"));
+		store.close();
+		
+		store = new JsonDpStore(directory, 512, 16);
+		assertEquals(9, store.size());
+		assertNull(store.get("p0"));
+		assertEquals("Person 9.9", store.get("p9").get("name"));
+		assertEquals(9, store.findByProvenance("importedFrom", "Public Record").size());
+		store.close();
+	}
+	
+	@Test
+	public void testCompactionDropsTombstones() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testCompactionDropsTombstones()");
+		System.out.println("---------------------------");
+		
+		JsonDpStore store = new JsonDpStore(directory, 512, 16);
+		for(int i=0; i<10; i++) {
+			store.put("removed", person("Removed " + i, "Public Record"));
+		}
+		store.delete("removed");
+		for(int i=0; i<10; i++) {
+			store.put("p" + i, person("Person " + i, "Public Record"));
+		}
+		store.compact();
+		System.out.println(" * Tombstone kept while the compacted records held the id: " + 
+			segmentsContain("removed"));
+		for(int i=0; i<10; i++) {
+			store.put("p" + i, person("Person " + i + ".1", "Public Record"));
+		}
+		store.compact();
+		assertFalse(segmentsContain("removed"));
+		store.close();
+		
+		store = new JsonDpStore(directory, 512, 16);
+		assertFalse(store.contains("removed"));
+		assertEquals(10, store.size());
+		assertEquals("Person 3.1", store.get("p3").get("name"));
+		store.close();
+	}
+	
+	private boolean segmentsContain(String text) throws IOException {
+		for(File file: directory.listFiles()) {
+			if(new String(Files.readAllBytes(file.toPath()), "UTF-8").contains(text)) return true;
+		}
+		return false;
+	}
+	
+	@Test
+	public void testDeepDocument() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testDeepDocument()");
+		System.out.println("---------------------------");
+		
+		int depth = 100000;
+		JSONObject provenance = new JSONObject();
+		provenance.put("importedFrom", "Public Record");
+		JsonDpObject document = person("Paolo", "Public Record");
+		for(int i=0; i<depth; i++) {
+			JsonDpObject parent = new JsonDpObject();
+			parent.put("child", document, provenance);
+			document = parent;
+		}
+		
+		JsonDpStore store = new JsonDpStore(directory);
+		store.put("deep", document);
+		store.close();
+		
+		System.out.println(" * Reopening the store with a document " + depth + " levels deep");
+		store = new JsonDpStore(directory);
+		JsonDpObject node = store.get("deep");
+		for(int i=0; i<depth; i++) {
+			node = (JsonDpObject) node.get("child");
+		}
+		assertEquals("Paolo", node.get("name"));
+		store.close();
+	}
+}
@@ -0,0 +1,146 @@
+/*
+* Copyright 2014 Paolo Ciccarese
+*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package info.paolociccarese.project.jsondp.java.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import info.paolociccarese.project.jsondp.java.core.JsonDpArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Dr. Paolo Ciccarese
+ */
+public class SpillingJsonDpArrayTest {
+
+	private File directory;
+	
+	@BeforeClass public static void initialize() {
+		System.out.println("=======================================");
+		System.out.println(" Testing of SpillingJsonDpArray class ");
+		System.out.println("=======================================");
+	}
+	
+	@Before public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("json-dp-spill").toFile();
+	}
+	
+	@After public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if(files!=null) for(File file: files) file.delete();
+		directory.delete();
+	}
+	
+	@Test
+	public void testSpillAndPageIn() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testSpillAndPageIn()");
+		System.out.println("---------------------------");
+		
+		SpillingJsonDpArray array = new SpillingJsonDpArray(directory, 10, 2);
+		JsonDpArray reference = new JsonDpArray();
+		for(int i=0; i<95; i++) {
+			if(i%3==0) {
+				JSONObject provenance = new JSONObject();
+				provenance.put("importedFrom", "source" + (i%7));
+				array.add("item" + i, provenance);
+				reference.add("item" + i, provenance);
+			} else {
+				array.add("item" + i);
+				reference.add("item" + i);
+			}
+		}
+		System.out.println(" * Checking size and resident segments (<=2)");
+		assertEquals(95, array.size());
+		assertTrue(array.getResidentSegments()<=2);
+		assertTrue(array.getSpillCount()>0);
+		
+		System.out.println(" * Checking random access");
+		assertEquals("item0", array.get(0));
+		assertEquals("item47", array.get(47));
+		assertEquals("item94", array.get(94));
+		assertTrue(array.getPageInCount()>0);
+		assertTrue(array.getResidentSegments()<=2);
+		
+		System.out.println(" * Checking serialization against a JsonDpArray");
+		assertEquals(reference.plainJsonToString(), array.plainJsonToString());
+		assertEquals(reference.plainJsonWithProvenanceToString(), array.plainJsonWithProvenanceToString());
+		
+		System.out.println(" * Checking iteration");
+		int i = 0;
+		for(Object item: array) assertEquals("item" + i++, item);
+		assertEquals(95, i);
+		
+		array.close();
+		System.out.println(" * Checking spill file deleted");
+		assertEquals(0, directory.listFiles().length);
+	}
+	
+	@Test
+	public void testReplaceSpilledSegment() throws IOException {
+		System.out.println("---------------------------");
+		System.out.println(" testReplaceSpilledSegment()");
+		System.out.println("---------------------------");
+		
+		SpillingJsonDpArray array = new SpillingJsonDpArray(directory, 4, 2);
+		for(int i=0; i<20; i++) array.add("item" + i);
+		
+		array.replace(1, "one");
+		// Touches other segments so that the modified one is spilled again
+		array.get(9);
+		array.get(13);
+		System.out.println(" * Checking replaced value after re-spill");
+		assertEquals("one", array.get(1));
+		assertTrue(array.getGarbageBytes()>0);
+		
+		System.out.println(" * Checking the freed space is reused");
+		long spillFileBytes = array.getSpillFileBytes();
+		for(int round=0; round<50; round++) {
+			array.replace(1, "one" + (round%2));
+			array.get(9);
+			array.get(13);
+		}
+		assertEquals("one1", array.get(1));
+		System.out.println(" Spill file " + array.getSpillFileBytes() + " bytes, " + array.getGarbageBytes() + " free");
+		assertTrue(array.getSpillFileBytes() <= 2*spillFileBytes);
+		assertTrue(array.getGarbageBytes() < array.getSpillFileBytes());
+		array.close();
+	}
+	
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void testIndexOutOfBounds() throws IOException {
+		SpillingJsonDpArray array = new SpillingJsonDpArray(directory, 4, 2);
+		try {
+			array.add("Paolo");
+			array.get(1);
+		} finally {
+			array.close();
+		}
+	}
+}